@@ -2,81 +2,168 @@ package com.comet.controller;
 
 import org.controlsfx.control.Notifications;
 
-import com.comet.db.DatabaseManager;
+import com.comet.db.cache.RecentMessageCache;
+import com.comet.db.cache.UserProfileCache;
+import com.comet.db.model.Attachment;
+import com.comet.db.model.ChatDelta;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Contact;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.MessageChange;
+import com.comet.db.model.Presence;
+import com.comet.db.model.Receipt;
+import com.comet.db.model.TypingIndicator;
+import com.comet.db.model.UserProfile;
 import com.comet.db.repository.ChatRepository;
 import com.comet.db.repository.ContactRepository;
+import com.comet.db.repository.ReceiptRepository;
 import com.comet.db.repository.UserRepository;
+import com.comet.db.store.LocalChatStore;
+import com.comet.demo.core.Protocol;
+import com.comet.demo.core.client.AvatarCache;
 import com.comet.demo.core.client.ChatClient;
+import com.comet.demo.core.client.ChatDataService;
+import com.comet.demo.core.client.ContactListCell;
+import com.comet.demo.core.client.ConversationListCell;
+import com.comet.demo.core.client.MessageList;
 import com.comet.demo.core.client.ProfileDialog;
+import com.comet.demo.core.client.PulseBatcher;
+import com.comet.demo.core.client.ReconnectBackoff;
+import com.comet.demo.core.client.SearchDialog;
+import javafx.animation.Animation;
+import javafx.animation.PauseTransition;
 import javafx.application.Platform;
 import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
-import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.stage.FileChooser;
+import javafx.stage.Window;
 import javafx.util.Pair;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.handshake.ServerHandshake;
 
+import java.io.File;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static com.comet.demo.core.client.ChatDataService.onFxThread;
 
 public class ChatController {
+    private static final double PROFILE_AVATAR_SIZE = 64;
+    private static final double NOTIFICATION_AVATAR_SIZE = 32;
+    private static final javafx.util.Duration NOTIFICATION_INTERVAL = javafx.util.Duration.seconds(1);
+    // Enough to fill the window several times over, small enough to keep a frame short
+    private static final int MAX_INCOMING_PER_FRAME = 200;
+
     private WebSocketClient webSocketClient;
+    private final ReconnectBackoff webSocketBackoff = ReconnectBackoff.fromEnvironment();
+    private ScheduledExecutorService webSocketReconnector;
+    // Set once the window is closing, so dropped connections are not re-established
+    private volatile boolean closing;
 
     private ChatClient chatClient;
     private String username;
-    private String password; // Store the password
+    private String password;
 
-    @FXML private ListView<String> contactListView;
-    @FXML private ListView<String> chatListView;
+    @FXML private ListView<Contact> contactListView;
+    @FXML private ListView<ConversationSummary> chatListView;
     @FXML private ImageView userImageView;
     @FXML private Label userDisplayName;
 
-    @FXML private TextArea chatArea;
+    @FXML private ListView<Message> messageListView;
     @FXML private TextField messageField;
     @FXML private Label currentChatLabel;
+    @FXML private Label receiptLabel;
+    @FXML private Label typingLabel;
 
     private int currentUserId;
-    // private int currentChatId;
 
-    private UserRepository userRepository;
-    private ChatRepository chatRepository;
-    private ContactRepository contactRepository;
+    private ChatDataService dataService;
+    private final RecentMessageCache messageCache = RecentMessageCache.getInstance();
+    private final AvatarCache avatars = AvatarCache.getInstance();
 
-    // Track chat type for current selection
-    private enum ChatType { NONE, PRIVATE, GROUP }
-    private ChatType currentChatType = ChatType.NONE;
-    private int currentPrivateChatId = -1;
-    private int currentGroupChatId = -1;
+    // The open chat, or null if none is selected
+    private ChatKey currentChat;
+    // Delivery and read marks of the open chat's members, by user ID
+    private final Map<Integer, Receipt> currentReceipts = new HashMap<>();
+    // The user's newest message in the open chat, whose status the receipt label shows
+    private long lastOwnMessageId;
+    // Presence reported by the server, by user ID; users not in the map are offline
+    private final Map<Integer, Presence> presences = new HashMap<>();
+    // Members typing in the open chat: when their indicator expires, and their display names
+    private final Map<Integer, Long> typingUntil = new HashMap<>();
+    private final Map<Integer, String> typingNames = new HashMap<>();
+    // The history of the open chat; only the visible rows are laid out
+    private MessageList messageList;
+    // The chat whose history the message list holds, which can lag behind currentChat while it loads
+    private ChatKey shownChat;
+    // What this client last showed the user, painted before the server answers
+    private LocalChatStore localStore;
+    // Messages and legacy lines from the chat client, shown once per frame
+    private final PulseBatcher<Message> incoming = new PulseBatcher<>(MAX_INCOMING_PER_FRAME, this::onIncoming);
+    // The newest incoming message not yet notified about, and how many arrived since the last notification
+    private String unannouncedSender;
+    private String unannouncedText;
+    private int unannouncedCount;
+    private final PauseTransition notificationPause = new PauseTransition(NOTIFICATION_INTERVAL);
+    // Temporary ID of the next local echo; negative, so it never collides with a stored message
+    private long nextPendingId = -1;
+    // Set while list items are replaced, so the selection listeners ignore the transient changes
+    private boolean updatingSelection;
 
     /**
-     * Sets the user credentials and initializes repositories and UI state for the chat controller.
+     * Sets the authenticated session and initializes repositories and UI state for the chat controller.
      *
+     * @param userId the ID of the authenticated user
      * @param username the username of the user
-     * @param password the password of the user
+     * @param password the password, exchanged for a session token on the first server connection
      */
-    public void setUserCredentials(String username, String password) {
+    public void setSession(int userId, String username, String password) {
         this.username = username;
         this.password = password;
+        this.currentUserId = userId;
 
-        this.userRepository = new UserRepository();
-        this.chatRepository = new ChatRepository();
-        this.contactRepository = new ContactRepository();
-
-        this.currentUserId = this.userRepository.getUserId(username, password);
+        this.dataService = new ChatDataService(new UserRepository(), new ChatRepository(), new ContactRepository(), new ReceiptRepository());
         initializeChatClient();
 
         // Set initial UI state to reflect no chat is selected
         currentChatLabel.setText("No chat selected");
-        chatArea.clear();
+        messageList = new MessageList(messageListView, ChatRepository.DEFAULT_PAGE_SIZE, new MessageList.Actions() {
+            @Override
+            public boolean canChange(Message message) {
+                return message.senderId() == currentUserId;
+            }
+
+            @Override
+            public void edit(Message message) {
+                handleEditMessage(message);
+            }
+
+            @Override
+            public void delete(Message message) {
+                handleDeleteMessage(message);
+            }
+        });
 
+        notificationPause.setOnFinished(event -> flushNotifications());
+        contactListView.setCellFactory(view -> new ContactListCell());
+        chatListView.setCellFactory(view -> new ConversationListCell());
+        registerSelectionListeners();
+        messageField.textProperty().addListener((observable, oldValue, newValue) -> {
+            if (currentChat != null && chatClient != null && !newValue.isBlank()) chatClient.sendTyping(currentChat);
+        });
+        localStore = LocalChatStore.forUser(userId);
+        showSnapshot(localStore.loadSnapshot());
+        // Reconcile with the server in the background
         loadChats();
         loadContacts();
         loadUserProfile(currentUserId);
@@ -94,6 +181,13 @@ public class ChatController {
                 @Override
                 public void onOpen(ServerHandshake handshakedata) {
                     System.out.println("Connected to WebSocket server");
+                    boolean reconnected;
+                    synchronized (webSocketBackoff) {
+                        reconnected = webSocketBackoff.attempts() > 0;
+                        webSocketBackoff.reset();
+                    }
+                    // Refresh events sent while the connection was down are lost, so catch up once
+                    if (reconnected) Platform.runLater(() -> catchUp());
                 }
 
                 @Override
@@ -102,18 +196,16 @@ public class ChatController {
                     System.out.println("Received WebSocket message: " + message);
                     Platform.runLater(() -> {
                         // Refresh chats or handle specific messages
-                        if (message.equals("refresh_chats")) {
+                        if (message.equals(Protocol.REFRESH_CHATS)) {
                             loadChats();
-                            // If a group chat is open, reload its messages
-                            if (currentChatType == ChatType.GROUP && currentGroupChatId != -1) {
-                                loadGroupMessages(currentGroupChatId);
+                            // Another client wrote to the database directly; fetch only what changed since the last sync
+                            if (currentChat != null) {
+                                syncMessages(currentChat, false);
                             }
-                            // If a private chat is open, reload its messages
-                            if (currentChatType == ChatType.PRIVATE && currentPrivateChatId != -1) {
-                                loadPrivateMessages(currentPrivateChatId);
-                            }
-                        } else if (message.equals("refresh_contacts")) {
+                        } else if (message.equals(Protocol.REFRESH_CONTACTS)) {
                             loadContacts();
+                        } else if (message.startsWith(Protocol.PROFILE_UPDATED_PREFIX)) {
+                            onProfileUpdated(message.substring(Protocol.PROFILE_UPDATED_PREFIX.length()));
                         }
                     });
                 }
@@ -121,6 +213,7 @@ public class ChatController {
                 @Override
                 public void onClose(int code, String reason, boolean remote) {
                     System.out.println("Disconnected from WebSocket server");
+                    if (!closing) scheduleWebSocketReconnect();
                 }
 
                 @Override
@@ -135,12 +228,73 @@ public class ChatController {
     }
 
     /**
-     * Closes the WebSocket connection if it is open.
+     * Reconnects the WebSocket client after a growing, randomized delay. A failed attempt closes the connection
+     * again, which schedules the next one.
+     */
+    private void scheduleWebSocketReconnect() {
+        long delay;
+        synchronized (webSocketBackoff) {
+            delay = webSocketBackoff.nextDelay(0);
+            if (webSocketReconnector == null) {
+                webSocketReconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "websocket-reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        // reconnect() must not run on the WebSocket client's own threads
+        webSocketReconnector.schedule(() -> {
+            if (!closing) webSocketClient.reconnect();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Callback for the chat connection dropping or coming back. While it is down nobody's presence is known; once
+     * it is back, the server has replayed missed messages and presence, and only previews and the open chat's
+     * edits need a sync.
+     */
+    private void onConnectionChanged(boolean connected) {
+        Platform.runLater(() -> {
+            if (connected) {
+                catchUp();
+                return;
+            }
+            presences.clear();
+            clearTyping();
+            List<Contact> contacts = contactListView.getItems().stream()
+                    .map(contact -> contact.withPresence(Presence.OFFLINE))
+                    .toList();
+            replaceItems(contactListView, contacts, Contact::id);
+        });
+    }
+
+    /**
+     * Fetches what changed while a connection was down, without reloading anything else.
+     */
+    private void catchUp() {
+        loadChats();
+        loadContacts();
+        if (currentChat != null) syncMessages(currentChat, false);
+    }
+
+    /**
+     * Ends the chat session, revoking its token, and closes the WebSocket connection if it is open.
      */
     public void close() {
+        closing = true;
+        if (webSocketReconnector != null) {
+            webSocketReconnector.shutdownNow();
+        }
+        if (chatClient != null) {
+            chatClient.logout();
+        }
         if (webSocketClient != null) {
             webSocketClient.close();
         }
+        if (dataService != null) {
+            dataService.close();
+        }
     }
 
     /**
@@ -154,164 +308,314 @@ public class ChatController {
         try {
             connectWebSocket();
             chatClient = new ChatClient("localhost", 12345, username, password, this::onMessageReceived);
+            chatClient.setChatMessageHandler(this::onChatMessage);
+            chatClient.setReceiptHandler(this::onReceipt);
+            chatClient.setPresenceHandler(this::onPresence);
+            chatClient.setTypingHandler(this::onTyping);
+            chatClient.setConnectionHandler(this::onConnectionChanged);
             chatClient.start();
         } catch (Exception e) {
-            Platform.runLater(() -> chatArea.appendText("Failed to connect to the chat server: " + e.getMessage() + "\n"));
+            Platform.runLater(() -> messageList.append(MessageList.notice("Failed to connect to the chat server: " + e.getMessage())));
             e.printStackTrace();
         }
     }
 
+    /**
+     * Paints the side bars from the local store, so the window is filled before the server answers.
+     *
+     * @param snapshot what the client showed the user last time
+     */
+    private void showSnapshot(LocalChatStore.Snapshot snapshot) {
+        if (snapshot.profile() != null) showProfile(snapshot.profile());
+        replaceItems(contactListView, snapshot.contacts(), Contact::id);
+        replaceItems(chatListView, snapshot.conversations(), ConversationSummary::chat);
+    }
+
+    private void showProfile(UserProfile profile) {
+        userDisplayName.setText(profile.displayName());
+        if (profile.imageUrl() != null) {
+            avatars.bind(userImageView, profile.imageUrl(), PROFILE_AVATAR_SIZE);
+        }
+    }
+
     /**
      * Loads the user's profile information and updates the UI.
      *
      * @param userId the ID of the user whose profile is to be loaded
      */
     private void loadUserProfile(int userId) {
-        String query = "SELECT display_name, image_url FROM users WHERE id = ?";
-        try (
-            Connection connection = DatabaseManager.getInstance().getConnection();
-            PreparedStatement stmt = connection.prepareStatement(query)
-        ) {
-            stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                userDisplayName.setText(rs.getString("display_name"));
-                String imageUrl = rs.getString("image_url");
-                if (imageUrl != null) {
-                    Image image = new Image(imageUrl);
-                    userImageView.setImage(image);
-                }
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        onFxThread(dataService.loadUserProfile(userId), profile -> {
+            if (profile == null) return;
+            showProfile(profile);
+            localStore.saveProfile(profile);
+        });
     }
 
     /**
-     * Loads the list of chats for the current user and sets up the chat selection listener.
+     * Handles a profile change announced by another client: drops the stale profile and the cached
+     * message pages that show the old display name, then refreshes the views that display it.
+     *
+     * @param userIdText the ID of the user whose profile changed
      */
-    private void loadChats() {
-        // Load group chats only
-        List<String> groupChats = new ArrayList<>();
+    private void onProfileUpdated(String userIdText) {
+        int userId;
         try {
-            groupChats = chatRepository.getGroupChatsForUser(currentUserId);
-        } catch (SQLException e) {
-            e.printStackTrace();
+            userId = Integer.parseInt(userIdText.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Ignoring malformed profile update: " + userIdText);
+            return;
+        }
+        UserProfileCache.getInstance().invalidate(userId);
+        messageCache.clear();
+        localStore.clearChats();
+        loadContacts();
+        if (currentChat != null) {
+            loadMessages(currentChat);
         }
-        ObservableList<String> observableChats = FXCollections.observableArrayList(groupChats);
-        chatListView.setItems(observableChats);
-        chatListView.getSelectionModel().clearSelection();
-        // Listener for group chat selection
+    }
+
+    /**
+     * Registers the chat list and contact selection listeners. Called once per session; the lists
+     * themselves are refreshed by {@link #loadChats()} and {@link #loadContacts()}.
+     */
+    private void registerSelectionListeners() {
+        // Listener for chat list selection
         chatListView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+            if (updatingSelection) return;
             if (newValue != null) {
-                currentChatLabel.setText(newValue);
-                try {
-                    int groupId = chatRepository.getGroupChatIdByName(newValue);
-                    currentGroupChatId = groupId;
-                    currentPrivateChatId = -1;
-                    currentChatType = ChatType.GROUP;
-                    loadGroupMessages(currentGroupChatId);
-                    // Deselect contact list to allow switching back to contacts
-                    contactListView.getSelectionModel().clearSelection();
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            } else {
-                currentChatLabel.setText("No chat selected");
-                chatArea.clear();
-                currentGroupChatId = -1;
-                currentChatType = ChatType.NONE;
+                onConversationSelected(newValue);
+            } else if (oldValue != null && oldValue.chat().equals(currentChat)) {
+                closeCurrentChat("No chat selected");
             }
         });
 
         // Listener for private chat selection
         contactListView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
+            if (updatingSelection) return;
             if (newValue != null) {
-                currentChatLabel.setText("Chat with " + newValue);
-                int contactId = userRepository.getUserIdByDisplayName(newValue);
-                if (contactId != -1) {
-                    try {
-                        int privateChatId = chatRepository.getPrivateChatId(currentUserId, contactId);
-                        if (privateChatId == -1) {
-                            privateChatId = chatRepository.createPrivateChat(currentUserId, contactId);
-                        }
-                        currentPrivateChatId = privateChatId;
-                        currentGroupChatId = -1;
-                        currentChatType = ChatType.PRIVATE;
-                        loadPrivateMessages(currentPrivateChatId);
-                        // Deselect group chat to allow switching back to groups
-                        chatListView.getSelectionModel().clearSelection();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                currentChatLabel.setText("No contact selected");
-                chatArea.clear();
-                currentPrivateChatId = -1;
-                currentChatType = ChatType.NONE;
+                onContactSelected(newValue);
+            } else if (currentChat != null && currentChat.type() == ChatType.PRIVATE) {
+                closeCurrentChat("No contact selected");
             }
         });
     }
 
-    /**
-     * Loads the list of contacts for the current user and sets up the contact selection listener.
-     */
-    private void loadContacts() {
-        List<String> contacts = contactRepository.getContactNamesForUser(currentUserId);
-        ObservableList<String> observableContacts = FXCollections.observableArrayList(contacts);
-        contactListView.setItems(observableContacts);
-        // Listener for private chat selection
-        contactListView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
-            if (newValue != null) {
-                currentChatLabel.setText("Chat with " + newValue);
-                int contactId = userRepository.getUserIdByDisplayName(newValue);
-                if (contactId != -1) {
-                    try {
-                        int privateChatId = chatRepository.getPrivateChatId(currentUserId, contactId);
-                        if (privateChatId == -1) {
-                            privateChatId = chatRepository.createPrivateChat(currentUserId, contactId);
-                        }
-                        currentPrivateChatId = privateChatId;
-                        currentGroupChatId = -1;
-                        currentChatType = ChatType.PRIVATE;
-                        loadPrivateMessages(currentPrivateChatId);
-                        // Deselect group chat to allow switching back to groups
-                        chatListView.getSelectionModel().clearSelection();
-                    } catch (SQLException e) {
-                        e.printStackTrace();
-                    }
-                }
-            } else {
-                currentChatLabel.setText("No contact selected");
-                chatArea.clear();
-                currentPrivateChatId = -1;
-                currentChatType = ChatType.NONE;
+    private void onConversationSelected(ConversationSummary conversation) {
+        boolean privateChat = conversation.chat().type() == ChatType.PRIVATE;
+        currentChatLabel.setText(privateChat ? "Chat with " + conversation.title() : conversation.title());
+        // Deselect contact list to allow switching back to contacts
+        clearSelectionQuietly(contactListView);
+        openChat(conversation.chat());
+    }
+
+    private void onContactSelected(Contact contact) {
+        currentChatLabel.setText("Chat with " + contact.displayName());
+        // Deselect the chat list to allow switching back to it
+        clearSelectionQuietly(chatListView);
+        onFxThread(dataService.openPrivateChat(currentUserId, contact.id()), privateChatId -> {
+            Contact selected = contactListView.getSelectionModel().getSelectedItem();
+            if (selected == null || selected.id() != contact.id()) return;
+            openChat(new ChatKey(ChatType.PRIVATE, privateChatId));
+        });
+    }
+
+    private void openChat(ChatKey chat) {
+        currentChat = chat;
+        clearTyping();
+        currentReceipts.clear();
+        lastOwnMessageId = 0;
+        updateReceiptLabel();
+        // Show the page saved last time as soon as it is read from disk, then fetch only what changed since
+        onFxThread(dataService.submit(() -> localStore.loadChat(chat)), saved -> {
+            if (!chat.equals(currentChat)) return;
+            if (saved != null && !saved.messages().isEmpty()) {
+                showHistory(chat, new ChatDelta(saved.messages(), List.of(), saved.changeSeq(), true));
+                chatClient.markRead(chat, saved.messages().getLast().id());
+            }
+            syncMessages(chat, false);
+        });
+        // The chat list shows the unread count, which is now zero
+        onFxThread(dataService.markConversationRead(currentUserId, chat), ignored -> loadChats());
+        onFxThread(dataService.loadReceipts(chat), receipts -> {
+            if (!chat.equals(currentChat)) return;
+            for (Receipt receipt : receipts) {
+                currentReceipts.merge(receipt.userId(), receipt, Receipt::merge);
             }
+            updateReceiptLabel();
         });
     }
 
-    private void loadPrivateMessages(int privateChatId) {
-        chatArea.clear();
+    private void closeCurrentChat(String label) {
+        currentChatLabel.setText(label);
+        messageList.clear();
+        currentChat = null;
+        shownChat = null;
+        clearTyping();
+        currentReceipts.clear();
+        lastOwnMessageId = 0;
+        updateReceiptLabel();
+    }
+
+    private void clearSelectionQuietly(ListView<?> view) {
+        updatingSelection = true;
         try {
-            List<String> messages = chatRepository.getPrivateMessages(privateChatId);
-            for (String msg : messages) {
-                chatArea.appendText(msg + "\n");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+            view.getSelectionModel().clearSelection();
+        } finally {
+            updatingSelection = false;
         }
     }
 
-    private void loadGroupMessages(int groupChatId) {
-        chatArea.clear();
+    /**
+     * Replaces the items of a list while keeping the selected item selected if it is still present.
+     *
+     * @param identity maps an item to the key that identifies it across reloads
+     */
+    private <T> void replaceItems(ListView<T> view, List<T> items, Function<T, ?> identity) {
+        T selected = view.getSelectionModel().getSelectedItem();
+        updatingSelection = true;
         try {
-            List<String> messages = chatRepository.getGroupMessages(groupChatId);
-            for (String msg : messages) {
-                chatArea.appendText(msg + "\n");
+            view.setItems(FXCollections.observableArrayList(items));
+            if (selected != null) {
+                Object key = identity.apply(selected);
+                items.stream()
+                        .filter(item -> key.equals(identity.apply(item)))
+                        .findFirst()
+                        .ifPresent(view.getSelectionModel()::select);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
+        } finally {
+            updatingSelection = false;
+        }
+    }
+
+    /**
+     * Loads the chat list of the current user, group and private chats alike.
+     */
+    private void loadChats() {
+        loadChats(null);
+    }
+
+    /**
+     * Loads the chat list of the current user, then optionally selects one of its chats.
+     *
+     * @param selectAfterLoad the chat to select once loaded, or null to keep the current selection
+     */
+    private void loadChats(ChatKey selectAfterLoad) {
+        onFxThread(dataService.loadConversations(currentUserId), conversations -> {
+            localStore.saveConversations(conversations);
+            replaceItems(chatListView, conversations, ConversationSummary::chat);
+            if (selectAfterLoad != null) {
+                conversations.stream()
+                        .filter(summary -> summary.chat().equals(selectAfterLoad))
+                        .findFirst()
+                        .ifPresent(chatListView.getSelectionModel()::select);
+            }
+        });
+    }
+
+    /**
+     * Loads the list of contacts for the current user.
+     */
+    private void loadContacts() {
+        onFxThread(dataService.loadContacts(currentUserId), contacts -> {
+            localStore.saveContacts(contacts);
+            replaceItems(contactListView, contacts.stream()
+                    .map(contact -> contact.withPresence(presences.getOrDefault(contact.id(), Presence.OFFLINE)))
+                    .toList(), Contact::id);
+        });
+    }
+
+    /**
+     * Loads the latest page of messages of a chat and shows it if the chat is still open by then.
+     *
+     * @param chat the chat to load
+     */
+    private void loadMessages(ChatKey chat) {
+        syncMessages(chat, true);
+    }
+
+    /**
+     * Brings the shown history of a chat up to date. Unless a reload is requested, only the messages after the
+     * newest one shown and the edits and deletions since the last sync are fetched and applied.
+     *
+     * @param chat the chat to sync
+     * @param reload whether to replace the shown history with the newest page
+     */
+    private void syncMessages(ChatKey chat, boolean reload) {
+        boolean incremental = !reload && chat.equals(shownChat);
+        Message newest = incremental ? messageList.newest() : null;
+        long changeSeq = incremental ? messageList.changeSeq() : 0;
+        onFxThread(dataService.syncMessages(chat, newest, changeSeq, ChatRepository.DEFAULT_PAGE_SIZE), delta -> {
+            if (!chat.equals(currentChat)) return;
+            // A delta only applies to the history it was computed from
+            if (!delta.reset() && !chat.equals(shownChat)) return;
+            if (delta.isEmpty()) return;
+            showHistory(chat, delta);
+            Message newestShown = messageList.newest();
+            if (newestShown != null) {
+                chatClient.markRead(chat, newestShown.id());
+            }
+            saveShownChat();
+        });
+    }
+
+    private void showHistory(ChatKey chat, ChatDelta delta) {
+        shownChat = chat;
+        for (Message msg : delta.messages()) {
+            if (msg.senderId() == currentUserId) lastOwnMessageId = Math.max(lastOwnMessageId, msg.id());
+        }
+        messageList.apply(delta, (oldest, limit) -> dataService.loadMessagesBefore(chat, oldest, limit));
+        updateReceiptLabel();
+    }
+
+    /**
+     * Saves the newest page of the shown chat to the local store, for painting it when the chat is opened next.
+     */
+    private void saveShownChat() {
+        if (shownChat == null) return;
+        List<Message> stored = messageList.messages().stream().filter(message -> message.id() > 0).toList();
+        int from = Math.max(0, stored.size() - ChatRepository.DEFAULT_PAGE_SIZE);
+        localStore.saveChat(shownChat, stored.subList(from, stored.size()), messageList.changeSeq());
+    }
+
+    /**
+     * Handles editing one of the user's own messages.
+     *
+     * @param message the message to edit
+     */
+    private void handleEditMessage(Message message) {
+        TextInputDialog dialog = new TextInputDialog(message.content());
+        dialog.setTitle("Edit Message");
+        dialog.setHeaderText("Edit your message:");
+        dialog.setContentText("Message:");
+        dialog.showAndWait().map(String::trim).filter(content -> !content.isEmpty() && !content.equals(message.content()))
+                .ifPresent(content -> onFxThread(dataService.editMessage(message, currentUserId, content), this::onOwnChange));
+    }
+
+    /**
+     * Handles deleting one of the user's own messages.
+     *
+     * @param message the message to delete
+     */
+    private void handleDeleteMessage(Message message) {
+        Alert confirm = new Alert(Alert.AlertType.CONFIRMATION, "Delete this message for everyone?", ButtonType.OK, ButtonType.CANCEL);
+        confirm.setTitle("Delete Message");
+        confirm.setHeaderText(null);
+        confirm.showAndWait().filter(ButtonType.OK::equals)
+                .ifPresent(button -> onFxThread(dataService.deleteMessage(message, currentUserId), this::onOwnChange));
+    }
+
+    private void onOwnChange(MessageChange change) {
+        if (change == null) {
+            System.err.println("Message not found.");
+            return;
+        }
+        if (change.chat().equals(shownChat)) {
+            messageList.applyChange(change);
+            saveShownChat();
+        }
+        // Other clients sync the change log of the open chat
+        if (webSocketClient != null && webSocketClient.isOpen()) {
+            webSocketClient.send(Protocol.REFRESH_CHATS);
         }
     }
 
@@ -325,16 +629,26 @@ public class ChatController {
         dialog.setHeaderText("Enter a name for the new group chat:");
         dialog.setContentText("Group Name:");
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(groupName -> {
-            try {
-                int groupId = chatRepository.createGroupChat(groupName, currentUserId);
-                chatRepository.addUserToGroup(groupId, currentUserId);
-                webSocketClient.send("refresh_chats");
-                loadChats();
-                chatListView.getSelectionModel().select(groupName);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        result.ifPresent(groupName -> onFxThread(dataService.createGroupChat(groupName, currentUserId), groupId -> {
+            webSocketClient.send(Protocol.REFRESH_CHATS);
+            loadChats(new ChatKey(ChatType.GROUP, groupId));
+        }));
+    }
+
+    /**
+     * Opens the message search and then the chat of the hit the user picked.
+     */
+    @FXML
+    private void handleSearch() {
+        SearchDialog dialog = new SearchDialog((query, offset, onLoaded) ->
+                onFxThread(dataService.searchMessages(currentUserId, query, SearchDialog.PAGE_SIZE, offset), onLoaded));
+        dialog.showAndWait().ifPresent(hit -> {
+            ChatKey chat = ChatKey.of(hit.message());
+            // A chat missing from the list is loaded again with the chat selected
+            chatListView.getItems().stream()
+                    .filter(summary -> summary.chat().equals(chat))
+                    .findFirst()
+                    .ifPresentOrElse(chatListView.getSelectionModel()::select, () -> loadChats(chat));
         });
     }
 
@@ -343,32 +657,27 @@ public class ChatController {
      */
     @FXML
     private void handleAddUser() {
-        if (currentChatType != ChatType.GROUP || currentGroupChatId == -1) {
+        if (currentChat == null || currentChat.type() != ChatType.GROUP) {
             System.err.println("No group chat selected.");
             return;
         }
+        int groupChatId = currentChat.chatId();
         TextInputDialog dialog = new TextInputDialog();
         dialog.setTitle("Add User to Group Chat");
         dialog.setHeaderText("Enter the username of the user to add:");
         dialog.setContentText("Username:");
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(username -> {
-            try {
-                int userId = userRepository.getUserIdByUsername(username);
-                if (userId != -1) {
-                    chatRepository.addUserToGroup(currentGroupChatId, userId);
-                    System.out.println("User added to group chat successfully.");
-                    // Notify all clients to refresh chats
-                    if (webSocketClient != null && webSocketClient.isOpen()) {
-                        webSocketClient.send("refresh_chats");
-                    }
-                } else {
-                    System.err.println("User not found.");
+        result.ifPresent(username -> onFxThread(dataService.addUserToGroup(groupChatId, username), added -> {
+            if (added) {
+                System.out.println("User added to group chat successfully.");
+                // Notify all clients to refresh chats
+                if (webSocketClient != null && webSocketClient.isOpen()) {
+                    webSocketClient.send(Protocol.REFRESH_CHATS);
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
+            } else {
+                System.err.println("User not found.");
             }
-        });
+        }));
     }
 
     /**
@@ -377,23 +686,102 @@ public class ChatController {
     @FXML
     private void handleSend() {
         String message = messageField.getText().trim();
-        if (!message.isEmpty()) {
-            try {
-                if (currentChatType == ChatType.PRIVATE && currentPrivateChatId != -1) {
-                    chatRepository.sendPrivateMessage(currentPrivateChatId, currentUserId, message);
-                    chatClient.sendMessage(message);
-                } else if (currentChatType == ChatType.GROUP && currentGroupChatId != -1) {
-                    chatRepository.sendGroupMessage(currentGroupChatId, currentUserId, message);
-                    loadGroupMessages(currentGroupChatId);
+        if (message.isEmpty()) return;
+        if (currentChat == null) {
+            System.err.println("No chat selected.");
+            return;
+        }
+        messageField.clear();
+        sendAndEcho(currentChat, message);
+    }
+
+    /**
+     * Sends a message and shows it right away as pending. The server stores it, queues it for the other members
+     * and confirms it, which replaces the echo with the stored message.
+     */
+    private void sendAndEcho(ChatKey chat, String content) {
+        Message pending = new Message(nextPendingId--, chat.type(), chat.chatId(), currentUserId,
+                userDisplayName.getText(), content, Instant.now());
+        if (chat.equals(currentChat)) messageList.append(pending);
+        chatClient.sendChatMessage(chat.type(), chat.chatId(), content).whenComplete((stored, error) -> {
+            // The server wrote it, so this client's read routing and cache would not know about it otherwise
+            if (stored != null) dataService.recordSent(stored);
+            Platform.runLater(() -> {
+                // A no-op if another chat has been opened since
+                if (error != null) {
+                    messageList.fail(pending.id(), error.getMessage());
                 } else {
-                    System.err.println("No chat selected.");
-                    return;
+                    messageList.confirm(pending.id(), stored);
                 }
-                messageField.clear();
-            } catch (SQLException e) {
-                e.printStackTrace();
+            });
+        });
+    }
+
+    /**
+     * Handles attaching a file to the currently selected chat. The file is uploaded first; the message that
+     * refers to it is sent once the server has stored it.
+     */
+    @FXML
+    private void handleAttach() {
+        if (currentChat == null) {
+            System.err.println("No chat selected.");
+            return;
+        }
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Attach File");
+        File file = chooser.showOpenDialog(window());
+        if (file == null) return;
+        ChatKey chat = currentChat;
+        chatClient.upload(file.toPath()).whenComplete((attachment, error) -> {
+            if (error != null) {
+                System.err.println("Upload of " + file.getName() + " failed: " + error.getMessage());
+                return;
             }
+            Platform.runLater(() -> sendAndEcho(chat, attachment.toReference()));
+        });
+    }
+
+    /**
+     * Handles saving one of the attachments in the open chat to a file.
+     */
+    @FXML
+    private void handleSaveAttachment() {
+        SequencedMap<String, Attachment> choices = new LinkedHashMap<>();
+        for (Message message : messageList.messages()) {
+            Attachment attachment = message.attachment();
+            if (attachment != null) choices.putIfAbsent(attachment.toDisplayString(), attachment);
         }
+        if (choices.isEmpty()) {
+            System.err.println("No attachments in this chat.");
+            return;
+        }
+        ChoiceDialog<String> dialog = new ChoiceDialog<>(choices.sequencedKeySet().getLast(), choices.keySet());
+        dialog.setTitle("Save Attachment");
+        dialog.setHeaderText("Choose the attachment to save:");
+        dialog.setContentText("Attachment:");
+        dialog.showAndWait().map(choices::get).ifPresent(attachment -> {
+            FileChooser chooser = new FileChooser();
+            chooser.setTitle("Save Attachment");
+            chooser.setInitialFileName(attachment.name());
+            File file = chooser.showSaveDialog(window());
+            if (file == null) return;
+            chatClient.download(attachment, file.toPath()).whenComplete((path, error) -> {
+                if (error != null) {
+                    System.err.println("Download of " + attachment.name() + " failed: " + error.getMessage());
+                } else {
+                    System.out.println("Saved " + attachment.name() + " to " + path);
+                }
+            });
+        });
+    }
+
+    private Window window() {
+        return messageListView.getScene() != null ? messageListView.getScene().getWindow() : null;
+    }
+
+    private static String notificationText(Message message) {
+        Attachment attachment = message.attachment();
+        return attachment != null ? attachment.toDisplayString() : message.content();
     }
 
     /**
@@ -413,14 +801,24 @@ public class ChatController {
             String newImageUrl = pair.getValue();
 
             // Update the profile in the database
-            userRepository.updateUserProfile(currentUserId, newDisplayName, newImageUrl);
+            onFxThread(dataService.updateUserProfile(currentUserId, newDisplayName, newImageUrl), updated -> {
+                if (updated == null) {
+                    System.err.println("Profile update failed.");
+                    return;
+                }
 
-            // Update the UI
-            userDisplayName.setText(newDisplayName);
-            if (newImageUrl != null && !newImageUrl.isEmpty()) {
-                Image image = new Image(newImageUrl);
-                userImageView.setImage(image);
-            }
+                // Tell other clients to drop the cached profile
+                if (webSocketClient != null && webSocketClient.isOpen()) {
+                    webSocketClient.send(Protocol.PROFILE_UPDATED_PREFIX + currentUserId);
+                }
+
+                // Update the UI
+                userDisplayName.setText(updated.displayName());
+                localStore.saveProfile(updated);
+                if (newImageUrl != null && !newImageUrl.isEmpty()) {
+                    avatars.bind(userImageView, updated.imageUrl(), PROFILE_AVATAR_SIZE);
+                }
+            });
         });
     }
 
@@ -434,24 +832,18 @@ public class ChatController {
         dialog.setHeaderText("Enter the username of the user to add as a contact:");
         dialog.setContentText("Username:");
         Optional<String> result = dialog.showAndWait();
-        result.ifPresent(username -> {
-            try {
-                int userId = userRepository.getUserIdByUsername(username);
-                if (userId != -1) {
-                    contactRepository.addContact(currentUserId, userId);
-                    loadContacts();
-                    System.out.println("Contact added successfully.");
-                    // Notify all clients to refresh contacts
-                    if (webSocketClient != null && webSocketClient.isOpen()) {
-                        webSocketClient.send("refresh_contacts");
-                    }
-                } else {
-                    System.err.println("User not found.");
+        result.ifPresent(username -> onFxThread(dataService.addContact(currentUserId, username), added -> {
+            if (added) {
+                loadContacts();
+                System.out.println("Contact added successfully.");
+                // Notify all clients to refresh contacts
+                if (webSocketClient != null && webSocketClient.isOpen()) {
+                    webSocketClient.send(Protocol.REFRESH_CONTACTS);
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
+            } else {
+                System.err.println("User not found.");
             }
-        });
+        }));
     }
 
     /**
@@ -459,27 +851,19 @@ public class ChatController {
      */
     @FXML
     private void handleRemoveContact() {
-        String selectedContact = contactListView.getSelectionModel().getSelectedItem();
+        Contact selectedContact = contactListView.getSelectionModel().getSelectedItem();
         if (selectedContact == null) {
             System.err.println("No contact selected.");
             return;
         }
-        int contactId = userRepository.getUserIdByDisplayName(selectedContact);
-        if (contactId == -1) {
-            System.err.println("Contact not found.");
-            return;
-        }
-        try {
-            contactRepository.removeContact(currentUserId, contactId);
+        onFxThread(dataService.removeContact(currentUserId, selectedContact.id()), removed -> {
             loadContacts();
             System.out.println("Contact removed successfully.");
             // Notify all clients to refresh contacts
             if (webSocketClient != null && webSocketClient.isOpen()) {
-                webSocketClient.send("refresh_contacts");
+                webSocketClient.send(Protocol.REFRESH_CONTACTS);
             }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        });
     }
 
     /**
@@ -488,46 +872,215 @@ public class ChatController {
      * @param message the message received
      */
     private void onMessageReceived(String message) {
-        Platform.runLater(() -> {
-            chatArea.appendText(message + "\n");
-            chatArea.setScrollTop(Double.MAX_VALUE);
-
-            String sender = message.contains(":") ? message.substring(0, message.indexOf(":")) : "";
-            String msg = message.contains(":") ? message.substring(message.indexOf(":") + 1).trim() : message;
-
-            // Only show notification for incoming messages (not sent by current user)
-            if (!sender.equals(username)) {
-                // Fetch sender's image_url from the database
-                String imageUrl = null;
-                try {
-                    int senderId = userRepository.getUserIdByDisplayName(sender);
-                    if (senderId != -1) {
-                        imageUrl = userRepository.getUserImageUrl(senderId);
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
+        incoming.post(MessageList.notice(message));
+    }
+
+    /**
+     * Callback for chat messages delivered by the server, including the echo of the user's own messages.
+     *
+     * @param message the stored message
+     */
+    private void onChatMessage(Message message) {
+        incoming.post(message);
+    }
+
+    /**
+     * Shows the messages and legacy lines that arrived since the last frame. Rows for the open chat are appended in
+     * one update, and the chat list, receipt and typing labels are refreshed once for the whole batch.
+     *
+     * @param batch the arrivals, oldest first; legacy lines are notices
+     */
+    private void onIncoming(List<Message> batch) {
+        List<Message> shown = new ArrayList<>(batch.size());
+        boolean otherChats = false;
+        boolean ownMessages = false;
+        long newestFromOthers = 0;
+        for (Message message : batch) {
+            if (message.id() == 0) {
+                // The sender stored the message itself, so the cached tail of this chat no longer matches the database
+                if (currentChat != null && currentChat.type() == ChatType.PRIVATE) {
+                    messageCache.invalidate(currentChat);
                 }
-                ImageView icon = null;
-                if (imageUrl != null && !imageUrl.isEmpty()) {
-                    try {
-                        Image img = new Image(imageUrl, 32, 32, true, true);
-                        icon = new ImageView(img);
-                    } catch (Exception e) {
-                        System.err.println("Failed to load image for notification icon: " + e.getMessage());
-                        e.printStackTrace();
-                    }
+                shown.add(message);
+                String line = message.content();
+                String sender = line.contains(":") ? line.substring(0, line.indexOf(":")) : "";
+                // Only show notification for incoming messages (not sent by current user)
+                if (!sender.equals(username)) {
+                    announce(sender, line.contains(":") ? line.substring(line.indexOf(":") + 1).trim() : line);
                 }
-                Notifications notification = Notifications.create()
-                    .title("New message")
-                    .text(sender + ": " + msg)
-                    .hideAfter(javafx.util.Duration.seconds(4))
-                    .position(javafx.geometry.Pos.TOP_RIGHT)
-                    .darkStyle();
-                if (icon != null) {
-                    notification.graphic(icon);
+                continue;
+            }
+            messageCache.append(message);
+            ChatKey chat = ChatKey.of(message);
+            if (chat.equals(currentChat)) {
+                shown.add(message);
+                if (message.senderId() == currentUserId) {
+                    lastOwnMessageId = Math.max(lastOwnMessageId, message.id());
+                    ownMessages = true;
+                } else {
+                    newestFromOthers = Math.max(newestFromOthers, message.id());
+                    // The message is what they were typing
+                    typingUntil.remove(message.senderId());
                 }
-                notification.showInformation();
+            } else {
+                otherChats = true;
             }
+            if (message.senderId() != currentUserId) announce(message.senderName(), notificationText(message));
+        }
+        List<Message> appended = messageList.appendAll(shown);
+        if (currentChat != null && currentChat.equals(shownChat) && appended.stream().anyMatch(message -> message.id() > 0)) {
+            saveShownChat();
+        }
+        if (ownMessages) updateReceiptLabel();
+        if (newestFromOthers != 0) {
+            chatClient.markRead(currentChat, newestFromOthers);
+            updateTypingLabel();
+        }
+        // Refresh previews and unread counts of chats that are not open
+        if (otherChats) loadChats();
+    }
+
+    /**
+     * Announces an incoming message. The first one is shown at once; those arriving within the following
+     * {@link #NOTIFICATION_INTERVAL} are folded into a single notification when it ends.
+     */
+    private void announce(String sender, String text) {
+        unannouncedSender = sender;
+        unannouncedText = text;
+        unannouncedCount++;
+        if (notificationPause.getStatus() != Animation.Status.RUNNING) flushNotifications();
+    }
+
+    private void flushNotifications() {
+        if (unannouncedCount == 0) return;
+        String sender = unannouncedSender;
+        String text = unannouncedCount == 1 ? unannouncedText
+                : unannouncedText + " (+" + (unannouncedCount - 1) + " more)";
+        unannouncedSender = null;
+        unannouncedText = null;
+        unannouncedCount = 0;
+        notificationPause.playFromStart();
+        // Resolve the sender's avatar through the profile cache, off the FX thread on a miss
+        onFxThread(dataService.loadImageUrlByDisplayName(sender), imageUrl -> showNotification(sender, text, imageUrl));
+    }
+
+    /**
+     * Callback for another member's new delivery or read marks.
+     *
+     * @param receipt the member's marks in one chat
+     */
+    private void onReceipt(Receipt receipt) {
+        Platform.runLater(() -> {
+            if (!receipt.chat().equals(currentChat)) return;
+            currentReceipts.merge(receipt.userId(), receipt, Receipt::merge);
+            updateReceiptLabel();
         });
     }
+
+    /**
+     * Callback for a user going online, away or offline. Only contacts and chat co-members are reported.
+     */
+    private void onPresence(int userId, Presence presence) {
+        Platform.runLater(() -> {
+            if (presence == Presence.OFFLINE) {
+                presences.remove(userId);
+            } else {
+                presences.put(userId, presence);
+            }
+            List<Contact> contacts = new ArrayList<>(contactListView.getItems());
+            for (int i = 0; i < contacts.size(); i++) {
+                if (contacts.get(i).id() != userId) continue;
+                contacts.set(i, contacts.get(i).withPresence(presence));
+                replaceItems(contactListView, contacts, Contact::id);
+                return;
+            }
+        });
+    }
+
+    /**
+     * Callback for another member typing. The indicator is hidden again once its time to live passes without
+     * a repeat, or when their message arrives.
+     */
+    private void onTyping(TypingIndicator typing) {
+        Platform.runLater(() -> {
+            if (!typing.chat().equals(currentChat)) return;
+            typingUntil.put(typing.userId(), System.currentTimeMillis() + typing.ttlMillis());
+            PauseTransition expiry = new PauseTransition(javafx.util.Duration.millis(typing.ttlMillis()));
+            expiry.setOnFinished(event -> updateTypingLabel());
+            expiry.play();
+            if (typingNames.containsKey(typing.userId())) {
+                updateTypingLabel();
+            } else {
+                onFxThread(dataService.loadUserProfile(typing.userId()), profile -> {
+                    if (profile != null) typingNames.put(typing.userId(), profile.displayName());
+                    updateTypingLabel();
+                });
+            }
+        });
+    }
+
+    private void updateTypingLabel() {
+        long now = System.currentTimeMillis();
+        typingUntil.values().removeIf(until -> until <= now);
+        List<String> names = typingUntil.keySet().stream()
+                .map(typingNames::get)
+                .filter(Objects::nonNull)
+                .sorted()
+                .toList();
+        typingLabel.setText(switch (names.size()) {
+            case 0 -> "";
+            case 1 -> names.getFirst() + " is typing...";
+            case 2 -> names.get(0) + " and " + names.get(1) + " are typing...";
+            default -> "Several people are typing...";
+        });
+    }
+
+    private void clearTyping() {
+        typingUntil.clear();
+        typingLabel.setText("");
+    }
+
+    /**
+     * Shows how far the user's newest message in the open chat has got.
+     */
+    private void updateReceiptLabel() {
+        if (currentChat == null || lastOwnMessageId == 0) {
+            receiptLabel.setText("");
+            return;
+        }
+        int members = 0, delivered = 0, read = 0;
+        for (Receipt receipt : currentReceipts.values()) {
+            if (receipt.userId() == currentUserId) continue;
+            members++;
+            if (receipt.deliveredId() >= lastOwnMessageId) delivered++;
+            if (receipt.readId() >= lastOwnMessageId) read++;
+        }
+        String status;
+        if (currentChat.type() == ChatType.PRIVATE) {
+            status = read > 0 ? "Seen" : delivered > 0 ? "Delivered" : "Sent";
+        } else if (read > 0) {
+            status = "Seen by " + read + " of " + members;
+        } else {
+            status = delivered > 0 ? "Delivered to " + delivered + " of " + members : "Sent";
+        }
+        receiptLabel.setText(status);
+    }
+
+    private void showNotification(String sender, String msg, String imageUrl) {
+        ImageView icon = null;
+        if (imageUrl != null && !imageUrl.isEmpty()) {
+            icon = new ImageView();
+            avatars.bind(icon, imageUrl, NOTIFICATION_AVATAR_SIZE);
+        }
+        Notifications notification = Notifications.create()
+            .title("New message")
+            .text(sender + ": " + msg)
+            .hideAfter(javafx.util.Duration.seconds(4))
+            .position(javafx.geometry.Pos.TOP_RIGHT)
+            .darkStyle();
+        if (icon != null) {
+            notification.graphic(icon);
+        }
+        notification.showInformation();
+    }
 }
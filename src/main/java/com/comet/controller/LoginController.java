@@ -30,15 +30,24 @@ public class LoginController {
         loginButton.setOnAction(this::handleLogin);
     }
 
-    public static void showChatScreen(String username, String password) {
+    /**
+     * Opens the chat screen for an authenticated user. The password is sent to the server once, which answers with
+     * the session token used from then on.
+     *
+     * @param userId the ID of the authenticated user
+     * @param username the username of the authenticated user
+     * @param password the password the user was authenticated with
+     */
+    public static void showChatScreen(int userId, String username, String password) {
         try {
             FXMLLoader loader = new FXMLLoader(App.class.getResource("/com/comet/main-view.fxml"));
             Parent root = loader.load();
 
             ChatController controller = loader.getController();
-            controller.setUserCredentials(username, password);
+            controller.setSession(userId, username, password);
 
             Stage stage = new Stage();
+            stage.setOnHidden(e -> controller.close());
             stage.setScene(new Scene(root));
             stage.getScene().getStylesheets().add(App.class.getResource("/styles/main.css").toExternalForm());
             stage.setFullScreen(true);
@@ -57,10 +66,10 @@ public class LoginController {
             return;
         }
 
-        boolean success = userRepository.checkLogin(username, password);
-        if (success) {
+        int userId = userRepository.getUserId(username, password);
+        if (userId != -1) {
             System.out.println("Login successful");
-            showChatScreen(username, password);
+            showChatScreen(userId, username, password);
 
             // Close the login window
             Node source = (Node) event.getSource();
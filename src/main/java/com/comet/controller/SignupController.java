@@ -38,9 +38,10 @@ public class SignupController {
         }
 
         boolean success = userRepository.createUser(username, displayName, password);
-        if (success) {
+        int userId = success ? userRepository.getUserIdByUsername(username) : -1;
+        if (userId != -1) {
             System.out.println("User created successfully");
-            LoginController.showChatScreen(username, password);
+            LoginController.showChatScreen(userId, username, password);
 
             // Close the signup window
             Node source = (Node) event.getSource();
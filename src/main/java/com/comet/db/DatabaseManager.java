@@ -4,14 +4,24 @@ import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class DatabaseManager {
+    private static final Logger logger = Logger.getLogger(DatabaseManager.class.getName());
     private static DatabaseManager instance;
     private final HikariDataSource dataSource;
+    private final HikariDataSource readDataSource;
+    private final ReadRouter readRouter;
 
     /**
-     * Private constructor that initializes the HikariCP data source using environment variables.
+     * Private constructor that initializes the HikariCP data sources using environment variables.
+     * A read pool is created when COMET_DB_READ_URL points at a replica.
      */
     private DatabaseManager() {
         HikariConfig config = new HikariConfig();
@@ -20,6 +30,22 @@ public class DatabaseManager {
         config.setPassword(System.getenv("COMET_DB_PASS"));
         config.setMaximumPoolSize(10);
         dataSource = new HikariDataSource(config);
+
+        String readUrl = System.getenv("COMET_DB_READ_URL");
+        if (readUrl != null && !readUrl.isBlank()) {
+            HikariConfig readConfig = new HikariConfig();
+            readConfig.setJdbcUrl(readUrl.trim());
+            readConfig.setUsername(envOrDefault("COMET_DB_READ_USER", System.getenv("COMET_DB_USER")));
+            readConfig.setPassword(envOrDefault("COMET_DB_READ_PASS", System.getenv("COMET_DB_PASS")));
+            readConfig.setMaximumPoolSize(10);
+            readConfig.setReadOnly(true);
+            readDataSource = new HikariDataSource(readConfig);
+            readRouter = new ReadRouter(this::probeReplicaLag, System::currentTimeMillis,
+                    parseLongEnv("COMET_DB_READ_MAX_LAG_MS", 1000), parseLongEnv("COMET_DB_READ_STICKY_MS", 5000), 1000);
+        } else {
+            readDataSource = null;
+            readRouter = ReadRouter.primaryOnly();
+        }
     }
 
     /**
@@ -41,4 +67,69 @@ public class DatabaseManager {
     public Connection getConnection() throws SQLException {
         return dataSource.getConnection();
     }
+
+    /**
+     * Opens a connection to the primary outside the pool, for session state that must outlive a single borrow,
+     * like a session advisory lock. The caller owns the connection and closes it.
+     *
+     * @return a new Connection that is not pooled
+     * @throws SQLException if a database access error occurs
+     */
+    public Connection openDedicatedConnection() throws SQLException {
+        return DriverManager.getConnection(dataSource.getJdbcUrl(), dataSource.getUsername(), dataSource.getPassword());
+    }
+
+    /**
+     * Returns whether a read replica is configured.
+     */
+    public boolean hasReadReplica() {
+        return readDataSource != null;
+    }
+
+    /**
+     * Retrieves a read-only connection to the replica, or a primary connection if no replica is configured.
+     * Ask {@link #readRouter()} before each read whether the replica may serve it.
+     *
+     * @return a Connection object from the read pool
+     * @throws SQLException if a database access error occurs
+     */
+    public Connection getReadConnection() throws SQLException {
+        return readDataSource != null ? readDataSource.getConnection() : dataSource.getConnection();
+    }
+
+    /**
+     * Returns the router that decides which reads the replica may serve.
+     */
+    public ReadRouter readRouter() {
+        return readRouter;
+    }
+
+    private long probeReplicaLag() {
+        // A caught-up standby has replayed everything it received; a server that is not a standby has no lag
+        String query = "SELECT COALESCE(CASE WHEN pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0 "
+                + "ELSE EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000 END, 0)";
+        try (Connection connection = readDataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            ResultSet rs = stmt.executeQuery(query);
+            return rs.next() ? Math.max(0, rs.getLong(1)) : ReadRouter.UNREACHABLE;
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "[DB] Replica lag probe failed; reading from the primary:", e);
+            return ReadRouter.UNREACHABLE;
+        }
+    }
+
+    private static String envOrDefault(String name, String fallback) {
+        String value = System.getenv(name);
+        return value != null && !value.isBlank() ? value : fallback;
+    }
+
+    private static long parseLongEnv(String name, long fallback) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.log(Level.WARNING, "[DB] Ignoring invalid {0}: {1}", new Object[]{name, value});
+            return fallback;
+        }
+    }
 }
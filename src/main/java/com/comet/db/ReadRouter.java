@@ -0,0 +1,103 @@
+package com.comet.db;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides per read whether a replica may serve it. Reads go to the primary when the replica lags by more than
+ * the allowed maximum, or when the read's scope (a user ID or a chat) was written recently enough that the
+ * replica may not have replayed the write yet.
+ *
+ * <p>Replica lag is probed at most once per probe interval, on the thread of the read that finds the last
+ * measurement stale. A failed probe counts as unlimited lag, so an unreachable replica is skipped until it
+ * answers again.
+ */
+public class ReadRouter {
+    /** Lag reported by a probe that could not reach the replica. */
+    public static final long UNREACHABLE = Long.MAX_VALUE;
+
+    private static final int PRUNE_THRESHOLD = 10_000;
+
+    private final LongSupplier lagProbe;
+    private final LongSupplier clock;
+    private final long maxLagMillis;
+    private final long stickyMillis;
+    private final long probeIntervalMillis;
+    private final Map<Object, Long> lastWrites = new ConcurrentHashMap<>();
+
+    private volatile long lagMillis = UNREACHABLE;
+    private volatile long lastProbeAt;
+    private volatile boolean probed;
+
+    /**
+     * Constructs a router.
+     *
+     * @param lagProbe measures the replica's replay lag in milliseconds, or returns {@link #UNREACHABLE}
+     * @param clock the current time in milliseconds
+     * @param maxLagMillis the largest lag at which the replica still serves reads
+     * @param stickyMillis how long reads of a scope stay on the primary after it was written, at least
+     * @param probeIntervalMillis how long a lag measurement is reused
+     */
+    public ReadRouter(LongSupplier lagProbe, LongSupplier clock, long maxLagMillis, long stickyMillis, long probeIntervalMillis) {
+        this.lagProbe = lagProbe;
+        this.clock = clock;
+        this.maxLagMillis = maxLagMillis;
+        this.stickyMillis = stickyMillis;
+        this.probeIntervalMillis = probeIntervalMillis;
+    }
+
+    /**
+     * Returns a router that always sends reads to the primary, for deployments without a replica.
+     */
+    public static ReadRouter primaryOnly() {
+        return new ReadRouter(() -> UNREACHABLE, System::currentTimeMillis, 0, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Records that the given scopes were just written on the primary.
+     *
+     * @param scopes the user IDs and chats whose data changed
+     */
+    public void recordWrite(Object... scopes) {
+        long now = clock.getAsLong();
+        for (Object scope : scopes) {
+            lastWrites.put(scope, now);
+        }
+        if (lastWrites.size() > PRUNE_THRESHOLD) {
+            long horizon = now - Math.max(stickyMillis, Math.min(lagMillis, maxLagMillis));
+            lastWrites.values().removeIf(writtenAt -> writtenAt < horizon);
+        }
+    }
+
+    /**
+     * Returns whether a read of the given scope may go to the replica.
+     *
+     * @param scope the user ID or chat being read
+     * @return true if the replica is caught up enough for this scope
+     */
+    public boolean useReplica(Object scope) {
+        long lag = currentLag();
+        if (lag > maxLagMillis) return false;
+        Long writtenAt = lastWrites.get(scope);
+        // The write is visible on the replica once more time has passed than the replica is behind
+        return writtenAt == null || clock.getAsLong() - writtenAt > Math.max(stickyMillis, lag);
+    }
+
+    /**
+     * Returns the most recent replica lag measurement, probing again if it is older than the probe interval.
+     */
+    public long currentLag() {
+        long now = clock.getAsLong();
+        if (!probed || now - lastProbeAt >= probeIntervalMillis) {
+            synchronized (this) {
+                if (!probed || now - lastProbeAt >= probeIntervalMillis) {
+                    lagMillis = lagProbe.getAsLong();
+                    lastProbeAt = now;
+                    probed = true;
+                }
+            }
+        }
+        return lagMillis;
+    }
+}
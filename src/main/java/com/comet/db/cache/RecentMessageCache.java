@@ -0,0 +1,257 @@
+package com.comet.db.cache;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.Message;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the most recent messages of recently opened chats in memory, with sender display names already
+ * resolved, so reopening a chat does not have to query the database.
+ *
+ * <p>The cache is bounded by an estimate of the memory its messages occupy and evicts the least recently
+ * used chat first. It is write-through: messages persisted through {@code ChatRepository} are appended to
+ * the cached tail of their chat. Writes made by other processes are not seen, so callers should
+ * {@link #invalidate(ChatKey)} a chat when they are told it changed elsewhere.
+ */
+public class RecentMessageCache {
+    private static RecentMessageCache instance;
+
+    /** Rough per-message overhead of the record, its strings and the deque slot, in bytes. */
+    private static final int MESSAGE_OVERHEAD_BYTES = 120;
+    /** The order of a chat's history, the same as its (sentAt, id) paging cursor. */
+    private static final Comparator<Message> ORDER = Comparator.comparing(Message::sentAt).thenComparingLong(Message::id);
+
+    private final int messagesPerChat;
+    private final long maxWeightBytes;
+    private final LinkedHashMap<ChatKey, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long weightBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Snapshot of the cache counters.
+     *
+     * @param hits lookups answered from memory
+     * @param misses lookups that had to go to the database
+     * @param evictions chats dropped to stay within the memory bound
+     * @param chats chats currently cached
+     * @param weightBytes estimated memory held by cached messages
+     */
+    public record Stats(long hits, long misses, long evictions, int chats, long weightBytes) {
+
+        /**
+         * Returns the fraction of lookups served from memory, or 0 when there were none.
+         */
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    private static final class Entry {
+        final ArrayDeque<Message> messages = new ArrayDeque<>();
+        /** True when the chat has no messages older than the ones cached. */
+        boolean complete;
+        long weight;
+    }
+
+    /**
+     * Constructs a cache holding up to the given number of messages per chat.
+     *
+     * @param messagesPerChat how many of the newest messages to keep per chat
+     * @param maxWeightBytes the approximate memory budget for all cached messages
+     */
+    public RecentMessageCache(int messagesPerChat, long maxWeightBytes) {
+        this.messagesPerChat = messagesPerChat;
+        this.maxWeightBytes = maxWeightBytes;
+    }
+
+    /**
+     * Returns the process-wide cache, sized by COMET_MESSAGE_CACHE_MB (32 MB by default).
+     *
+     * @return the shared RecentMessageCache instance
+     */
+    public static synchronized RecentMessageCache getInstance() {
+        if (instance == null) {
+            long megabytes = 32;
+            String configured = System.getenv("COMET_MESSAGE_CACHE_MB");
+            if (configured != null && !configured.isBlank()) {
+                try {
+                    megabytes = Long.parseLong(configured.trim());
+                } catch (NumberFormatException ignored) {
+                    // keep the default
+                }
+            }
+            instance = new RecentMessageCache(100, megabytes * 1024 * 1024);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns how many of the newest messages are kept per chat. Requests for larger pages always miss.
+     */
+    public int messagesPerChat() {
+        return messagesPerChat;
+    }
+
+    /**
+     * Returns the newest messages of a chat, oldest first, or null if the cache cannot answer the request.
+     *
+     * @param key the chat to look up
+     * @param limit the maximum number of messages wanted
+     * @return the cached page, or null on a miss
+     */
+    public synchronized List<Message> getLatest(ChatKey key, int limit) {
+        Entry entry = entries.get(key);
+        if (entry == null || (entry.messages.size() < limit && !entry.complete)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        List<Message> page = new ArrayList<>(Math.min(limit, entry.messages.size()));
+        Iterator<Message> newestFirst = entry.messages.descendingIterator();
+        while (newestFirst.hasNext() && page.size() < limit) {
+            page.add(newestFirst.next());
+        }
+        return page.reversed();
+    }
+
+    /**
+     * Caches the newest page of a chat as loaded from the database, replacing what was cached before. Cached
+     * messages newer than the page were appended while it was being read, so they are kept after it.
+     *
+     * @param key the chat the page belongs to
+     * @param page the newest messages of the chat, oldest first
+     * @param complete true if the chat has no messages older than the page
+     */
+    public synchronized void putLatest(ChatKey key, List<Message> page, boolean complete) {
+        Entry previous = entries.remove(key);
+        List<Message> merged = new ArrayList<>(page);
+        if (previous != null) {
+            weightBytes -= previous.weight;
+            Message pageNewest = page.isEmpty() ? null : page.getLast();
+            for (Message message : previous.messages) {
+                if (pageNewest == null || ORDER.compare(message, pageNewest) > 0) merged.add(message);
+            }
+        }
+
+        Entry entry = new Entry();
+        entry.complete = complete;
+        int skip = Math.max(0, merged.size() - messagesPerChat);
+        for (Message message : merged.subList(skip, merged.size())) {
+            entry.messages.addLast(message);
+            entry.weight += weigh(message);
+        }
+        if (skip > 0) entry.complete = false;
+        entries.put(key, entry);
+        weightBytes += entry.weight;
+        evictIfNeeded();
+    }
+
+    /**
+     * Appends a newly persisted message to its chat if that chat is cached. Uncached chats are left alone,
+     * as caching a lone message would hide the history before it. A message that is already cached, e.g. one
+     * delivered both live and by replay, is ignored. A message older than the cached tail but missing from it
+     * drops the chat, as the cached page no longer matches the database.
+     *
+     * @param message the message that was just stored
+     */
+    public synchronized void append(Message message) {
+        ChatKey key = ChatKey.of(message);
+        Entry entry = entries.get(key);
+        if (entry == null) return;
+        if (!entry.messages.isEmpty() && ORDER.compare(message, entry.messages.getLast()) <= 0) {
+            for (Message cached : entry.messages) {
+                if (cached.id() == message.id()) return;
+            }
+            invalidate(key);
+            return;
+        }
+
+        entry.messages.addLast(message);
+        long added = weigh(message);
+        entry.weight += added;
+        weightBytes += added;
+        if (entry.messages.size() > messagesPerChat) {
+            long removed = weigh(entry.messages.removeFirst());
+            entry.weight -= removed;
+            weightBytes -= removed;
+            entry.complete = false;
+        }
+        evictIfNeeded();
+    }
+
+    /**
+     * Drops a chat unless it holds every given message that falls within its cached range, e.g. after reading
+     * messages that another process stored.
+     *
+     * @param key the chat to check
+     * @param messages messages of the chat as read from the database
+     */
+    public synchronized void invalidateUnlessCached(ChatKey key, List<Message> messages) {
+        Entry entry = entries.get(key);
+        if (entry == null || messages.isEmpty()) return;
+        Set<Long> cached = new HashSet<>();
+        for (Message message : entry.messages) cached.add(message.id());
+        Message oldest = entry.messages.peekFirst();
+        for (Message message : messages) {
+            if (cached.contains(message.id())) continue;
+            // Older than an incomplete page is outside what the cache claims to hold
+            if (!entry.complete && oldest != null && ORDER.compare(message, oldest) < 0) continue;
+            invalidate(key);
+            return;
+        }
+    }
+
+    /**
+     * Drops a chat from the cache so the next lookup reloads it.
+     *
+     * @param key the chat to drop
+     */
+    public synchronized void invalidate(ChatKey key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) weightBytes -= entry.weight;
+    }
+
+    /**
+     * Drops every cached chat, e.g. after a display name change made the resolved sender names stale.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weightBytes = 0;
+    }
+
+    /**
+     * Returns a snapshot of the hit, miss and eviction counters.
+     *
+     * @return the current statistics
+     */
+    public synchronized Stats stats() {
+        return new Stats(hits, misses, evictions, entries.size(), weightBytes);
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<ChatKey, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (weightBytes > maxWeightBytes && leastRecentlyUsed.hasNext()) {
+            weightBytes -= leastRecentlyUsed.next().getValue().weight;
+            leastRecentlyUsed.remove();
+            evictions++;
+        }
+    }
+
+    private static long weigh(Message message) {
+        int chars = message.content().length() + (message.senderName() != null ? message.senderName().length() : 0);
+        return MESSAGE_OVERHEAD_BYTES + 2L * chars;
+    }
+}
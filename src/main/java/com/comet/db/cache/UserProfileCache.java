@@ -0,0 +1,86 @@
+package com.comet.db.cache;
+
+import com.comet.db.model.UserProfile;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of user profiles, indexed both by ID and by display name, so resolving the sender of a
+ * message does not cost a query per message.
+ *
+ * <p>Entries never expire on their own. {@code UserRepository.updateUserProfile} refreshes the entry of the
+ * updated user locally, and other processes learn about the change through a {@code profile_updated} event
+ * and {@link #invalidate(int)} the user.
+ */
+public class UserProfileCache {
+    private static UserProfileCache instance;
+
+    private final Map<Integer, UserProfile> profilesById = new ConcurrentHashMap<>();
+    private final Map<String, Integer> idsByDisplayName = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the singleton instance of UserProfileCache, creating it if necessary.
+     *
+     * @return the shared UserProfileCache instance
+     */
+    public static synchronized UserProfileCache getInstance() {
+        if (instance == null) instance = new UserProfileCache();
+        return instance;
+    }
+
+    /**
+     * Returns the cached profile of a user, or null if it is not cached.
+     *
+     * @param userId the ID of the user
+     * @return the cached profile or null
+     */
+    public UserProfile get(int userId) {
+        return profilesById.get(userId);
+    }
+
+    /**
+     * Returns the cached ID of the user with the given display name, or null if it is not cached.
+     *
+     * @param displayName the display name to look up
+     * @return the user ID or null
+     */
+    public Integer getIdByDisplayName(String displayName) {
+        return displayName == null ? null : idsByDisplayName.get(displayName);
+    }
+
+    /**
+     * Caches a profile, replacing the user's previous entry and display name mapping.
+     *
+     * @param profile the profile as currently stored in the database
+     */
+    public synchronized void put(UserProfile profile) {
+        UserProfile previous = profilesById.put(profile.id(), profile);
+        if (previous != null && previous.displayName() != null && !previous.displayName().equals(profile.displayName())) {
+            idsByDisplayName.remove(previous.displayName(), previous.id());
+        }
+        if (profile.displayName() != null) {
+            idsByDisplayName.put(profile.displayName(), profile.id());
+        }
+    }
+
+    /**
+     * Drops a user from the cache so the next lookup reloads the profile from the database.
+     *
+     * @param userId the ID of the user whose profile changed
+     */
+    public synchronized void invalidate(int userId) {
+        UserProfile previous = profilesById.remove(userId);
+        if (previous != null && previous.displayName() != null) {
+            idsByDisplayName.remove(previous.displayName(), userId);
+        }
+    }
+
+    /**
+     * Drops every cached profile.
+     */
+    public synchronized void clear() {
+        profilesById.clear();
+        idsByDisplayName.clear();
+    }
+}
@@ -0,0 +1,60 @@
+package com.comet.db.model;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A file attached to a message. The file itself lives in the server's blob store; the message only carries
+ * this reference, written into its content as a {@code blob:} URI.
+ *
+ * @param hash the lowercase hex SHA-256 of the file, which is also its key in the blob store
+ * @param size the file size in bytes
+ * @param name the file name as uploaded, for display and saving
+ */
+public record Attachment(String hash, long size, String name) {
+    private static final String SCHEME = "blob:sha256:";
+
+    /**
+     * Returns the reference to store as the content of a message.
+     */
+    public String toReference() {
+        return SCHEME + hash + "?size=" + size + "&name=" + URLEncoder.encode(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parses a message content written by {@link #toReference()}.
+     *
+     * @param content the message content
+     * @return the attachment, or null if the content is plain text
+     */
+    public static Attachment parse(String content) {
+        if (content == null || !content.startsWith(SCHEME)) return null;
+        int query = content.indexOf("?size=");
+        int nameAt = content.indexOf("&name=", query);
+        if (query < 0 || nameAt < 0) return null;
+        try {
+            return new Attachment(
+                    content.substring(SCHEME.length(), query),
+                    Long.parseLong(content.substring(query + 6, nameAt)),
+                    URLDecoder.decode(content.substring(nameAt + 6), StandardCharsets.UTF_8)
+            );
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Formats the attachment the way it is shown in the chat area.
+     */
+    public String toDisplayString() {
+        return "[attachment] " + name + " (" + formatSize(size) + ")";
+    }
+
+    private static String formatSize(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format("%.1f KB", bytes / 1024.0);
+        if (bytes < 1024L * 1024 * 1024) return String.format("%.1f MB", bytes / (1024.0 * 1024));
+        return String.format("%.1f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+}
@@ -0,0 +1,25 @@
+package com.comet.db.model;
+
+import java.util.List;
+
+/**
+ * What a client has to apply to bring its copy of a chat's history up to date.
+ *
+ * @param messages new messages, oldest first; if {@code reset} is set, the newest page that replaces the copy
+ * @param changes edits and deletions of messages the client may hold, in change log order
+ * @param changeSeq the change log position to sync from next time
+ * @param reset whether the copy must be replaced, because the client had none or fell too far behind
+ */
+public record ChatDelta(List<Message> messages, List<MessageChange> changes, long changeSeq, boolean reset) {
+    public ChatDelta {
+        messages = List.copyOf(messages);
+        changes = List.copyOf(changes);
+    }
+
+    /**
+     * Returns whether there is nothing to apply.
+     */
+    public boolean isEmpty() {
+        return !reset && messages.isEmpty() && changes.isEmpty();
+    }
+}
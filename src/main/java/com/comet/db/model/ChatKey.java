@@ -0,0 +1,17 @@
+package com.comet.db.model;
+
+/**
+ * Identifies a conversation independently of its type.
+ *
+ * @param type the chat type
+ * @param chatId the ID of the private or group chat
+ */
+public record ChatKey(ChatType type, int chatId) {
+
+    /**
+     * Returns the key of the chat the given message belongs to.
+     */
+    public static ChatKey of(Message message) {
+        return new ChatKey(message.chatType(), message.chatId());
+    }
+}
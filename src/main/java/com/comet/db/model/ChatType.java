@@ -0,0 +1,25 @@
+package com.comet.db.model;
+
+/**
+ * The kind of conversation a message belongs to. Each type maps to its own foreign key column on
+ * the {@code messages} table.
+ */
+public enum ChatType {
+    PRIVATE("private_chat_id"),
+    GROUP("group_chat_id");
+
+    private final String messageColumn;
+
+    ChatType(String messageColumn) {
+        this.messageColumn = messageColumn;
+    }
+
+    /**
+     * Returns the column of the {@code messages} table that references chats of this type.
+     *
+     * @return the column name
+     */
+    public String messageColumn() {
+        return messageColumn;
+    }
+}
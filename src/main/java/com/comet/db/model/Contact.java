@@ -0,0 +1,24 @@
+package com.comet.db.model;
+
+/**
+ * A contact as shown in the contact list.
+ *
+ * @param id the contact's user ID
+ * @param displayName the contact's display name
+ * @param imageUrl the contact's avatar URL, or null if none is set
+ * @param presence the contact's presence; {@link Presence#OFFLINE} until the chat server reports otherwise
+ */
+public record Contact(int id, String displayName, String imageUrl, Presence presence) {
+
+    /**
+     * Returns a copy of this contact with the given presence.
+     */
+    public Contact withPresence(Presence presence) {
+        return new Contact(id, displayName, imageUrl, presence);
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
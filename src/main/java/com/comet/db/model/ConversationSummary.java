@@ -0,0 +1,28 @@
+package com.comet.db.model;
+
+import java.time.Instant;
+
+/**
+ * One entry of a user's chat list, with a preview of the latest message and the user's unread count.
+ *
+ * @param chat the chat this entry represents
+ * @param title the group name, or the other participant's display name for private chats
+ * @param lastMessageId the ID of the latest message, or 0 if the chat is empty
+ * @param lastMessagePreview the beginning of the latest message, or null if the chat is empty
+ * @param lastMessageAt the time of the latest message, or null if the chat is empty
+ * @param unreadCount the number of messages from others since the user last opened the chat
+ */
+public record ConversationSummary(
+        ChatKey chat,
+        String title,
+        long lastMessageId,
+        String lastMessagePreview,
+        Instant lastMessageAt,
+        int unreadCount
+) {
+
+    @Override
+    public String toString() {
+        return title;
+    }
+}
@@ -0,0 +1,58 @@
+package com.comet.db.model;
+
+import java.time.Instant;
+
+/**
+ * A single chat message with its sender's display name already resolved.
+ *
+ * @param id the message ID, the tie-breaker of the (sentAt, id) keyset cursor used for paging
+ * @param chatType the type of chat the message was sent in
+ * @param chatId the ID of the private or group chat
+ * @param senderId the ID of the sending user
+ * @param senderName the display name of the sending user
+ * @param content the message text
+ * @param sentAt the time the message was stored; also the partition key of the messages table
+ */
+public record Message(
+        long id,
+        ChatType chatType,
+        int chatId,
+        int senderId,
+        String senderName,
+        String content,
+        Instant sentAt
+) {
+    /**
+     * Formats the message the way it is shown in the chat area.
+     *
+     * @return the message as {@code "sender: content"}, with attachments described rather than referenced
+     */
+    public String toDisplayString() {
+        Attachment attachment = attachment();
+        return senderName + ": " + (attachment != null ? attachment.toDisplayString() : content);
+    }
+
+    /**
+     * Returns whether this is the local echo of a message the server has not confirmed yet. Such messages carry a
+     * negative ID that only the sending client knows.
+     */
+    public boolean isPending() {
+        return id < 0;
+    }
+
+    /**
+     * Returns a copy of the message with different content, e.g. after an edit.
+     */
+    public Message withContent(String newContent) {
+        return new Message(id, chatType, chatId, senderId, senderName, newContent, sentAt);
+    }
+
+    /**
+     * Returns the attachment this message refers to.
+     *
+     * @return the attachment, or null for a text message
+     */
+    public Attachment attachment() {
+        return Attachment.parse(content);
+    }
+}
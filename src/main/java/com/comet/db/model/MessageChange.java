@@ -0,0 +1,19 @@
+package com.comet.db.model;
+
+/**
+ * An edit or deletion of a stored message, as recorded in the chat's change log.
+ *
+ * @param seq the position in the change log; later changes have higher numbers
+ * @param chat the chat of the changed message
+ * @param messageId the ID of the changed message
+ * @param content the new content, or null if the message was deleted
+ */
+public record MessageChange(long seq, ChatKey chat, long messageId, String content) {
+
+    /**
+     * Returns whether the message was deleted rather than edited.
+     */
+    public boolean isDeletion() {
+        return content == null;
+    }
+}
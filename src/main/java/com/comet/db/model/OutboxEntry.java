@@ -0,0 +1,10 @@
+package com.comet.db.model;
+
+/**
+ * A message waiting in a recipient's delivery outbox.
+ *
+ * @param seq the entry's position in the outbox; later entries have higher values
+ * @param message the message to deliver
+ */
+public record OutboxEntry(long seq, Message message) {
+}
@@ -0,0 +1,10 @@
+package com.comet.db.model;
+
+/**
+ * Whether a user is currently reachable. Presence is ephemeral and never stored in the database.
+ */
+public enum Presence {
+    ONLINE,
+    AWAY,
+    OFFLINE
+}
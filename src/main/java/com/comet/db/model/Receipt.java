@@ -0,0 +1,27 @@
+package com.comet.db.model;
+
+/**
+ * A member's delivery and read high-water marks in a chat. Message IDs are time-ordered, so one ID per mark
+ * covers every earlier message of the chat.
+ *
+ * @param userId the ID of the member the marks belong to
+ * @param chat the chat
+ * @param deliveredId the newest message delivered to the member, or {@link #NONE}
+ * @param readId the newest message the member has read, or {@link #NONE}
+ */
+public record Receipt(int userId, ChatKey chat, long deliveredId, long readId) {
+    /** Mark of a member who has not received or read anything yet. */
+    public static final long NONE = 0;
+
+    /**
+     * Returns the marks of both receipts combined. Marks only move forward, and reading a message implies it
+     * was delivered.
+     *
+     * @param other a receipt of the same member and chat
+     * @return the newest of each mark
+     */
+    public Receipt merge(Receipt other) {
+        long read = Math.max(readId, other.readId);
+        return new Receipt(userId, chat, Math.max(Math.max(deliveredId, other.deliveredId), read), read);
+    }
+}
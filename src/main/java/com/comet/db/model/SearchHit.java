@@ -0,0 +1,11 @@
+package com.comet.db.model;
+
+/**
+ * A message matching a full-text search.
+ *
+ * @param message the matching message
+ * @param snippet an excerpt of the message with matched terms wrapped in {@code [} and {@code ]}
+ * @param rank the relevance score; higher is more relevant
+ */
+public record SearchHit(Message message, String snippet, double rank) {
+}
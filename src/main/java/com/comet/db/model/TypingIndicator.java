@@ -0,0 +1,11 @@
+package com.comet.db.model;
+
+/**
+ * Another member typing in a chat. Like presence it is ephemeral and never stored in the database.
+ *
+ * @param userId the ID of the typing user
+ * @param chat the chat being typed in
+ * @param ttlMillis how long to show the indicator unless it is repeated
+ */
+public record TypingIndicator(int userId, ChatKey chat, long ttlMillis) {
+}
@@ -0,0 +1,11 @@
+package com.comet.db.model;
+
+/**
+ * The public identity of a user as shown to other users.
+ *
+ * @param id the user ID
+ * @param displayName the display name
+ * @param imageUrl the avatar URL, or null if none is set
+ */
+public record UserProfile(int id, String displayName, String imageUrl) {
+}
@@ -1,26 +1,74 @@
 package com.comet.db.repository;
 
 import java.sql.*;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.comet.db.DatabaseManager;
+import com.comet.db.ReadRouter;
+import com.comet.db.cache.RecentMessageCache;
+import com.comet.db.model.ChatDelta;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.MessageChange;
+import com.comet.db.model.SearchHit;
+import com.comet.db.model.UserProfile;
+import com.comet.db.store.MessageStore;
+import com.comet.db.store.PostgresMessageStore;
+import com.comet.db.store.SnowflakeIdGenerator;
 
 public class ChatRepository {
     private static final Logger logger = Logger.getLogger(ChatRepository.class.getName());
 
+    /** Number of messages loaded when a chat is opened or scrolled back by one page. */
+    public static final int DEFAULT_PAGE_SIZE = 50;
+
+    /**
+     * How far before the newest message a client holds a sync looks again. Message IDs are assigned before the
+     * insert commits, so a message may become visible after a newer one; this bounds how late it can be.
+     */
+    static final long SYNC_OVERLAP_MILLIS = 10_000;
+
+    // Key space of the per-chat locks that keep a chat's change log committing in seq order
+    private static final int CHANGE_LOCK_CLASS = 0x63680000;
+
     private final Connection connection;
+    private final RecentMessageCache messageCache;
+    private final MessageStore messageStore;
+    // Set only when a read replica is configured; reads fall back to the primary otherwise
+    private Connection readConnection;
+    private MessageStore replicaStore;
+    private ReadRouter readRouter;
 
     /**
      * Default constructor that initializes the ChatRepository with a database connection
-     * from the DatabaseManager singleton. Throws a RuntimeException if the connection fails.
+     * from the DatabaseManager singleton, plus a replica connection for reads if one is configured.
+     * Throws a RuntimeException if the connection fails.
      */
     public ChatRepository() {
         try {
-            this.connection = DatabaseManager.getInstance().getConnection();
+            DatabaseManager manager = DatabaseManager.getInstance();
+            this.connection = manager.getConnection();
+            this.messageCache = RecentMessageCache.getInstance();
+            this.messageStore = MessageStore.fromEnvironment(connection);
+            if (manager.hasReadReplica()) {
+                this.readConnection = manager.getReadConnection();
+                this.readRouter = manager.readRouter();
+                if (messageStore instanceof PostgresMessageStore) {
+                    this.replicaStore = new PostgresMessageStore(readConnection);
+                }
+            }
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "[ChatRepo] Failed to get database connection:", e);
             throw new RuntimeException("Database connection error", e);
@@ -33,19 +81,95 @@ public class ChatRepository {
      * @param connection the SQL connection to use for database operations
      */
     public ChatRepository(Connection connection) {
+        this(connection, RecentMessageCache.getInstance());
+    }
+
+    /**
+     * Constructs a ChatRepository with the given database connection and message cache.
+     *
+     * @param connection the SQL connection to use for database operations
+     * @param messageCache the cache serving the newest messages of recently opened chats
+     */
+    public ChatRepository(Connection connection, RecentMessageCache messageCache) {
+        this(connection, messageCache, MessageStore.fromEnvironment(connection));
+    }
+
+    /**
+     * Constructs a ChatRepository that keeps messages in the given store instead of the configured one.
+     *
+     * @param connection the SQL connection to use for chats, membership and search
+     * @param messageCache the cache serving the newest messages of recently opened chats
+     * @param messageStore the store that persists and pages through messages
+     */
+    public ChatRepository(Connection connection, RecentMessageCache messageCache, MessageStore messageStore) {
         this.connection = connection;
+        this.messageCache = messageCache;
+        this.messageStore = messageStore;
     }
 
     /**
-     * Creates a new private chat between two users. Returns the chat ID.
+     * Returns the connection that should serve a read of the given user's or chat's data.
+     */
+    private Connection readConnection(Object scope) {
+        return readConnection != null && readRouter.useReplica(scope) ? readConnection : connection;
+    }
+
+    /**
+     * Returns the message store that should serve a history read of the given chat.
+     */
+    private MessageStore readStore(ChatKey chat) {
+        return replicaStore != null && readRouter.useReplica(chat) ? replicaStore : messageStore;
+    }
+
+    /**
+     * Keeps reads of the given user IDs and chats on the primary until the replica has caught up with this write.
+     */
+    private void recordWrite(Object... scopes) {
+        if (readRouter != null) readRouter.recordWrite(scopes);
+    }
+
+    /**
+     * Creates a new private chat between two users, or returns the existing one. Returns the chat ID.
      */
     public int createPrivateChat(int user1Id, int user2Id) throws SQLException {
-        String insert = "INSERT INTO private_chats (user1_id, user2_id) VALUES (?, ?) RETURNING id";
-        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
-            stmt.setInt(1, user1Id);
-            stmt.setInt(2, user2Id);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) return rs.getInt(1);
+        return getOrCreatePrivateChat(user1Id, user2Id);
+    }
+
+    /**
+     * Returns the private chat between two users, creating it if it does not exist yet. Chats are stored
+     * once per pair with the lower user ID first, so both users resolve the same row in a single statement.
+     * A new chat is added to both participants' chat lists. A user may open a chat with themselves; it has a
+     * single member, who gets one summary.
+     *
+     * @param userId the ID of one participant
+     * @param peerId the ID of the other participant
+     * @return the private chat ID
+     * @throws SQLException if a database access error occurs
+     */
+    public int getOrCreatePrivateChat(int userId, int peerId) throws SQLException {
+        String upsert = "WITH existing AS (SELECT id FROM private_chats WHERE user1_id = ? AND user2_id = ?), "
+                + "chat AS (INSERT INTO private_chats (user1_id, user2_id) SELECT ?, ? WHERE NOT EXISTS (SELECT 1 FROM existing) "
+                + "ON CONFLICT (user1_id, user2_id) DO NOTHING RETURNING id, user1_id, user2_id), "
+                + "summaries AS (INSERT INTO conversation_summaries (user_id, chat_type, chat_id, peer_user_id) "
+                + "SELECT user1_id, 'PRIVATE', id, user2_id FROM chat "
+                + "UNION ALL SELECT user2_id, 'PRIVATE', id, user1_id FROM chat WHERE user2_id <> user1_id "
+                + "ON CONFLICT DO NOTHING) "
+                + "SELECT id FROM chat UNION ALL SELECT id FROM existing";
+        int user1Id = Math.min(userId, peerId);
+        int user2Id = Math.max(userId, peerId);
+        // A concurrent insert of the same pair makes both branches come back empty; the retry then finds it
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try (PreparedStatement stmt = connection.prepareStatement(upsert)) {
+                stmt.setInt(1, user1Id);
+                stmt.setInt(2, user2Id);
+                stmt.setInt(3, user1Id);
+                stmt.setInt(4, user2Id);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    recordWrite(userId, peerId);
+                    return rs.getInt(1);
+                }
+            }
         }
         throw new SQLException("Failed to create private chat");
     }
@@ -54,12 +178,10 @@ public class ChatRepository {
      * Gets the private chat ID for two users, or -1 if not found.
      */
     public int getPrivateChatId(int user1Id, int user2Id) throws SQLException {
-        String query = "SELECT id FROM private_chats WHERE (user1_id = ? AND user2_id = ?) OR (user1_id = ? AND user2_id = ?)";
+        String query = "SELECT id FROM private_chats WHERE user1_id = ? AND user2_id = ?";
         try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, user1Id);
-            stmt.setInt(2, user2Id);
-            stmt.setInt(3, user2Id);
-            stmt.setInt(4, user1Id);
+            stmt.setInt(1, Math.min(user1Id, user2Id));
+            stmt.setInt(2, Math.max(user1Id, user2Id));
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) return rs.getInt(1);
         }
@@ -75,21 +197,57 @@ public class ChatRepository {
             stmt.setString(1, name);
             stmt.setInt(2, creatorId);
             ResultSet rs = stmt.executeQuery();
+            recordWrite(creatorId);
             if (rs.next()) return rs.getInt(1);
         }
         throw new SQLException("Failed to create group chat");
     }
 
     /**
-     * Adds a user to a group chat.
+     * Adds a user to a group chat. The new member's chat list entry starts with the group's current
+     * latest message and no unread messages.
      */
     public void addUserToGroup(int groupId, int userId) throws SQLException {
-        String insert = "INSERT INTO group_members (group_id, user_id) VALUES (?, ?) ON CONFLICT DO NOTHING";
+        addUsersToGroup(groupId, List.of(userId));
+    }
+
+    /**
+     * Adds several users to a group chat in a single round trip. Existing members are left as they are.
+     * New members' chat list entries start with the group's current latest message and no unread messages.
+     */
+    public void addUsersToGroup(int groupId, Collection<Integer> userIds) throws SQLException {
+        if (userIds.isEmpty()) return;
+        String insert = "WITH members AS (INSERT INTO group_members (group_id, user_id) SELECT ?, unnest(?) ON CONFLICT DO NOTHING RETURNING group_id, user_id), "
+                + "latest AS (SELECT s.last_message_id, s.last_message_preview, s.last_message_at, s.last_sender_id "
+                + "FROM conversation_summaries s WHERE s.chat_type = 'GROUP' AND s.chat_id = ? "
+                + "ORDER BY s.last_message_at DESC NULLS LAST LIMIT 1) "
+                + "INSERT INTO conversation_summaries (user_id, chat_type, chat_id, last_message_id, last_message_preview, last_message_at, last_sender_id) "
+                + "SELECT m.user_id, 'GROUP', m.group_id, latest.last_message_id, latest.last_message_preview, latest.last_message_at, latest.last_sender_id "
+                + "FROM members m LEFT JOIN latest ON true "
+                + "ON CONFLICT DO NOTHING";
         try (PreparedStatement stmt = connection.prepareStatement(insert)) {
             stmt.setInt(1, groupId);
-            stmt.setInt(2, userId);
+            stmt.setArray(2, connection.createArrayOf("integer", userIds.toArray()));
+            stmt.setInt(3, groupId);
             stmt.executeUpdate();
         }
+        recordWrite(userIds.toArray());
+    }
+
+    /**
+     * Removes several users from a group chat in a single round trip, together with their chat list entries.
+     */
+    public void removeUsersFromGroup(int groupId, Collection<Integer> userIds) throws SQLException {
+        if (userIds.isEmpty()) return;
+        String delete = "WITH removed AS (DELETE FROM group_members WHERE group_id = ? AND user_id = ANY(?) RETURNING group_id, user_id) "
+                + "DELETE FROM conversation_summaries s USING removed r "
+                + "WHERE s.user_id = r.user_id AND s.chat_type = 'GROUP' AND s.chat_id = r.group_id";
+        try (PreparedStatement stmt = connection.prepareStatement(delete)) {
+            stmt.setInt(1, groupId);
+            stmt.setArray(2, connection.createArrayOf("integer", userIds.toArray()));
+            stmt.executeUpdate();
+        }
+        recordWrite(userIds.toArray());
     }
 
     /**
@@ -98,7 +256,7 @@ public class ChatRepository {
     public List<String> getGroupChatsForUser(int userId) throws SQLException {
         List<String> groups = new ArrayList<>();
         String query = "SELECT gc.name FROM group_chats gc JOIN group_members gm ON gc.id = gm.group_id WHERE gm.user_id = ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) groups.add(rs.getString(1));
@@ -112,7 +270,7 @@ public class ChatRepository {
     public List<String> getPrivateChatsForUser(int userId) throws SQLException {
         List<String> chats = new ArrayList<>();
         String query = "SELECT u.display_name FROM private_chats pc JOIN users u ON (u.id = pc.user1_id OR u.id = pc.user2_id) WHERE (pc.user1_id = ? OR pc.user2_id = ?) AND u.id != ?";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
             stmt.setInt(1, userId);
             stmt.setInt(2, userId);
             stmt.setInt(3, userId);
@@ -123,61 +281,452 @@ public class ChatRepository {
     }
 
     /**
-     * Sends a message in a private chat.
+     * Gets the chat list of a user, most recently active first, in a single query. The summaries are kept
+     * up to date by a trigger whenever a message is stored.
+     *
+     * @param userId the ID of the user
+     * @return the user's private and group chats with their latest message and unread count
+     * @throws SQLException if a database access error occurs
      */
-    public void sendPrivateMessage(int privateChatId, int senderId, String content) throws SQLException {
-        String insert = "INSERT INTO messages (sender_id, private_chat_id, content) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
-            stmt.setInt(1, senderId);
-            stmt.setInt(2, privateChatId);
-            stmt.setString(3, content);
+    public List<ConversationSummary> getConversationSummaries(int userId) throws SQLException {
+        List<ConversationSummary> summaries = new ArrayList<>();
+        String query = "SELECT s.chat_type, s.chat_id, COALESCE(gc.name, u.display_name), s.last_message_id, "
+                + "s.last_message_preview, s.last_message_at, s.unread_count FROM conversation_summaries s "
+                + "LEFT JOIN group_chats gc ON s.chat_type = 'GROUP' AND gc.id = s.chat_id "
+                + "LEFT JOIN users u ON s.chat_type = 'PRIVATE' AND u.id = s.peer_user_id "
+                + "WHERE s.user_id = ? ORDER BY s.last_message_at DESC NULLS LAST";
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                Timestamp lastMessageAt = rs.getTimestamp(6);
+                summaries.add(new ConversationSummary(
+                        new ChatKey(ChatType.valueOf(rs.getString(1)), rs.getInt(2)),
+                        rs.getString(3),
+                        rs.getLong(4),
+                        rs.getString(5),
+                        lastMessageAt != null ? lastMessageAt.toInstant() : null,
+                        rs.getInt(7)
+                ));
+            }
+        }
+        return summaries;
+    }
+
+    /**
+     * Resets the unread count of a chat for a user, e.g. when the user opens it.
+     *
+     * @param userId the ID of the user
+     * @param chat the chat that was read
+     * @throws SQLException if a database access error occurs
+     */
+    public void markConversationRead(int userId, ChatKey chat) throws SQLException {
+        String update = "UPDATE conversation_summaries SET unread_count = 0 "
+                + "WHERE user_id = ? AND chat_type = ? AND chat_id = ? AND unread_count <> 0";
+        try (PreparedStatement stmt = connection.prepareStatement(update)) {
+            stmt.setInt(1, userId);
+            stmt.setString(2, chat.type().name());
+            stmt.setInt(3, chat.chatId());
             stmt.executeUpdate();
         }
+        recordWrite(userId);
+    }
+
+    /**
+     * Returns whether the user belongs to the chat. Every member has an entry in their chat list, so one
+     * primary key lookup answers this for both chat types.
+     *
+     * @param userId the ID of the user
+     * @param chat the chat
+     * @return true if the user may read and post in the chat
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean isMember(int userId, ChatKey chat) throws SQLException {
+        String query = "SELECT 1 FROM conversation_summaries WHERE user_id = ? AND chat_type = ? AND chat_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, userId);
+            stmt.setString(2, chat.type().name());
+            stmt.setInt(3, chat.chatId());
+            return stmt.executeQuery().next();
+        }
+    }
+
+    /**
+     * Retrieves the other members of every chat the user belongs to, in a single query.
+     *
+     * @param userId the ID of the user
+     * @return the other members' IDs by chat; chats without other members are left out
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<ChatKey, Set<Integer>> getCoMembers(int userId) throws SQLException {
+        String query = "SELECT m.chat_type, m.chat_id, m.user_id FROM conversation_summaries mine "
+                + "JOIN conversation_summaries m ON m.chat_type = mine.chat_type AND m.chat_id = mine.chat_id "
+                + "WHERE mine.user_id = ? AND m.user_id <> mine.user_id";
+        Map<ChatKey, Set<Integer>> members = new HashMap<>();
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                ChatKey chat = new ChatKey(ChatType.valueOf(rs.getString(1)), rs.getInt(2));
+                members.computeIfAbsent(chat, key -> new HashSet<>()).add(rs.getInt(3));
+            }
+        }
+        return members;
+    }
+
+    /**
+     * Sends a message in a private chat.
+     */
+    public Message sendPrivateMessage(int privateChatId, int senderId, String content) throws SQLException {
+        return sendMessage(ChatType.PRIVATE, privateChatId, senderId, content);
     }
 
     /**
      * Sends a message in a group chat.
      */
-    public void sendGroupMessage(int groupChatId, int senderId, String content) throws SQLException {
-        String insert = "INSERT INTO messages (sender_id, group_chat_id, content) VALUES (?, ?, ?)";
-        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
-            stmt.setInt(1, senderId);
-            stmt.setInt(2, groupChatId);
-            stmt.setString(3, content);
+    public Message sendGroupMessage(int groupChatId, int senderId, String content) throws SQLException {
+        return sendMessage(ChatType.GROUP, groupChatId, senderId, content);
+    }
+
+    /**
+     * Stores a message and appends it to the cached tail of its chat.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param senderId the ID of the sending user
+     * @param content the message text
+     * @return the stored message with its ID, timestamp and sender display name
+     * @throws SQLException if a database access error occurs
+     */
+    public Message sendMessage(ChatType chatType, int chatId, int senderId, String content) throws SQLException {
+        Message message = newMessage(chatType, chatId, senderId, content);
+        storeMessages(List.of(message));
+        return message;
+    }
+
+    /**
+     * Creates a message with a generated ID without storing it, so it can be delivered before it is persisted.
+     * The timestamp is the one encoded in the ID, which keeps time and ID order the same.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param senderId the ID of the sending user
+     * @param content the message text
+     * @return the new message with its ID, timestamp and sender display name
+     * @throws SQLException if the sender does not exist
+     */
+    public Message newMessage(ChatType chatType, int chatId, int senderId, String content) throws SQLException {
+        // Served from the profile cache after the sender's first message
+        UserProfile sender = new UserRepository(connection).getUserProfile(senderId);
+        if (sender == null) throw new SQLException("Unknown sender: " + senderId);
+        long id = SnowflakeIdGenerator.getInstance().nextId();
+        return new Message(id, chatType, chatId, senderId, sender.displayName(), content, SnowflakeIdGenerator.timestampOf(id));
+    }
+
+    /**
+     * Stores messages created by {@link #newMessage} in one batch and appends them to the cached tails of their chats.
+     *
+     * @param messages the messages to store, in ID order
+     * @throws SQLException if a database access error occurs
+     */
+    public void storeMessages(List<Message> messages) throws SQLException {
+        messageStore.insert(messages);
+        for (Message message : messages) {
+            recordWrite(ChatKey.of(message), message.senderId());
+            messageCache.append(message);
+        }
+    }
+
+    /**
+     * Records a message the chat server stored on this user's behalf, as if this repository had written it: reads
+     * of its chat and sender stay on the primary until the replica has it, and it is appended to the cached tail.
+     *
+     * @param message the stored message, as confirmed by the server
+     */
+    public void recordStored(Message message) {
+        recordWrite(ChatKey.of(message), message.senderId());
+        messageCache.append(message);
+    }
+
+    /**
+     * Gets the most recent messages of a chat, oldest first. Pages no larger than the recent message cache
+     * are served from memory when the chat was opened before.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param limit the maximum number of messages to return
+     * @return up to {@code limit} messages in chronological order
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getLatestMessages(ChatType chatType, int chatId, int limit) throws SQLException {
+        int cachedPerChat = messageCache.messagesPerChat();
+        if (limit > cachedPerChat) return queryLatestMessages(chatType, chatId, limit);
+
+        ChatKey key = new ChatKey(chatType, chatId);
+        List<Message> cached = messageCache.getLatest(key, limit);
+        if (cached != null) return cached;
+
+        // Load a full cache-sized page so smaller follow-up requests are hits as well
+        List<Message> page = queryLatestMessages(chatType, chatId, cachedPerChat);
+        messageCache.putLatest(key, page, page.size() < cachedPerChat);
+        return new ArrayList<>(page.subList(Math.max(0, page.size() - limit), page.size()));
+    }
+
+    private List<Message> queryLatestMessages(ChatType chatType, int chatId, int limit) throws SQLException {
+        return readStore(new ChatKey(chatType, chatId)).latest(chatType, chatId, limit);
+    }
+
+    /**
+     * Gets the page of messages sent right before the given message, oldest first. Pass the oldest message
+     * already loaded to scroll further back in the history.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param before the exclusive keyset cursor; only messages older than it are returned
+     * @param limit the maximum number of messages to return
+     * @return up to {@code limit} messages in chronological order
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Message> getMessagesBefore(ChatType chatType, int chatId, Message before, int limit) throws SQLException {
+        return readStore(new ChatKey(chatType, chatId)).before(chatType, chatId, before, limit);
+    }
+
+    /**
+     * Brings a client's copy of a chat's history up to date. A client without a copy, or one that missed more
+     * than {@code limit} messages, gets the newest page to replace its copy with; otherwise it gets the messages
+     * sent since shortly before the newest one it holds and the edits and deletions since its change log position.
+     *
+     * <p>Messages get their IDs before they are stored, so one can commit after a newer one the client already
+     * holds. The messages of the last {@value #SYNC_OVERLAP_MILLIS} ms before the client's newest are therefore
+     * sent again, and the client skips those it has. Changes of a chat commit in seq order, so their cursor is exact.
+     *
+     * @param chat the chat
+     * @param newest the newest message the client holds, or null if it holds none
+     * @param changeSeq the change log position returned by the previous sync
+     * @param limit the page size, and the most new messages or changes sent as a delta
+     * @return what the client has to apply
+     * @throws SQLException if a database access error occurs
+     */
+    public ChatDelta syncMessages(ChatKey chat, Message newest, long changeSeq, int limit) throws SQLException {
+        if (newest != null) {
+            // Changes are read first: a change made after this read is replayed by the next sync
+            List<MessageChange> changes = getChangesSince(chat, changeSeq, limit + 1);
+            if (changes.size() <= limit) {
+                List<Message> messages = readStore(chat).after(chat.type(), chat.chatId(), overlapCursor(newest), limit + 1);
+                if (messages.size() <= limit) {
+                    long seq = changes.isEmpty() ? changeSeq : changes.getLast().seq();
+                    // Written by another process, so the cached tail of this chat may be stale
+                    if (!changes.isEmpty()) {
+                        messageCache.invalidate(chat);
+                    } else {
+                        messageCache.invalidateUnlessCached(chat, messages);
+                    }
+                    return new ChatDelta(messages, changes, seq, false);
+                }
+            }
+        }
+        long seq = latestChangeSeq(chat);
+        return new ChatDelta(getLatestMessages(chat.type(), chat.chatId(), limit), List.of(), seq, true);
+    }
+
+    /**
+     * Returns a cursor placed {@value #SYNC_OVERLAP_MILLIS} ms before the given message, ahead of any message
+     * that may still commit behind it.
+     */
+    private static Message overlapCursor(Message newest) {
+        Instant from = newest.sentAt().minusMillis(SYNC_OVERLAP_MILLIS);
+        return new Message(SnowflakeIdGenerator.firstIdAt(from), newest.chatType(), newest.chatId(), 0, null, null, from);
+    }
+
+    /**
+     * Replaces the content of one of the user's own messages and records the edit in the chat's change log.
+     *
+     * @param message the stored message
+     * @param userId the ID of the user editing it
+     * @param content the new content
+     * @return the recorded change, or null if the message is not the user's or no longer exists
+     * @throws SQLException if a database access error occurs or the message store cannot edit messages
+     */
+    public MessageChange editMessage(Message message, int userId, String content) throws SQLException {
+        return changeMessage(message, userId, content);
+    }
+
+    /**
+     * Deletes one of the user's own messages and records the deletion in the chat's change log.
+     *
+     * @param message the stored message
+     * @param userId the ID of the user deleting it
+     * @return the recorded change, or null if the message is not the user's or no longer exists
+     * @throws SQLException if a database access error occurs or the message store cannot delete messages
+     */
+    public MessageChange deleteMessage(Message message, int userId) throws SQLException {
+        return changeMessage(message, userId, null);
+    }
+
+    /**
+     * Applies an edit or deletion and records it in one transaction. The transaction runs on a pooled connection
+     * of its own, as the repository's connection is shared by concurrent calls that must not join it.
+     */
+    private MessageChange changeMessage(Message message, int userId, String content) throws SQLException {
+        if (message.senderId() != userId) return null;
+        ChatKey chat = ChatKey.of(message);
+        MessageChange change;
+        try (Connection transaction = DatabaseManager.getInstance().getConnection()) {
+            transaction.setAutoCommit(false);
+            try {
+                change = changeMessage(transaction, message, chat, content);
+                if (change != null) {
+                    transaction.commit();
+                } else {
+                    transaction.rollback();
+                }
+            } catch (SQLException e) {
+                transaction.rollback();
+                throw e;
+            } finally {
+                // Back to the pool's default
+                transaction.setAutoCommit(true);
+            }
+        }
+        if (change == null) return null;
+        recordWrite(chat);
+        messageCache.invalidate(chat);
+        return change;
+    }
+
+    /**
+     * Runs the statements of an edit or deletion inside the given transaction. Changes of one chat are serialized
+     * by an advisory lock taken before the seq is drawn and held until commit, so they commit in seq order and a
+     * sync reading after a seq never misses a change that commits later.
+     */
+    private MessageChange changeMessage(Connection transaction, Message message, ChatKey chat, String content) throws SQLException {
+        String lock = "SELECT pg_advisory_xact_lock(?, ?)";
+        String record = "INSERT INTO message_changes (chat_type, chat_id, message_id, content) VALUES (?, ?, ?, ?) RETURNING seq";
+        String preview = "UPDATE conversation_summaries SET last_message_preview = LEFT(?, 140) "
+                + "WHERE chat_type = ? AND chat_id = ? AND last_message_id = ?";
+        try (PreparedStatement stmt = transaction.prepareStatement(lock)) {
+            stmt.setInt(1, CHANGE_LOCK_CLASS + chat.type().ordinal());
+            stmt.setInt(2, chat.chatId());
+            stmt.execute();
+        }
+        if (!messageStore.on(transaction).update(message, content)) return null;
+        if (content == null) new OutboxRepository(transaction).discard(message.id());
+        MessageChange change;
+        try (PreparedStatement stmt = transaction.prepareStatement(record)) {
+            stmt.setString(1, chat.type().name());
+            stmt.setInt(2, chat.chatId());
+            stmt.setLong(3, message.id());
+            stmt.setString(4, content);
+            ResultSet rs = stmt.executeQuery();
+            rs.next();
+            change = new MessageChange(rs.getLong(1), chat, message.id(), content);
+        }
+        try (PreparedStatement stmt = transaction.prepareStatement(preview)) {
+            stmt.setString(1, content != null ? content : "Message deleted");
+            stmt.setString(2, chat.type().name());
+            stmt.setInt(3, chat.chatId());
+            stmt.setLong(4, message.id());
             stmt.executeUpdate();
         }
+        return change;
     }
 
     /**
-     * Gets all messages for a private chat.
+     * Gets the edits and deletions of a chat after the given change log position, oldest first.
+     *
+     * @param chat the chat
+     * @param afterSeq the exclusive change log position to start after
+     * @param limit the maximum number of changes to return
+     * @return up to {@code limit} changes in change log order
+     * @throws SQLException if a database access error occurs
      */
-    public List<String> getPrivateMessages(int privateChatId) throws SQLException {
-        List<String> messages = new ArrayList<>();
-        String query = "SELECT u.display_name, m.content FROM messages m JOIN users u ON m.sender_id = u.id WHERE m.private_chat_id = ? ORDER BY m.timestamp";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, privateChatId);
+    public List<MessageChange> getChangesSince(ChatKey chat, long afterSeq, int limit) throws SQLException {
+        String query = "SELECT seq, message_id, content FROM message_changes WHERE chat_type = ? AND chat_id = ? AND seq > ? "
+                + "ORDER BY seq LIMIT ?";
+        List<MessageChange> changes = new ArrayList<>();
+        try (PreparedStatement stmt = readConnection(chat).prepareStatement(query)) {
+            stmt.setString(1, chat.type().name());
+            stmt.setInt(2, chat.chatId());
+            stmt.setLong(3, afterSeq);
+            stmt.setInt(4, limit);
             ResultSet rs = stmt.executeQuery();
-            while (rs.next()) messages.add(rs.getString(1) + ": " + rs.getString(2));
+            while (rs.next()) {
+                changes.add(new MessageChange(rs.getLong(1), chat, rs.getLong(2), rs.getString(3)));
+            }
         }
-        return messages;
+        return changes;
     }
 
     /**
-     * Gets all messages for a group chat.
+     * Returns the change log position of a chat's latest edit or deletion, or 0 if there was none.
+     *
+     * @param chat the chat
+     * @return the change log position to sync from
+     * @throws SQLException if a database access error occurs
      */
-    public List<String> getGroupMessages(int groupChatId) throws SQLException {
-        List<String> messages = new ArrayList<>();
-        String query = "SELECT u.display_name, m.content FROM messages m JOIN users u ON m.sender_id = u.id WHERE m.group_chat_id = ? ORDER BY m.timestamp";
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
-            stmt.setInt(1, groupChatId);
+    public long latestChangeSeq(ChatKey chat) throws SQLException {
+        String query = "SELECT COALESCE(MAX(seq), 0) FROM message_changes WHERE chat_type = ? AND chat_id = ?";
+        try (PreparedStatement stmt = readConnection(chat).prepareStatement(query)) {
+            stmt.setString(1, chat.type().name());
+            stmt.setInt(2, chat.chatId());
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Searches the messages of every chat the user belongs to, most relevant first. Words are matched
+     * without stemming, so the search works the same for every language; quoted phrases, {@code or} and
+     * {@code -excluded} words are supported.
+     *
+     * @param userId the ID of the searching user
+     * @param searchQuery the search terms as typed by the user
+     * @param limit the maximum number of hits to return
+     * @param offset the number of hits to skip, for fetching later pages
+     * @return the matching messages with highlighted snippets
+     * @throws SQLException if a database access error occurs
+     */
+    public List<SearchHit> searchMessages(int userId, String searchQuery, int limit, int offset) throws SQLException {
+        // Rank and page inside the GIN-filtered subquery so that ts_headline only runs for the returned rows
+        String query = "SELECT hit.id, hit.private_chat_id, hit.group_chat_id, hit.sender_id, u.display_name, hit.content, hit.timestamp, hit.rank, "
+                + "ts_headline('simple', hit.content, websearch_to_tsquery('simple', ?), 'StartSel=[, StopSel=], MaxWords=20, MinWords=5, MaxFragments=2') "
+                + "FROM (SELECT m.id, m.private_chat_id, m.group_chat_id, m.sender_id, m.content, m.timestamp, "
+                + "ts_rank(m.search_vector, q.query) AS rank FROM messages m, websearch_to_tsquery('simple', ?) AS q(query) "
+                + "WHERE m.search_vector @@ q.query AND ("
+                + "m.private_chat_id IN (SELECT chat_id FROM conversation_summaries WHERE user_id = ? AND chat_type = 'PRIVATE') "
+                + "OR m.group_chat_id IN (SELECT chat_id FROM conversation_summaries WHERE user_id = ? AND chat_type = 'GROUP')) "
+                + "ORDER BY rank DESC, m.timestamp DESC, m.id DESC LIMIT ? OFFSET ?) hit "
+                + "JOIN users u ON u.id = hit.sender_id ORDER BY hit.rank DESC, hit.timestamp DESC, hit.id DESC";
+        List<SearchHit> hits = new ArrayList<>();
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
+            stmt.setString(1, searchQuery);
+            stmt.setString(2, searchQuery);
+            stmt.setInt(3, userId);
+            stmt.setInt(4, userId);
+            stmt.setInt(5, limit);
+            stmt.setInt(6, offset);
             ResultSet rs = stmt.executeQuery();
-            while (rs.next()) messages.add(rs.getString(1) + ": " + rs.getString(2));
+            while (rs.next()) {
+                int privateChatId = rs.getInt(2);
+                boolean isPrivate = !rs.wasNull();
+                Message message = new Message(
+                        rs.getLong(1),
+                        isPrivate ? ChatType.PRIVATE : ChatType.GROUP,
+                        isPrivate ? privateChatId : rs.getInt(3),
+                        rs.getInt(4),
+                        rs.getString(5),
+                        rs.getString(6),
+                        rs.getTimestamp(7).toInstant()
+                );
+                hits.add(new SearchHit(message, rs.getString(9), rs.getDouble(8)));
+            }
         }
-        return messages;
+        return hits;
     }
 
     /**
-     * Gets the group chat ID for a given group name.
+     * Gets the group chat ID for a given group name. Group names are not unique, so this returns an arbitrary
+     * match when several groups share the name; prefer the IDs carried by {@link ConversationSummary}.
      */
     public int getGroupChatIdByName(String groupName) throws SQLException {
         String query = "SELECT id FROM group_chats WHERE name = ?";
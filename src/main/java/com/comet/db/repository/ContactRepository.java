@@ -2,25 +2,43 @@ package com.comet.db.repository;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.comet.db.DatabaseManager;
+import com.comet.db.ReadRouter;
+import com.comet.db.cache.UserProfileCache;
+import com.comet.db.model.Contact;
+import com.comet.db.model.Presence;
+import com.comet.db.model.UserProfile;
 
 public class ContactRepository {
     private static final Logger logger = Logger.getLogger(ContactRepository.class.getName());
     
     private final Connection connection;
+    private final UserProfileCache profileCache = UserProfileCache.getInstance();
+    // Set only when a read replica is configured; reads fall back to the primary otherwise
+    private Connection readConnection;
+    private ReadRouter readRouter;
 
     /**
      * Default constructor that initializes the ContactRepository with a database connection
-     * from the DatabaseManager singleton. Throws a RuntimeException if the connection fails.
+     * from the DatabaseManager singleton, plus a replica connection for reads if one is configured.
+     * Throws a RuntimeException if the connection fails.
      */
     public ContactRepository() {
         try {
-            this.connection = DatabaseManager.getInstance().getConnection();
+            DatabaseManager manager = DatabaseManager.getInstance();
+            this.connection = manager.getConnection();
+            if (manager.hasReadReplica()) {
+                this.readConnection = manager.getReadConnection();
+                this.readRouter = manager.readRouter();
+            }
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "[ContactRepo] Failed to get database connection:", e);
             throw new RuntimeException("Database connection error", e);
@@ -36,6 +54,13 @@ public class ContactRepository {
         this.connection = connection;
     }
 
+    /**
+     * Returns the connection that should serve a read of the given user's contacts.
+     */
+    private Connection readConnection(int userId) {
+        return readConnection != null && readRouter.useReplica(userId) ? readConnection : connection;
+    }
+
     /**
      * Adds a contact for the specified user.
      *
@@ -44,14 +69,26 @@ public class ContactRepository {
      * @throws SQLException if a database access error occurs
      */
     public void addContact(int userId, int contactId) throws SQLException {
-        String insert = "INSERT INTO contacts (user_id, contact_id) VALUES (?, ?)";
+        addContacts(userId, List.of(contactId));
+        logger.log(Level.INFO, "[ContactRepo] Added contact: {0} for user: {1}", new Object[]{contactId, userId});
+    }
+
+    /**
+     * Adds several contacts for the specified user in a single round trip. Existing contacts are left as they are.
+     *
+     * @param userId the ID of the user
+     * @param contactIds the IDs of the contacts to add
+     * @throws SQLException if a database access error occurs
+     */
+    public void addContacts(int userId, Collection<Integer> contactIds) throws SQLException {
+        if (contactIds.isEmpty()) return;
+        String insert = "INSERT INTO contacts (user_id, contact_id) SELECT ?, unnest(?) ON CONFLICT DO NOTHING";
         try (PreparedStatement stmt = connection.prepareStatement(insert)) {
             stmt.setInt(1, userId);
-            stmt.setInt(2, contactId);
+            stmt.setArray(2, connection.createArrayOf("integer", contactIds.toArray()));
             stmt.executeUpdate();
-            
-            logger.log(Level.INFO, "[ContactRepo] Added contact: {0} for user: {1}", new Object[]{contactId, userId});
         }
+        if (readRouter != null) readRouter.recordWrite(userId);
     }
 
     /**
@@ -62,14 +99,32 @@ public class ContactRepository {
      * @throws SQLException if a database access error occurs
      */
     public void removeContact(int userId, int contactId) throws SQLException {
-        String delete = "DELETE FROM contacts WHERE (user_id = ? AND contact_id = ?) OR (user_id = ? AND contact_id = ?)";
+        removeContacts(userId, List.of(contactId));
+        logger.log(Level.INFO, "[ContactRepo] Removed contact: {0} and reciprocal for user: {1}", new Object[]{contactId, userId});
+    }
+
+    /**
+     * Removes several contacts for the specified user in a single round trip, together with their reciprocal contacts.
+     *
+     * @param userId the ID of the user
+     * @param contactIds the IDs of the contacts to remove
+     * @throws SQLException if a database access error occurs
+     */
+    public void removeContacts(int userId, Collection<Integer> contactIds) throws SQLException {
+        if (contactIds.isEmpty()) return;
+        String delete = "DELETE FROM contacts WHERE (user_id = ? AND contact_id = ANY(?)) OR (user_id = ANY(?) AND contact_id = ?)";
         try (PreparedStatement stmt = connection.prepareStatement(delete)) {
+            Array ids = connection.createArrayOf("integer", contactIds.toArray());
             stmt.setInt(1, userId);
-            stmt.setInt(2, contactId);
-            stmt.setInt(3, contactId);
+            stmt.setArray(2, ids);
+            stmt.setArray(3, ids);
             stmt.setInt(4, userId);
             stmt.executeUpdate();
-            logger.log(Level.INFO, "[ContactRepo] Removed contact: {0} and reciprocal for user: {1}", new Object[]{contactId, userId});
+        }
+        // The reciprocal rows change the removed contacts' lists as well
+        if (readRouter != null) {
+            readRouter.recordWrite(userId);
+            readRouter.recordWrite(contactIds.toArray());
         }
     }
 
@@ -84,17 +139,61 @@ public class ContactRepository {
         String query = "SELECT contact_id FROM contacts WHERE user_id = ?";
         List<Integer> contacts = new ArrayList<>();
 
-        logger.log(Level.INFO, "[ContactRepo] Retrieving contacts for user: {0}", userId);
-        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                logger.log(Level.INFO, "[ContactRepo] Found contact: {0} for user: {1}", new Object[]{rs.getInt("contact_id"), userId});
                 contacts.add(rs.getInt("contact_id"));
             }
         }
 
-        logger.log(Level.INFO, "[ContactRepo] Retrieved contacts for user: {0}", userId);
+        logger.log(Level.FINE, "[ContactRepo] Retrieved {0} contacts for user: {1}", new Object[]{contacts.size(), userId});
+        return contacts;
+    }
+
+    /**
+     * Retrieves the IDs of the users who have the specified user in their contact list, i.e. who see the
+     * user's presence there.
+     *
+     * @param userId the ID of the user
+     * @return the IDs of the users listing the user as a contact
+     * @throws SQLException if a database access error occurs
+     */
+    public Set<Integer> getWatchers(int userId) throws SQLException {
+        String query = "SELECT user_id FROM contacts WHERE contact_id = ?";
+        Set<Integer> watchers = new HashSet<>();
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                watchers.add(rs.getInt(1));
+            }
+        }
+        return watchers;
+    }
+
+    /**
+     * Retrieves the contacts of the specified user with their IDs, display names and avatars in a single query.
+     * The profiles are also put into the profile cache, so later lookups by display name do not hit the database.
+     *
+     * @param userId the ID of the user whose contacts are to be retrieved
+     * @return the contacts ordered by display name, all {@link Presence#OFFLINE} until presence is known
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Contact> getContactsForUser(int userId) throws SQLException {
+        List<Contact> contacts = new ArrayList<>();
+        String query = "SELECT u.id, u.display_name, u.image_url FROM contacts c JOIN users u ON c.contact_id = u.id "
+                + "WHERE c.user_id = ? ORDER BY u.display_name";
+        try (PreparedStatement stmt = readConnection(userId).prepareStatement(query)) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                UserProfile profile = new UserProfile(rs.getInt(1), rs.getString(2), rs.getString(3));
+                profileCache.put(profile);
+                contacts.add(new Contact(profile.id(), profile.displayName(), profile.imageUrl(), Presence.OFFLINE));
+            }
+        }
+        logger.log(Level.FINE, "[ContactRepo] Retrieved {0} contacts for user: {1}", new Object[]{contacts.size(), userId});
         return contacts;
     }
 
@@ -107,15 +206,13 @@ public class ContactRepository {
     public List<String> getContactNamesForUser(int userId) {
         List<String> contacts = new ArrayList<>();
         String query = "SELECT u.display_name FROM contacts c JOIN users u ON c.contact_id = u.id WHERE c.user_id = ?";
-        
-        logger.log(Level.INFO, "[ContactRepo] Retrieving contact names for user: {0}", userId);
+
         try (
-            PreparedStatement stmt = connection.prepareStatement(query)
+            PreparedStatement stmt = readConnection(userId).prepareStatement(query)
         ) {
             stmt.setInt(1, userId);
             ResultSet rs = stmt.executeQuery();
             while (rs.next()) {
-                logger.log(Level.INFO, "[ContactRepo] Found contact name: {0} for user: {1}", new Object[]{rs.getString("display_name"), userId});
                 contacts.add(rs.getString("display_name"));
             }
         } catch (SQLException e) {
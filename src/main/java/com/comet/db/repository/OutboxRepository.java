@@ -0,0 +1,144 @@
+package com.comet.db.repository;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.OutboxEntry;
+
+/**
+ * Per-recipient delivery outbox. Every stored message is queued once for each member of its chat other than
+ * the sender, and stays queued until the recipient acknowledges it. Acknowledged entries are deleted in bulk,
+ * so whatever is left for a recipient is exactly what they have not confirmed yet.
+ */
+public class OutboxRepository {
+    private static final Logger logger = Logger.getLogger(OutboxRepository.class.getName());
+
+    private final Connection connection;
+
+    /**
+     * Constructs an OutboxRepository with the given database connection.
+     *
+     * @param connection the SQL connection to use for database operations
+     */
+    public OutboxRepository(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Queues a message for every member of its chat except the sender. Entries only reference the message, which
+     * must be stored in the same transaction.
+     *
+     * @param message the stored message
+     * @return the outbox sequence number of each recipient's entry, by recipient ID
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<Integer, Long> enqueue(Message message) throws SQLException {
+        boolean isPrivate = message.chatType() == ChatType.PRIVATE;
+        String members = isPrivate
+                ? "SELECT user1_id AS user_id FROM private_chats WHERE id = ? UNION ALL SELECT user2_id FROM private_chats WHERE id = ?"
+                : "SELECT user_id FROM group_members WHERE group_id = ?";
+        String insert = "INSERT INTO message_outbox (recipient_id, message_id, chat_type, chat_id, sent_at) "
+                + "SELECT DISTINCT m.user_id, ?, ?, ?, ? FROM (" + members + ") m WHERE m.user_id <> ? "
+                + "RETURNING recipient_id, seq";
+        Map<Integer, Long> seqs = new HashMap<>();
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            int i = 1;
+            stmt.setLong(i++, message.id());
+            stmt.setString(i++, message.chatType().name());
+            stmt.setInt(i++, message.chatId());
+            stmt.setTimestamp(i++, Timestamp.from(message.sentAt()));
+            stmt.setInt(i++, message.chatId());
+            if (isPrivate) stmt.setInt(i++, message.chatId());
+            stmt.setInt(i, message.senderId());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                seqs.put(rs.getInt(1), rs.getLong(2));
+            }
+        }
+        return seqs;
+    }
+
+    /**
+     * Returns the oldest undelivered entries of a recipient with the current content of their messages.
+     *
+     * @param recipientId the ID of the recipient
+     * @param limit the maximum number of entries to return
+     * @return up to {@code limit} entries in sequence order
+     * @throws SQLException if a database access error occurs
+     */
+    public List<OutboxEntry> pending(int recipientId, int limit) throws SQLException {
+        // The timestamp is part of the message's primary key and prunes the lookup to its partition
+        String query = "SELECT o.seq, o.message_id, o.chat_type, o.chat_id, m.sender_id, u.display_name, m.content, o.sent_at "
+                + "FROM message_outbox o JOIN messages m ON m.id = o.message_id AND m.timestamp = o.sent_at "
+                + "JOIN users u ON u.id = m.sender_id "
+                + "WHERE o.recipient_id = ? ORDER BY o.seq LIMIT ?";
+        List<OutboxEntry> entries = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, recipientId);
+            stmt.setInt(2, limit);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                entries.add(new OutboxEntry(rs.getLong(1), new Message(
+                        rs.getLong(2),
+                        ChatType.valueOf(rs.getString(3)),
+                        rs.getInt(4),
+                        rs.getInt(5),
+                        rs.getString(6),
+                        rs.getString(7),
+                        rs.getTimestamp(8).toInstant()
+                )));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Drops every recipient's entry for a deleted message, which is no longer there to deliver.
+     *
+     * @param messageId the ID of the deleted message
+     * @throws SQLException if a database access error occurs
+     */
+    public void discard(long messageId) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("DELETE FROM message_outbox WHERE message_id = ?")) {
+            stmt.setLong(1, messageId);
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Deletes acknowledged entries of a recipient in a single statement.
+     *
+     * @param recipientId the ID of the recipient
+     * @param seqs the sequence numbers the recipient acknowledged
+     * @return the newest message ID deleted in each chat, the recipient's new delivery marks; repeated
+     *         acknowledgements delete nothing and return no marks
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<ChatKey, Long> acknowledge(int recipientId, Collection<Long> seqs) throws SQLException {
+        Map<ChatKey, Long> delivered = new HashMap<>();
+        if (seqs.isEmpty()) return delivered;
+        String delete = "WITH deleted AS (DELETE FROM message_outbox WHERE recipient_id = ? AND seq = ANY(?) "
+                + "RETURNING chat_type, chat_id, message_id) "
+                + "SELECT chat_type, chat_id, max(message_id) FROM deleted GROUP BY chat_type, chat_id";
+        try (PreparedStatement stmt = connection.prepareStatement(delete)) {
+            stmt.setInt(1, recipientId);
+            stmt.setArray(2, connection.createArrayOf("bigint", seqs.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                delivered.put(new ChatKey(ChatType.valueOf(rs.getString(1)), rs.getInt(2)), rs.getLong(3));
+            }
+        }
+        logger.log(Level.FINE, "[OutboxRepo] Removed acknowledged entries in {0} chats for user: {1}", new Object[]{delivered.size(), recipientId});
+        return delivered;
+    }
+}
@@ -0,0 +1,134 @@
+package com.comet.db.repository;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.comet.db.DatabaseManager;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Receipt;
+
+/**
+ * Delivery and read receipts, stored as one pair of high-water marks per member and chat on the member's
+ * conversation summary instead of one row per message and reader.
+ */
+public class ReceiptRepository {
+    private static final Logger logger = Logger.getLogger(ReceiptRepository.class.getName());
+
+    private final Connection connection;
+
+    /**
+     * Constructs a ReceiptRepository using a connection from the DatabaseManager.
+     */
+    public ReceiptRepository() {
+        try {
+            this.connection = DatabaseManager.getInstance().getConnection();
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "[ReceiptRepo] Failed to get database connection:", e);
+            throw new RuntimeException("Database connection error", e);
+        }
+    }
+
+    /**
+     * Constructs a ReceiptRepository with the given database connection.
+     *
+     * @param connection the SQL connection to use for database operations
+     */
+    public ReceiptRepository(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Advances the marks of many members in a single statement. Marks never move backwards, and a chat whose
+     * newest message is read has no unread messages left. Receipts that advance nothing are skipped.
+     *
+     * @param receipts at most one receipt per member and chat
+     * @return the advanced marks to tell each other member of the chats, by recipient ID
+     * @throws SQLException if a database access error occurs
+     */
+    public Map<Integer, List<Receipt>> saveWatermarks(Collection<Receipt> receipts) throws SQLException {
+        Map<Integer, List<Receipt>> notices = new HashMap<>();
+        if (receipts.isEmpty()) return notices;
+
+        // Members are read from the snapshot before the update, which is all the join needs
+        String update = "WITH updated AS ("
+                + "UPDATE conversation_summaries s SET "
+                + "delivered_message_id = GREATEST(s.delivered_message_id, NULLIF(r.delivered_id, 0), NULLIF(r.read_id, 0)), "
+                + "read_message_id = GREATEST(s.read_message_id, NULLIF(r.read_id, 0)), "
+                + "unread_count = CASE WHEN r.read_id >= s.last_message_id THEN 0 ELSE s.unread_count END "
+                + "FROM unnest(?, ?, ?, ?, ?) AS r(user_id, chat_type, chat_id, delivered_id, read_id) "
+                + "WHERE s.user_id = r.user_id AND s.chat_type = r.chat_type AND s.chat_id = r.chat_id "
+                // Marks that would not move are neither rewritten nor pushed again
+                + "AND (GREATEST(r.delivered_id, r.read_id) > COALESCE(s.delivered_message_id, 0) "
+                + "OR r.read_id > COALESCE(s.read_message_id, 0)) "
+                + "RETURNING s.user_id, s.chat_type, s.chat_id, s.delivered_message_id, s.read_message_id) "
+                + "SELECT m.user_id, u.user_id, u.chat_type, u.chat_id, u.delivered_message_id, u.read_message_id "
+                + "FROM updated u JOIN conversation_summaries m ON m.chat_type = u.chat_type AND m.chat_id = u.chat_id "
+                + "AND m.user_id <> u.user_id";
+
+        int size = receipts.size();
+        Integer[] userIds = new Integer[size];
+        String[] chatTypes = new String[size];
+        Integer[] chatIds = new Integer[size];
+        Long[] deliveredIds = new Long[size];
+        Long[] readIds = new Long[size];
+        int i = 0;
+        for (Receipt receipt : receipts) {
+            userIds[i] = receipt.userId();
+            chatTypes[i] = receipt.chat().type().name();
+            chatIds[i] = receipt.chat().chatId();
+            deliveredIds[i] = receipt.deliveredId();
+            readIds[i] = receipt.readId();
+            i++;
+        }
+
+        try (PreparedStatement stmt = connection.prepareStatement(update)) {
+            stmt.setArray(1, connection.createArrayOf("integer", userIds));
+            stmt.setArray(2, connection.createArrayOf("varchar", chatTypes));
+            stmt.setArray(3, connection.createArrayOf("integer", chatIds));
+            stmt.setArray(4, connection.createArrayOf("bigint", deliveredIds));
+            stmt.setArray(5, connection.createArrayOf("bigint", readIds));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                notices.computeIfAbsent(rs.getInt(1), recipient -> new ArrayList<>()).add(new Receipt(
+                        rs.getInt(2),
+                        new ChatKey(ChatType.valueOf(rs.getString(3)), rs.getInt(4)),
+                        rs.getLong(5),
+                        rs.getLong(6)
+                ));
+            }
+        }
+        logger.log(Level.FINE, "[ReceiptRepo] Flushed {0} watermarks", size);
+        return notices;
+    }
+
+    /**
+     * Returns the marks of every member of a chat.
+     *
+     * @param chat the chat
+     * @return one receipt per member; members without marks have {@link Receipt#NONE}
+     * @throws SQLException if a database access error occurs
+     */
+    public List<Receipt> getWatermarks(ChatKey chat) throws SQLException {
+        String query = "SELECT user_id, delivered_message_id, read_message_id FROM conversation_summaries "
+                + "WHERE chat_type = ? AND chat_id = ?";
+        List<Receipt> receipts = new ArrayList<>();
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setString(1, chat.type().name());
+            stmt.setInt(2, chat.chatId());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                // getLong maps SQL NULL to 0, which is Receipt.NONE
+                receipts.add(new Receipt(rs.getInt(1), chat, rs.getLong(2), rs.getLong(3)));
+            }
+        }
+        return receipts;
+    }
+}
@@ -0,0 +1,88 @@
+package com.comet.db.repository;
+
+import java.sql.*;
+import java.time.Instant;
+
+import com.comet.db.model.Message;
+
+/**
+ * Idempotency keys of sent messages. A client tags each message it sends with a key of its own and sends it again
+ * under the same key when it cannot tell whether the first attempt arrived. Claiming the key in the transaction
+ * that stores the message makes sure only one attempt is stored; the others are answered with that message.
+ */
+public class SendKeyRepository {
+    /** How long keys are kept; clients fail and stop resending a send after an hour. */
+    public static final long RETENTION_HOURS = 24;
+
+    /**
+     * Where a claimed key already points.
+     *
+     * @param messageId the ID of the message stored under the key
+     * @param sentAt when that message was sent
+     */
+    public record Claimed(long messageId, Instant sentAt) {}
+
+    private final Connection connection;
+
+    /**
+     * Constructs a SendKeyRepository with the given database connection.
+     *
+     * @param connection the SQL connection to use for database operations
+     */
+    public SendKeyRepository(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Claims a key for a message about to be stored. Run it in the transaction that stores the message: a
+     * concurrent claim of the same key waits for that transaction and then fails.
+     *
+     * @param key the sender's key for the message
+     * @param message the message created for it
+     * @return true if the key was free and now points to the message
+     * @throws SQLException if a database access error occurs
+     */
+    public boolean claim(String key, Message message) throws SQLException {
+        String insert = "INSERT INTO message_send_keys (sender_id, client_key, message_id, sent_at) VALUES (?, ?, ?, ?) "
+                + "ON CONFLICT (sender_id, client_key) DO NOTHING";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            stmt.setInt(1, message.senderId());
+            stmt.setString(2, key);
+            stmt.setLong(3, message.id());
+            stmt.setTimestamp(4, Timestamp.from(message.sentAt()));
+            return stmt.executeUpdate() == 1;
+        }
+    }
+
+    /**
+     * Looks up the message a key was claimed for.
+     *
+     * @param senderId the ID of the sender
+     * @param key the sender's key
+     * @return the message the key points to, or null if it is not claimed
+     * @throws SQLException if a database access error occurs
+     */
+    public Claimed find(int senderId, String key) throws SQLException {
+        String query = "SELECT message_id, sent_at FROM message_send_keys WHERE sender_id = ? AND client_key = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, senderId);
+            stmt.setString(2, key);
+            ResultSet rs = stmt.executeQuery();
+            return rs.next() ? new Claimed(rs.getLong(1), rs.getTimestamp(2).toInstant()) : null;
+        }
+    }
+
+    /**
+     * Deletes keys older than the retention period.
+     *
+     * @return the number of keys deleted
+     * @throws SQLException if a database access error occurs
+     */
+    public int prune() throws SQLException {
+        String delete = "DELETE FROM message_send_keys WHERE sent_at < ?";
+        try (PreparedStatement stmt = connection.prepareStatement(delete)) {
+            stmt.setTimestamp(1, Timestamp.from(Instant.now().minusSeconds(RETENTION_HOURS * 3600)));
+            return stmt.executeUpdate();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package com.comet.db.repository;
 
 import com.comet.db.DatabaseManager;
+import com.comet.db.cache.RecentMessageCache;
+import com.comet.db.cache.UserProfileCache;
+import com.comet.db.model.UserProfile;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -17,6 +20,7 @@ public class UserRepository {
     private static final Logger logger = Logger.getLogger(UserRepository.class.getName());
 
     private final Connection connection;
+    private final UserProfileCache profileCache = UserProfileCache.getInstance();
 
     /**
      * Default constructor that initializes the UserRepository with a database connection
@@ -140,20 +144,25 @@ public class UserRepository {
     }
 
     /**
-     * Retrieves the user ID for the given display name.
+     * Retrieves the user ID for the given display name. Served from the profile cache when the user was seen before.
      *
      * @param displayName the display name of the user
      * @return the user ID if found, or -1 if not found
      */
     public int getUserIdByDisplayName(String displayName) {
-        String query = "SELECT id FROM users WHERE display_name = ?";
+        Integer cached = profileCache.getIdByDisplayName(displayName);
+        if (cached != null) return cached;
+
+        String query = "SELECT id, display_name, image_url FROM users WHERE display_name = ?";
         try (
             PreparedStatement stmt = connection.prepareStatement(query)
         ) {
             stmt.setString(1, displayName);
             ResultSet rs = stmt.executeQuery();
             if (rs.next()) {
-                return rs.getInt("id");
+                UserProfile profile = readProfile(rs);
+                profileCache.put(profile);
+                return profile.id();
             }
         } catch (SQLException e) {
             e.printStackTrace();
@@ -161,6 +170,37 @@ public class UserRepository {
         return -1; // Return -1 if user not found
     }
 
+    /**
+     * Retrieves the profile of the given user. Served from the profile cache when the user was seen before.
+     *
+     * @param userId the ID of the user
+     * @return the user's profile, or null if not found or an error occurred
+     */
+    public UserProfile getUserProfile(int userId) {
+        UserProfile cached = profileCache.get(userId);
+        if (cached != null) return cached;
+
+        String query = "SELECT id, display_name, image_url FROM users WHERE id = ?";
+        try (
+            PreparedStatement stmt = connection.prepareStatement(query)
+        ) {
+            stmt.setInt(1, userId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                UserProfile profile = readProfile(rs);
+                profileCache.put(profile);
+                return profile;
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "[UserRepo] Error retrieving profile for user ID: " + userId, e);
+        }
+        return null;
+    }
+
+    private static UserProfile readProfile(ResultSet rs) throws SQLException {
+        return new UserProfile(rs.getInt("id"), rs.getString("display_name"), rs.getString("image_url"));
+    }
+
     /**
      * Retrieves the user ID for the given username.
      *
@@ -187,45 +227,36 @@ public class UserRepository {
 
     /**
      * Updates the user profile with the given display name and image URL for the specified user ID.
+     * Empty values keep the current ones. The profile cache is refreshed with the stored result; other
+     * processes must be told to invalidate the user separately.
      *
      * @param userId the ID of the user to update
      * @param displayName the new display name
      * @param imageUrl the new image URL
+     * @return the updated profile, or null if the user does not exist or the update failed
      */
-    public void updateUserProfile(int userId, String displayName, String imageUrl) {
-        // Fetch current values if fields are empty
-        String currentDisplayName = displayName;
-        String currentImageUrl = imageUrl;
-        if (displayName == null || displayName.isEmpty() || imageUrl == null || imageUrl.isEmpty()) {
-            String query = "SELECT display_name, image_url FROM users WHERE id = ?";
-            try (PreparedStatement stmt = connection.prepareStatement(query)) {
-                stmt.setInt(1, userId);
-                ResultSet rs = stmt.executeQuery();
-                if (rs.next()) {
-                    if (displayName == null || displayName.isEmpty()) {
-                        currentDisplayName = rs.getString("display_name");
-                    }
-                    if (imageUrl == null || imageUrl.isEmpty()) {
-                        currentImageUrl = rs.getString("image_url");
-                    }
-                }
-            } catch (SQLException e) {
-                logger.log(Level.SEVERE, "[UserRepo] Error fetching current user profile for user ID: " + userId, e);
-                return;
-            }
-        }
-        String query = "UPDATE users SET display_name = ?, image_url = ? WHERE id = ?";
+    public UserProfile updateUserProfile(int userId, String displayName, String imageUrl) {
+        String query = "UPDATE users SET display_name = COALESCE(NULLIF(?, ''), display_name), "
+                + "image_url = COALESCE(NULLIF(?, ''), image_url) WHERE id = ? RETURNING id, display_name, image_url";
         try (
             PreparedStatement stmt = connection.prepareStatement(query)
         ) {
             logger.log(Level.INFO, "[UserRepo] Updating user profile for user ID: {0}", userId);
-            stmt.setString(1, currentDisplayName);
-            stmt.setString(2, currentImageUrl);
+            stmt.setString(1, displayName);
+            stmt.setString(2, imageUrl);
             stmt.setInt(3, userId);
-            stmt.executeUpdate();
+            ResultSet rs = stmt.executeQuery();
+            if (!rs.next()) return null;
+
+            UserProfile profile = readProfile(rs);
+            profileCache.put(profile);
+            // Cached message pages carry resolved sender names
+            RecentMessageCache.getInstance().clear();
             logger.log(Level.INFO, "[UserRepo] User profile updated successfully for user ID: {0}", userId);
+            return profile;
         } catch (SQLException e) {
             logger.log(Level.SEVERE, "[UserRepo] Error updating user profile for user ID: " + userId, e);
+            return null;
         }
     }
 
@@ -236,18 +267,7 @@ public class UserRepository {
      * @return the image URL if found, or null if not found or error
      */
     public String getUserImageUrl(int userId) {
-        String query = "SELECT image_url FROM users WHERE id = ?";
-        try (
-            PreparedStatement stmt = connection.prepareStatement(query)
-        ) {
-            stmt.setInt(1, userId);
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getString("image_url");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
-        return null;
+        UserProfile profile = getUserProfile(userId);
+        return profile != null ? profile.imageUrl() : null;
     }
 }
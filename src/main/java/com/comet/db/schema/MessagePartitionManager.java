@@ -0,0 +1,122 @@
+package com.comet.db.schema;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the monthly range partitions of the {@code messages} table: creates partitions ahead of time
+ * so inserts never hit a missing range, and enforces retention by detaching and dropping whole months
+ * instead of deleting rows.
+ */
+public class MessagePartitionManager {
+    private static final Logger logger = Logger.getLogger(MessagePartitionManager.class.getName());
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("'messages_p'yyyy'_'MM");
+
+    private final Connection connection;
+
+    /**
+     * Constructs a MessagePartitionManager using the given connection. Detaching partitions concurrently
+     * cannot run inside a transaction, so the connection must be in autocommit mode.
+     *
+     * @param connection the SQL connection to use for maintenance
+     */
+    public MessagePartitionManager(Connection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Returns the partition table name holding messages of the given month, e.g. {@code messages_p2026_10}.
+     */
+    static String partitionName(YearMonth month) {
+        return month.atDay(1).format(PARTITION_SUFFIX);
+    }
+
+    /**
+     * Creates the partitions for the current month and the given number of months after it, if missing.
+     *
+     * @param monthsAhead how many future months to provision
+     * @throws SQLException if a partition cannot be created
+     */
+    public void ensureFuturePartitions(int monthsAhead) throws SQLException {
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            String ddl = String.format(
+                    "CREATE TABLE IF NOT EXISTS %s PARTITION OF messages FOR VALUES FROM ('%s') TO ('%s')",
+                    partitionName(month), month.atDay(1), month.plusMonths(1).atDay(1));
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute(ddl);
+            }
+        }
+        logger.log(Level.INFO, "[DB] Message partitions provisioned through {0}.", current.plusMonths(monthsAhead));
+    }
+
+    /**
+     * Removes every partition whose whole month lies before the retention window. A detach that was interrupted
+     * earlier leaves its partition pending; such partitions are finalized first, whatever their month.
+     *
+     * @param retentionMonths number of full months to keep in addition to the current one
+     * @param drop true to drop detached partitions, false to leave them as standalone tables for archiving
+     * @return the names of the partitions that were detached
+     * @throws SQLException if a partition cannot be detached or dropped
+     */
+    public List<String> applyRetention(int retentionMonths, boolean drop) throws SQLException {
+        YearMonth oldestKept = YearMonth.now().minusMonths(retentionMonths);
+        List<Partition> expired = new ArrayList<>();
+        for (Partition partition : listPartitions()) {
+            YearMonth month = parseMonth(partition.name());
+            if (partition.detachPending() || month != null && month.isBefore(oldestKept)) expired.add(partition);
+        }
+
+        List<String> detached = new ArrayList<>();
+        for (Partition partition : expired) {
+            try (Statement stmt = connection.createStatement()) {
+                if (partition.detachPending()) {
+                    // An interrupted CONCURRENTLY detach can neither be repeated nor rolled back, only finished
+                    stmt.execute("ALTER TABLE messages DETACH PARTITION " + partition.name() + " FINALIZE");
+                } else {
+                    // CONCURRENTLY only takes a SHARE UPDATE EXCLUSIVE lock, so sends keep flowing
+                    stmt.execute("ALTER TABLE messages DETACH PARTITION " + partition.name() + " CONCURRENTLY");
+                }
+                if (drop) stmt.execute("DROP TABLE " + partition.name());
+            }
+            detached.add(partition.name());
+            logger.log(Level.INFO, "[DB] Retention removed message partition {0} (dropped: {1}).", new Object[]{partition.name(), drop});
+        }
+        return detached;
+    }
+
+    private record Partition(String name, boolean detachPending) {
+    }
+
+    private List<Partition> listPartitions() throws SQLException {
+        List<Partition> partitions = new ArrayList<>();
+        String query = "SELECT c.relname, i.inhdetachpending FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid "
+                + "WHERE i.inhparent = 'messages'::regclass ORDER BY c.relname";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) partitions.add(new Partition(rs.getString(1), rs.getBoolean(2)));
+        }
+        return partitions;
+    }
+
+    private static YearMonth parseMonth(String partition) {
+        try {
+            return YearMonth.from(LocalDate.parse(partition + "_01", DateTimeFormatter.ofPattern("'messages_p'yyyy'_'MM'_'dd")));
+        } catch (RuntimeException e) {
+            return null; // not one of ours
+        }
+    }
+}
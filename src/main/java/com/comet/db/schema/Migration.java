@@ -0,0 +1,31 @@
+package com.comet.db.schema;
+
+import java.util.List;
+
+/**
+ * A single versioned schema change applied by the {@link MigrationRunner}.
+ *
+ * @param version the schema version this migration brings the database to; versions must be strictly increasing
+ * @param description a short human-readable description stored alongside the version
+ * @param transactional whether the statements run in one transaction; statements such as
+ *                      {@code CREATE INDEX CONCURRENTLY} cannot run inside a transaction block and
+ *                      must set this to false
+ * @param statements the SQL statements to execute, in order
+ */
+public record Migration(int version, String description, boolean transactional, List<String> statements) {
+
+    /**
+     * Creates a migration whose statements are applied atomically in a single transaction.
+     */
+    public static Migration transactional(int version, String description, String... statements) {
+        return new Migration(version, description, true, List.of(statements));
+    }
+
+    /**
+     * Creates a migration whose statements run one by one in autocommit mode. Every statement must be
+     * idempotent, since a failure part-way leaves the version unrecorded and the whole migration is retried.
+     */
+    public static Migration online(int version, String description, String... statements) {
+        return new Migration(version, description, false, List.of(statements));
+    }
+}
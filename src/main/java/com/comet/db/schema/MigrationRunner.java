@@ -0,0 +1,182 @@
+package com.comet.db.schema;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies pending {@link Migration}s and records each applied version in the {@code schema_version} table.
+ * When the database is already current, a single query is issued and nothing is locked.
+ */
+public class MigrationRunner {
+    private static final Logger logger = Logger.getLogger(MigrationRunner.class.getName());
+
+    /** Arbitrary advisory lock key so that servers starting at the same time do not migrate concurrently. */
+    private static final long MIGRATION_LOCK_KEY = 0x636f6d6574L;
+
+    private static final String UNDEFINED_TABLE = "42P01";
+    private static final Pattern CONCURRENT_INDEX = Pattern.compile(
+            "CREATE\\s+(?:UNIQUE\\s+)?INDEX\\s+CONCURRENTLY\\s+(?:IF\\s+NOT\\s+EXISTS\\s+)?(\\w+)", Pattern.CASE_INSENSITIVE);
+
+    private final Connection connection;
+    private final List<Migration> migrations;
+
+    /**
+     * Constructs a MigrationRunner for the given connection and migrations.
+     *
+     * @param connection the SQL connection to migrate through
+     * @param migrations all known migrations, sorted by ascending version
+     */
+    public MigrationRunner(Connection connection, List<Migration> migrations) {
+        this.connection = connection;
+        this.migrations = migrations;
+    }
+
+    /**
+     * Brings the schema up to the latest known version.
+     *
+     * @return the number of migrations that were applied
+     * @throws SQLException if a migration fails; already applied migrations stay recorded
+     */
+    public int migrate() throws SQLException {
+        int latest = migrations.isEmpty() ? 0 : migrations.get(migrations.size() - 1).version();
+        if (currentVersion() >= latest) {
+            logger.log(Level.INFO, "[DB] Schema is up to date at version {0}.", latest);
+            return 0;
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("SELECT pg_advisory_lock(" + MIGRATION_LOCK_KEY + ")");
+        }
+        try {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("""
+                CREATE TABLE IF NOT EXISTS schema_version (
+                    version INTEGER PRIMARY KEY,
+                    description VARCHAR(255) NOT NULL,
+                    applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+                )
+                """);
+            }
+            // Another server may have migrated while we waited for the lock
+            int current = currentVersion();
+            int applied = 0;
+            for (Migration migration : migrations) {
+                if (migration.version() <= current) continue;
+                apply(migration);
+                applied++;
+            }
+            return applied;
+        } finally {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("SELECT pg_advisory_unlock(" + MIGRATION_LOCK_KEY + ")");
+            }
+        }
+    }
+
+    /**
+     * Returns the highest recorded schema version, or 0 for a database that has never been migrated.
+     */
+    int currentVersion() throws SQLException {
+        try (
+            Statement stmt = connection.createStatement();
+            ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")
+        ) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            if (UNDEFINED_TABLE.equals(e.getSQLState())) return 0;
+            throw e;
+        }
+    }
+
+    private void apply(Migration migration) throws SQLException {
+        logger.log(Level.INFO, "[DB] Applying migration {0}: {1}", new Object[]{migration.version(), migration.description()});
+        boolean autoCommit = connection.getAutoCommit();
+        try {
+            if (migration.transactional()) {
+                connection.setAutoCommit(false);
+                try {
+                    executeAll(migration.statements());
+                    recordVersion(migration);
+                    connection.commit();
+                } catch (SQLException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            } else {
+                connection.setAutoCommit(true);
+                dropInvalidIndexes(concurrentIndexNames(migration.statements()));
+                executeAll(migration.statements());
+                recordVersion(migration);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "[DB] Migration " + migration.version() + " failed:", e);
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private void executeAll(List<String> statements) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            for (String sql : statements) {
+                stmt.execute(sql);
+            }
+        }
+    }
+
+    private void recordVersion(Migration migration) throws SQLException {
+        String insert = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the names of the indexes a migration builds with {@code CREATE INDEX CONCURRENTLY}.
+     */
+    static List<String> concurrentIndexNames(List<String> statements) {
+        List<String> names = new ArrayList<>();
+        for (String sql : statements) {
+            Matcher matcher = CONCURRENT_INDEX.matcher(sql);
+            if (matcher.find()) names.add(matcher.group(1));
+        }
+        return names;
+    }
+
+    /**
+     * Drops the given indexes if an interrupted {@code CREATE INDEX CONCURRENTLY} of an earlier attempt left them
+     * invalid. Postgres keeps such an index around, so a retried {@code CREATE INDEX ... IF NOT EXISTS} would
+     * otherwise silently skip it. Only the migration's own indexes are considered: an invalid index may also be
+     * one another session is still building. The migration lock keeps other servers from building these.
+     */
+    private void dropInvalidIndexes(List<String> names) throws SQLException {
+        if (names.isEmpty()) return;
+        List<String> invalid = new ArrayList<>();
+        String query = "SELECT quote_ident(n.nspname) || '.' || quote_ident(c.relname) FROM pg_index i "
+                + "JOIN pg_class c ON c.oid = i.indexrelid JOIN pg_namespace n ON n.oid = c.relnamespace "
+                + "WHERE NOT i.indisvalid AND n.nspname = current_schema() AND c.relname = ANY(?)";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setArray(1, connection.createArrayOf("text", names.toArray()));
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) invalid.add(rs.getString(1));
+        }
+        for (String index : invalid) {
+            logger.log(Level.WARNING, "[DB] Dropping invalid index left by an interrupted build: {0}", index);
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + index);
+            }
+        }
+    }
+}
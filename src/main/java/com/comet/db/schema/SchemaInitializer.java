@@ -4,7 +4,7 @@ import com.comet.db.DatabaseManager;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.List;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -12,9 +12,66 @@ import java.util.logging.Logger;
 public class SchemaInitializer {
     private static final Logger logger = Logger.getLogger(SchemaInitializer.class.getName());
 
+    /** Number of future months that always have a message partition ready. */
+    public static final int PARTITION_MONTHS_AHEAD = 3;
+
+    /**
+     * Ordered list of every schema migration. Append new migrations to the end; never edit one that has shipped.
+     */
+    static final List<Migration> MIGRATIONS = List.of(
+        Migration.transactional(1, "Baseline tables", baselineTables()),
+        Migration.online(2, "Indexes for hot lookup paths",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_private_chat ON messages (private_chat_id, id) WHERE private_chat_id IS NOT NULL",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_messages_group_chat ON messages (group_chat_id, id) WHERE group_chat_id IS NOT NULL",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_users_display_name ON users (display_name)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_group_members_user ON group_members (user_id)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_group_chats_name ON group_chats (name)",
+            "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_private_chats_user2 ON private_chats (user2_id)"
+        ),
+        Migration.transactional(3, "Partition messages by month", partitionMessages()),
+        Migration.transactional(4, "Conversation summaries", conversationSummaries()),
+        // GIN indexes cannot be built concurrently on a partitioned parent, and the generated column rewrites the table anyway
+        Migration.transactional(5, "Full-text search on messages",
+            "ALTER TABLE messages ADD COLUMN search_vector tsvector GENERATED ALWAYS AS (to_tsvector('simple', content)) STORED",
+            "CREATE INDEX idx_messages_search ON messages USING GIN (search_vector)"
+        ),
+        Migration.transactional(6, "Canonical private chat pairs", canonicalPrivateChats()),
+        Migration.transactional(7, "Delivery outbox", deliveryOutbox()),
+        // Nullable columns without defaults only touch the catalog, so the table is not rewritten
+        Migration.transactional(8, "Receipt watermarks",
+            "ALTER TABLE conversation_summaries ADD COLUMN delivered_message_id BIGINT, ADD COLUMN read_message_id BIGINT"
+        ),
+        Migration.transactional(9, "Message change log", messageChanges()),
+        Migration.transactional(10, "Send idempotency keys", sendKeys()),
+        Migration.transactional(11, "Summaries of chats with oneself", conversationSummaryFunction()),
+        // The sequence still comes from the SERIAL column, so it would stop at 2^31 although the column is BIGINT
+        Migration.transactional(12, "64-bit message ID sequence", "ALTER SEQUENCE messages_id_seq AS bigint"),
+        // Replays join the message instead of every recipient holding a copy; deletions drop entries by message
+        Migration.transactional(13, "Outbox entries reference messages",
+            "ALTER TABLE message_outbox DROP COLUMN content, DROP COLUMN sender_id",
+            "CREATE INDEX idx_message_outbox_message ON message_outbox (message_id)"
+        )
+    );
+
+    /**
+     * Brings the database schema up to date. Returns after a single version check when nothing is pending.
+     *
+     * @throws SQLException if the connection cannot be obtained or a migration fails
+     */
     public static void init() throws SQLException {
-        Connection connection = DatabaseManager.getInstance().getConnection();
+        logger.log(Level.INFO, "[DB] Ensuring schema...");
+        try (Connection connection = DatabaseManager.getInstance().getConnection()) {
+            int applied = new MigrationRunner(connection, MIGRATIONS).migrate();
+            if (applied > 0) {
+                logger.log(Level.INFO, "[DB] Schema initialized successfully ({0} migrations applied).", applied);
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "[DB] Schema init failed:", e);
+            throw e;
+        }
+    }
 
+    private static String[] baselineTables() {
         String usersTable = """
         CREATE TABLE IF NOT EXISTS users (
             id SERIAL PRIMARY KEY,
@@ -78,19 +135,257 @@ public class SchemaInitializer {
         )
         """;
 
-        // Ensure the schema is created
-        logger.log(Level.INFO, "[DB] Ensuring schema...");
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(usersTable);
-            stmt.execute(contactsTable);
-            stmt.execute(privateChatsTable);
-            stmt.execute(groupChatsTable);
-            stmt.execute(groupMembersTable);
-            stmt.execute(messagesTable);
-            
-            logger.log(Level.INFO, "[DB] Schema initialized successfully.");
-        } catch (SQLException e) {
-            logger.log(Level.SEVERE, "[DB] Schema init failed:", e);
-        }
+        return new String[]{usersTable, contactsTable, privateChatsTable, groupChatsTable, groupMembersTable, messagesTable};
+    }
+
+    private static String[] partitionMessages() {
+        // The sequence would be dropped together with the old table unless it is detached from it first
+        String renameOld = """
+        ALTER TABLE messages RENAME TO messages_unpartitioned;
+        ALTER INDEX messages_pkey RENAME TO messages_unpartitioned_pkey;
+        ALTER SEQUENCE messages_id_seq OWNED BY NONE
+        """;
+
+        // Partition keys must be part of the primary key, hence (id, timestamp)
+        String partitionedTable = """
+        CREATE TABLE messages (
+            id BIGINT NOT NULL DEFAULT nextval('messages_id_seq'),
+            sender_id INTEGER REFERENCES users(id) ON DELETE CASCADE,
+            private_chat_id INTEGER REFERENCES private_chats(id) ON DELETE CASCADE,
+            group_chat_id INTEGER REFERENCES group_chats(id) ON DELETE CASCADE,
+            content TEXT NOT NULL,
+            timestamp TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+            CHECK (
+                (private_chat_id IS NOT NULL AND group_chat_id IS NULL) OR
+                (group_chat_id IS NOT NULL AND private_chat_id IS NULL)
+            ),
+            PRIMARY KEY (id, timestamp)
+        ) PARTITION BY RANGE (timestamp)
+        """;
+
+        String monthlyPartitions = """
+        DO $$
+        DECLARE
+            month DATE;
+        BEGIN
+            FOR month IN
+                SELECT generate_series(
+                    date_trunc('month', LEAST(COALESCE((SELECT MIN(timestamp) FROM messages_unpartitioned), now()), now())),
+                    date_trunc('month', now()) + interval '%d months',
+                    interval '1 month')::date
+            LOOP
+                EXECUTE format('CREATE TABLE %%I PARTITION OF messages FOR VALUES FROM (%%L) TO (%%L)',
+                    'messages_p' || to_char(month, 'YYYY_MM'), month, (month + interval '1 month')::date);
+            END LOOP;
+        END $$
+        """.formatted(PARTITION_MONTHS_AHEAD);
+
+        String copyRows = """
+        INSERT INTO messages (id, sender_id, private_chat_id, group_chat_id, content, timestamp)
+        SELECT id, sender_id, private_chat_id, group_chat_id, content, COALESCE(timestamp, CURRENT_TIMESTAMP)
+        FROM messages_unpartitioned
+        """;
+
+        // Indexes on the parent cascade to every current and future partition
+        return new String[]{
+            renameOld,
+            partitionedTable,
+            "ALTER SEQUENCE messages_id_seq OWNED BY messages.id",
+            monthlyPartitions,
+            copyRows,
+            "DROP TABLE messages_unpartitioned",
+            "CREATE INDEX idx_messages_private_chat_time ON messages (private_chat_id, timestamp, id) WHERE private_chat_id IS NOT NULL",
+            "CREATE INDEX idx_messages_group_chat_time ON messages (group_chat_id, timestamp, id) WHERE group_chat_id IS NOT NULL"
+        };
+    }
+
+    private static String[] conversationSummaries() {
+        // One row per member and chat; peer_user_id is the other participant of a private chat
+        String summariesTable = """
+        CREATE TABLE conversation_summaries (
+            user_id INTEGER NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+            chat_type VARCHAR(7) NOT NULL CHECK (chat_type IN ('PRIVATE', 'GROUP')),
+            chat_id INTEGER NOT NULL,
+            peer_user_id INTEGER REFERENCES users(id) ON DELETE CASCADE,
+            last_message_id BIGINT,
+            last_message_preview VARCHAR(140),
+            last_message_at TIMESTAMP,
+            last_sender_id INTEGER,
+            unread_count INTEGER NOT NULL DEFAULT 0,
+            PRIMARY KEY (user_id, chat_type, chat_id)
+        )
+        """;
+
+        String backfill = """
+        INSERT INTO conversation_summaries (user_id, chat_type, chat_id, peer_user_id, last_message_id,
+                                            last_message_preview, last_message_at, last_sender_id)
+        SELECT members.user_id, members.chat_type, members.chat_id, members.peer_user_id,
+               latest.id, left(latest.content, 140), latest.timestamp, latest.sender_id
+        FROM (
+            SELECT user1_id AS user_id, 'PRIVATE' AS chat_type, id AS chat_id, user2_id AS peer_user_id FROM private_chats
+            UNION ALL
+            SELECT user2_id, 'PRIVATE', id, user1_id FROM private_chats WHERE user2_id <> user1_id
+            UNION ALL
+            SELECT user_id, 'GROUP', group_id, NULL FROM group_members
+        ) AS members
+        LEFT JOIN LATERAL (
+            SELECT m.id, m.content, m.timestamp, m.sender_id FROM messages m
+            WHERE (members.chat_type = 'PRIVATE' AND m.private_chat_id = members.chat_id)
+               OR (members.chat_type = 'GROUP' AND m.group_chat_id = members.chat_id)
+            ORDER BY m.timestamp DESC, m.id DESC LIMIT 1
+        ) AS latest ON true
+        ON CONFLICT DO NOTHING
+        """;
+
+        return new String[]{
+            summariesTable,
+            "CREATE INDEX idx_conversation_summaries_recent ON conversation_summaries (user_id, last_message_at DESC NULLS LAST)",
+            "CREATE INDEX idx_conversation_summaries_chat ON conversation_summaries (chat_type, chat_id)",
+            conversationSummaryFunction(),
+            "CREATE TRIGGER messages_conversation_summaries AFTER INSERT ON messages FOR EACH ROW EXECUTE FUNCTION update_conversation_summaries()",
+            backfill
+        };
+    }
+
+    /**
+     * The trigger function that fans every new message out to its chat's members. last_* only move forward, so
+     * late inserts of older messages still count as unread without replacing the preview. The second member of a
+     * chat with oneself is skipped, as one statement cannot upsert the same summary twice.
+     */
+    private static String conversationSummaryFunction() {
+        return """
+        CREATE OR REPLACE FUNCTION update_conversation_summaries() RETURNS trigger AS $$
+        BEGIN
+            INSERT INTO conversation_summaries AS s (user_id, chat_type, chat_id, peer_user_id, last_message_id,
+                                                     last_message_preview, last_message_at, last_sender_id, unread_count)
+            SELECT members.user_id, members.chat_type, members.chat_id, members.peer_user_id, NEW.id,
+                   left(NEW.content, 140), NEW.timestamp, NEW.sender_id,
+                   CASE WHEN members.user_id = NEW.sender_id THEN 0 ELSE 1 END
+            FROM (
+                SELECT pc.user1_id AS user_id, 'PRIVATE' AS chat_type, pc.id AS chat_id, pc.user2_id AS peer_user_id
+                FROM private_chats pc WHERE pc.id = NEW.private_chat_id
+                UNION ALL
+                SELECT pc.user2_id, 'PRIVATE', pc.id, pc.user1_id
+                FROM private_chats pc WHERE pc.id = NEW.private_chat_id AND pc.user2_id <> pc.user1_id
+                UNION ALL
+                SELECT gm.user_id, 'GROUP', gm.group_id, NULL
+                FROM group_members gm WHERE gm.group_id = NEW.group_chat_id
+            ) AS members
+            ON CONFLICT (user_id, chat_type, chat_id) DO UPDATE SET
+                last_message_id = CASE WHEN s.last_message_id IS NULL OR (EXCLUDED.last_message_at, EXCLUDED.last_message_id) > (s.last_message_at, s.last_message_id)
+                                       THEN EXCLUDED.last_message_id ELSE s.last_message_id END,
+                last_message_preview = CASE WHEN s.last_message_id IS NULL OR (EXCLUDED.last_message_at, EXCLUDED.last_message_id) > (s.last_message_at, s.last_message_id)
+                                            THEN EXCLUDED.last_message_preview ELSE s.last_message_preview END,
+                last_sender_id = CASE WHEN s.last_message_id IS NULL OR (EXCLUDED.last_message_at, EXCLUDED.last_message_id) > (s.last_message_at, s.last_message_id)
+                                      THEN EXCLUDED.last_sender_id ELSE s.last_sender_id END,
+                last_message_at = GREATEST(s.last_message_at, EXCLUDED.last_message_at),
+                unread_count = s.unread_count + EXCLUDED.unread_count;
+            RETURN NULL;
+        END
+        $$ LANGUAGE plpgsql
+        """;
+    }
+
+    private static String[] canonicalPrivateChats() {
+        // Chats created from both sides exist twice as (a, b) and (b, a); the older one survives
+        String merges = """
+        CREATE TEMP TABLE private_chat_merges ON COMMIT DROP AS
+        SELECT dup.id AS dup_id, keep.id AS keep_id
+        FROM private_chats dup
+        JOIN private_chats keep ON keep.user1_id = dup.user2_id AND keep.user2_id = dup.user1_id AND keep.id < dup.id
+        """;
+
+        // Fold the duplicate's unread count and newer preview into the surviving entry
+        String mergeSummaries = """
+        UPDATE conversation_summaries s SET
+            unread_count = s.unread_count + d.unread_count,
+            last_message_id = CASE WHEN s.last_message_id IS NULL OR (d.last_message_at, d.last_message_id) > (s.last_message_at, s.last_message_id)
+                                   THEN d.last_message_id ELSE s.last_message_id END,
+            last_message_preview = CASE WHEN s.last_message_id IS NULL OR (d.last_message_at, d.last_message_id) > (s.last_message_at, s.last_message_id)
+                                        THEN d.last_message_preview ELSE s.last_message_preview END,
+            last_sender_id = CASE WHEN s.last_message_id IS NULL OR (d.last_message_at, d.last_message_id) > (s.last_message_at, s.last_message_id)
+                                  THEN d.last_sender_id ELSE s.last_sender_id END,
+            last_message_at = GREATEST(s.last_message_at, d.last_message_at)
+        FROM conversation_summaries d
+        JOIN private_chat_merges pm ON d.chat_id = pm.dup_id
+        WHERE d.chat_type = 'PRIVATE' AND d.last_message_id IS NOT NULL
+          AND s.chat_type = 'PRIVATE' AND s.chat_id = pm.keep_id AND s.user_id = d.user_id
+        """;
+
+        String moveSummaries = """
+        UPDATE conversation_summaries s SET chat_id = pm.keep_id
+        FROM private_chat_merges pm
+        WHERE s.chat_type = 'PRIVATE' AND s.chat_id = pm.dup_id
+          AND NOT EXISTS (SELECT 1 FROM conversation_summaries k
+                          WHERE k.user_id = s.user_id AND k.chat_type = 'PRIVATE' AND k.chat_id = pm.keep_id)
+        """;
+
+        return new String[]{
+            merges,
+            "UPDATE messages m SET private_chat_id = pm.keep_id FROM private_chat_merges pm WHERE m.private_chat_id = pm.dup_id",
+            mergeSummaries,
+            moveSummaries,
+            "DELETE FROM conversation_summaries s USING private_chat_merges pm WHERE s.chat_type = 'PRIVATE' AND s.chat_id = pm.dup_id",
+            "DELETE FROM private_chats pc USING private_chat_merges pm WHERE pc.id = pm.dup_id",
+            // No (b, a) row is left for any pair, so swapping cannot collide with the unique constraint
+            "UPDATE private_chats SET user1_id = user2_id, user2_id = user1_id WHERE user1_id > user2_id",
+            "ALTER TABLE private_chats ADD CONSTRAINT private_chats_canonical_pair CHECK (user1_id <= user2_id)"
+        };
+    }
+
+    private static String[] deliveryOutbox() {
+        // One row per recipient and unacknowledged message; the payload is copied so replays never touch messages
+        String outboxTable = """
+        CREATE TABLE message_outbox (
+            recipient_id INTEGER NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+            seq BIGSERIAL NOT NULL,
+            message_id BIGINT NOT NULL,
+            chat_type VARCHAR(7) NOT NULL CHECK (chat_type IN ('PRIVATE', 'GROUP')),
+            chat_id INTEGER NOT NULL,
+            sender_id INTEGER NOT NULL,
+            content TEXT NOT NULL,
+            sent_at TIMESTAMP NOT NULL,
+            PRIMARY KEY (recipient_id, seq)
+        )
+        """;
+
+        return new String[]{outboxTable};
+    }
+
+    private static String[] messageChanges() {
+        // One row per edit or deletion; clients replay the rows of a chat after the last seq they applied
+        String changesTable = """
+        CREATE TABLE message_changes (
+            seq BIGSERIAL PRIMARY KEY,
+            chat_type VARCHAR(7) NOT NULL CHECK (chat_type IN ('PRIVATE', 'GROUP')),
+            chat_id INTEGER NOT NULL,
+            message_id BIGINT NOT NULL,
+            content TEXT,
+            changed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+        )
+        """;
+
+        return new String[]{
+            changesTable,
+            "CREATE INDEX idx_message_changes_chat ON message_changes (chat_type, chat_id, seq)"
+        };
+    }
+
+    private static String[] sendKeys() {
+        // Remembers which message a client's send key produced, so a resent SEND is answered instead of stored twice
+        String keysTable = """
+        CREATE TABLE message_send_keys (
+            sender_id INTEGER NOT NULL REFERENCES users(id) ON DELETE CASCADE,
+            client_key VARCHAR(64) NOT NULL,
+            message_id BIGINT NOT NULL,
+            sent_at TIMESTAMP NOT NULL,
+            PRIMARY KEY (sender_id, client_key)
+        )
+        """;
+
+        return new String[]{
+            keysTable,
+            "CREATE INDEX idx_message_send_keys_sent_at ON message_send_keys (sent_at)"
+        };
     }
 }
@@ -0,0 +1,328 @@
+package com.comet.db.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed file store on the local disk. Every blob is stored once under its SHA-256, so uploading a
+ * file that is already stored costs nothing. Uploads arrive in chunks into a partial file that survives
+ * disconnects; the next upload of the same hash resumes where it stopped, unless the partial file sat idle long
+ * enough for {@link #removeAbandonedUploads} to delete it. A completed upload is verified against its hash before
+ * it is moved into place.
+ *
+ * <p>Blobs are copied between files and channels with {@link FileChannel} transfers, so file contents never
+ * pass through the Java heap.
+ *
+ * <p>Layout: {@code blobs/ab/abcdef...} for stored blobs, fanned out by the first two hex digits, and
+ * {@code uploads/<hash>.part} for uploads in progress.
+ */
+public class BlobStore {
+    private static final Logger logger = Logger.getLogger(BlobStore.class.getName());
+
+    /** Largest blob accepted unless COMET_MAX_BLOB_BYTES says otherwise. */
+    public static final long DEFAULT_MAX_BLOB_BYTES = 100L * 1024 * 1024;
+
+    private static final int HASH_BUFFER_BYTES = 64 * 1024;
+    private static final int UPLOAD_LOCK_STRIPES = 64;
+    private static final String PART_SUFFIX = ".part";
+    private static BlobStore instance;
+
+    /**
+     * Where the bytes of a chunk come from, e.g. the connection the chunk arrived on.
+     */
+    public interface ChunkSource {
+        /**
+         * Writes exactly {@code length} bytes from the source into the file at the given position.
+         */
+        void transferTo(FileChannel target, long position, long length) throws IOException;
+
+        /**
+         * Discards exactly {@code length} bytes of the source.
+         */
+        void skip(long length) throws IOException;
+    }
+
+    /**
+     * Thrown when a completed upload does not match the hash it was announced with. The upload is discarded.
+     */
+    public static class CorruptUploadException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public CorruptUploadException(String hash) {
+            super("Upload does not match its hash " + hash);
+        }
+    }
+
+    private final Path blobDir;
+    private final Path uploadDir;
+    private final long maxBlobBytes;
+    // Striped rather than one per hash, so abandoned uploads leave no locks behind
+    private final Object[] uploadLocks = new Object[UPLOAD_LOCK_STRIPES];
+
+    /**
+     * Opens a blob store rooted at the given directory, creating it if needed.
+     *
+     * @param root the directory holding the store
+     * @param maxBlobBytes the largest blob accepted
+     * @throws IOException if the directories cannot be created
+     */
+    public BlobStore(Path root, long maxBlobBytes) throws IOException {
+        this.blobDir = Files.createDirectories(root.resolve("blobs"));
+        this.uploadDir = Files.createDirectories(root.resolve("uploads"));
+        this.maxBlobBytes = maxBlobBytes;
+        for (int i = 0; i < uploadLocks.length; i++) uploadLocks[i] = new Object();
+    }
+
+    /**
+     * Returns the server's blob store in COMET_BLOB_DIR (default {@code data/blobs}), opening it on first use.
+     */
+    public static synchronized BlobStore getInstance() {
+        if (instance == null) {
+            String dir = System.getenv("COMET_BLOB_DIR");
+            String max = System.getenv("COMET_MAX_BLOB_BYTES");
+            try {
+                instance = new BlobStore(Path.of(dir == null || dir.isBlank() ? "data/blobs" : dir.trim()),
+                        max == null || max.isBlank() ? DEFAULT_MAX_BLOB_BYTES : Long.parseLong(max.trim()));
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "[BlobStore] Failed to open blob store:", e);
+                throw new RuntimeException("Blob store unavailable", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns whether the value is a lowercase hex SHA-256, the only form of key the store accepts.
+     */
+    public static boolean isValidHash(String hash) {
+        if (hash == null || hash.length() != 64) return false;
+        for (int i = 0; i < hash.length(); i++) {
+            char c = hash.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the key of a file by streaming it through SHA-256.
+     *
+     * @param file the file
+     * @return the lowercase hex SHA-256 of the file
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return digest(channel);
+        }
+    }
+
+    /**
+     * Returns whether a blob is stored.
+     */
+    public boolean exists(String hash) {
+        return isValidHash(hash) && Files.isRegularFile(pathOf(hash));
+    }
+
+    /**
+     * Returns the size of a stored blob.
+     *
+     * @return the size in bytes, or -1 if the blob is not stored
+     */
+    public long size(String hash) {
+        try {
+            return exists(hash) ? Files.size(pathOf(hash)) : -1;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Starts or resumes an upload.
+     *
+     * @param hash the SHA-256 of the whole file
+     * @param size the size of the whole file
+     * @return the offset to continue from; equal to {@code size} if the blob is already stored
+     * @throws IOException if the partial upload cannot be inspected
+     * @throws IllegalArgumentException if the hash is malformed or the size is out of range
+     */
+    public long resumeOffset(String hash, long size) throws IOException {
+        checkUpload(hash, size);
+        if (exists(hash)) return size;
+        synchronized (lockFor(hash)) {
+            Path part = partOf(hash);
+            if (!Files.exists(part)) return 0;
+            long written = Files.size(part);
+            if (written <= size) return written;
+            // A partial file longer than the declared size can never verify
+            Files.delete(part);
+            return 0;
+        }
+    }
+
+    /**
+     * Writes one chunk of an upload. Chunks must arrive in order: a chunk that does not start where the partial
+     * file ends is discarded, and the caller learns where to continue. The chunk that completes the file
+     * triggers verification; a file whose hash does not match is deleted.
+     *
+     * @param hash the SHA-256 of the whole file
+     * @param size the size of the whole file
+     * @param offset where the chunk starts in the file
+     * @param length the length of the chunk
+     * @param source supplies the chunk's bytes; exactly {@code length} bytes are always consumed
+     * @return the offset to continue from; equal to {@code size} once the blob is stored
+     * @throws CorruptUploadException if the completed file does not match its hash
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the hash is malformed or the size is out of range
+     */
+    public long writeChunk(String hash, long size, long offset, long length, ChunkSource source) throws IOException {
+        checkUpload(hash, size);
+        if (exists(hash)) {
+            source.skip(length);
+            return size;
+        }
+        synchronized (lockFor(hash)) {
+            // Another connection may have completed the same file while this one waited
+            if (exists(hash)) {
+                source.skip(length);
+                return size;
+            }
+            Path part = partOf(hash);
+            long written;
+            try (FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                written = channel.size();
+                if (offset != written || length < 0 || offset + length > size) {
+                    source.skip(length);
+                    return written;
+                }
+                source.transferTo(channel, offset, length);
+                written += length;
+                if (written < size) return written;
+                channel.force(false);
+            }
+            publish(hash, part);
+            return size;
+        }
+    }
+
+    /**
+     * Deletes the partial files of uploads that were not continued for the given time. Their clients gave up or
+     * will start over, since an upload that is resumed later finds nothing and begins at offset 0.
+     *
+     * @param maxIdle how long a partial file may stay unchanged
+     * @return the number of partial files deleted
+     * @throws IOException if the upload directory cannot be listed
+     */
+    public int removeAbandonedUploads(Duration maxIdle) throws IOException {
+        Instant cutoff = Instant.now().minus(maxIdle);
+        List<Path> parts;
+        try (Stream<Path> files = Files.list(uploadDir)) {
+            parts = files.filter(file -> file.getFileName().toString().endsWith(PART_SUFFIX)).toList();
+        }
+        int removed = 0;
+        for (Path part : parts) {
+            String name = part.getFileName().toString();
+            String hash = name.substring(0, name.length() - PART_SUFFIX.length());
+            // Held while checking, so a chunk being written cannot lose its file
+            synchronized (lockFor(hash)) {
+                try {
+                    if (Files.getLastModifiedTime(part).toInstant().isBefore(cutoff) && Files.deleteIfExists(part)) removed++;
+                } catch (NoSuchFileException e) {
+                    // Completed or removed meanwhile
+                }
+            }
+        }
+        if (removed > 0) logger.log(Level.INFO, "[BlobStore] Removed {0} abandoned uploads", removed);
+        return removed;
+    }
+
+    /**
+     * Copies part of a stored blob to a channel. When the channel is a socket, the operating system can move
+     * the bytes without copying them through user space.
+     *
+     * @param hash the blob
+     * @param position the first byte to copy
+     * @param count the number of bytes to copy
+     * @param target the channel to copy to
+     * @return the number of bytes copied, less than {@code count} only at the end of the blob
+     * @throws IOException if the blob cannot be read or the channel fails
+     */
+    public long transferTo(String hash, long position, long count, WritableByteChannel target) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathOf(hash), StandardOpenOption.READ)) {
+            long end = Math.min(channel.size(), position + count);
+            long at = position;
+            while (at < end) {
+                at += channel.transferTo(at, end - at, target);
+            }
+            return Math.max(0, end - position);
+        }
+    }
+
+    private void publish(String hash, Path part) throws IOException {
+        String actual;
+        try (FileChannel channel = FileChannel.open(part, StandardOpenOption.READ)) {
+            actual = digest(channel);
+        }
+        if (!actual.equals(hash)) {
+            Files.delete(part);
+            throw new CorruptUploadException(hash);
+        }
+        Path target = pathOf(hash);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            Files.delete(part);
+        }
+        logger.log(Level.FINE, "[BlobStore] Stored blob {0}", hash);
+    }
+
+    private void checkUpload(String hash, long size) {
+        if (!isValidHash(hash)) throw new IllegalArgumentException("not a SHA-256 hash: " + hash);
+        if (size < 0 || size > maxBlobBytes) throw new IllegalArgumentException("size must be between 0 and " + maxBlobBytes);
+    }
+
+    private Object lockFor(String hash) {
+        return uploadLocks[Math.floorMod(hash.hashCode(), uploadLocks.length)];
+    }
+
+    private Path pathOf(String hash) {
+        return blobDir.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    private Path partOf(String hash) {
+        return uploadDir.resolve(hash + PART_SUFFIX);
+    }
+
+    private static String digest(FileChannel channel) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_BYTES);
+        while (channel.read(buffer) != -1) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+}
@@ -0,0 +1,363 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Contact;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.Presence;
+import com.comet.db.model.UserProfile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The client's on-disk copy of what it last showed a user: their profile, contacts and most recent
+ * conversations in one small snapshot file, and the newest page of each recently opened chat in a file of its
+ * own. The client paints from it at startup and when switching chats, then reconciles with the server in the
+ * background.
+ *
+ * <p>Everything is bounded: the snapshot keeps the {@value #MAX_CONVERSATIONS} most recent conversations and
+ * {@value #MAX_CONTACTS} contacts, and pages of at most {@value #MAX_CACHED_CHATS} chats are kept, the least
+ * recently saved dropped first. Reading the snapshot therefore costs the same no matter how many chats the user
+ * has, and a chat page is only read when the chat is opened.
+ *
+ * <p>Saves are written on a background thread. Several saves of the same file before the writer gets to it are
+ * written once, with the newest content. Files are replaced atomically, so a crash leaves the previous version.
+ */
+public class LocalChatStore {
+    private static final Logger logger = Logger.getLogger(LocalChatStore.class.getName());
+
+    /** Most conversations kept in the snapshot, newest first. */
+    public static final int MAX_CONVERSATIONS = 200;
+    /** Most contacts kept in the snapshot. */
+    public static final int MAX_CONTACTS = 500;
+    /** Most chats whose newest page is kept. */
+    public static final int MAX_CACHED_CHATS = 50;
+
+    private static final int MAGIC = 0x434d5453;
+    private static final int VERSION = 1;
+    private static final String SNAPSHOT_FILE = "snapshot.bin";
+    // Guards against allocating a bogus length read from a damaged file
+    private static final int MAX_STRING_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * What the client last showed in its side bars.
+     *
+     * @param profile the user's own profile, or null if it was never loaded
+     * @param contacts the user's contacts
+     * @param conversations the user's most recent conversations, newest first
+     */
+    public record Snapshot(UserProfile profile, List<Contact> contacts, List<ConversationSummary> conversations) {
+        public static final Snapshot EMPTY = new Snapshot(null, List.of(), List.of());
+
+        public Snapshot {
+            contacts = List.copyOf(contacts);
+            conversations = List.copyOf(conversations);
+        }
+    }
+
+    /**
+     * The newest page of a chat as the client last showed it.
+     *
+     * @param messages the messages, oldest first
+     * @param changeSeq the change log position the page was synced to
+     */
+    public record ChatPage(List<Message> messages, long changeSeq) {
+        public ChatPage {
+            messages = List.copyOf(messages);
+        }
+    }
+
+    @FunctionalInterface
+    private interface Body {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private final Path directory;
+    private final Path chatDirectory;
+    private final Executor writer;
+    // Content waiting to be written, by file; the writer takes the newest
+    private final Map<Path, Body> pending = new ConcurrentHashMap<>();
+    private Snapshot snapshot;
+
+    /**
+     * Opens a store in the given directory. Nothing is read until it is asked for.
+     *
+     * @param directory the directory holding the files, created on the first save
+     * @param writer runs the file writes
+     */
+    public LocalChatStore(Path directory, Executor writer) {
+        this.directory = directory;
+        this.chatDirectory = directory.resolve("chats");
+        this.writer = writer;
+    }
+
+    /**
+     * Opens the store of a user in COMET_CLIENT_STORE_DIR (default {@code ~/.comet/store}).
+     *
+     * @param userId the ID of the signed-in user
+     * @return the user's store, writing on a daemon thread
+     */
+    public static LocalChatStore forUser(int userId) {
+        String dir = System.getenv("COMET_CLIENT_STORE_DIR");
+        Path root = dir == null || dir.isBlank() ? Path.of(System.getProperty("user.home"), ".comet", "store") : Path.of(dir.trim());
+        Executor writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "local-store-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new LocalChatStore(root.resolve(String.valueOf(userId)), writer);
+    }
+
+    /**
+     * Reads the snapshot. A missing, unreadable or outdated file reads as {@link Snapshot#EMPTY}.
+     */
+    public synchronized Snapshot loadSnapshot() {
+        if (snapshot == null) {
+            snapshot = read(directory.resolve(SNAPSHOT_FILE), LocalChatStore::readSnapshot, Snapshot.EMPTY);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Saves the user's profile in the snapshot.
+     */
+    public synchronized void saveProfile(UserProfile profile) {
+        Snapshot current = loadSnapshot();
+        saveSnapshot(new Snapshot(profile, current.contacts(), current.conversations()));
+    }
+
+    /**
+     * Saves the contacts in the snapshot, up to {@link #MAX_CONTACTS}.
+     */
+    public synchronized void saveContacts(List<Contact> contacts) {
+        Snapshot current = loadSnapshot();
+        saveSnapshot(new Snapshot(current.profile(), contacts.subList(0, Math.min(contacts.size(), MAX_CONTACTS)), current.conversations()));
+    }
+
+    /**
+     * Saves the most recent conversations in the snapshot, up to {@link #MAX_CONVERSATIONS}.
+     *
+     * @param conversations the conversations, newest first
+     */
+    public synchronized void saveConversations(List<ConversationSummary> conversations) {
+        Snapshot current = loadSnapshot();
+        List<ConversationSummary> recent = conversations.subList(0, Math.min(conversations.size(), MAX_CONVERSATIONS));
+        saveSnapshot(new Snapshot(current.profile(), current.contacts(), recent));
+    }
+
+    /**
+     * Reads the saved page of a chat.
+     *
+     * @param chat the chat
+     * @return the page, or null if none is saved or it cannot be read
+     */
+    public ChatPage loadChat(ChatKey chat) {
+        return read(chatFile(chat), LocalChatStore::readChatPage, null);
+    }
+
+    /**
+     * Saves the newest page of a chat, replacing the previous one.
+     *
+     * @param chat the chat
+     * @param messages the messages, oldest first
+     * @param changeSeq the change log position the page is synced to
+     */
+    public void saveChat(ChatKey chat, List<Message> messages, long changeSeq) {
+        List<Message> page = List.copyOf(messages);
+        schedule(chatFile(chat), out -> {
+            out.writeLong(changeSeq);
+            out.writeInt(page.size());
+            for (Message message : page) writeMessage(out, message);
+        });
+    }
+
+    /**
+     * Drops every saved chat page, e.g. after a display name change made the saved sender names stale.
+     */
+    public void clearChats() {
+        pending.keySet().removeIf(file -> file.startsWith(chatDirectory));
+        writer.execute(() -> {
+            try (Stream<Path> files = Files.list(chatDirectory)) {
+                for (Path file : files.toList()) Files.deleteIfExists(file);
+            } catch (NoSuchFileException e) {
+                // Nothing saved yet
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "[LocalStore] Failed to clear chat pages:", e);
+            }
+        });
+    }
+
+    private void saveSnapshot(Snapshot updated) {
+        snapshot = updated;
+        schedule(directory.resolve(SNAPSHOT_FILE), out -> writeSnapshot(out, updated));
+    }
+
+    private void schedule(Path file, Body body) {
+        // Only the first save since the last write queues a task; later ones just replace the content
+        if (pending.put(file, body) != null) return;
+        writer.execute(() -> {
+            Body newest = pending.remove(file);
+            if (newest == null) return;
+            try {
+                write(file, newest);
+                if (file.startsWith(chatDirectory)) evictChats();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "[LocalStore] Failed to save " + file.getFileName() + ":", e);
+            }
+        });
+    }
+
+    private void write(Path file, Body body) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            body.write(out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void evictChats() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(chatDirectory)) {
+            files = listing.filter(file -> file.getFileName().toString().endsWith(".bin")).toList();
+        }
+        if (files.size() <= MAX_CACHED_CHATS) return;
+        List<Path> oldestFirst = new ArrayList<>(files);
+        oldestFirst.sort(Comparator.comparing(file -> file.toFile().lastModified()));
+        for (Path file : oldestFirst.subList(0, files.size() - MAX_CACHED_CHATS)) Files.deleteIfExists(file);
+    }
+
+    @FunctionalInterface
+    private interface Reader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static <T> T read(Path file, Reader<T> reader, T fallback) {
+        if (!Files.isRegularFile(file)) return fallback;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return fallback;
+            return reader.read(in);
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "[LocalStore] Ignoring unreadable " + file.getFileName() + ":", e);
+            return fallback;
+        }
+    }
+
+    private Path chatFile(ChatKey chat) {
+        return chatDirectory.resolve(chat.type().name().toLowerCase() + "-" + chat.chatId() + ".bin");
+    }
+
+    private static void writeSnapshot(DataOutputStream out, Snapshot snapshot) throws IOException {
+        out.writeBoolean(snapshot.profile() != null);
+        if (snapshot.profile() != null) {
+            out.writeInt(snapshot.profile().id());
+            writeString(out, snapshot.profile().displayName());
+            writeString(out, snapshot.profile().imageUrl());
+        }
+        out.writeInt(snapshot.contacts().size());
+        for (Contact contact : snapshot.contacts()) {
+            out.writeInt(contact.id());
+            writeString(out, contact.displayName());
+            writeString(out, contact.imageUrl());
+        }
+        out.writeInt(snapshot.conversations().size());
+        for (ConversationSummary summary : snapshot.conversations()) {
+            out.writeByte(summary.chat().type().ordinal());
+            out.writeInt(summary.chat().chatId());
+            writeString(out, summary.title());
+            out.writeLong(summary.lastMessageId());
+            writeString(out, summary.lastMessagePreview());
+            out.writeLong(summary.lastMessageAt() == null ? Long.MIN_VALUE : summary.lastMessageAt().toEpochMilli());
+            out.writeInt(summary.unreadCount());
+        }
+    }
+
+    private static Snapshot readSnapshot(DataInputStream in) throws IOException {
+        UserProfile profile = in.readBoolean() ? new UserProfile(in.readInt(), readString(in), readString(in)) : null;
+        int contactCount = in.readInt();
+        List<Contact> contacts = new ArrayList<>(Math.min(contactCount, MAX_CONTACTS));
+        for (int i = 0; i < contactCount; i++) {
+            // Presence is live state and starts out offline until the server reports it
+            contacts.add(new Contact(in.readInt(), readString(in), readString(in), Presence.OFFLINE));
+        }
+        int conversationCount = in.readInt();
+        List<ConversationSummary> conversations = new ArrayList<>(Math.min(conversationCount, MAX_CONVERSATIONS));
+        for (int i = 0; i < conversationCount; i++) {
+            ChatKey chat = new ChatKey(ChatType.values()[in.readByte()], in.readInt());
+            String title = readString(in);
+            long lastMessageId = in.readLong();
+            String preview = readString(in);
+            long lastMessageAt = in.readLong();
+            conversations.add(new ConversationSummary(chat, title, lastMessageId, preview,
+                    lastMessageAt == Long.MIN_VALUE ? null : Instant.ofEpochMilli(lastMessageAt), in.readInt()));
+        }
+        return new Snapshot(profile, contacts, conversations);
+    }
+
+    private static ChatPage readChatPage(DataInputStream in) throws IOException {
+        long changeSeq = in.readLong();
+        int count = in.readInt();
+        List<Message> messages = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; i++) messages.add(readMessage(in));
+        return new ChatPage(messages, changeSeq);
+    }
+
+    private static void writeMessage(DataOutputStream out, Message message) throws IOException {
+        out.writeLong(message.id());
+        out.writeByte(message.chatType().ordinal());
+        out.writeInt(message.chatId());
+        out.writeInt(message.senderId());
+        writeString(out, message.senderName());
+        writeString(out, message.content());
+        out.writeLong(message.sentAt().getEpochSecond());
+        out.writeInt(message.sentAt().getNano());
+    }
+
+    private static Message readMessage(DataInputStream in) throws IOException {
+        return new Message(in.readLong(), ChatType.values()[in.readByte()], in.readInt(), in.readInt(),
+                readString(in), readString(in), Instant.ofEpochSecond(in.readLong(), in.readInt()));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        if (length > MAX_STRING_BYTES) throw new IOException("String of " + length + " bytes");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,484 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Embedded message store that appends messages to memory-mapped log segments in a local directory.
+ *
+ * <p>Segments are preallocated files of a fixed size that are filled front to back and never rewritten.
+ * Every record carries the address of the previous record of the same chat, so the newest page of a chat
+ * is read by following that chain backwards from the chat's tail. A sparse in-memory index keeps the address
+ * of every {@value #CHECKPOINT_INTERVAL}th message per chat; scrolling back from any message starts at the
+ * nearest checkpoint and walks at most that many records. The index is rebuilt by scanning the segments
+ * when the store is opened. Since records are never rewritten, messages in this store cannot be edited or
+ * deleted.
+ *
+ * <p>Record layout: body length (int), CRC32 of the body (int), then the body: message ID (long), sent-at
+ * seconds (long) and nanos (int), chat type (byte), chat ID (int), sender ID (int), previous record address
+ * in the chat (long), sender name length (short), content length (int), sender name and content in UTF-8.
+ * The length is written last, so a record torn by a crash reads as the end of the log. The length is negated
+ * on every record of a batch but the last, so a batch cut short by a crash is recognized and discarded whole
+ * when the log is reopened.
+ *
+ * <p>A lock file in the directory keeps a second process from opening the same log.
+ *
+ * <p>Appends are written to the page cache and survive a crash of the process; call {@link #flush()} to
+ * also make them survive a crash of the machine. Messages come with IDs from the {@link SnowflakeIdGenerator},
+ * which the log requires to increase.
+ */
+public class LogMessageStore implements MessageStore {
+    private static final Logger logger = Logger.getLogger(LogMessageStore.class.getName());
+
+    /** Size of newly created segment files. */
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /** Every this many messages of a chat, the message's address is kept in the sparse index. */
+    static final int CHECKPOINT_INTERVAL = 64;
+
+    private static final int HEADER_BYTES = 8;
+    private static final int FIXED_BODY_BYTES = 43;
+    private static final long NO_RECORD = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String LOCK_FILE = "lock";
+
+    private static final Map<Path, LogMessageStore> shared = new HashMap<>();
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+    private final Map<ChatKey, ChatIndex> chats = new HashMap<>();
+    // Held open while the store is; the lock on it is released when it closes
+    private final FileChannel lockChannel;
+
+    private int writeOffset;
+    private long nextId = 1;
+    private boolean closed;
+
+    /**
+     * A record read during recovery whose batch has not ended yet.
+     */
+    private record Pending(ChatKey chat, long id, long address) {}
+
+    /**
+     * Tail address and sparse checkpoints of one chat.
+     */
+    private static final class ChatIndex {
+        long tail = NO_RECORD;
+        long count;
+        long[] checkpointIds = new long[4];
+        long[] checkpointAddresses = new long[4];
+        int checkpoints;
+
+        void add(long id, long address) {
+            if (count % CHECKPOINT_INTERVAL == 0) {
+                if (checkpoints == checkpointIds.length) {
+                    checkpointIds = Arrays.copyOf(checkpointIds, checkpoints * 2);
+                    checkpointAddresses = Arrays.copyOf(checkpointAddresses, checkpoints * 2);
+                }
+                checkpointIds[checkpoints] = id;
+                checkpointAddresses[checkpoints] = address;
+                checkpoints++;
+            }
+            tail = address;
+            count++;
+        }
+
+        /**
+         * Returns the address to start walking back from to reach the messages older than the given ID.
+         */
+        long seek(long id) {
+            int found = Arrays.binarySearch(checkpointIds, 0, checkpoints, id);
+            int index = found >= 0 ? found : -found - 1;
+            return index < checkpoints ? checkpointAddresses[index] : tail;
+        }
+    }
+
+    /**
+     * Opens the log in the given directory, creating it if needed, and rebuilds the chat index from its segments.
+     *
+     * @param directory the directory holding the segment files
+     * @param segmentBytes the size of newly created segments
+     * @throws IOException if the directory cannot be read, another process has the log open, or a segment other
+     *                     than the last one is corrupt
+     */
+    public LogMessageStore(Path directory, long segmentBytes) throws IOException {
+        if (segmentBytes <= HEADER_BYTES + FIXED_BODY_BYTES || segmentBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Segment size out of range: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another store in this process
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("Message log in " + directory + " is already open in another process");
+        }
+        try {
+            recover();
+        } catch (IOException | RuntimeException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the process-wide store for the given directory, opening it on first use.
+     *
+     * @param directory the directory holding the segment files
+     * @return the shared store for that directory
+     */
+    public static synchronized LogMessageStore shared(Path directory) {
+        Path key = directory.toAbsolutePath().normalize();
+        LogMessageStore store = shared.get(key);
+        if (store == null) {
+            try {
+                store = new LogMessageStore(key, DEFAULT_SEGMENT_BYTES);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "[LogStore] Failed to open message log in " + key, e);
+                throw new RuntimeException("Message log error", e);
+            }
+            shared.put(key, store);
+        }
+        return store;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>IDs must increase across calls, since scrolling back relies on the ID order within each chat. The batch
+     * is checked before anything is written, and a crash while writing it loses the whole batch. If writing fails
+     * part way, the store is closed; reopening it discards the partial batch.
+     */
+    @Override
+    public void insert(List<Message> messages) throws SQLException {
+        lock.writeLock().lock();
+        try {
+            ensureOpen();
+            long lastId = nextId - 1;
+            for (Message message : messages) {
+                if (message.id() <= lastId) {
+                    throw new SQLException("Message ID " + message.id() + " is not after the last ID in the log");
+                }
+                if (bodyLength(message) < 0) throw new SQLException("Message too large for the message log");
+                lastId = message.id();
+            }
+            for (int i = 0; i < messages.size(); i++) {
+                try {
+                    write(messages.get(i), i == messages.size() - 1);
+                } catch (IOException e) {
+                    closed = true;
+                    throw new SQLException("Failed to append to the message log", e);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the body length of a message's record, or -1 if the record would not fit in a segment.
+     */
+    private int bodyLength(Message message) {
+        long nameLength = message.senderName().getBytes(StandardCharsets.UTF_8).length;
+        long bodyLength = FIXED_BODY_BYTES + nameLength + message.content().getBytes(StandardCharsets.UTF_8).length;
+        // Keep room for the zero length that terminates a segment
+        return nameLength > Short.MAX_VALUE || HEADER_BYTES + bodyLength + 4 > segmentBytes ? -1 : (int) bodyLength;
+    }
+
+    /**
+     * Appends one record to the active segment, rolling over to a new segment when it does not fit.
+     * Must be called with the write lock held, after the message was checked.
+     *
+     * @param last whether the record ends its batch
+     */
+    private void write(Message message, boolean last) throws IOException {
+        byte[] name = message.senderName().getBytes(StandardCharsets.UTF_8);
+        byte[] text = message.content().getBytes(StandardCharsets.UTF_8);
+        int bodyLength = FIXED_BODY_BYTES + name.length + text.length;
+        if (segments.isEmpty() || writeOffset + HEADER_BYTES + bodyLength + 4 > active().capacity()) {
+            rollSegment();
+        }
+        ChatIndex index = chats.computeIfAbsent(new ChatKey(message.chatType(), message.chatId()), k -> new ChatIndex());
+        long address = address(segments.size() - 1, writeOffset);
+
+        MappedByteBuffer segment = active();
+        int p = writeOffset + HEADER_BYTES;
+        segment.putLong(p, message.id());
+        segment.putLong(p + 8, message.sentAt().getEpochSecond());
+        segment.putInt(p + 16, message.sentAt().getNano());
+        segment.put(p + 20, (byte) message.chatType().ordinal());
+        segment.putInt(p + 21, message.chatId());
+        segment.putInt(p + 25, message.senderId());
+        segment.putLong(p + 29, index.tail);
+        segment.putShort(p + 37, (short) name.length);
+        segment.putInt(p + 39, text.length);
+        segment.put(p + FIXED_BODY_BYTES, name);
+        segment.put(p + FIXED_BODY_BYTES + name.length, text);
+        segment.putInt(writeOffset + 4, checksum(segment, p, bodyLength));
+        segment.putInt(writeOffset, last ? bodyLength : -bodyLength);
+
+        writeOffset += HEADER_BYTES + bodyLength;
+        nextId = message.id() + 1;
+        index.add(message.id(), address);
+    }
+
+    @Override
+    public List<Message> latest(ChatType chatType, int chatId, int limit) throws SQLException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            ChatIndex index = chats.get(new ChatKey(chatType, chatId));
+            if (index == null) return new ArrayList<>();
+            return walkBack(index.tail, Long.MIN_VALUE, Long.MAX_VALUE, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> before(ChatType chatType, int chatId, Message before, int limit) throws SQLException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            ChatIndex index = chats.get(new ChatKey(chatType, chatId));
+            if (index == null) return new ArrayList<>();
+            // IDs grow with time in the log, so the ID alone is the cursor
+            return walkBack(index.seek(before.id()), Long.MIN_VALUE, before.id(), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Message> after(ChatType chatType, int chatId, Message after, int limit) throws SQLException {
+        lock.readLock().lock();
+        try {
+            ensureOpen();
+            ChatIndex index = chats.get(new ChatKey(chatType, chatId));
+            if (index == null) return new ArrayList<>();
+            return walkBack(index.tail, after.id(), Long.MAX_VALUE, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Follows the chat chain back from the given record, skipping records with an ID of at least
+     * {@code beforeId} and stopping at the first with an ID of at most {@code afterId}, and returns up to
+     * {@code limit} messages in chronological order.
+     */
+    private List<Message> walkBack(long address, long afterId, long beforeId, int limit) {
+        List<Message> messages = new ArrayList<>(Math.min(limit, 256));
+        while (address != NO_RECORD && messages.size() < limit) {
+            MappedByteBuffer segment = segments.get(segmentOf(address));
+            int p = offsetOf(address) + HEADER_BYTES;
+            long id = segment.getLong(p);
+            if (id <= afterId) break;
+            if (id < beforeId) {
+                messages.add(readMessage(segment, p));
+            }
+            address = segment.getLong(p + 29);
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private static Message readMessage(MappedByteBuffer segment, int p) {
+        byte[] name = new byte[segment.getShort(p + 37)];
+        byte[] text = new byte[segment.getInt(p + 39)];
+        segment.get(p + FIXED_BODY_BYTES, name);
+        segment.get(p + FIXED_BODY_BYTES + name.length, text);
+        return new Message(
+                segment.getLong(p),
+                ChatType.values()[segment.get(p + 20)],
+                segment.getInt(p + 21),
+                segment.getInt(p + 25),
+                new String(name, StandardCharsets.UTF_8),
+                new String(text, StandardCharsets.UTF_8),
+                Instant.ofEpochSecond(segment.getLong(p + 8), segment.getInt(p + 16))
+        );
+    }
+
+    /**
+     * Forces every appended message to disk.
+     */
+    public void flush() {
+        lock.readLock().lock();
+        try {
+            if (!closed && !segments.isEmpty()) active().force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Flushes the log and closes the store. The segments are unmapped once the store is garbage collected.
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            // Also reached after a failed write closed the store, to release the lock file
+            if (!closed && !segments.isEmpty()) active().force();
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            // Closing the channel releases the lock
+            lockChannel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "[LogStore] Failed to release the lock on " + directory, e);
+        }
+        synchronized (LogMessageStore.class) {
+            shared.remove(directory.toAbsolutePath().normalize(), this);
+        }
+    }
+
+    /**
+     * Maps every existing segment and replays its records into the chat index. A torn record at the end of
+     * the last segment, and the records of a batch that was not written to its end, are left over from a crash
+     * and are cleared.
+     */
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX)
+                            && path.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        // Records of the batch being read, applied once its last record is found
+        List<Pending> batch = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            if (!file.equals(segmentPath(i))) {
+                throw new IOException("Message log segment missing before " + file);
+            }
+            MappedByteBuffer segment = map(file, Math.max(Files.size(file), segmentBytes));
+            segments.add(segment);
+            int offset = 0;
+            while (offset + HEADER_BYTES <= segment.capacity()) {
+                int stored = segment.getInt(offset);
+                if (stored == 0) break;
+                boolean last = stored > 0;
+                int bodyLength = stored == Integer.MIN_VALUE ? 0 : Math.abs(stored);
+                int p = offset + HEADER_BYTES;
+                boolean valid = bodyLength >= FIXED_BODY_BYTES && (long) p + bodyLength <= segment.capacity()
+                        && checksum(segment, p, bodyLength) == segment.getInt(offset + 4);
+                if (!valid) {
+                    if (i < files.size() - 1) {
+                        throw new IOException("Corrupt record at offset " + offset + " of " + file);
+                    }
+                    logger.log(Level.WARNING, "[LogStore] Discarding torn record at offset {0} of {1}", new Object[]{offset, file});
+                    for (int z = offset; z < segment.capacity(); z++) segment.put(z, (byte) 0);
+                    break;
+                }
+                ChatKey key = new ChatKey(ChatType.values()[segment.get(p + 20)], segment.getInt(p + 21));
+                batch.add(new Pending(key, segment.getLong(p), address(i, offset)));
+                if (last) {
+                    for (Pending record : batch) {
+                        chats.computeIfAbsent(record.chat(), k -> new ChatIndex()).add(record.id(), record.address());
+                    }
+                    nextId = batch.getLast().id() + 1;
+                    batch.clear();
+                }
+                offset = p + bodyLength;
+            }
+            writeOffset = offset;
+        }
+        if (!batch.isEmpty()) {
+            long batchStart = batch.getFirst().address();
+            logger.log(Level.WARNING, "[LogStore] Discarding {0} records of a batch cut short in {1}", new Object[]{batch.size(), directory});
+            int first = segmentOf(batchStart);
+            for (int s = segments.size() - 1; s > first; s--) {
+                segments.remove(s);
+                Files.delete(segmentPath(s));
+            }
+            MappedByteBuffer segment = segments.get(first);
+            for (int z = offsetOf(batchStart); z < segment.capacity(); z++) segment.put(z, (byte) 0);
+            writeOffset = offsetOf(batchStart);
+        }
+        if (!files.isEmpty()) {
+            logger.log(Level.INFO, "[LogStore] Opened {0} segments with {1} chats in {2}", new Object[]{files.size(), chats.size(), directory});
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        if (!segments.isEmpty()) active().force();
+        segments.add(map(segmentPath(segments.size()), segmentBytes));
+        writeOffset = 0;
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        // The mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    private MappedByteBuffer active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) throw new SQLException("Message log is closed");
+    }
+
+    private static int checksum(MappedByteBuffer segment, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(segment.slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    private static long address(int segment, int offset) {
+        return ((long) segment << 32) | offset;
+    }
+
+    private static int segmentOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,113 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+
+/**
+ * Durable storage for chat messages. Pages are always returned oldest first, and within a chat messages are
+ * ordered by time and then by ID, so a message can serve as the keyset cursor for the page before it.
+ * Messages arrive fully formed, so stores never have to report generated values back.
+ *
+ * <p>Caching, chat membership and conversation summaries live above this interface in {@code ChatRepository};
+ * implementations only store and read back messages.
+ */
+public interface MessageStore extends AutoCloseable {
+
+    /**
+     * Stores messages whose IDs, timestamps and sender names were already assigned, typically by
+     * {@link SnowflakeIdGenerator}. The messages are written as one batch.
+     *
+     * @param messages the messages to store, in ID order
+     * @throws SQLException if the messages could not be stored
+     */
+    void insert(List<Message> messages) throws SQLException;
+
+    /**
+     * Returns the newest messages of a chat.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param limit the maximum number of messages to return
+     * @return up to {@code limit} messages in chronological order
+     * @throws SQLException if the messages could not be read
+     */
+    List<Message> latest(ChatType chatType, int chatId, int limit) throws SQLException;
+
+    /**
+     * Returns the messages of a chat sent right before the given one.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param before the exclusive keyset cursor; only messages older than it are returned
+     * @param limit the maximum number of messages to return
+     * @return up to {@code limit} messages in chronological order
+     * @throws SQLException if the messages could not be read
+     */
+    List<Message> before(ChatType chatType, int chatId, Message before, int limit) throws SQLException;
+
+    /**
+     * Returns the newest messages of a chat sent after the given one. When more than {@code limit} messages
+     * follow the cursor, the oldest of them are left out.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param after the exclusive keyset cursor; only messages newer than it are returned
+     * @param limit the maximum number of messages to return
+     * @return up to {@code limit} messages in chronological order
+     * @throws SQLException if the messages could not be read
+     */
+    List<Message> after(ChatType chatType, int chatId, Message after, int limit) throws SQLException;
+
+    /**
+     * Replaces the content of a stored message, or removes the message. Stores that never rewrite messages
+     * keep the default, which refuses.
+     *
+     * @param message the stored message
+     * @param content the new content, or null to delete the message
+     * @return true if the message was found and changed
+     * @throws SQLException if the message could not be changed
+     */
+    default boolean update(Message message, String content) throws SQLException {
+        throw new SQLFeatureNotSupportedException(getClass().getSimpleName() + " does not support editing messages");
+    }
+
+    /**
+     * Returns this store working through the given connection, so its writes can join a transaction running on
+     * that connection. Stores that do not keep messages in the database return themselves, which is the default.
+     *
+     * @param connection the connection the transaction runs on
+     * @return a store writing through that connection
+     */
+    default MessageStore on(Connection connection) {
+        return this;
+    }
+
+    /**
+     * Releases the resources held by the store. The default does nothing.
+     */
+    @Override
+    default void close() throws SQLException {
+    }
+
+    /**
+     * Returns the store selected by COMET_MESSAGE_STORE: {@code log} uses the process-wide embedded log in
+     * COMET_MESSAGE_LOG_DIR, anything else (the default) stores messages in Postgres through the given connection.
+     *
+     * @param connection the connection used by the Postgres store
+     * @return the configured message store
+     */
+    static MessageStore fromEnvironment(Connection connection) {
+        String configured = System.getenv("COMET_MESSAGE_STORE");
+        if ("log".equalsIgnoreCase(configured == null ? null : configured.trim())) {
+            String dir = System.getenv("COMET_MESSAGE_LOG_DIR");
+            return LogMessageStore.shared(Path.of(dir == null || dir.isBlank() ? "data/messages" : dir.trim()));
+        }
+        return new PostgresMessageStore(connection);
+    }
+}
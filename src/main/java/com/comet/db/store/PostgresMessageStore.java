@@ -0,0 +1,144 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Stores messages in the partitioned {@code messages} table. Inserts fire the conversation summary trigger,
+ * so chat lists and unread counts stay current.
+ */
+public class PostgresMessageStore implements MessageStore {
+    private final Connection connection;
+
+    /**
+     * Constructs a store over the given connection. The connection stays owned by the caller.
+     *
+     * @param connection the SQL connection to use for database operations
+     */
+    public PostgresMessageStore(Connection connection) {
+        this.connection = connection;
+    }
+
+    @Override
+    public MessageStore on(Connection connection) {
+        return connection == this.connection ? this : new PostgresMessageStore(connection);
+    }
+
+    @Override
+    public void insert(List<Message> messages) throws SQLException {
+        if (messages.isEmpty()) return;
+        // IDs and timestamps come from the caller, so the batch needs no RETURNING round trip per row
+        String insert = "INSERT INTO messages (id, sender_id, private_chat_id, group_chat_id, content, timestamp) VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(insert)) {
+            for (Message message : messages) {
+                stmt.setLong(1, message.id());
+                stmt.setInt(2, message.senderId());
+                if (message.chatType() == ChatType.PRIVATE) {
+                    stmt.setInt(3, message.chatId());
+                    stmt.setNull(4, Types.INTEGER);
+                } else {
+                    stmt.setNull(3, Types.INTEGER);
+                    stmt.setInt(4, message.chatId());
+                }
+                stmt.setString(5, message.content());
+                stmt.setTimestamp(6, Timestamp.from(message.sentAt()));
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        }
+    }
+
+    @Override
+    public List<Message> latest(ChatType chatType, int chatId, int limit) throws SQLException {
+        // Ordering by the partition key lets Postgres scan the newest monthly partitions first and stop at LIMIT
+        String query = "SELECT m.id, m.sender_id, u.display_name, m.content, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m." + chatType.messageColumn() + " = ? ORDER BY m.timestamp DESC, m.id DESC LIMIT ?";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, chatId);
+            stmt.setInt(2, limit);
+            return readPage(stmt, chatType, chatId);
+        }
+    }
+
+    @Override
+    public List<Message> before(ChatType chatType, int chatId, Message before, int limit) throws SQLException {
+        // The plain upper bound on timestamp is redundant with the row comparison, but unlike it
+        // the planner can use it to prune partitions newer than the cursor
+        String query = "SELECT m.id, m.sender_id, u.display_name, m.content, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m." + chatType.messageColumn() + " = ? AND m.timestamp <= ? AND (m.timestamp, m.id) < (?, ?) "
+                + "ORDER BY m.timestamp DESC, m.id DESC LIMIT ?";
+        Timestamp cursorTime = Timestamp.from(before.sentAt());
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, chatId);
+            stmt.setTimestamp(2, cursorTime);
+            stmt.setTimestamp(3, cursorTime);
+            stmt.setLong(4, before.id());
+            stmt.setInt(5, limit);
+            return readPage(stmt, chatType, chatId);
+        }
+    }
+
+    @Override
+    public List<Message> after(ChatType chatType, int chatId, Message after, int limit) throws SQLException {
+        // The plain lower bound on timestamp lets the planner skip every partition older than the cursor
+        String query = "SELECT m.id, m.sender_id, u.display_name, m.content, m.timestamp FROM messages m JOIN users u ON m.sender_id = u.id "
+                + "WHERE m." + chatType.messageColumn() + " = ? AND m.timestamp >= ? AND (m.timestamp, m.id) > (?, ?) "
+                + "ORDER BY m.timestamp DESC, m.id DESC LIMIT ?";
+        Timestamp cursorTime = Timestamp.from(after.sentAt());
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setInt(1, chatId);
+            stmt.setTimestamp(2, cursorTime);
+            stmt.setTimestamp(3, cursorTime);
+            stmt.setLong(4, after.id());
+            stmt.setInt(5, limit);
+            return readPage(stmt, chatType, chatId);
+        }
+    }
+
+    @Override
+    public boolean update(Message message, String content) throws SQLException {
+        // The timestamp is part of the primary key and prunes the search to the message's partition
+        String match = " WHERE id = ? AND timestamp = ? AND sender_id = ? AND " + message.chatType().messageColumn() + " = ?";
+        String statement = content == null ? "DELETE FROM messages" + match : "UPDATE messages SET content = ?" + match;
+        try (PreparedStatement stmt = connection.prepareStatement(statement)) {
+            int i = 1;
+            if (content != null) stmt.setString(i++, content);
+            stmt.setLong(i++, message.id());
+            stmt.setTimestamp(i++, Timestamp.from(message.sentAt()));
+            stmt.setInt(i++, message.senderId());
+            stmt.setInt(i, message.chatId());
+            return stmt.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Reads a newest-first page of messages and returns it in chronological order.
+     */
+    private List<Message> readPage(PreparedStatement stmt, ChatType chatType, int chatId) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        ResultSet rs = stmt.executeQuery();
+        while (rs.next()) {
+            messages.add(new Message(
+                    rs.getLong(1),
+                    chatType,
+                    chatId,
+                    rs.getInt(2),
+                    rs.getString(3),
+                    rs.getString(4),
+                    rs.getTimestamp(5).toInstant()
+            ));
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+}
@@ -0,0 +1,239 @@
+package com.comet.db.store;
+
+import com.comet.db.DatabaseManager;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generates 64-bit message IDs that are unique across processes and ordered by creation time, so IDs can be
+ * assigned before a message is persisted.
+ *
+ * <p>An ID holds, from the most significant bit down: a zero sign bit, 41 bits of milliseconds since
+ * {@link #EPOCH}, a 10-bit node ID and a 12-bit counter. IDs of one generator strictly increase; when the
+ * clock steps back or the counter runs out within a millisecond, the generator keeps counting on its last
+ * millisecond instead of waiting, so its timestamps may briefly run ahead of the wall clock.
+ */
+public class SnowflakeIdGenerator {
+    private static final Logger logger = Logger.getLogger(SnowflakeIdGenerator.class.getName());
+    private static SnowflakeIdGenerator instance;
+    // Held open for the lifetime of the process and kept out of the pool; closing it releases the node lease
+    private static Connection leaseConnection;
+    private static ScheduledExecutorService leaseChecker;
+
+    /** Start of the ID clock. */
+    public static final Instant EPOCH = Instant.parse("2024-01-01T00:00:00Z");
+
+    static final int NODE_BITS = 10;
+    static final int SEQUENCE_BITS = 12;
+
+    /** Largest valid node ID. */
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final int SEQUENCE_MASK = (1 << SEQUENCE_BITS) - 1;
+    private static final int NODE_LEASE_LOCK_CLASS = 0x636f6d65;
+    /** How often the lease connection is checked to still hold the node's lock. */
+    static final int LEASE_CHECK_SECONDS = 5;
+
+    private final int nodeId;
+    private final LongSupplier clock;
+    // Set once the node's lease is lost; another process may be using the node ID by then
+    private volatile boolean retired;
+    private long lastMillis = -1;
+    private int sequence;
+
+    /**
+     * Constructs a generator for the given node using the system clock.
+     *
+     * @param nodeId the node ID, unique among the processes generating IDs at the same time
+     */
+    public SnowflakeIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    SnowflakeIdGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID out of range: " + nodeId);
+        }
+        this.nodeId = nodeId;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the process-wide generator. Its node ID is taken from COMET_NODE_ID, or else leased from the
+     * database with a session advisory lock, held on a dedicated connection until the process exits. A leased
+     * node is checked every {@link #LEASE_CHECK_SECONDS} seconds; when its connection has dropped, which releases
+     * the lock, the generator is retired and the next call leases a node again.
+     *
+     * @return the shared SnowflakeIdGenerator instance
+     */
+    public static synchronized SnowflakeIdGenerator getInstance() {
+        if (instance == null) {
+            String configured = System.getenv("COMET_NODE_ID");
+            int nodeId;
+            if (configured != null && !configured.isBlank()) {
+                nodeId = Integer.parseInt(configured.trim());
+            } else {
+                nodeId = leaseNodeId();
+                startLeaseChecks();
+            }
+            instance = new SnowflakeIdGenerator(nodeId);
+            logger.log(Level.INFO, "[IdGen] Generating IDs as node {0}", nodeId);
+        }
+        return instance;
+    }
+
+    private static void startLeaseChecks() {
+        if (leaseChecker != null) return;
+        leaseChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "node-lease-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        leaseChecker.scheduleWithFixedDelay(
+                SnowflakeIdGenerator::checkLease, LEASE_CHECK_SECONDS, LEASE_CHECK_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static void checkLease() {
+        Connection connection;
+        SnowflakeIdGenerator leased;
+        synchronized (SnowflakeIdGenerator.class) {
+            if (leaseConnection == null || instance == null) return;
+            connection = leaseConnection;
+            leased = instance;
+        }
+        if (holdsLease(connection, leased.nodeId)) return;
+
+        synchronized (SnowflakeIdGenerator.class) {
+            if (instance != leased) return;
+            logger.log(Level.SEVERE, "[IdGen] Lost the lease on node {0}; leasing a new node ID", leased.nodeId);
+            leased.retire();
+            instance = null;
+            leaseConnection = null;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            logger.log(Level.FINE, "[IdGen] Failed to close the lost lease connection:", e);
+        }
+        try {
+            getInstance();
+        } catch (RuntimeException e) {
+            // Retried by the next getInstance() call
+            logger.log(Level.WARNING, "[IdGen] Failed to lease a new node ID:", e);
+        }
+    }
+
+    private static boolean holdsLease(Connection connection, int nodeId) {
+        // A two-key advisory lock shows up with the keys in classid and objid and objsubid 2
+        String query = "SELECT 1 FROM pg_locks WHERE locktype = 'advisory' AND classid = ?::oid AND objid = ?::oid "
+                + "AND objsubid = 2 AND pid = pg_backend_pid() AND granted";
+        try (PreparedStatement stmt = connection.prepareStatement(query)) {
+            stmt.setQueryTimeout(LEASE_CHECK_SECONDS);
+            stmt.setInt(1, NODE_LEASE_LOCK_CLASS);
+            stmt.setInt(2, nodeId);
+            return stmt.executeQuery().next();
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "[IdGen] Node lease check failed:", e);
+            return false;
+        }
+    }
+
+    private static int leaseNodeId() {
+        try {
+            // A pooled connection would have to be borrowed forever to keep the lock, shrinking the pool
+            Connection connection = DatabaseManager.getInstance().openDedicatedConnection();
+            // Stops at the first node whose lock is free, so only that one is taken
+            String query = "SELECT n FROM generate_series(0, ?) AS n WHERE pg_try_advisory_lock(?, n) LIMIT 1";
+            try (PreparedStatement stmt = connection.prepareStatement(query)) {
+                stmt.setInt(1, MAX_NODE_ID);
+                stmt.setInt(2, NODE_LEASE_LOCK_CLASS);
+                ResultSet rs = stmt.executeQuery();
+                if (rs.next()) {
+                    leaseConnection = connection;
+                    return rs.getInt(1);
+                }
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+            connection.close();
+            throw new IllegalStateException("All " + (MAX_NODE_ID + 1) + " node IDs are leased");
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "[IdGen] Failed to lease a node ID:", e);
+            throw new RuntimeException("Node ID lease error", e);
+        }
+    }
+
+    /**
+     * Returns the next ID.
+     *
+     * @throws IllegalStateException if the generator lost its node lease
+     */
+    public synchronized long nextId() {
+        if (retired) throw new IllegalStateException("Node " + nodeId + " is no longer leased");
+        long now = clock.getAsLong() - EPOCH.toEpochMilli();
+        if (now > lastMillis) {
+            lastMillis = now;
+            sequence = 0;
+        } else {
+            sequence = (sequence + 1) & SEQUENCE_MASK;
+            if (sequence == 0) lastMillis++;
+        }
+        return (lastMillis << (NODE_BITS + SEQUENCE_BITS)) | ((long) nodeId << SEQUENCE_BITS) | sequence;
+    }
+
+    /**
+     * Stops the generator for good; its node ID may be handed to another process.
+     */
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * Returns the node ID this generator stamps into its IDs.
+     */
+    public int nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the creation time encoded in an ID, truncated to the millisecond.
+     *
+     * @param id an ID produced by a SnowflakeIdGenerator
+     * @return the time the ID was generated
+     */
+    public static Instant timestampOf(long id) {
+        return EPOCH.plusMillis(id >>> (NODE_BITS + SEQUENCE_BITS));
+    }
+
+    /**
+     * Returns the lowest ID any generator can produce at the given time, for use as a keyset cursor.
+     *
+     * @param time a time after {@link #EPOCH}
+     * @return the first ID of that millisecond
+     */
+    public static long firstIdAt(Instant time) {
+        return Math.max(0, time.toEpochMilli() - EPOCH.toEpochMilli()) << (NODE_BITS + SEQUENCE_BITS);
+    }
+
+    /**
+     * Returns the node ID encoded in an ID.
+     *
+     * @param id an ID produced by a SnowflakeIdGenerator
+     * @return the ID of the node that generated it
+     */
+    public static int nodeOf(long id) {
+        return (int) (id >>> SEQUENCE_BITS) & MAX_NODE_ID;
+    }
+}
@@ -0,0 +1,22 @@
+package com.comet.demo.core;
+
+/**
+ * Plain-text lines exchanged between the client and the server outside of {@code Frame}s, and the events relayed by
+ * the WebSocket server. Kept here so neither side has to depend on the other's classes.
+ */
+public final class Protocol {
+    /** Line sent by a client to end its session and revoke its token. */
+    public static final String LOGOUT_COMMAND = "/logout";
+    /** Line sent to a client whose credentials were rejected, right before the connection is closed. */
+    public static final String AUTH_FAILED = "[Server] Authentication failed. Closing connection.";
+
+    /** WebSocket event asking every client to reload its chat list. */
+    public static final String REFRESH_CHATS = "refresh_chats";
+    /** WebSocket event asking every client to reload its contacts. */
+    public static final String REFRESH_CONTACTS = "refresh_contacts";
+    /** Prefix of the WebSocket event announcing that a user's profile changed, followed by the user ID. */
+    public static final String PROFILE_UPDATED_PREFIX = "profile_updated:";
+
+    private Protocol() {
+    }
+}
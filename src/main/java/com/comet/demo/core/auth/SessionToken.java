@@ -0,0 +1,14 @@
+package com.comet.demo.core.auth;
+
+import java.time.Instant;
+
+/**
+ * The verified claims of a session token.
+ *
+ * @param tokenId the random ID of this token, used for revocation
+ * @param userId the ID of the authenticated user
+ * @param username the username of the authenticated user
+ * @param expiresAt the instant after which the token is no longer accepted
+ */
+public record SessionToken(String tokenId, int userId, String username, Instant expiresAt) {
+}
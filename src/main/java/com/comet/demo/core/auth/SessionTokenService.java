@@ -0,0 +1,166 @@
+package com.comet.demo.core.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Issues and verifies HMAC-SHA256 signed, expiring session tokens. The server issues a token once after the
+ * password check of a client's first connection; reconnects then present it instead of the password and are
+ * verified in memory without a database query. Revoked tokens are kept in a small in-memory deny list until they expire.
+ *
+ * <p>Token format: {@code v1.<base64url(tokenId|userId|expiresAt|username)>.<base64url(signature)>}.
+ */
+public class SessionTokenService {
+    private static final Logger logger = Logger.getLogger(SessionTokenService.class.getName());
+    private static SessionTokenService instance;
+
+    private static final String VERSION_PREFIX = "v1.";
+    private static final Pattern TOKEN_SHAPE = Pattern.compile("v1\\.[A-Za-z0-9_-]+\\.[A-Za-z0-9_-]{43}");
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    public static final Duration DEFAULT_TTL = Duration.ofHours(12);
+
+    private final SecretKeySpec key;
+    private final Duration ttl;
+    private final Clock clock;
+    private final SecureRandom random = new SecureRandom();
+    private final Map<String, Instant> revoked = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a SessionTokenService signing with the given secret.
+     *
+     * @param secret the signing secret; it must stay on the server, anyone who has it can forge tokens
+     * @param ttl how long issued tokens stay valid
+     * @param clock the clock used for expiry checks
+     */
+    public SessionTokenService(byte[] secret, Duration ttl, Clock clock) {
+        this.key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        this.ttl = ttl;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the process-wide service. Only the server issues and verifies tokens, so the secret is read from
+     * COMET_SESSION_SECRET, which must be set on the server alone. When it is not set, a random secret is used and
+     * tokens stop being valid when the server restarts.
+     *
+     * @return the shared SessionTokenService instance
+     */
+    public static synchronized SessionTokenService getInstance() {
+        if (instance == null) {
+            instance = new SessionTokenService(resolveSecret(), DEFAULT_TTL, Clock.systemUTC());
+        }
+        return instance;
+    }
+
+    private static byte[] resolveSecret() {
+        String configured = System.getenv("COMET_SESSION_SECRET");
+        if (configured != null && !configured.isBlank()) {
+            return configured.getBytes(StandardCharsets.UTF_8);
+        }
+        logger.warning("[Auth] COMET_SESSION_SECRET is not set; sessions will end when the server restarts.");
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return secret;
+    }
+
+    /**
+     * Returns true if the credential has the exact shape of a session token: the version prefix followed by two
+     * non-empty Base64url parts. A password can still have that shape, so a credential that fails
+     * {@link #verify(String)} must be checked as a password too.
+     *
+     * @param credential the credential sent by a client
+     * @return whether it should be verified as a token
+     */
+    public static boolean isToken(String credential) {
+        return credential != null && TOKEN_SHAPE.matcher(credential).matches();
+    }
+
+    /**
+     * Issues a new token for an already authenticated user.
+     *
+     * @param userId the ID of the user
+     * @param username the username of the user
+     * @return the encoded token
+     */
+    public String issue(int userId, String username) {
+        byte[] id = new byte[12];
+        random.nextBytes(id);
+        String tokenId = Base64.getUrlEncoder().withoutPadding().encodeToString(id);
+        long expiresAt = clock.instant().plus(ttl).getEpochSecond();
+
+        String payload = tokenId + "|" + userId + "|" + expiresAt + "|" + username;
+        String encodedPayload = Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8));
+        return VERSION_PREFIX + encodedPayload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(encodedPayload));
+    }
+
+    /**
+     * Verifies a token's signature, expiry and revocation status.
+     *
+     * @param token the encoded token
+     * @return the token's claims, or null if the token is malformed, forged, expired or revoked
+     */
+    public SessionToken verify(String token) {
+        if (!isToken(token)) return null;
+        String body = token.substring(VERSION_PREFIX.length());
+        int dot = body.indexOf('.');
+        String encodedPayload = body.substring(0, dot);
+
+        try {
+            byte[] signature = Base64.getUrlDecoder().decode(body.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(encodedPayload))) return null;
+
+            String payload = new String(Base64.getUrlDecoder().decode(encodedPayload), StandardCharsets.UTF_8);
+            String[] fields = payload.split("\\|", 4);
+            if (fields.length != 4) return null;
+
+            SessionToken session = new SessionToken(
+                    fields[0], Integer.parseInt(fields[1]), fields[3], Instant.ofEpochSecond(Long.parseLong(fields[2])));
+            if (!clock.instant().isBefore(session.expiresAt())) return null;
+            if (revoked.containsKey(session.tokenId())) return null;
+            return session;
+        } catch (IllegalArgumentException e) {
+            // Bad Base64 or numbers; NumberFormatException is an IllegalArgumentException
+            return null;
+        }
+    }
+
+    /**
+     * Revokes a token so it is rejected until it would have expired anyway.
+     *
+     * @param token the encoded token to revoke
+     */
+    public void revoke(String token) {
+        SessionToken session = verify(token);
+        if (session == null) return;
+        revoked.put(session.tokenId(), session.expiresAt());
+
+        // Expired entries would be rejected anyway, so the deny list only holds live tokens
+        Instant now = clock.instant();
+        revoked.values().removeIf(expiresAt -> !now.isBefore(expiresAt));
+        logger.log(Level.INFO, "[Auth] Revoked session token for user: {0}", session.username());
+    }
+
+    private byte[] sign(String encodedPayload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(encodedPayload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("HmacSHA256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.comet.demo.core.client;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Client-side cache of decoded avatar images. Decoded images are kept in memory per URL and target size, bounded
+ * by an estimate of their pixel memory and evicting the least recently used first. The downloaded files are kept
+ * on disk under the SHA-256 of their URL, so an avatar is fetched over the network once and decoded at most once
+ * per size while it stays in memory.
+ *
+ * <p>Fetching and decoding run on background threads. Concurrent requests for the same image share one load, and
+ * views show a placeholder until it finishes. A URL that failed to load is not retried for a minute.
+ */
+public class AvatarCache {
+    private static AvatarCache instance;
+
+    /** Memory bound for decoded images unless COMET_AVATAR_CACHE_BYTES says otherwise. */
+    public static final long DEFAULT_MAX_BYTES = 16L * 1024 * 1024;
+    static final long FAILURE_RETRY_MILLIS = 60_000;
+
+    private static final String BOUND_URL = AvatarCache.class.getName() + ".url";
+    private static final Color PLACEHOLDER_COLOR = Color.rgb(200, 200, 200);
+
+    /**
+     * Copies the image at a URL into a local file.
+     */
+    @FunctionalInterface
+    public interface Fetcher {
+        void fetch(String url, Path target) throws IOException;
+    }
+
+    /**
+     * Decodes an image file, scaled to fit a square of the given size.
+     */
+    @FunctionalInterface
+    public interface Decoder {
+        Image decode(Path file, double size) throws IOException;
+    }
+
+    private record Key(String url, double size) {}
+
+    private final Path diskDir;
+    private final long maxBytes;
+    private final Executor loader;
+    private final Fetcher fetcher;
+    private final Decoder decoder;
+
+    private final LinkedHashMap<Key, Image> images = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<Image>> loading = new HashMap<>();
+    private final Map<String, Long> failedAt = new HashMap<>();
+    private final Map<Double, Image> placeholders = new HashMap<>();
+    private long weightBytes;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param diskDir where downloaded image files are kept; created on first download
+     * @param maxBytes the estimated pixel memory decoded images may occupy
+     * @param loader runs fetches and decodes
+     * @param fetcher downloads an image that is not on disk yet
+     * @param decoder decodes a downloaded image
+     */
+    public AvatarCache(Path diskDir, long maxBytes, Executor loader, Fetcher fetcher, Decoder decoder) {
+        this.diskDir = diskDir;
+        this.maxBytes = maxBytes;
+        this.loader = loader;
+        this.fetcher = fetcher;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Returns the client's avatar cache, kept on disk in COMET_AVATAR_CACHE_DIR (default
+     * {@code ~/.comet/avatars}), creating it on first use.
+     */
+    public static synchronized AvatarCache getInstance() {
+        if (instance == null) {
+            String dir = System.getenv("COMET_AVATAR_CACHE_DIR");
+            String max = System.getenv("COMET_AVATAR_CACHE_BYTES");
+            Executor loader = Executors.newFixedThreadPool(2, r -> {
+                Thread thread = new Thread(r, "avatar-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+            instance = new AvatarCache(
+                    dir == null || dir.isBlank() ? Path.of(System.getProperty("user.home"), ".comet", "avatars") : Path.of(dir.trim()),
+                    max == null || max.isBlank() ? DEFAULT_MAX_BYTES : Long.parseLong(max.trim()),
+                    loader, AvatarCache::download, AvatarCache::decodeFile);
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the decoded image if it is in memory.
+     *
+     * @param url the image URL
+     * @param size the size of the square the image is scaled to fit
+     * @return the image, or null if it has not been loaded at this size
+     */
+    public synchronized Image getIfPresent(String url, double size) {
+        return images.get(new Key(url, size));
+    }
+
+    /**
+     * Loads an image in the background, from memory, from disk, or from the network, in that order.
+     * Concurrent loads of the same image at the same size share one future.
+     *
+     * @param url the image URL
+     * @param size the size of the square the image is scaled to fit
+     * @return a future completed with the decoded image, or exceptionally if it cannot be loaded
+     */
+    public CompletableFuture<Image> load(String url, double size) {
+        Key key = new Key(url, size);
+        CompletableFuture<Image> result;
+        synchronized (this) {
+            Image cached = images.get(key);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+            CompletableFuture<Image> running = loading.get(key);
+            if (running != null) return running;
+            Long failed = failedAt.get(url);
+            if (failed != null && System.currentTimeMillis() - failed < FAILURE_RETRY_MILLIS) {
+                return CompletableFuture.failedFuture(new IOException("Recently failed to load " + url));
+            }
+            result = new CompletableFuture<>();
+            loading.put(key, result);
+        }
+        loader.execute(() -> {
+            try {
+                Image image = decode(fetch(url), size);
+                synchronized (this) {
+                    loading.remove(key);
+                    failedAt.remove(url);
+                    put(key, image);
+                }
+                result.complete(image);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    loading.remove(key);
+                    failedAt.put(url, System.currentTimeMillis());
+                }
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Shows an avatar in a view: at once if it is in memory, otherwise a placeholder until it has loaded. Views
+     * reused for another URL in the meantime, like list cells, are not overwritten by the late result.
+     * Must be called on the FX thread.
+     *
+     * @param view the view to show the avatar in
+     * @param url the image URL, or null or blank to clear the view
+     * @param size the size of the square the image is scaled to fit
+     */
+    public void bind(ImageView view, String url, double size) {
+        view.getProperties().put(BOUND_URL, url);
+        if (url == null || url.isBlank()) {
+            view.setImage(null);
+            return;
+        }
+        Image cached = getIfPresent(url, size);
+        if (cached != null) {
+            view.setImage(cached);
+            return;
+        }
+        view.setImage(placeholder(size));
+        load(url, size).thenAccept(image -> Platform.runLater(() -> {
+            if (url.equals(view.getProperties().get(BOUND_URL))) view.setImage(image);
+        }));
+    }
+
+    /**
+     * Returns the estimated pixel memory held by decoded images.
+     */
+    public synchronized long weightBytes() {
+        return weightBytes;
+    }
+
+    private Path fetch(String url) throws IOException {
+        Path file = diskDir.resolve(fileName(url));
+        if (Files.isRegularFile(file)) return file;
+        Files.createDirectories(diskDir);
+        Path partial = Files.createTempFile(diskDir, "download", ".part");
+        try {
+            fetcher.fetch(url, partial);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+        return file;
+    }
+
+    private Image decode(Path file, double size) throws IOException {
+        try {
+            return decoder.decode(file, size);
+        } catch (IOException | RuntimeException e) {
+            // Fetch again next time rather than keep failing on a damaged file
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private void put(Key key, Image image) {
+        Image previous = images.put(key, image);
+        if (previous != null) weightBytes -= weightOf(previous);
+        weightBytes += weightOf(image);
+        Iterator<Map.Entry<Key, Image>> eldest = images.entrySet().iterator();
+        // The image just loaded stays even if it alone exceeds the bound
+        while (weightBytes > maxBytes && images.size() > 1) {
+            Image evicted = eldest.next().getValue();
+            eldest.remove();
+            weightBytes -= weightOf(evicted);
+        }
+    }
+
+    private synchronized Image placeholder(double size) {
+        return placeholders.computeIfAbsent(size, s -> {
+            int pixels = Math.max(1, (int) Math.ceil(s));
+            WritableImage image = new WritableImage(pixels, pixels);
+            PixelWriter writer = image.getPixelWriter();
+            for (int y = 0; y < pixels; y++) {
+                for (int x = 0; x < pixels; x++) writer.setColor(x, y, PLACEHOLDER_COLOR);
+            }
+            return image;
+        });
+    }
+
+    private static long weightOf(Image image) {
+        // Decoded images are held as 32-bit pixels
+        return (long) Math.ceil(image.getWidth()) * (long) Math.ceil(image.getHeight()) * 4;
+    }
+
+    static String fileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(url.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void download(String url, Path target) throws IOException {
+        try (InputStream in = URI.create(url).toURL().openStream()) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Not a URL: " + url, e);
+        }
+    }
+
+    private static Image decodeFile(Path file, double size) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            Image image = new Image(in, size, size, true, true);
+            if (image.isError()) throw new IOException("Cannot decode " + file, image.getException());
+            return image;
+        }
+    }
+}
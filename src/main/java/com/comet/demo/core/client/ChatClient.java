@@ -1,7 +1,44 @@
 package com.comet.demo.core.client;
 
+import com.comet.db.model.Attachment;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.Presence;
+import com.comet.db.model.Receipt;
+import com.comet.db.model.TypingIndicator;
+import com.comet.db.store.BlobStore;
+import com.comet.demo.core.Protocol;
+import com.comet.demo.core.server.Frame;
+import com.comet.demo.core.server.FrameInput;
+
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SequencedSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import java.util.logging.Level;
@@ -10,25 +47,88 @@ import java.util.logging.Logger;
 public class ChatClient {
     private static final Logger logger = Logger.getLogger(ChatClient.class.getName());
 
-    private Socket socket;
-    private PrintWriter out;
-    private BufferedReader in;
+    private volatile Socket socket;
+    private volatile PrintWriter out;
+    private volatile FrameInput in;
+    // Serializes everything written to the socket, so a chunk's bytes always directly follow its header
+    private final Object writeLock = new Object();
     private Thread listenerThread;
 
     private final String serverAddress;
     private final int serverPort;
     private final Consumer<String> messageHandler;
+    private volatile Consumer<Message> chatMessageHandler;
+    private volatile Consumer<Receipt> receiptHandler;
+    private volatile BiConsumer<Integer, Presence> presenceHandler;
+    private volatile Consumer<TypingIndicator> typingHandler;
+
+    /** Minimum time between two typing frames for the same chat; the server drops anything more frequent. */
+    static final long TYPING_RESEND_MILLIS = 2_000;
+    private ChatKey lastTypingChat;
+    private long lastTypingSentAt;
+
+    /** How many recently received message IDs are remembered to drop redeliveries. */
+    private static final int SEEN_MESSAGE_IDS = 1024;
+    private final SequencedSet<Long> seenMessageIds = new LinkedHashSet<>();
+    // Outbox entries received but not yet acknowledged, sent together once the input is drained
+    private final List<Long> pendingAcks = new ArrayList<>();
+
+    /** How long read marks are collected before they are sent in one frame. */
+    static final long READ_DEBOUNCE_MILLIS = 500;
+    // Newest read message per chat not yet sent; a non-empty map means a flush is scheduled
+    private final Map<ChatKey, Long> pendingReads = new LinkedHashMap<>();
+    private ScheduledExecutorService readScheduler;
+
+    /** Size of one upload chunk; each is confirmed by the server before the next is sent. */
+    static final int UPLOAD_CHUNK_BYTES = 256 * 1024;
+
+    private record PendingSend(Frame frame, CompletableFuture<Message> result) {}
+
+    // Sent messages not yet confirmed by the server, by key, in the order they were sent
+    private final Map<String, PendingSend> unconfirmed = new LinkedHashMap<>();
+    /** How long logging out waits for queued messages to be written. */
+    private static final long LOGOUT_WAIT_MILLIS = 1_000;
+    /**
+     * How long a send may stay unconfirmed before it fails and is no longer resent. Well below the server's
+     * retention of send keys, so a resend always finds the key of an earlier attempt that was stored.
+     */
+    public static final long SEND_TIMEOUT_MILLIS = 60 * 60 * 1000;
+    private volatile long sendTimeoutMillis = SEND_TIMEOUT_MILLIS;
+    private ExecutorService sends;
+
+    private record Upload(Path file, Attachment attachment, CompletableFuture<Attachment> result) {}
+    private record Download(Attachment attachment, Path target, Path part, FileChannel channel, CompletableFuture<Path> result) {}
+
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, Download> downloads = new ConcurrentHashMap<>();
+    private ExecutorService transfers;
+
+    /** A connection that lasted this long counts as stable, and the next drop starts the backoff over. */
+    static final long STABLE_CONNECTION_MILLIS = 10_000;
+
+    private final ReconnectBackoff backoff;
+    private ScheduledExecutorService reconnector;
+    private volatile Consumer<Boolean> connectionHandler;
+    // Set by close(); a connection lost afterwards is not re-established
+    private volatile boolean closed;
+    // Set when the server rejects the credentials, which retrying will not fix
+    private volatile boolean authRejected;
+    // The delay asked for by the server before it closed the connection, or 0
+    private volatile long retryAfterMillis;
+    private long connectedAt;
 
     private final String username;
-    private final String password;
+    // The password until the server hands out a session token, then the token
+    private volatile String credential;
 
     /**
-     * Constructs a ChatClient instance with the specified server address, port, username, password, and message handler.
+     * Constructs a ChatClient instance with the specified server address, port, username, credential, and message handler.
      *
      * @param serverAddress the server address
      * @param serverPort the server port
      * @param username the username for authentication
-     * @param password the password for authentication
+     * @param password the user's password; it is only sent once, the server answers with a session token that is
+     *                 used on reconnects instead
      * @param messageHandler the handler for processing received messages
      */
     public ChatClient(
@@ -38,38 +138,114 @@ public class ChatClient {
             String password,
             Consumer<String> messageHandler
     ) {
+        this(serverAddress, serverPort, username, password, messageHandler, ReconnectBackoff.fromEnvironment());
+    }
+
+    ChatClient(String serverAddress, int serverPort, String username, String password,
+               Consumer<String> messageHandler, ReconnectBackoff backoff) {
         this.serverAddress = serverAddress;
         this.serverPort = serverPort;
         this.username = username;
-        this.password = password;
+        this.credential = password;
         this.messageHandler = messageHandler;
+        this.backoff = backoff;
     }
 
     /**
      * Starts the chat client by connecting to the server, sending credentials, and starting the listener thread.
+     * If the server cannot be reached, or the connection drops later, the client keeps reconnecting in the
+     * background with a growing, randomized delay until it is closed or its credentials are rejected.
      */
     public void start() {
         try {
-            socket = new Socket(serverAddress, serverPort);
-            out = new PrintWriter(socket.getOutputStream(), true);
-            in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            // Send credentials
-            out.println(username);
-            out.println(password);
-
-            // Start listener thread
-            listenerThread = new Thread(this::listenForMessages);
-            listenerThread.setDaemon(true);
-            listenerThread.start();
-
-            logger.info("Connected to the server as " + username);
+            connect();
             messageHandler.accept("Connected as " + username);
-
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Failed to connect to the server.", e);
             messageHandler.accept("Failed to connect: " + e.getMessage());
+            scheduleReconnect();
+        }
+    }
+
+    /**
+     * Opens a connection and authenticates with the same credentials as before. The server then replays whatever
+     * was queued for the user meanwhile and sends the current presence of their contacts, so nothing else has to
+     * be requested again.
+     */
+    private void connect() throws IOException {
+        // Opened through a channel so attachment chunks can be transferred from file to socket directly
+        Socket connected = SocketChannel.open(new InetSocketAddress(serverAddress, serverPort)).socket();
+        try {
+            FrameInput input = new FrameInput(connected);
+            synchronized (writeLock) {
+                socket = connected;
+                in = input;
+                out = new PrintWriter(connected.getOutputStream(), true);
+                // Send credentials
+                out.println(username);
+                out.println(credential);
+            }
+        } catch (IOException e) {
+            connected.close();
+            throw e;
+        }
+        synchronized (this) {
+            connectedAt = System.currentTimeMillis();
         }
+
+        // Start listener thread
+        listenerThread = new Thread(this::listenForMessages, "chat-listener");
+        listenerThread.setDaemon(true);
+        listenerThread.start();
+
+        logger.info("Connected to the server as " + username);
+    }
+
+    /**
+     * Sets the handler told when the connection drops (false) and when it has been re-established (true). After a
+     * reconnect, anything not delivered through the outbox, like edits or other chats' previews, may need a sync.
+     *
+     * @param connectionHandler the handler, called on the listener or reconnect thread
+     */
+    public void setConnectionHandler(Consumer<Boolean> connectionHandler) {
+        this.connectionHandler = connectionHandler;
+    }
+
+    /**
+     * Sets the handler for chat messages delivered through the server's outbox and for the server's
+     * confirmations of messages this client sent. Without one, they are passed to the message handler as text.
+     *
+     * @param chatMessageHandler the handler, called on the listener thread
+     */
+    public void setChatMessageHandler(Consumer<Message> chatMessageHandler) {
+        this.chatMessageHandler = chatMessageHandler;
+    }
+
+    /**
+     * Sets the handler for other members' delivery and read marks, pushed by the server in batches.
+     *
+     * @param receiptHandler the handler, called on the listener thread
+     */
+    public void setReceiptHandler(Consumer<Receipt> receiptHandler) {
+        this.receiptHandler = receiptHandler;
+    }
+
+    /**
+     * Sets the handler for users going online, away or offline, called with the user ID and new presence.
+     *
+     * @param presenceHandler the handler, called on the listener thread
+     */
+    public void setPresenceHandler(BiConsumer<Integer, Presence> presenceHandler) {
+        this.presenceHandler = presenceHandler;
+    }
+
+    /**
+     * Sets the handler for other members typing in a chat.
+     *
+     * @param typingHandler the handler, called on the listener thread
+     */
+    public void setTypingHandler(Consumer<TypingIndicator> typingHandler) {
+        this.typingHandler = typingHandler;
     }
 
     /**
@@ -77,18 +253,83 @@ public class ChatClient {
      * Closes the connection if an error occurs or the stream ends.
      */
     private void listenForMessages() {
+        // Entries received on the previous connection can still be acknowledged on this one
+        flushAcks();
         try {
             String msg;
             while ((msg = in.readLine()) != null) {
-                logger.info("Received message: " + msg);
-                messageHandler.accept(msg);
+                Frame frame = Frame.parse(msg);
+                if (frame != null) {
+                    handleFrame(frame);
+                } else {
+                    logger.info("Received message: " + msg);
+                    if (Protocol.AUTH_FAILED.equals(msg)) authRejected = true;
+                    messageHandler.accept(msg);
+                }
+                // Acknowledge a whole replayed batch with one frame once nothing more is buffered
+                if (!in.ready()) flushAcks();
             }
         } catch (IOException e) {
-            logger.log(Level.SEVERE, "Connection lost.", e);
-            messageHandler.accept("Connection lost.");
+            if (!closed) logger.log(Level.SEVERE, "Connection lost.", e);
         } finally {
+            onDisconnected();
+        }
+    }
+
+    private void onDisconnected() {
+        closeConnection();
+        if (closed) return;
+        if (authRejected) {
+            messageHandler.accept("Connection lost. The server rejected the credentials, so it is not retried.");
             close();
+            return;
+        }
+        messageHandler.accept("Connection lost. Reconnecting...");
+        Consumer<Boolean> handler = connectionHandler;
+        if (handler != null) handler.accept(false);
+        synchronized (this) {
+            if (System.currentTimeMillis() - connectedAt >= STABLE_CONNECTION_MILLIS) backoff.reset();
+        }
+        scheduleReconnect();
+    }
+
+    private void scheduleReconnect() {
+        long delay;
+        synchronized (this) {
+            if (closed) return;
+            delay = backoff.nextDelay(retryAfterMillis);
+            retryAfterMillis = 0;
+            if (reconnector == null) {
+                reconnector = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread thread = new Thread(r, "chat-reconnect");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            reconnector.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+        }
+        logger.info("Reconnecting in " + delay + " ms");
+    }
+
+    private void reconnect() {
+        if (closed) return;
+        try {
+            connect();
+        } catch (IOException e) {
+            logger.info("Reconnect failed: " + e.getMessage());
+            scheduleReconnect();
+            return;
+        }
+        if (closed) {
+            closeConnection();
+            return;
         }
+        messageHandler.accept("Reconnected as " + username);
+        // Read marks collected and messages sent while offline
+        flushReads();
+        resendUnconfirmed();
+        Consumer<Boolean> handler = connectionHandler;
+        if (handler != null) handler.accept(true);
     }
 
     /**
@@ -98,23 +339,425 @@ public class ChatClient {
      */
     public void sendMessage(String msg) {
         if (out != null) {
-            out.println(username + ": " + msg);
+            writeLine(username + ": " + msg);
         }
     }
 
     /**
-     * Closes the connection, streams, and listener thread, and logs the disconnection.
+     * Queues a chat message for the server, which stores it and delivers it to the chat's other members. Returns
+     * at once: messages are written in order on a background thread without waiting for each confirmation. Each
+     * carries a key of its own, and messages still unconfirmed when the connection drops are sent again under the
+     * same key once it is back, which the server stores only once. The stored message also comes back through the
+     * chat message handler.
+     *
+     * @param chatType the type of chat
+     * @param chatId the ID of the private or group chat
+     * @param content the message text
+     * @return a future completed with the stored message, or exceptionally if the server rejects it or the client
+     *         is closed first
+     */
+    public CompletableFuture<Message> sendChatMessage(ChatType chatType, int chatId, String content) {
+        String key = UUID.randomUUID().toString();
+        PendingSend send = new PendingSend(Frame.of(Frame.SEND, chatType, chatId, content, key), new CompletableFuture<>());
+        synchronized (unconfirmed) {
+            if (closed) return CompletableFuture.failedFuture(new IOException("Disconnected from the server"));
+            unconfirmed.put(key, send);
+        }
+        CompletableFuture.delayedExecutor(sendTimeoutMillis, TimeUnit.MILLISECONDS).execute(() ->
+                onSendOutcome(key, null, "Not confirmed by the server in time"));
+        try {
+            sends().execute(() -> writeLine(send.frame().encode()));
+        } catch (RejectedExecutionException e) {
+            // Closed meanwhile, which failed the result
+        }
+        return send.result();
+    }
+
+    /**
+     * Sets how long a send may stay unconfirmed. Defaults to {@link #SEND_TIMEOUT_MILLIS}.
+     */
+    void setSendTimeout(long millis) {
+        this.sendTimeoutMillis = millis;
+    }
+
+    private void resendUnconfirmed() {
+        sends().execute(() -> {
+            List<PendingSend> pending;
+            synchronized (unconfirmed) {
+                pending = List.copyOf(unconfirmed.values());
+            }
+            for (PendingSend send : pending) writeLine(send.frame().encode());
+        });
+    }
+
+    private void onSendOutcome(String key, Message stored, String rejection) {
+        PendingSend send;
+        synchronized (unconfirmed) {
+            send = unconfirmed.remove(key);
+        }
+        if (send == null) return;
+        if (stored != null) {
+            send.result().complete(stored);
+        } else {
+            send.result().completeExceptionally(new IOException(rejection));
+        }
+    }
+
+    /**
+     * Marks a chat as read up to the given message. Marks are collected for a short while and sent together,
+     * so scrolling through a busy chat sends one frame rather than one per message.
+     *
+     * @param chat the chat
+     * @param messageId the newest message the user has seen
+     */
+    public void markRead(ChatKey chat, long messageId) {
+        synchronized (pendingReads) {
+            if (readScheduler != null && readScheduler.isShutdown()) return;
+            if (pendingReads.isEmpty()) {
+                if (readScheduler == null) {
+                    readScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "read-receipts");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+                readScheduler.schedule(this::flushReads, READ_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            pendingReads.merge(chat, messageId, Math::max);
+        }
+    }
+
+    /**
+     * Tells the chat's other members that the user is typing. Call on every keystroke; repeats within
+     * {@link #TYPING_RESEND_MILLIS} are not sent, as the indicator is still showing on the other side.
+     *
+     * @param chat the chat being typed in
+     */
+    public synchronized void sendTyping(ChatKey chat) {
+        long now = System.currentTimeMillis();
+        if (chat.equals(lastTypingChat) && now - lastTypingSentAt < TYPING_RESEND_MILLIS) return;
+        lastTypingChat = chat;
+        lastTypingSentAt = now;
+        if (out != null) {
+            writeLine(Frame.of(Frame.TYPING, chat.type(), chat.chatId()).encode());
+        }
+    }
+
+    private void flushReads() {
+        List<Object> args = new ArrayList<>();
+        synchronized (pendingReads) {
+            // Kept until the connection is back
+            if (out == null) return;
+            pendingReads.forEach((chat, messageId) -> {
+                args.add(chat.type());
+                args.add(chat.chatId());
+                args.add(messageId);
+            });
+            pendingReads.clear();
+        }
+        if (!args.isEmpty() && out != null) {
+            writeLine(Frame.of(Frame.READ, args.toArray()).encode());
+        }
+    }
+
+    /**
+     * Uploads a file as an attachment. The server stores each file once, so a file it already has is confirmed
+     * without transferring anything, and an upload interrupted by a disconnect continues where it stopped when
+     * it is started again.
+     *
+     * @param file the file to upload
+     * @return a future completed with the attachment to send, or exceptionally if the server rejects the file
+     */
+    public CompletableFuture<Attachment> upload(Path file) {
+        CompletableFuture<Attachment> result = new CompletableFuture<>();
+        transfers().execute(() -> {
+            try {
+                Attachment attachment = new Attachment(BlobStore.hash(file), Files.size(file), file.getFileName().toString());
+                Upload upload = uploads.putIfAbsent(attachment.hash(), new Upload(file, attachment, result));
+                if (upload != null) {
+                    // The same content is already on its way
+                    upload.result().whenComplete((done, error) -> {
+                        if (error != null) result.completeExceptionally(error); else result.complete(attachment);
+                    });
+                    return;
+                }
+                writeLine(Frame.of(Frame.UPLOAD, attachment.hash(), attachment.size()).encode());
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Downloads an attachment into a file. Bytes go from the socket into the file without passing through the
+     * heap. A partial download left next to the target by an earlier attempt is resumed.
+     *
+     * @param attachment the attachment to download
+     * @param target the file to create or replace
+     * @return a future completed with the target once the whole file is written
+     */
+    public CompletableFuture<Path> download(Attachment attachment, Path target) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        Path part = target.resolveSibling(target.getFileName() + ".part");
+        try {
+            FileChannel channel = FileChannel.open(part, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            long offset = channel.size();
+            Download download = new Download(attachment, target, part, channel, result);
+            if (downloads.putIfAbsent(attachment.hash(), download) != null) {
+                channel.close();
+                result.completeExceptionally(new IOException("Already downloading " + attachment.name()));
+                return result;
+            }
+            if (offset >= attachment.size()) {
+                finishDownload(download);
+            } else {
+                writeLine(Frame.of(Frame.DOWNLOAD, attachment.hash(), offset).encode());
+            }
+        } catch (IOException e) {
+            downloads.remove(attachment.hash());
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Sends the next chunk of an upload, copying it from the file to the socket without passing through the heap.
+     */
+    private void sendChunk(Upload upload, long offset) {
+        Attachment attachment = upload.attachment();
+        long length = Math.min(UPLOAD_CHUNK_BYTES, attachment.size() - offset);
+        try (FileChannel file = FileChannel.open(upload.file(), StandardOpenOption.READ)) {
+            synchronized (writeLock) {
+                if (out == null) throw new IOException("Disconnected from the server");
+                out.println(Frame.of(Frame.CHUNK, attachment.hash(), attachment.size(), offset, length).encode());
+                long at = offset;
+                while (at < offset + length) {
+                    at += file.transferTo(at, offset + length - at, socket.getChannel());
+                }
+            }
+        } catch (IOException e) {
+            uploads.remove(attachment.hash());
+            upload.result().completeExceptionally(e);
+        }
+    }
+
+    private void onUploadProgress(String hash, long offset) {
+        Upload upload = uploads.get(hash);
+        if (upload == null) return;
+        if (offset < 0) {
+            uploads.remove(hash);
+            upload.result().completeExceptionally(new IOException("The server rejected " + upload.attachment().name()));
+        } else {
+            transfers().execute(() -> sendChunk(upload, offset));
+        }
+    }
+
+    private void onBlob(Frame frame) throws IOException {
+        String hash = frame.arg(0);
+        long size = frame.longArg(1);
+        long offset = frame.longArg(2);
+        long length = frame.longArg(3);
+        Download download = downloads.get(hash);
+        if (download == null) {
+            in.skip(length);
+            return;
+        }
+        if (size < 0) {
+            downloads.remove(hash);
+            download.channel().close();
+            download.result().completeExceptionally(new FileNotFoundException("The server does not have " + download.attachment().name()));
+            return;
+        }
+        in.transferTo(download.channel(), offset, length);
+        if (offset + length >= size) finishDownload(download);
+    }
+
+    private void finishDownload(Download download) throws IOException {
+        Attachment attachment = download.attachment();
+        downloads.remove(attachment.hash());
+        download.channel().close();
+        // A damaged partial file would never verify, so it is not kept for resuming
+        if (!BlobStore.hash(download.part()).equals(attachment.hash())) {
+            Files.deleteIfExists(download.part());
+            download.result().completeExceptionally(new IOException("Downloaded " + attachment.name() + " does not match its hash"));
+            return;
+        }
+        Files.move(download.part(), download.target(), StandardCopyOption.REPLACE_EXISTING);
+        download.result().complete(download.target());
+    }
+
+    /**
+     * Fails every transfer in progress. Partial downloads stay on disk, so the next attempt resumes them.
+     */
+    private void abortTransfers() {
+        IOException closed = new IOException("Disconnected from the server");
+        uploads.values().forEach(upload -> upload.result().completeExceptionally(closed));
+        uploads.clear();
+        for (Download download : downloads.values()) {
+            try {
+                download.channel().close();
+            } catch (IOException ignored) {
+                // The file is left as it is for the next attempt
+            }
+            download.result().completeExceptionally(closed);
+        }
+        downloads.clear();
+    }
+
+    private synchronized ExecutorService sends() {
+        if (sends == null) {
+            sends = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "chat-sender");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return sends;
+    }
+
+    private synchronized ExecutorService transfers() {
+        if (transfers == null) {
+            transfers = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "attachment-transfers");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return transfers;
+    }
+
+    private void writeLine(String line) {
+        synchronized (writeLock) {
+            if (out != null) out.println(line);
+        }
+    }
+
+    private void handleFrame(Frame frame) throws IOException {
+        try {
+            switch (frame.command()) {
+                case Frame.SESSION -> credential = frame.arg(0);
+                case Frame.MSG -> {
+                    pendingAcks.add(frame.longArg(0));
+                    dispatch(frame.message(1));
+                }
+                case Frame.SENT -> {
+                    Message stored = frame.message(0);
+                    if (frame.args().size() > Frame.MESSAGE_ARGS) onSendOutcome(frame.arg(Frame.MESSAGE_ARGS), stored, null);
+                    dispatch(stored);
+                }
+                case Frame.REJECTED -> onSendOutcome(frame.arg(0), null, "The server rejected the message: " + frame.arg(1));
+                case Frame.PRESENCE -> {
+                    BiConsumer<Integer, Presence> handler = presenceHandler;
+                    if (handler == null) break;
+                    for (int i = 0; i + 1 < frame.args().size(); i += 2) {
+                        handler.accept((int) frame.longArg(i), Presence.valueOf(frame.arg(i + 1)));
+                    }
+                }
+                case Frame.TYPING -> {
+                    Consumer<TypingIndicator> handler = typingHandler;
+                    if (handler != null) {
+                        ChatKey chat = new ChatKey(ChatType.valueOf(frame.arg(0)), (int) frame.longArg(1));
+                        handler.accept(new TypingIndicator((int) frame.longArg(2), chat, frame.longArg(3)));
+                    }
+                }
+                case Frame.UPLOAD_AT -> onUploadProgress(frame.arg(0), frame.longArg(1));
+                case Frame.UPLOADED -> {
+                    Upload upload = uploads.remove(frame.arg(0));
+                    if (upload != null) upload.result().complete(upload.attachment());
+                }
+                case Frame.BLOB -> onBlob(frame);
+                case Frame.RECEIPT -> {
+                    Consumer<Receipt> handler = receiptHandler;
+                    if (handler != null) frame.receipts().forEach(handler);
+                }
+                case Frame.ERROR -> messageHandler.accept("[Server] " + String.join(" ", frame.args()));
+                case Frame.RETRY_AFTER -> retryAfterMillis = Math.max(0, frame.longArg(0));
+                default -> logger.warning("Ignoring unexpected frame: " + frame.command());
+            }
+        } catch (IllegalArgumentException e) {
+            logger.log(Level.WARNING, "Ignoring malformed frame: " + frame.command(), e);
+        }
+    }
+
+    /**
+     * Passes a message on unless it was already delivered, which happens when a live delivery races the replay.
+     */
+    private void dispatch(Message message) {
+        if (!seenMessageIds.add(message.id())) return;
+        if (seenMessageIds.size() > SEEN_MESSAGE_IDS) seenMessageIds.removeFirst();
+        Consumer<Message> handler = chatMessageHandler;
+        if (handler != null) {
+            handler.accept(message);
+        } else {
+            messageHandler.accept(message.toDisplayString());
+        }
+    }
+
+    private void flushAcks() {
+        if (pendingAcks.isEmpty() || out == null) return;
+        writeLine(Frame.of(Frame.ACK, pendingAcks.toArray()).encode());
+        pendingAcks.clear();
+    }
+
+    /**
+     * Ends the session on the server, which revokes the session token, and closes the connection.
+     */
+    public void logout() {
+        flushReads();
+        if (out != null) {
+            // Behind the messages still queued for sending, so they are not cut off
+            Future<?> written = sends().submit(() -> writeLine(Protocol.LOGOUT_COMMAND));
+            try {
+                written.get(LOGOUT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException e) {
+                logger.warning("Closing without a clean logout: " + e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        close();
+    }
+
+    /**
+     * Closes the connection, streams, and listener thread, stops reconnecting, and logs the disconnection.
      */
     public void close() {
+        List<PendingSend> abandoned;
+        synchronized (unconfirmed) {
+            closed = true;
+            abandoned = List.copyOf(unconfirmed.values());
+            unconfirmed.clear();
+        }
+        synchronized (this) {
+            if (reconnector != null) reconnector.shutdownNow();
+            if (transfers != null) transfers.shutdownNow();
+            if (sends != null) sends.shutdownNow();
+        }
+        IOException disconnected = new IOException("Disconnected from the server");
+        abandoned.forEach(send -> send.result().completeExceptionally(disconnected));
+        closeConnection();
+        if (listenerThread != null) listenerThread.interrupt();
+        synchronized (pendingReads) {
+            if (readScheduler != null) readScheduler.shutdownNow();
+        }
+        logger.info("Disconnected from the server.");
+    }
+
+    /**
+     * Closes the current connection and fails the transfers running over it.
+     */
+    private void closeConnection() {
         try {
-            if (out != null) out.close();
-            if (in != null) in.close();
+            synchronized (writeLock) {
+                if (out != null) out.close();
+                out = null;
+            }
             if (socket != null) socket.close();
-            if (listenerThread != null) listenerThread.interrupt();
-            logger.info("Disconnected from the server.");
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error closing connection.", e);
             messageHandler.accept("Error closing connection: " + e.getMessage());
         }
+        abortTransfers();
     }
 }
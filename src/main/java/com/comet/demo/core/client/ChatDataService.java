@@ -0,0 +1,283 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.ChatDelta;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Contact;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.MessageChange;
+import com.comet.db.model.Receipt;
+import com.comet.db.model.SearchHit;
+import com.comet.db.model.UserProfile;
+import com.comet.db.repository.ChatRepository;
+import com.comet.db.repository.ContactRepository;
+import com.comet.db.repository.ReceiptRepository;
+import com.comet.db.repository.UserRepository;
+import javafx.application.Platform;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client-side facade over the repositories that runs every database call on a virtual thread, so the JavaFX
+ * Application Thread never waits on JDBC. Results are handed back to the UI with {@link #onFxThread}.
+ */
+public class ChatDataService implements AutoCloseable {
+    private static final Logger logger = Logger.getLogger(ChatDataService.class.getName());
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final UserRepository userRepository;
+    private final ChatRepository chatRepository;
+    private final ContactRepository contactRepository;
+    private final ReceiptRepository receiptRepository;
+
+    /**
+     * A repository call that may fail with an SQLException.
+     */
+    @FunctionalInterface
+    public interface DatabaseCall<T> {
+        T call() throws SQLException;
+    }
+
+    /**
+     * Constructs a ChatDataService over the given repositories.
+     *
+     * @param userRepository the repository for user lookups and profile updates
+     * @param chatRepository the repository for chats and messages
+     * @param contactRepository the repository for contacts
+     * @param receiptRepository the repository for delivery and read marks
+     */
+    public ChatDataService(UserRepository userRepository, ChatRepository chatRepository, ContactRepository contactRepository,
+                           ReceiptRepository receiptRepository) {
+        this.userRepository = userRepository;
+        this.chatRepository = chatRepository;
+        this.contactRepository = contactRepository;
+        this.receiptRepository = receiptRepository;
+    }
+
+    /**
+     * Runs a repository call on a virtual thread.
+     *
+     * @param call the call to run
+     * @return a future completed with the call's result, or exceptionally with its SQLException
+     */
+    public <T> CompletableFuture<T> submit(DatabaseCall<T> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Delivers the result of a future to the JavaFX Application Thread. Failures are logged and not delivered.
+     *
+     * @param future the pending result
+     * @param onSuccess the UI update to run with the result
+     */
+    public static <T> void onFxThread(CompletableFuture<T> future, Consumer<T> onSuccess) {
+        future.whenComplete((result, error) -> {
+            if (error != null) {
+                logger.log(Level.SEVERE, "[DataService] Background call failed:", error);
+                return;
+            }
+            Platform.runLater(() -> onSuccess.accept(result));
+        });
+    }
+
+    /**
+     * Loads the profile of a user.
+     */
+    public CompletableFuture<UserProfile> loadUserProfile(int userId) {
+        return submit(() -> userRepository.getUserProfile(userId));
+    }
+
+    /**
+     * Updates the profile of a user; empty values keep the current ones.
+     */
+    public CompletableFuture<UserProfile> updateUserProfile(int userId, String displayName, String imageUrl) {
+        return submit(() -> userRepository.updateUserProfile(userId, displayName, imageUrl));
+    }
+
+    /**
+     * Resolves the avatar URL of the user with the given display name.
+     *
+     * @param displayName the display name of the user
+     * @return a future completed with the URL, or null if the user or avatar is unknown
+     */
+    public CompletableFuture<String> loadImageUrlByDisplayName(String displayName) {
+        return submit(() -> {
+            int userId = userRepository.getUserIdByDisplayName(displayName);
+            return userId != -1 ? userRepository.getUserImageUrl(userId) : null;
+        });
+    }
+
+    /**
+     * Loads the user's chat list with previews and unread counts, most recently active first.
+     */
+    public CompletableFuture<List<ConversationSummary>> loadConversations(int userId) {
+        return submit(() -> chatRepository.getConversationSummaries(userId));
+    }
+
+    /**
+     * Searches the messages of every chat the user belongs to, most relevant first.
+     */
+    public CompletableFuture<List<SearchHit>> searchMessages(int userId, String query, int limit, int offset) {
+        return submit(() -> chatRepository.searchMessages(userId, query, limit, offset));
+    }
+
+    /**
+     * Resets the user's unread count of a chat.
+     */
+    public CompletableFuture<Void> markConversationRead(int userId, ChatKey chat) {
+        return submit(() -> {
+            chatRepository.markConversationRead(userId, chat);
+            return null;
+        });
+    }
+
+    /**
+     * Loads the delivery and read marks of every member of a chat.
+     */
+    public CompletableFuture<List<Receipt>> loadReceipts(ChatKey chat) {
+        return submit(() -> receiptRepository.getWatermarks(chat));
+    }
+
+    /**
+     * Loads the user's contacts with their display names and avatars in a single query.
+     */
+    public CompletableFuture<List<Contact>> loadContacts(int userId) {
+        return submit(() -> contactRepository.getContactsForUser(userId));
+    }
+
+    /**
+     * Loads the newest page of a chat, oldest first.
+     */
+    public CompletableFuture<List<Message>> loadLatestMessages(ChatType chatType, int chatId, int limit) {
+        return submit(() -> chatRepository.getLatestMessages(chatType, chatId, limit));
+    }
+
+    /**
+     * Loads the page of a chat sent right before the given message, oldest first.
+     */
+    public CompletableFuture<List<Message>> loadMessagesBefore(ChatKey chat, Message before, int limit) {
+        return submit(() -> chatRepository.getMessagesBefore(chat.type(), chat.chatId(), before, limit));
+    }
+
+    /**
+     * Loads what changed in a chat since the given sync position; see {@link ChatRepository#syncMessages}.
+     */
+    public CompletableFuture<ChatDelta> syncMessages(ChatKey chat, Message newest, long changeSeq, int limit) {
+        return submit(() -> chatRepository.syncMessages(chat, newest, changeSeq, limit));
+    }
+
+    /**
+     * Edits one of the user's own messages; completes with null if it is not theirs or no longer exists.
+     */
+    public CompletableFuture<MessageChange> editMessage(Message message, int userId, String content) {
+        return submit(() -> chatRepository.editMessage(message, userId, content));
+    }
+
+    /**
+     * Deletes one of the user's own messages; completes with null if it is not theirs or no longer exists.
+     */
+    public CompletableFuture<MessageChange> deleteMessage(Message message, int userId) {
+        return submit(() -> chatRepository.deleteMessage(message, userId));
+    }
+
+    /**
+     * Stores a message and completes with the stored message.
+     */
+    public CompletableFuture<Message> sendMessage(ChatType chatType, int chatId, int senderId, String content) {
+        return submit(() -> chatRepository.sendMessage(chatType, chatId, senderId, content));
+    }
+
+    /**
+     * Records a message the chat server confirmed storing, so the next reads of its chat see it. Does no I/O.
+     */
+    public void recordSent(Message message) {
+        chatRepository.recordStored(message);
+    }
+
+    /**
+     * Returns the private chat with a contact, creating it if needed, in a single statement.
+     *
+     * @param userId the ID of the current user
+     * @param contactId the user ID of the contact
+     * @return a future completed with the private chat ID
+     */
+    public CompletableFuture<Integer> openPrivateChat(int userId, int contactId) {
+        return submit(() -> chatRepository.getOrCreatePrivateChat(userId, contactId));
+    }
+
+    /**
+     * Creates a group chat with the current user as its first member.
+     *
+     * @return a future completed with the new group chat ID
+     */
+    public CompletableFuture<Integer> createGroupChat(String name, int creatorId) {
+        return submit(() -> {
+            int groupId = chatRepository.createGroupChat(name, creatorId);
+            chatRepository.addUserToGroup(groupId, creatorId);
+            return groupId;
+        });
+    }
+
+    /**
+     * Adds the user with the given username to a group chat.
+     *
+     * @return a future completed with true if the user exists and was added
+     */
+    public CompletableFuture<Boolean> addUserToGroup(int groupId, String username) {
+        return submit(() -> {
+            int userId = userRepository.getUserIdByUsername(username);
+            if (userId == -1) return false;
+            chatRepository.addUserToGroup(groupId, userId);
+            return true;
+        });
+    }
+
+    /**
+     * Adds the user with the given username as a contact.
+     *
+     * @return a future completed with true if the user exists and was added
+     */
+    public CompletableFuture<Boolean> addContact(int userId, String contactUsername) {
+        return submit(() -> {
+            int contactId = userRepository.getUserIdByUsername(contactUsername);
+            if (contactId == -1) return false;
+            contactRepository.addContact(userId, contactId);
+            return true;
+        });
+    }
+
+    /**
+     * Removes a contact, together with the reciprocal contact.
+     */
+    public CompletableFuture<Void> removeContact(int userId, int contactId) {
+        return submit(() -> {
+            contactRepository.removeContact(userId, contactId);
+            return null;
+        });
+    }
+
+    /**
+     * Stops accepting work. Calls already running are left to finish.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,42 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.Contact;
+import javafx.scene.control.ListCell;
+import javafx.scene.image.ImageView;
+import javafx.scene.layout.HBox;
+import javafx.scene.shape.Circle;
+
+/**
+ * Renders a contact with a presence dot, its avatar and display name. Everything shown comes from the {@link Contact}
+ * itself, so rendering a cell never queries the database; avatars come from the {@link AvatarCache}.
+ */
+public class ContactListCell extends ListCell<Contact> {
+    private static final double AVATAR_SIZE = 24;
+
+    private final ImageView avatar = new ImageView();
+    private final Circle presenceDot = new Circle(4);
+    private final HBox graphic = new HBox(6, presenceDot, avatar);
+
+    public ContactListCell() {
+        avatar.setFitWidth(AVATAR_SIZE);
+        avatar.setFitHeight(AVATAR_SIZE);
+        avatar.setPreserveRatio(true);
+        graphic.setAlignment(javafx.geometry.Pos.CENTER_LEFT);
+    }
+
+    @Override
+    protected void updateItem(Contact contact, boolean empty) {
+        super.updateItem(contact, empty);
+        if (empty || contact == null) {
+            setText(null);
+            setGraphic(null);
+            return;
+        }
+        setText(contact.displayName());
+        presenceDot.getStyleClass().setAll("presence-dot", contact.presence().name().toLowerCase());
+        // Shows a placeholder until the avatar is loaded; decoded avatars are shared by all cells
+        AvatarCache.getInstance().bind(avatar, contact.imageUrl(), AVATAR_SIZE);
+        avatar.setManaged(avatar.getImage() != null);
+        setGraphic(graphic);
+    }
+}
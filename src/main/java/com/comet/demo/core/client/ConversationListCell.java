@@ -0,0 +1,72 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.ConversationSummary;
+import javafx.geometry.Pos;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Renders a chat list entry with its title, a preview of the latest message, the time it was sent and the number
+ * of unread messages. Everything shown comes from the {@link ConversationSummary} itself, so rendering a cell never
+ * queries the database.
+ */
+public class ConversationListCell extends ListCell<ConversationSummary> {
+    private static final DateTimeFormatter TIME_TODAY = DateTimeFormatter.ofPattern("HH:mm");
+    private static final DateTimeFormatter TIME_EARLIER = DateTimeFormatter.ofPattern("d MMM");
+
+    private final Label title = new Label();
+    private final Label preview = new Label();
+    private final Label time = new Label();
+    private final Label unread = new Label();
+    private final HBox graphic;
+
+    public ConversationListCell() {
+        title.getStyleClass().add("conversation-title");
+        preview.getStyleClass().add("conversation-preview");
+        time.getStyleClass().add("conversation-time");
+        unread.getStyleClass().add("unread-badge");
+
+        VBox text = new VBox(2, title, preview);
+        text.setMinWidth(0);
+        HBox.setHgrow(text, Priority.ALWAYS);
+        VBox status = new VBox(2, time, unread);
+        status.setAlignment(Pos.TOP_RIGHT);
+        status.setMinWidth(Region.USE_PREF_SIZE);
+        graphic = new HBox(6, text, status);
+        graphic.setAlignment(Pos.CENTER_LEFT);
+    }
+
+    @Override
+    protected void updateItem(ConversationSummary summary, boolean empty) {
+        super.updateItem(summary, empty);
+        setText(null);
+        if (empty || summary == null) {
+            setGraphic(null);
+            return;
+        }
+        title.setText(summary.title());
+        preview.setText(summary.lastMessagePreview() == null ? "No messages yet" : summary.lastMessagePreview());
+        time.setText(summary.lastMessageAt() == null ? "" : formatTime(summary.lastMessageAt(), ZoneId.systemDefault()));
+        unread.setText(summary.unreadCount() > 99 ? "99+" : String.valueOf(summary.unreadCount()));
+        unread.setVisible(summary.unreadCount() > 0);
+        setGraphic(graphic);
+    }
+
+    /**
+     * Formats the time of the latest message: the time of day for today's messages, the date for older ones.
+     */
+    private static String formatTime(Instant at, ZoneId zone) {
+        ZonedDateTime local = at.atZone(zone);
+        return local.toLocalDate().equals(LocalDate.now(zone)) ? TIME_TODAY.format(local) : TIME_EARLIER.format(local);
+    }
+}
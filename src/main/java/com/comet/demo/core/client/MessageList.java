@@ -0,0 +1,289 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.ChatDelta;
+import com.comet.db.model.Message;
+import com.comet.db.model.MessageChange;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListView;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Shows the history of the open chat in a {@link ListView}, which only lays out the rows that are visible. New
+ * messages are appended as single rows, and older pages are loaded in the background when the first row scrolls
+ * into view, so the cost of opening or updating a chat does not grow with its history.
+ *
+ * <p>The list also remembers how far it is synced: the newest message it shows and the chat's change log
+ * position. Refreshing a chat applies a {@link ChatDelta} from there, which touches only the rows that changed.
+ *
+ * <p>Every method must be called on the FX thread.
+ */
+public class MessageList {
+    /**
+     * Loads the page of messages sent right before a message, oldest first.
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+        CompletableFuture<List<Message>> loadBefore(Message oldest, int limit);
+    }
+
+    /**
+     * What the user can do with a message through its context menu.
+     */
+    public interface Actions {
+        /** Returns whether the user may edit or delete the message. */
+        boolean canChange(Message message);
+
+        void edit(Message message);
+
+        void delete(Message message);
+    }
+
+    private final ListView<Message> view;
+    private final int pageSize;
+    private final ObservableList<Message> items = FXCollections.observableArrayList();
+    private final Set<Long> ids = new HashSet<>();
+
+    private PageLoader olderPages;
+    private boolean complete = true;
+    private boolean loadingOlder;
+    private long changeSeq;
+    // Incremented whenever another chat is shown, so pages loaded for the previous one are dropped
+    private int generation;
+
+    /**
+     * Takes over a list view to show messages in.
+     *
+     * @param view the list view
+     * @param pageSize the number of older messages to load at a time
+     * @param actions the edit and delete actions offered on messages
+     */
+    public MessageList(ListView<Message> view, int pageSize, Actions actions) {
+        this.view = view;
+        this.pageSize = pageSize;
+        view.setItems(items);
+        view.setFocusTraversable(false);
+        view.setCellFactory(list -> new MessageListCell(this::onFirstRowShown, actions));
+    }
+
+    /**
+     * Creates a row showing a line of text that is not a stored message, like a legacy chat line or an error.
+     * Notices have ID 0, stored messages positive IDs and pending messages negative ones.
+     */
+    public static Message notice(String text) {
+        return new Message(0, null, 0, 0, null, text, Instant.now());
+    }
+
+    /**
+     * Replaces the list with the newest page of a chat and scrolls to its end.
+     *
+     * @param latest the newest messages, oldest first
+     * @param olderPages loads the pages before it, or null if there is no older history
+     */
+    public void show(List<Message> latest, PageLoader olderPages) {
+        generation++;
+        loadingOlder = false;
+        this.olderPages = olderPages;
+        complete = olderPages == null || latest.size() < pageSize;
+        ids.clear();
+        for (Message message : latest) ids.add(message.id());
+        items.setAll(latest);
+        scrollToEnd();
+    }
+
+    /**
+     * Empties the list, e.g. when no chat is selected.
+     */
+    public void clear() {
+        show(List.of(), null);
+        changeSeq = 0;
+    }
+
+    /**
+     * Applies a sync result: replaces the list if the delta says so, otherwise adds the messages not shown yet
+     * in time order and updates or removes the rows of changed messages. A delta repeats some messages the list
+     * already shows, and may carry one that committed late and belongs before them.
+     *
+     * @param delta the sync result for the chat the list shows
+     * @param olderPages loads the pages before the newest page, used when the list is replaced
+     */
+    public void apply(ChatDelta delta, PageLoader olderPages) {
+        if (delta.reset()) {
+            show(delta.messages(), olderPages);
+        } else {
+            for (Message message : delta.messages()) insertInOrder(message);
+            for (MessageChange change : delta.changes()) applyChange(change);
+        }
+        changeSeq = delta.changeSeq();
+    }
+
+    /**
+     * Updates or removes the row of a changed message. Messages that are not shown are ignored. The sync
+     * position does not move, so changes made by others in the meantime are still picked up by the next sync.
+     *
+     * @param change the edit or deletion
+     */
+    public void applyChange(MessageChange change) {
+        if (!ids.contains(change.messageId())) return;
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Message message = items.get(i);
+            if (message.id() != change.messageId()) continue;
+            if (change.isDeletion()) {
+                items.remove(i);
+                ids.remove(message.id());
+            } else {
+                items.set(i, message.withContent(change.content()));
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the newest stored message shown, the cursor for the next sync, or null if there is none.
+     */
+    public Message newest() {
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).id() > 0) return items.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the change log position the list is synced to.
+     */
+    public long changeSeq() {
+        return changeSeq;
+    }
+
+    /**
+     * Appends a message and scrolls to it. A message that is already shown is ignored.
+     *
+     * @param message the message to append
+     * @return true if the message was appended
+     */
+    public boolean append(Message message) {
+        if (message.id() != 0 && !ids.add(message.id())) return false;
+        items.add(message);
+        scrollToEnd();
+        return true;
+    }
+
+    private void insertInOrder(Message message) {
+        if (!ids.add(message.id())) return;
+        int index = items.size();
+        while (index > 0 && items.get(index - 1).id() > 0 && isAfter(items.get(index - 1), message)) index--;
+        items.add(index, message);
+        if (index == items.size() - 1) scrollToEnd();
+    }
+
+    private static boolean isAfter(Message shown, Message message) {
+        int byTime = shown.sentAt().compareTo(message.sentAt());
+        return byTime != 0 ? byTime > 0 : shown.id() > message.id();
+    }
+
+    /**
+     * Appends several messages in one update and scrolls to the last. Messages that are already shown are ignored.
+     *
+     * @param messages the messages to append, oldest first
+     * @return the messages that were appended
+     */
+    public List<Message> appendAll(List<Message> messages) {
+        List<Message> added = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            if (message.id() == 0 || ids.add(message.id())) added.add(message);
+        }
+        if (added.isEmpty()) return added;
+        items.addAll(added);
+        scrollToEnd();
+        return added;
+    }
+
+    /**
+     * Replaces the local echo of a sent message with the message the server stored. If the stored message
+     * arrived first and is already shown, the echo is just removed.
+     *
+     * @param pendingId the negative ID of the echo
+     * @param stored the stored message
+     */
+    public void confirm(long pendingId, Message stored) {
+        int index = indexOf(pendingId);
+        if (index < 0) return;
+        ids.remove(pendingId);
+        if (ids.add(stored.id())) {
+            items.set(index, stored);
+        } else {
+            items.remove(index);
+        }
+    }
+
+    /**
+     * Turns the local echo of a sent message into a notice that it was not sent.
+     *
+     * @param pendingId the negative ID of the echo
+     * @param reason why the message was not sent
+     */
+    public void fail(long pendingId, String reason) {
+        int index = indexOf(pendingId);
+        if (index < 0) return;
+        ids.remove(pendingId);
+        items.set(index, notice("Not sent (" + reason + "): " + items.get(index).content()));
+    }
+
+    private int indexOf(long id) {
+        if (!ids.contains(id)) return -1;
+        // Echoes are near the end
+        for (int i = items.size() - 1; i >= 0; i--) {
+            if (items.get(i).id() == id) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the messages currently shown, oldest first.
+     */
+    public List<Message> messages() {
+        return List.copyOf(items);
+    }
+
+    private void onFirstRowShown() {
+        if (complete || loadingOlder || olderPages == null) return;
+        Message oldest = items.stream().filter(message -> message.id() > 0).findFirst().orElse(null);
+        if (oldest == null) return;
+        loadingOlder = true;
+        int requested = generation;
+        olderPages.loadBefore(oldest, pageSize).whenComplete((page, error) -> Platform.runLater(() -> {
+            if (requested != generation) return;
+            loadingOlder = false;
+            if (error != null) {
+                // Stop paging for this chat rather than retry on every layout pass
+                complete = true;
+                System.err.println("Failed to load older messages: " + error.getMessage());
+                return;
+            }
+            prepend(page);
+        }));
+    }
+
+    private void prepend(List<Message> page) {
+        if (page.size() < pageSize) complete = true;
+        List<Message> older = new ArrayList<>(page.size());
+        for (Message message : page) {
+            if (ids.add(message.id())) older.add(message);
+        }
+        if (older.isEmpty()) return;
+        items.addAll(0, older);
+        // Keep the row that was on top in place instead of jumping to the oldest loaded message
+        view.scrollTo(older.size());
+    }
+
+    private void scrollToEnd() {
+        if (!items.isEmpty()) view.scrollTo(items.size() - 1);
+    }
+}
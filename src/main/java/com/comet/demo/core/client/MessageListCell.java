@@ -0,0 +1,58 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.Message;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.MenuItem;
+
+/**
+ * Renders one message of the {@link MessageList} as wrapped text. Cells are recycled while scrolling, so only as
+ * many exist as rows fit on screen.
+ */
+public final class MessageListCell extends ListCell<Message> {
+    private final Label text = new Label();
+    private final Runnable onFirstRowShown;
+    private final MessageList.Actions actions;
+    private final MenuItem editItem = new MenuItem("Edit");
+    private final MenuItem deleteItem = new MenuItem("Delete");
+    private final ContextMenu menu = new ContextMenu(editItem, deleteItem);
+
+    /**
+     * @param onFirstRowShown called whenever the cell shows the first row of the list
+     * @param actions the edit and delete actions offered in the cell's context menu
+     */
+    public MessageListCell(Runnable onFirstRowShown, MessageList.Actions actions) {
+        this.onFirstRowShown = onFirstRowShown;
+        this.actions = actions;
+        editItem.setOnAction(event -> actions.edit(getItem()));
+        deleteItem.setOnAction(event -> actions.delete(getItem()));
+        text.setWrapText(true);
+        text.getStyleClass().add("message-text");
+        getStyleClass().add("message-cell");
+        listViewProperty().addListener((observable, oldList, list) -> {
+            text.maxWidthProperty().unbind();
+            // Leave room for the padding and the scroll bar
+            if (list != null) text.maxWidthProperty().bind(list.widthProperty().subtract(40));
+        });
+    }
+
+    @Override
+    protected void updateItem(Message message, boolean empty) {
+        super.updateItem(message, empty);
+        setText(null);
+        if (empty || message == null) {
+            setGraphic(null);
+            setContextMenu(null);
+            return;
+        }
+        String shown = message.senderName() == null ? message.content() : message.toDisplayString();
+        text.setText(message.isPending() ? shown + " (sending...)" : shown);
+        setGraphic(text);
+        boolean changeable = message.id() > 0 && actions.canChange(message);
+        // Attachments can be deleted but not edited
+        editItem.setVisible(message.attachment() == null);
+        setContextMenu(changeable ? menu : null);
+        if (getIndex() == 0) onFirstRowShown.run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.comet.demo.core.client;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Collects events posted from any thread and hands them to the FX thread in batches, at most once per frame.
+ * A burst of events then costs one UI update and one layout pass instead of one per event. Batches are capped,
+ * so a long burst is spread over several frames and input events are still handled in between.
+ *
+ * @param <T> the type of event
+ */
+public class PulseBatcher<T> {
+    /**
+     * Runs a task on the FX thread before the next frame is rendered.
+     */
+    @FunctionalInterface
+    public interface Pulse {
+        void request(Runnable task);
+    }
+
+    private final int maxBatch;
+    private final Consumer<List<T>> sink;
+    private final Pulse pulse;
+    private final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * Constructs a batcher that drains on the next animation pulse.
+     *
+     * @param maxBatch the most events handed over in one frame
+     * @param sink handles a batch on the FX thread, oldest event first
+     */
+    public PulseBatcher(int maxBatch, Consumer<List<T>> sink) {
+        this(maxBatch, sink, PulseBatcher::onNextFrame);
+    }
+
+    PulseBatcher(int maxBatch, Consumer<List<T>> sink, Pulse pulse) {
+        if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be positive");
+        this.maxBatch = maxBatch;
+        this.sink = sink;
+        this.pulse = pulse;
+    }
+
+    /**
+     * Queues an event. Safe to call from any thread.
+     *
+     * @param event the event
+     */
+    public void post(T event) {
+        queue.add(event);
+        if (scheduled.compareAndSet(false, true)) pulse.request(this::drain);
+    }
+
+    private void drain() {
+        List<T> batch = new ArrayList<>(Math.min(maxBatch, queue.size()));
+        T event;
+        while (batch.size() < maxBatch && (event = queue.poll()) != null) batch.add(event);
+        // Clear the flag before handling the batch, so events posted meanwhile schedule the next frame
+        scheduled.set(false);
+        if (!queue.isEmpty() && scheduled.compareAndSet(false, true)) pulse.request(this::drain);
+        if (!batch.isEmpty()) sink.accept(batch);
+    }
+
+    private static void onNextFrame(Runnable task) {
+        // One-shot timer: it fires on the next pulse and stops, so no pulses are requested while idle
+        Platform.runLater(() -> new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                task.run();
+            }
+        }.start());
+    }
+}
@@ -0,0 +1,88 @@
+package com.comet.demo.core.client;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Chooses how long a client waits before reconnecting. Delays grow exponentially with each failed attempt up to a
+ * cap, and each is drawn at random below that bound, so clients dropped at the same moment do not come back at the
+ * same moment. A delay asked for by the server is honored as a minimum, with up to a quarter of it added at random
+ * for the same reason.
+ *
+ * <p>Not thread-safe; each connection keeps its own.
+ */
+public class ReconnectBackoff {
+    /** Bound of the first delay unless COMET_RECONNECT_BASE_MS says otherwise. */
+    public static final long DEFAULT_BASE_MILLIS = 500;
+    /** Largest bound unless COMET_RECONNECT_MAX_MS says otherwise. */
+    public static final long DEFAULT_MAX_MILLIS = 30_000;
+
+    private final long baseMillis;
+    private final long maxMillis;
+    private final RandomGenerator random;
+    private int attempts;
+
+    /**
+     * Constructs a backoff.
+     *
+     * @param baseMillis the bound of the first delay
+     * @param maxMillis the largest bound, reached after repeated failures
+     * @param random draws the delays
+     */
+    public ReconnectBackoff(long baseMillis, long maxMillis, RandomGenerator random) {
+        if (baseMillis < 1 || maxMillis < baseMillis) throw new IllegalArgumentException("Invalid backoff bounds");
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.random = random;
+    }
+
+    /**
+     * Constructs a backoff with the bounds from COMET_RECONNECT_BASE_MS and COMET_RECONNECT_MAX_MS.
+     */
+    public static ReconnectBackoff fromEnvironment() {
+        long base = parseLongEnv("COMET_RECONNECT_BASE_MS", DEFAULT_BASE_MILLIS);
+        return new ReconnectBackoff(base, Math.max(base, parseLongEnv("COMET_RECONNECT_MAX_MS", DEFAULT_MAX_MILLIS)),
+                RandomGenerator.getDefault());
+    }
+
+    /**
+     * Returns the delay before the next attempt and counts the attempt.
+     *
+     * @param retryAfterMillis the delay the server asked for, or 0 if it did not
+     * @return the delay in milliseconds
+     */
+    public long nextDelay(long retryAfterMillis) {
+        // The shift is capped so the bound cannot overflow
+        long bound = Math.min(maxMillis, baseMillis << Math.min(attempts, 20));
+        attempts++;
+        long delay = random.nextLong(bound + 1);
+        if (retryAfterMillis > 0) {
+            delay = Math.max(delay, retryAfterMillis + random.nextLong(retryAfterMillis / 4 + 1));
+        }
+        return delay;
+    }
+
+    /**
+     * Starts over from the first delay, once a connection has proven stable.
+     */
+    public void reset() {
+        attempts = 0;
+    }
+
+    /**
+     * Returns the number of attempts since the last reset.
+     */
+    public int attempts() {
+        return attempts;
+    }
+
+    private static long parseLongEnv(String name, long fallback) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Math.max(1, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            System.err.println("[Client] Ignoring invalid " + name + ": " + value);
+            return fallback;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.comet.demo.core.client;
+
+import com.comet.db.model.SearchHit;
+import javafx.geometry.Insets;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Searches the messages of the user's chats and returns the hit chosen to be opened. Hits are loaded a page at a
+ * time, most relevant first.
+ */
+public class SearchDialog extends Dialog<SearchHit> {
+    /** Number of hits loaded per page. */
+    public static final int PAGE_SIZE = 20;
+
+    /**
+     * Loads one page of hits in the background and hands it over on the JavaFX Application Thread.
+     */
+    @FunctionalInterface
+    public interface PageLoader {
+        void load(String query, int offset, Consumer<List<SearchHit>> onLoaded);
+    }
+
+    private final PageLoader loader;
+    private final ListView<SearchHit> results = new ListView<>();
+    private final Button moreButton = new Button("Show More");
+    private String query;
+
+    public SearchDialog(PageLoader loader) {
+        this.loader = loader;
+        setTitle("Search Messages");
+        setHeaderText("Search the messages of all your chats");
+
+        ButtonType openButtonType = new ButtonType("Open Chat", ButtonBar.ButtonData.OK_DONE);
+        getDialogPane().getButtonTypes().addAll(openButtonType, ButtonType.CANCEL);
+
+        TextField queryField = new TextField();
+        queryField.setPromptText("Words, \"a phrase\", -excluded");
+        Button searchButton = new Button("Search");
+        HBox.setHgrow(queryField, Priority.ALWAYS);
+        HBox searchBar = new HBox(10, queryField, searchButton);
+
+        results.setPrefSize(480, 320);
+        results.setCellFactory(view -> new ListCell<>() {
+            @Override
+            protected void updateItem(SearchHit hit, boolean empty) {
+                super.updateItem(hit, empty);
+                setText(empty || hit == null ? null : hit.message().senderName() + ": " + hit.snippet());
+            }
+        });
+        results.setPlaceholder(new Label("No matching messages"));
+        moreButton.setDisable(true);
+
+        VBox content = new VBox(10, searchBar, results, moreButton);
+        content.setPadding(new Insets(10));
+        getDialogPane().setContent(content);
+
+        queryField.setOnAction(event -> search(queryField.getText()));
+        searchButton.setOnAction(event -> search(queryField.getText()));
+        moreButton.setOnAction(event -> loadPage(results.getItems().size()));
+
+        Button openButton = (Button) getDialogPane().lookupButton(openButtonType);
+        openButton.disableProperty().bind(results.getSelectionModel().selectedItemProperty().isNull());
+
+        setResultConverter(dialogButton -> dialogButton == openButtonType
+                ? results.getSelectionModel().getSelectedItem()
+                : null);
+    }
+
+    private void search(String text) {
+        if (text == null || text.isBlank()) return;
+        query = text.trim();
+        results.getItems().clear();
+        loadPage(0);
+    }
+
+    private void loadPage(int offset) {
+        String requested = query;
+        moreButton.setDisable(true);
+        loader.load(requested, offset, hits -> {
+            // A newer search replaced this one meanwhile
+            if (!requested.equals(query) || results.getItems().size() != offset) return;
+            results.getItems().addAll(hits);
+            moreButton.setDisable(hits.size() < PAGE_SIZE);
+        });
+    }
+}
@@ -1,18 +1,51 @@
 package com.comet.demo.core.server;
 
+import com.comet.db.DatabaseManager;
+import com.comet.db.model.Receipt;
+import com.comet.db.repository.ReceiptRepository;
+import com.comet.db.repository.SendKeyRepository;
+import com.comet.db.schema.MessagePartitionManager;
 import com.comet.db.schema.SchemaInitializer;
+import com.comet.db.store.BlobStore;
 
 import java.io.IOException;
-import java.net.ServerSocket;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChatServer {
-    private ServerSocket serverSocket;
+    /** How long a client turned away at the connection limit is asked to wait before trying again. */
+    static final long SHED_RETRY_MILLIS = 5_000;
+    /** How long clients are asked to wait for the server to come back when it stops. */
+    static final long RESTART_RETRY_MILLIS = 10_000;
+    /** How long a partial upload may sit untouched before it counts as abandoned and is deleted. */
+    static final Duration ABANDONED_UPLOAD_AGE = Duration.ofDays(1);
+
+    private ServerSocketChannel serverSocket;
     private ChatWebSocketServer webSocketServer;
+    private ScheduledExecutorService maintenance;
+    private ScheduledExecutorService receiptFlusher;
+    private ScheduledExecutorService presenceSweeper;
     private static final List<ClientHandler> clientHandlers = new ArrayList<>();
+    private final ReceiptAggregator receipts = new ReceiptAggregator(ChatServer::saveReceipts, ChatServer::publishReceipts);
+    private final PresenceService presence = new PresenceService(System::currentTimeMillis, ChatServer::push);
+    // Connections whose handler is still running, counted down when it returns
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile int maxConnections = parseIntEnv("COMET_MAX_CONNECTIONS", 0);
 
     /**
      * Starts the chat server and WebSocket server on the specified ports.
@@ -23,7 +56,8 @@ public class ChatServer {
      */
     void start(int port, int webSocketPort) {
         try {
-            serverSocket = new ServerSocket(port);
+            // Sockets accepted through a channel let downloads use FileChannel.transferTo
+            serverSocket = ServerSocketChannel.open().bind(new InetSocketAddress(port));
             System.out.println("[Server] Listening on port " + port + "...");
 
             webSocketServer = new ChatWebSocketServer(webSocketPort);
@@ -31,18 +65,23 @@ public class ChatServer {
             System.out.println("[WebSocket Server] Listening on port " + webSocketPort + "...");
 
             while (true) {
-                Socket clientSocket = serverSocket.accept();
+                Socket clientSocket = serverSocket.accept().socket();
                 System.out.println("[Server] New client connected: " + clientSocket.getInetAddress().getHostAddress());
 
-                ClientHandler handler = new ClientHandler(clientSocket, clientHandlers);
-
-                synchronized (clientHandlers) {
-                    if (!clientHandlers.contains(handler)) {
-                        clientHandlers.add(handler);
-                    }
+                if (maxConnections > 0 && openConnections.get() >= maxConnections) {
+                    shed(clientSocket);
+                    continue;
                 }
 
-                new Thread(handler).start();
+                Runnable handler = newHandler(clientSocket);
+                openConnections.incrementAndGet();
+                new Thread(() -> {
+                    try {
+                        handler.run();
+                    } finally {
+                        openConnections.decrementAndGet();
+                    }
+                }).start();
             }
 
         } catch (IOException e) {
@@ -50,10 +89,148 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Creates the handler serving a newly accepted connection and registers it for broadcasts.
+     */
+    Runnable newHandler(Socket clientSocket) throws IOException {
+        ClientHandler handler = new ClientHandler(clientSocket, clientHandlers, receipts, presence);
+
+        synchronized (clientHandlers) {
+            if (!clientHandlers.contains(handler)) {
+                clientHandlers.add(handler);
+            }
+        }
+        return handler;
+    }
+
+    /**
+     * Sets how many connections are served at once; 0 means no limit. Defaults to COMET_MAX_CONNECTIONS.
+     */
+    void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    /**
+     * Turns a connection away while the server is full, telling the client when to try again.
+     */
+    private static void shed(Socket clientSocket) {
+        System.out.println("[Server] At the connection limit, asking " + clientSocket.getInetAddress().getHostAddress()
+                + " to retry later");
+        try (clientSocket) {
+            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
+            out.println(Frame.of(Frame.RETRY_AFTER, SHED_RETRY_MILLIS).encode());
+        } catch (IOException e) {
+            System.err.println("[Server] Error turning a client away: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules daily message partition maintenance, running it once right away. Future partitions are always
+     * provisioned; old ones are only removed when COMET_MESSAGE_RETENTION_MONTHS is set. Expired partitions are
+     * dropped unless COMET_MESSAGE_RETENTION_ARCHIVE is "true", in which case they are only detached. Expired send
+     * keys and uploads idle for {@link #ABANDONED_UPLOAD_AGE} are deleted in the same run.
+     */
+    void startMaintenance() {
+        int retentionMonths = parseIntEnv("COMET_MESSAGE_RETENTION_MONTHS", 0);
+        boolean archive = Boolean.parseBoolean(System.getenv("COMET_MESSAGE_RETENTION_ARCHIVE"));
+
+        maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "partition-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleAtFixedRate(() -> {
+            try (Connection connection = DatabaseManager.getInstance().getConnection()) {
+                MessagePartitionManager partitions = new MessagePartitionManager(connection);
+                partitions.ensureFuturePartitions(SchemaInitializer.PARTITION_MONTHS_AHEAD);
+                if (retentionMonths > 0) {
+                    partitions.applyRetention(retentionMonths, !archive);
+                }
+                new SendKeyRepository(connection).prune();
+            } catch (SQLException e) {
+                System.err.println("[Server] Partition maintenance failed: " + e.getMessage());
+            }
+            try {
+                BlobStore.getInstance().removeAbandonedUploads(ABANDONED_UPLOAD_AGE);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("[Server] Upload cleanup failed: " + e.getMessage());
+            }
+        }, 0, 1, TimeUnit.DAYS);
+    }
+
+    /**
+     * Schedules batched writes of delivery and read receipts every COMET_RECEIPT_FLUSH_MS milliseconds
+     * (default 1000). Receipts arriving in between are merged in memory.
+     */
+    void startReceiptFlushing() {
+        int intervalMillis = Math.max(1, parseIntEnv("COMET_RECEIPT_FLUSH_MS", 1000));
+        receiptFlusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "receipt-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+        receiptFlusher.scheduleWithFixedDelay(receipts::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static Map<Integer, List<Receipt>> saveReceipts(Collection<Receipt> batch) throws SQLException {
+        try (Connection connection = DatabaseManager.getInstance().getConnection()) {
+            return new ReceiptRepository(connection).saveWatermarks(batch);
+        }
+    }
+
+    private static void publishReceipts(int recipientId, List<Receipt> batch) {
+        push(List.of(recipientId), Frame.receipts(batch));
+    }
+
+    /**
+     * Moves idle users to away once a second. Presence lives only in memory, so nothing is written.
+     */
+    void startPresenceSweeping() {
+        presenceSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "presence-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        presenceSweeper.scheduleWithFixedDelay(presence::sweep, 1, 1, TimeUnit.SECONDS);
+    }
+
+    private static void push(Frame frame) {
+        for (ClientHandler handler : connectedHandlers()) handler.push(frame);
+    }
+
+    private static void push(Collection<Integer> recipients, Frame frame) {
+        Set<Integer> targets = recipients instanceof Set<Integer> set ? set : new HashSet<>(recipients);
+        for (ClientHandler handler : connectedHandlers()) {
+            if (targets.contains(handler.userId())) handler.push(frame);
+        }
+    }
+
+    /**
+     * Returns a copy of the connected handlers, so fan-out runs without holding the list's lock.
+     */
+    private static List<ClientHandler> connectedHandlers() {
+        synchronized (clientHandlers) {
+            return new ArrayList<>(clientHandlers);
+        }
+    }
+
+    private static int parseIntEnv(String name, int fallback) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) return fallback;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("[Server] Ignoring invalid " + name + ": " + value);
+            return fallback;
+        }
+    }
+
     /**
      * Stops the chat server and WebSocket server, closing all resources.
      */
     public void stop() {
+        // Clients would otherwise all reconnect the moment the server is back
+        push(Frame.of(Frame.RETRY_AFTER, RESTART_RETRY_MILLIS));
         try {
             if (serverSocket != null) {
                 serverSocket.close();
@@ -61,6 +238,16 @@ public class ChatServer {
             if (webSocketServer != null) {
                 webSocketServer.stop();
             }
+            if (maintenance != null) {
+                maintenance.shutdownNow();
+            }
+            if (presenceSweeper != null) {
+                presenceSweeper.shutdownNow();
+            }
+            if (receiptFlusher != null) {
+                receiptFlusher.shutdownNow();
+                receipts.flush();
+            }
         } catch (IOException e) {
             System.err.println("[Server] Error while stopping: " + e.getMessage());
         } catch (InterruptedException e) {
@@ -76,6 +263,9 @@ public class ChatServer {
     public static void main(String[] args) throws SQLException {
         ChatServer server = new ChatServer();
         SchemaInitializer.init();
+        server.startMaintenance();
+        server.startReceiptFlushing();
+        server.startPresenceSweeping();
         server.start(12345, 8887);
     }
 }
@@ -1,5 +1,6 @@
 package com.comet.demo.core.server;
 
+import com.comet.demo.core.Protocol;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.java_websocket.server.WebSocketServer;
@@ -30,10 +31,13 @@ public class ChatWebSocketServer extends WebSocketServer {
     public void onMessage(WebSocket conn, String message) {
         System.out.println("Received message: " + message);
         // Handle incoming messages, e.g., broadcast to all clients
-        if ("refresh_contacts".equals(message)) {
-            broadcast("refresh_contacts");
+        if (Protocol.REFRESH_CONTACTS.equals(message)) {
+            broadcast(Protocol.REFRESH_CONTACTS);
+        } else if (message.startsWith(Protocol.PROFILE_UPDATED_PREFIX)) {
+            // Relay as-is so every client can drop the user from its profile cache
+            broadcast(message);
         } else {
-            broadcast("refresh_chats");
+            broadcast(Protocol.REFRESH_CHATS);
         }
     }
 
@@ -1,29 +1,94 @@
 package com.comet.demo.core.server;
 
 import com.comet.db.DatabaseManager;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.Attachment;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.OutboxEntry;
+import com.comet.db.model.Receipt;
+import com.comet.db.repository.ChatRepository;
+import com.comet.db.repository.ContactRepository;
+import com.comet.db.repository.OutboxRepository;
+import com.comet.db.repository.SendKeyRepository;
 import com.comet.db.repository.UserRepository;
+import com.comet.db.store.BlobStore;
+import com.comet.demo.core.Protocol;
+import com.comet.demo.core.auth.SessionToken;
+import com.comet.demo.core.auth.SessionTokenService;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class ClientHandler implements Runnable {
     private static final Logger logger = Logger.getLogger(ClientHandler.class.getName());
 
+    /** Number of outbox entries replayed before waiting for the client to acknowledge them. */
+    static final int REPLAY_BATCH_SIZE = 100;
+    /** Largest piece of a blob sent in one BLOB frame, so deliveries can interleave with a long download. */
+    static final int DOWNLOAD_CHUNK_BYTES = 1024 * 1024;
+    /** Longest send key accepted, the width of its column. */
+    static final int MAX_SEND_KEY_LENGTH = 64;
+    /**
+     * Most writes queued for a client. A client this far behind is not reading; it is disconnected, and its
+     * unacknowledged messages are replayed from the outbox when it returns.
+     */
+    static final int MAX_QUEUED_WRITES = 10_000;
+
+    /**
+     * Something to write to the client. Writes are queued and carried out by the client's writer thread, the
+     * only thread that touches its socket, so a slow client never blocks the threads delivering to it.
+     */
+    @FunctionalInterface
+    private interface Write {
+        void run() throws IOException;
+    }
+
     private final Socket clientSocket;
     private final List<ClientHandler> clientHandlers;
     private final PrintWriter output;
-    private final Scanner input;
+    private final FrameInput input;
     private String username;
+    private int userId = -1;
+    private String sessionToken;
     private final static List<String> messageHistory = new ArrayList<>();
 
+    private final Connection connection;
     private final UserRepository userRepository;
+    private final ChatRepository chatRepository;
+    private final OutboxRepository outboxRepository;
+    private final SendKeyRepository sendKeyRepository;
+    private final ReceiptAggregator receipts;
+    private final PresenceService presence;
+    private boolean presenceRegistered;
+    // Chats this user was found to be a member of
+    private final Set<ChatKey> memberChats = new HashSet<>();
+
+    // Writes waiting for the writer thread, oldest first
+    private final LinkedBlockingQueue<Write> writes = new LinkedBlockingQueue<>();
+    private final AtomicBoolean overflowed = new AtomicBoolean();
+    private Thread writer;
+
+    // Guards the outbox replay state, and keeps deliveries queued in the order they were decided
+    private final Object deliveryLock = new Object();
+    private boolean replaying;
+    private int replayUnacked;
+    // Outbox entries sent in this session and not acknowledged yet
+    private final Set<Long> sentSeqs = new HashSet<>();
 
     /**
      * Constructs a ClientHandler for the given client socket and list of handlers.
@@ -34,12 +99,33 @@ public class ClientHandler implements Runnable {
      * @throws IOException if an I/O error occurs or database connection fails
      */
     public ClientHandler(Socket clientSocket, List<ClientHandler> clientHandlers) throws IOException {
+        this(clientSocket, clientHandlers, ReceiptAggregator.discarding(),
+                new PresenceService(System::currentTimeMillis, (recipients, frame) -> {}));
+    }
+
+    /**
+     * Constructs a ClientHandler that reports the client's receipts and presence to the server-wide services.
+     *
+     * @param clientSocket the socket for the connected client
+     * @param clientHandlers the list of all connected client handlers
+     * @param receipts collects receipts for batched writes
+     * @param presence tracks online, away and typing state
+     * @throws IOException if an I/O error occurs or database connection fails
+     */
+    public ClientHandler(Socket clientSocket, List<ClientHandler> clientHandlers, ReceiptAggregator receipts,
+                         PresenceService presence) throws IOException {
         try {
             this.clientSocket = clientSocket;
             this.clientHandlers = clientHandlers;
+            this.receipts = receipts;
+            this.presence = presence;
             this.output = new PrintWriter(this.clientSocket.getOutputStream(), true);
-            this.input = new Scanner(this.clientSocket.getInputStream());
-            this.userRepository = new UserRepository(DatabaseManager.getInstance().getConnection());
+            this.input = new FrameInput(this.clientSocket);
+            this.connection = DatabaseManager.getInstance().getConnection();
+            this.userRepository = new UserRepository(connection);
+            this.chatRepository = new ChatRepository(connection);
+            this.outboxRepository = new OutboxRepository(connection);
+            this.sendKeyRepository = new SendKeyRepository(connection);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error initializing client handler.", e);
             throw e;
@@ -56,15 +142,31 @@ public class ClientHandler implements Runnable {
     @Override
     public void run() {
         try {
-            // Step 1: Receive credentials from client (2 lines: username + password)
-            String username = input.nextLine();
-            String password = input.nextLine();
+            // Step 1: Receive credentials from client (2 lines: username + session token or password)
+            String username = input.readLine();
+            String credential = input.readLine();
+            if (username == null || credential == null) return;
 
-            // Step 2: Validate user in DB
-            boolean loggedIn = userRepository.checkLogin(username, password);
+            // Step 2: Verify a session token in memory; anything else, including a password that merely looks
+            // like a token, is checked against the DB, and a new token is issued for the reconnects
+            SessionTokenService tokens = SessionTokenService.getInstance();
+            SessionToken session = SessionTokenService.isToken(credential) ? tokens.verify(credential) : null;
+            boolean loggedIn;
+            if (session != null && session.username().equals(username)) {
+                this.userId = session.userId();
+                this.sessionToken = credential;
+                loggedIn = true;
+            } else {
+                this.userId = userRepository.getUserId(username, credential);
+                loggedIn = userId != -1;
+                if (loggedIn) {
+                    this.sessionToken = tokens.issue(userId, username);
+                    output.println(Frame.of(Frame.SESSION, sessionToken).encode());
+                }
+            }
 
             if (!loggedIn) {
-                output.println("[Server] Authentication failed. Closing connection.");
+                output.println(Protocol.AUTH_FAILED);
                 logger.warning("Authentication failed for user: " + username);
                 clientSocket.close();
                 return; // stop here for bad login
@@ -72,6 +174,7 @@ public class ClientHandler implements Runnable {
 
             // Step 3: User is legit, add handler & announce
             this.username = username;
+            writer = Thread.ofVirtual().name("client-writer-" + userId).start(this::writeQueued);
 
             synchronized (clientHandlers) {
                 if (!clientHandlers.contains(this)) {
@@ -81,15 +184,37 @@ public class ClientHandler implements Runnable {
 
             synchronized (messageHistory) {
                 for (String message : messageHistory) {
-                    output.println(message);
+                    enqueue(message);
                 }
             }
 
             logger.info("User connected: " + username);
 
-            // Step 4: Listen for messages and broadcast them
+            ContactRepository contactRepository = new ContactRepository(connection);
+            presence.connected(userId, new PresenceService.Audience(
+                    new HashSet<>(contactRepository.getContacts(userId)),
+                    contactRepository.getWatchers(userId),
+                    chatRepository.getCoMembers(userId)));
+            presenceRegistered = true;
+
+            // Step 4: Hand over whatever arrived while the user was away
+            synchronized (deliveryLock) {
+                replaying = true;
+                replayNextBatch();
+            }
+
+            // Step 5: Listen for frames and legacy messages
             String message;
-            while (input.hasNextLine() && (message = input.nextLine()) != null) {
+            while ((message = input.readLine()) != null) {
+                if (Protocol.LOGOUT_COMMAND.equals(message)) {
+                    if (sessionToken != null) SessionTokenService.getInstance().revoke(sessionToken);
+                    break;
+                }
+                Frame frame = Frame.parse(message);
+                if (frame != null) {
+                    handleFrame(frame);
+                    continue;
+                }
                 logger.info("Message from " + username + ": " + message);
                 broadcastMessage(message, true);
             }
@@ -98,19 +223,352 @@ public class ClientHandler implements Runnable {
         } finally {
             try {
                 synchronized (clientHandlers) {
-                    if (!clientHandlers.contains(this)) {
-                        clientHandlers.remove(this);
-                    }
+                    clientHandlers.remove(this);
                 }
                 clientSocket.close();
+                if (writer != null) writer.interrupt();
+                connection.close();
                 logger.info("User disconnected: " + username);
-                broadcastMessage("[Server] " + username + " has left the chat 💔", false);
+                // Contacts and chat members learn about it through presence instead of a broadcast to everyone
+                if (presenceRegistered) presence.disconnected(userId);
             } catch (Exception e) {
                 logger.log(Level.SEVERE, "Error closing client connection.", e);
             }
         }
     }
 
+    /**
+     * Handles a protocol frame from the client. Malformed or failing frames are answered with an ERROR frame.
+     */
+    private void handleFrame(Frame frame) throws IOException {
+        if (isUserActivity(frame.command())) presence.activity(userId);
+        try {
+            switch (frame.command()) {
+                case Frame.SEND -> handleSend(frame);
+                case Frame.ACK -> handleAck(frame);
+                case Frame.READ -> handleRead(frame);
+                case Frame.TYPING -> presence.typing(userId, new ChatKey(ChatType.valueOf(frame.arg(0)), (int) frame.longArg(1)));
+                case Frame.UPLOAD -> handleUpload(frame.arg(0), frame.longArg(1));
+                case Frame.CHUNK -> handleChunk(frame);
+                case Frame.DOWNLOAD -> handleDownload(frame.arg(0), frame.longArg(1));
+                default -> send(Frame.of(Frame.ERROR, "Unexpected " + frame.command()));
+            }
+        } catch (IllegalArgumentException e) {
+            send(Frame.of(Frame.ERROR, "Malformed " + frame.command() + ": " + e.getMessage()));
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error handling " + frame.command() + " from " + username, e);
+            send(Frame.of(Frame.ERROR, frame.command() + " failed"));
+        }
+    }
+
+    /**
+     * Returns whether a frame is sent because of something the user did. ACKs and transfer chunks are sent by
+     * the client on its own, so they do not keep an idle user from being reported away.
+     */
+    static boolean isUserActivity(String command) {
+        return switch (command) {
+            case Frame.SEND, Frame.TYPING, Frame.READ, Frame.UPLOAD -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Handles a SEND frame. A keyed send is answered with SENT or REJECTED carrying its key, including when
+     * storing it fails, so the client always learns the outcome of the message it is holding as pending.
+     */
+    private void handleSend(Frame frame) throws SQLException {
+        ChatType chatType = ChatType.valueOf(frame.arg(0));
+        int chatId = (int) frame.longArg(1);
+        String content = frame.arg(2);
+        String key = frame.args().size() > 3 ? frame.arg(3) : null;
+        if (key != null && (key.isEmpty() || key.length() > MAX_SEND_KEY_LENGTH)) {
+            throw new IllegalArgumentException("Invalid send key");
+        }
+        try {
+            handleSend(chatType, chatId, content, key);
+        } catch (SQLException e) {
+            if (key == null) throw e;
+            logger.log(Level.SEVERE, "Error storing a message from " + username, e);
+            send(Frame.of(Frame.REJECTED, key, "SEND failed"));
+        }
+    }
+
+    /**
+     * Stores a message, queues it for every other member of the chat and delivers it to those connected.
+     * The message and its outbox entries are committed together, so no recipient can miss a stored message.
+     * A send whose key was already used is not stored again; the sender gets the message stored the first time.
+     */
+    private void handleSend(ChatType chatType, int chatId, String content, String key) throws SQLException {
+        ChatKey chat = new ChatKey(chatType, chatId);
+        Attachment attachment = Attachment.parse(content);
+        if (attachment != null && BlobStore.getInstance().size(attachment.hash()) != attachment.size()) {
+            reject(key, "Attachment " + attachment.name() + " was not uploaded");
+            return;
+        }
+        if (!memberChats.contains(chat)) {
+            if (!chatRepository.isMember(userId, chat)) {
+                reject(key, "Not a member of " + chatType + " " + chatId);
+                return;
+            }
+            memberChats.add(chat);
+        }
+
+        Message message = chatRepository.newMessage(chatType, chatId, userId, content);
+        Map<Integer, Long> recipients;
+        SendKeyRepository.Claimed earlier = null;
+        connection.setAutoCommit(false);
+        try {
+            if (key != null && !sendKeyRepository.claim(key, message)) {
+                // Resent after a lost confirmation; the first attempt is already stored and queued
+                connection.rollback();
+                earlier = sendKeyRepository.find(userId, key);
+                recipients = Map.of();
+            } else {
+                chatRepository.storeMessages(List.of(message));
+                recipients = outboxRepository.enqueue(message);
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        if (earlier != null) {
+            message = new Message(earlier.messageId(), chatType, chatId, userId, message.senderName(), content, earlier.sentAt());
+        }
+
+        send(Frame.sent(message, key));
+        if (recipients.isEmpty()) return;
+        for (ClientHandler handler : connectedHandlers()) {
+            Long seq = recipients.get(handler.userId);
+            if (seq != null) handler.deliver(seq, message);
+        }
+    }
+
+    private void reject(String key, String reason) {
+        send(key == null ? Frame.of(Frame.ERROR, reason) : Frame.of(Frame.REJECTED, key, reason));
+    }
+
+    /**
+     * Removes the acknowledged entries from the outbox in one statement and continues the replay once the
+     * current batch is fully acknowledged.
+     */
+    private void handleAck(Frame frame) throws SQLException {
+        List<Long> seqs = new ArrayList<>(frame.args().size());
+        for (int i = 0; i < frame.args().size(); i++) {
+            seqs.add(frame.longArg(i));
+        }
+        // Whatever the client acknowledged has been delivered to it
+        outboxRepository.acknowledge(userId, seqs).forEach((chat, messageId) ->
+                receipts.record(new Receipt(userId, chat, messageId, Receipt.NONE)));
+        synchronized (deliveryLock) {
+            for (long seq : seqs) {
+                if (sentSeqs.remove(seq) && replaying) replayUnacked--;
+            }
+            if (replaying && replayUnacked <= 0) replayNextBatch();
+        }
+    }
+
+    /**
+     * Starts or resumes an upload, telling the client where to continue. A file that is already stored is
+     * confirmed right away without transferring anything.
+     */
+    private void handleUpload(String hash, long size) throws IOException {
+        try {
+            sendUploadProgress(hash, BlobStore.getInstance().resumeOffset(hash, size), size);
+        } catch (IllegalArgumentException e) {
+            send(Frame.of(Frame.UPLOAD_AT, hash, -1));
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a chunk of an upload straight from the connection into the partial file. The chunk's bytes are
+     * consumed even when it is rejected, so the next frame is read from the right place.
+     */
+    private void handleChunk(Frame frame) throws IOException {
+        String hash;
+        long length;
+        try {
+            hash = frame.arg(0);
+            length = frame.longArg(3);
+        } catch (IllegalArgumentException e) {
+            // Without the length, the raw bytes that follow cannot be told apart from the next frame
+            throw new IOException("Malformed CHUNK from " + username + ", closing the connection", e);
+        }
+        long size, offset;
+        try {
+            size = frame.longArg(1);
+            offset = BlobStore.getInstance().writeChunk(hash, size, frame.longArg(2), length, input);
+        } catch (IllegalArgumentException e) {
+            input.skip(length);
+            send(Frame.of(Frame.UPLOAD_AT, hash, -1));
+            throw e;
+        } catch (BlobStore.CorruptUploadException e) {
+            logger.warning("Discarded corrupt upload " + hash + " from " + username);
+            send(Frame.of(Frame.UPLOAD_AT, hash, -1));
+            return;
+        }
+        sendUploadProgress(hash, offset, size);
+    }
+
+    private void sendUploadProgress(String hash, long offset, long size) {
+        send(offset == size ? Frame.of(Frame.UPLOADED, hash) : Frame.of(Frame.UPLOAD_AT, hash, offset));
+    }
+
+    /**
+     * Sends a blob from the given offset to its end in pieces of {@link #DOWNLOAD_CHUNK_BYTES}. Each piece is
+     * copied from the file to the socket by the operating system, without passing through the heap. Only one
+     * piece is queued at a time, so frames queued during a long download go out between its pieces.
+     */
+    private void handleDownload(String hash, long offset) throws IOException {
+        BlobStore blobs = BlobStore.getInstance();
+        long size = blobs.size(hash);
+        if (size < 0 || offset < 0 || offset > size) {
+            send(Frame.of(Frame.BLOB, hash, -1, offset, 0));
+            return;
+        }
+        WritableByteChannel target = clientSocket.getChannel() != null
+                ? clientSocket.getChannel()
+                : Channels.newChannel(clientSocket.getOutputStream());
+        enqueue(() -> writeBlobPiece(blobs, hash, size, offset, target));
+    }
+
+    /**
+     * Writes one piece of a download and queues the next. Runs on the writer thread, so nothing else is written
+     * between the BLOB header and its bytes.
+     */
+    private void writeBlobPiece(BlobStore blobs, String hash, long size, long at, WritableByteChannel target) throws IOException {
+        long length = Math.min(DOWNLOAD_CHUNK_BYTES, size - at);
+        // println flushes, so the header is on the wire before the bytes that follow it
+        output.println(Frame.of(Frame.BLOB, hash, size, at, length).encode());
+        blobs.transferTo(hash, at, length, target);
+        if (at + length < size) enqueue(() -> writeBlobPiece(blobs, hash, size, at + length, target));
+    }
+
+    /**
+     * Records the client's read marks. They are written with the next receipt flush; marks of chats the user is
+     * not a member of match no row and are dropped there.
+     */
+    private void handleRead(Frame frame) {
+        if (frame.args().isEmpty() || frame.args().size() % 3 != 0) {
+            throw new IllegalArgumentException("expected chat type, chat ID and message ID triples");
+        }
+        for (int i = 0; i < frame.args().size(); i += 3) {
+            ChatKey chat = new ChatKey(ChatType.valueOf(frame.arg(i)), (int) frame.longArg(i + 1));
+            long messageId = frame.longArg(i + 2);
+            receipts.record(new Receipt(userId, chat, messageId, messageId));
+        }
+    }
+
+    /**
+     * Sends the next batch of outbox entries. Live deliveries are held back until the outbox is drained, so the
+     * client sees its backlog in order. An entry skipped that way was committed before its delivery was attempted,
+     * and deliveries only run between batches, so the next batch's query picks it up. Each batch reads every
+     * unacknowledged entry not yet sent in this session rather than those after the last one sent, because
+     * transactions can commit out of sequence order and leave a lower seq behind. Must be called with the delivery
+     * lock held.
+     */
+    private void replayNextBatch() throws SQLException {
+        // Entries sent but not acknowledged come back too; asking for that many more still fills a batch
+        int limit = REPLAY_BATCH_SIZE + sentSeqs.size();
+        List<OutboxEntry> pending = outboxRepository.pending(userId, limit);
+        int sent = 0;
+        for (OutboxEntry entry : pending) {
+            if (sent == REPLAY_BATCH_SIZE) break;
+            if (!sentSeqs.add(entry.seq())) continue;
+            send(Frame.withMessage(Frame.MSG, entry.message(), entry.seq()));
+            sent++;
+        }
+        replayUnacked = sent;
+        if (pending.size() < limit) {
+            replaying = false;
+        }
+    }
+
+    /**
+     * Delivers an outbox entry to this client unless its backlog is still being replayed, in which case the
+     * replay sends it.
+     *
+     * @param seq the entry's outbox sequence number
+     * @param message the message
+     */
+    void deliver(long seq, Message message) {
+        synchronized (deliveryLock) {
+            if (replaying) return;
+            sentSeqs.add(seq);
+            send(Frame.withMessage(Frame.MSG, message, seq));
+        }
+    }
+
+    /**
+     * Sends a server-initiated frame, such as receipts or presence changes, to this client.
+     *
+     * @param frame the frame to send
+     */
+    void push(Frame frame) {
+        send(frame);
+    }
+
+    /**
+     * Returns the ID of the authenticated user, or -1 before login.
+     */
+    int userId() {
+        return userId;
+    }
+
+    private void send(Frame frame) {
+        enqueue(frame.encode());
+    }
+
+    private void enqueue(String line) {
+        enqueue(() -> output.println(line));
+    }
+
+    /**
+     * Queues a write for the writer thread. Never blocks; a client whose queue is full is disconnected instead.
+     */
+    private void enqueue(Write write) {
+        if (writes.size() >= MAX_QUEUED_WRITES) {
+            if (overflowed.compareAndSet(false, true)) {
+                logger.warning("Disconnecting " + username + ", who stopped reading");
+                try {
+                    // Ends the read loop, which cleans up
+                    clientSocket.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Error closing a stalled client.", e);
+                }
+            }
+            return;
+        }
+        writes.add(write);
+    }
+
+    /**
+     * Runs on the writer thread until the connection is closed, writing queued frames in order.
+     */
+    private void writeQueued() {
+        try {
+            while (true) {
+                writes.take().run();
+            }
+        } catch (InterruptedException e) {
+            // The connection was closed
+        } catch (IOException e) {
+            if (!clientSocket.isClosed()) logger.log(Level.WARNING, "Error writing to " + username, e);
+        }
+    }
+
+    /**
+     * Returns a copy of the connected handlers, so fan-out runs without holding the list's lock.
+     */
+    private List<ClientHandler> connectedHandlers() {
+        synchronized (clientHandlers) {
+            return new ArrayList<>(clientHandlers);
+        }
+    }
+
     /**
      * Broadcasts a message to all connected clients.
      * Optionally includes the sender in the broadcast.
@@ -120,11 +578,9 @@ public class ClientHandler implements Runnable {
      * @param includeSelf true to include the sender, false to exclude
      */
     private void broadcastMessage(String message, boolean includeSelf) {
-        synchronized (clientHandlers) {
-            for (ClientHandler handler : clientHandlers) {
-                if (!includeSelf && handler == this) continue;
-                handler.output.println(message);
-            }
+        for (ClientHandler handler : connectedHandlers()) {
+            if (!includeSelf && handler == this) continue;
+            handler.enqueue(message);
         }
         synchronized (messageHistory) {
             messageHistory.add(message); // Store the message in history
@@ -0,0 +1,258 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.Receipt;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One line of the chat protocol: a command followed by space-separated arguments. Spaces, line breaks and
+ * backslashes inside arguments are escaped, so any text fits in a single line.
+ *
+ * <p>Lines that do not start with a known command are legacy chat lines, which the server broadcasts as-is.
+ *
+ * @param command the command, one of the constants in this class
+ * @param args the unescaped arguments
+ */
+public record Frame(String command, List<String> args) {
+    /**
+     * Client to server: {@code SEND <chatType> <chatId> <content> [<key>]} stores and routes a message. A send
+     * repeated with the same key is stored only once.
+     */
+    public static final String SEND = "SEND";
+    /** Server to client: {@code SENT <message> [<key>]} confirms a stored message to its sender. */
+    public static final String SENT = "SENT";
+    /** Server to client: {@code REJECTED <key> <reason>} refuses the keyed send; it was not stored. */
+    public static final String REJECTED = "REJECTED";
+    /** Server to client: {@code MSG <seq> <message>} delivers an outbox entry. */
+    public static final String MSG = "MSG";
+    /** Client to server: {@code ACK <seq>...} acknowledges the listed outbox entries. */
+    public static final String ACK = "ACK";
+    /** Server to client: {@code ERROR <reason>} rejects the previous frame. */
+    public static final String ERROR = "ERROR";
+    /** Client to server: {@code READ <chatType> <chatId> <messageId>...} moves the sender's read marks forward. */
+    public static final String READ = "READ";
+    /** Server to client: {@code RECEIPT <receipt>...} reports other members' new delivery and read marks. */
+    public static final String RECEIPT = "RECEIPT";
+    /** Server to client: {@code PRESENCE <userId> <presence>...} reports users going online, away or offline. */
+    public static final String PRESENCE = "PRESENCE";
+    /**
+     * Client to server: {@code TYPING <chatType> <chatId>} announces typing. Server to client:
+     * {@code TYPING <chatType> <chatId> <userId> <ttlMillis>} forwards it to the other members.
+     */
+    public static final String TYPING = "TYPING";
+    /** Client to server: {@code UPLOAD <hash> <size>} starts or resumes an upload; answered with UPLOAD_AT or UPLOADED. */
+    public static final String UPLOAD = "UPLOAD";
+    /**
+     * Client to server: {@code CHUNK <hash> <size> <offset> <length>}, followed by exactly length raw bytes, writes
+     * part of an upload; answered with UPLOAD_AT or UPLOADED.
+     */
+    public static final String CHUNK = "CHUNK";
+    /**
+     * Server to client: {@code UPLOAD_AT <hash> <offset>} asks for the upload to continue at offset; a negative
+     * offset rejects the upload.
+     */
+    public static final String UPLOAD_AT = "UPLOAD_AT";
+    /** Server to client: {@code UPLOADED <hash>} confirms the blob is stored. */
+    public static final String UPLOADED = "UPLOADED";
+    /** Client to server: {@code DOWNLOAD <hash> <offset>} requests a blob from offset to its end. */
+    public static final String DOWNLOAD = "DOWNLOAD";
+    /**
+     * Server to client: {@code BLOB <hash> <size> <offset> <length>}, followed by exactly length raw bytes,
+     * carries part of a blob; a size of -1 means the blob does not exist.
+     */
+    public static final String BLOB = "BLOB";
+    /**
+     * Server to client: {@code RETRY_AFTER <millis>} announces that the server is closing the connection and asks
+     * the client to wait at least millis before reconnecting.
+     */
+    public static final String RETRY_AFTER = "RETRY_AFTER";
+
+    /**
+     * Server to client: {@code SESSION <token>} hands a session token to a client that logged in with its password;
+     * the client presents it instead of the password when it reconnects.
+     */
+    public static final String SESSION = "SESSION";
+
+    private static final Set<String> COMMANDS = Set.of(SESSION, SEND, SENT, REJECTED, MSG, ACK, ERROR, READ, RECEIPT, PRESENCE, TYPING,
+            UPLOAD, CHUNK, UPLOAD_AT, UPLOADED, DOWNLOAD, BLOB, RETRY_AFTER);
+
+    /** Number of arguments {@link #message(int)} reads. */
+    public static final int MESSAGE_ARGS = 7;
+    /** Number of arguments per receipt in a {@link #RECEIPT} frame. */
+    public static final int RECEIPT_ARGS = 5;
+
+    public Frame {
+        args = List.copyOf(args);
+    }
+
+    /**
+     * Creates a frame from a command and its arguments.
+     */
+    public static Frame of(String command, Object... args) {
+        List<String> values = new ArrayList<>(args.length);
+        for (Object arg : args) values.add(String.valueOf(arg));
+        return new Frame(command, values);
+    }
+
+    /**
+     * Creates a frame carrying a message after the given leading arguments.
+     */
+    public static Frame withMessage(String command, Message message, Object... leading) {
+        Object[] args = new Object[leading.length + MESSAGE_ARGS];
+        System.arraycopy(leading, 0, args, 0, leading.length);
+        int i = leading.length;
+        args[i] = message.id();
+        args[i + 1] = message.chatType();
+        args[i + 2] = message.chatId();
+        args[i + 3] = message.senderId();
+        args[i + 4] = message.sentAt().toEpochMilli();
+        args[i + 5] = message.senderName();
+        args[i + 6] = message.content();
+        return of(command, args);
+    }
+
+    /**
+     * Creates a {@link #SENT} frame confirming a message, followed by the key it was sent with, if any.
+     */
+    public static Frame sent(Message message, String key) {
+        Frame frame = withMessage(SENT, message);
+        if (key == null) return frame;
+        List<String> args = new ArrayList<>(frame.args());
+        args.add(key);
+        return new Frame(SENT, args);
+    }
+
+    /**
+     * Creates a {@link #RECEIPT} frame carrying all the given receipts.
+     */
+    public static Frame receipts(List<Receipt> receipts) {
+        List<String> args = new ArrayList<>(receipts.size() * RECEIPT_ARGS);
+        for (Receipt receipt : receipts) {
+            args.add(receipt.chat().type().name());
+            args.add(String.valueOf(receipt.chat().chatId()));
+            args.add(String.valueOf(receipt.userId()));
+            args.add(String.valueOf(receipt.deliveredId()));
+            args.add(String.valueOf(receipt.readId()));
+        }
+        return new Frame(RECEIPT, args);
+    }
+
+    /**
+     * Parses a protocol line.
+     *
+     * @param line the line as received
+     * @return the frame, or null if the line is a legacy chat line
+     */
+    public static Frame parse(String line) {
+        String[] parts = line.split(" ", -1);
+        if (!COMMANDS.contains(parts[0])) return null;
+        List<String> args = new ArrayList<>(parts.length - 1);
+        for (int i = 1; i < parts.length; i++) args.add(unescape(parts[i]));
+        return new Frame(parts[0], args);
+    }
+
+    /**
+     * Returns the frame as a single protocol line, without the line terminator.
+     */
+    public String encode() {
+        StringBuilder line = new StringBuilder(command);
+        for (String arg : args) line.append(' ').append(escape(arg));
+        return line.toString();
+    }
+
+    /**
+     * Returns the argument at the given index.
+     *
+     * @throws IllegalArgumentException if the frame has fewer arguments
+     */
+    public String arg(int index) {
+        if (index >= args.size()) throw new IllegalArgumentException(command + " is missing argument " + index);
+        return args.get(index);
+    }
+
+    /**
+     * Returns the argument at the given index as a number.
+     *
+     * @throws IllegalArgumentException if it is missing or not a number
+     */
+    public long longArg(int index) {
+        return Long.parseLong(arg(index));
+    }
+
+    /**
+     * Reads the message written by {@link #withMessage} starting at the given argument.
+     *
+     * @throws IllegalArgumentException if the arguments do not form a message
+     */
+    public Message message(int from) {
+        return new Message(
+                longArg(from),
+                ChatType.valueOf(arg(from + 1)),
+                (int) longArg(from + 2),
+                (int) longArg(from + 3),
+                arg(from + 5),
+                arg(from + 6),
+                Instant.ofEpochMilli(longArg(from + 4))
+        );
+    }
+
+    /**
+     * Reads the receipts written by {@link #receipts(List)}.
+     *
+     * @throws IllegalArgumentException if the arguments do not form receipts
+     */
+    public List<Receipt> receipts() {
+        if (args.size() % RECEIPT_ARGS != 0) throw new IllegalArgumentException(command + " has a partial receipt");
+        List<Receipt> receipts = new ArrayList<>(args.size() / RECEIPT_ARGS);
+        for (int i = 0; i < args.size(); i += RECEIPT_ARGS) {
+            receipts.add(new Receipt(
+                    (int) longArg(i + 2),
+                    new ChatKey(ChatType.valueOf(arg(i)), (int) longArg(i + 1)),
+                    longArg(i + 3),
+                    longArg(i + 4)
+            ));
+        }
+        return receipts;
+    }
+
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> escaped.append("\\\\");
+                case ' ' -> escaped.append("\\s");
+                case '\n' -> escaped.append("\\n");
+                case '\r' -> escaped.append("\\r");
+                default -> escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) return value;
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                unescaped.append(c);
+                continue;
+            }
+            char next = value.charAt(++i);
+            switch (next) {
+                case 's' -> unescaped.append(' ');
+                case 'n' -> unescaped.append('\n');
+                case 'r' -> unescaped.append('\r');
+                default -> unescaped.append(next);
+            }
+        }
+        return unescaped.toString();
+    }
+}
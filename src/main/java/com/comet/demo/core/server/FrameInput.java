@@ -0,0 +1,139 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.store.BlobStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads protocol lines and the raw bytes that follow binary frames from one connection. Unlike a
+ * {@link java.util.Scanner} or {@link java.io.BufferedReader}, it never buffers past what it hands out in a
+ * way the caller cannot reach, so a line announcing a chunk can be followed by the chunk's bytes.
+ *
+ * <p>Chunk bytes are written straight into a {@link FileChannel}: whatever is already buffered first, then the
+ * rest transferred from the socket channel when the connection has one.
+ */
+public class FrameInput implements BlobStore.ChunkSource {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final ReadableByteChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    /**
+     * Reads from a connected socket, using its channel for chunk transfers if it was opened through one.
+     */
+    public FrameInput(Socket socket) throws IOException {
+        this(socket.getInputStream(), socket.getChannel());
+    }
+
+    /**
+     * Reads from a stream, optionally transferring chunks from the channel the stream reads from.
+     *
+     * @param in the stream
+     * @param channel the same connection as a channel, or null to copy chunks through the buffer
+     */
+    public FrameInput(InputStream in, ReadableByteChannel channel) {
+        this.in = in;
+        this.channel = channel;
+    }
+
+    /**
+     * Reads one line, without its terminator.
+     *
+     * @return the line, or null at the end of the stream
+     * @throws IOException if reading fails
+     */
+    public String readLine() throws IOException {
+        ByteArrayOutputStream line = null;
+        while (true) {
+            if (position == limit && !fill()) {
+                return line == null ? null : decode(line.toByteArray(), line.size());
+            }
+            int start = position;
+            while (position < limit && buffer[position] != '\n') position++;
+            if (position < limit) {
+                // Found the end of the line inside the buffer
+                int end = position++;
+                if (line == null) return decode(buffer, start, end);
+                line.write(buffer, start, end - start);
+                return decode(line.toByteArray(), line.size());
+            }
+            if (line == null) line = new ByteArrayOutputStream();
+            line.write(buffer, start, position - start);
+        }
+    }
+
+    /**
+     * Returns whether a read would not block, i.e. more input is already buffered or available.
+     */
+    public boolean ready() throws IOException {
+        return position < limit || in.available() > 0;
+    }
+
+    @Override
+    public void transferTo(FileChannel target, long at, long length) throws IOException {
+        long remaining = length;
+        int buffered = (int) Math.min(limit - position, remaining);
+        if (buffered > 0) {
+            ByteBuffer bytes = ByteBuffer.wrap(buffer, position, buffered);
+            while (bytes.hasRemaining()) at += target.write(bytes, at);
+            position += buffered;
+            remaining -= buffered;
+        }
+        while (remaining > 0) {
+            long transferred;
+            if (channel != null) {
+                // A blocking channel only transfers nothing at the end of the stream
+                transferred = target.transferFrom(channel, at, remaining);
+            } else {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                transferred = Math.max(read, 0);
+                ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, (int) transferred);
+                long written = at;
+                while (bytes.hasRemaining()) written += target.write(bytes, written);
+            }
+            if (transferred == 0) throw new EOFException("Connection closed inside a chunk");
+            at += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    @Override
+    public void skip(long length) throws IOException {
+        long remaining = length;
+        while (remaining > 0) {
+            if (position == limit && !fill()) throw new EOFException("Connection closed inside a chunk");
+            int skipped = (int) Math.min(limit - position, remaining);
+            position += skipped;
+            remaining -= skipped;
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        if (read <= 0) return false;
+        position = 0;
+        limit = read;
+        return true;
+    }
+
+    private static String decode(byte[] bytes, int length) {
+        return decode(bytes, 0, length);
+    }
+
+    private static String decode(byte[] bytes, int start, int end) {
+        // Lines written by println on Windows end in \r\n
+        if (end > start && bytes[end - 1] == '\r') end--;
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
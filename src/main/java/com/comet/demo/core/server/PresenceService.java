@@ -0,0 +1,211 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.Presence;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks who is online, away or typing, in memory only. A user is online while connected and active, turns
+ * away after {@link #AWAY_AFTER_MILLIS} without activity, and is offline once the last connection closes.
+ *
+ * <p>Changes go only to the users who can see them: presence to the user's watchers (users listing them as a
+ * contact) and chat co-members, typing to the members of that chat. The audience is loaded when the user
+ * connects, so chats joined later are covered from the next connection. Typing is forwarded at most once per
+ * {@link #TYPING_INTERVAL_MILLIS} per user and chat; clients show it for {@link #TYPING_TTL_MILLIS} unless it
+ * is repeated, so no "stopped typing" event is needed.
+ */
+public class PresenceService {
+    /** Idle time after which an online user is reported as away. */
+    public static final long AWAY_AFTER_MILLIS = 5 * 60_000;
+    /** How long clients show a typing indicator. */
+    public static final long TYPING_TTL_MILLIS = 5_000;
+    /** Minimum time between two forwarded typing events of a user in one chat. */
+    public static final long TYPING_INTERVAL_MILLIS = 2_000;
+
+    /**
+     * Delivers a frame to the connected clients of the given users.
+     */
+    @FunctionalInterface
+    public interface FanOut {
+        void send(Collection<Integer> recipients, Frame frame);
+    }
+
+    /**
+     * Who a connecting user can see and who can see them.
+     *
+     * @param contacts the users in the user's contact list
+     * @param watchers the users listing the user as a contact
+     * @param chats the other members of each of the user's chats
+     */
+    public record Audience(Set<Integer> contacts, Set<Integer> watchers, Map<ChatKey, Set<Integer>> chats) {
+        Set<Integer> presenceRecipients() {
+            Set<Integer> recipients = new HashSet<>(watchers);
+            chats.values().forEach(recipients::addAll);
+            return recipients;
+        }
+
+        Set<Integer> visibleUsers() {
+            Set<Integer> visible = new HashSet<>(contacts);
+            chats.values().forEach(visible::addAll);
+            return visible;
+        }
+    }
+
+    private static final class Session {
+        final Audience audience;
+        int connections = 1;
+        Presence presence = Presence.ONLINE;
+        long lastActivity;
+        final Map<ChatKey, Long> lastTyping = new HashMap<>();
+
+        Session(Audience audience, long now) {
+            this.audience = audience;
+            this.lastActivity = now;
+        }
+    }
+
+    private final LongSupplier clock;
+    private final FanOut fanOut;
+    private final Map<Integer, Session> sessions = new HashMap<>();
+
+    /**
+     * Constructs a presence service.
+     *
+     * @param clock the current time in milliseconds
+     * @param fanOut delivers presence and typing frames
+     */
+    public PresenceService(LongSupplier clock, FanOut fanOut) {
+        this.clock = clock;
+        this.fanOut = fanOut;
+    }
+
+    /**
+     * Records a new connection of a user. The first connection announces the user as online and sends the
+     * user the presence of everyone they can see.
+     *
+     * @param userId the ID of the user
+     * @param audience who the user can see and who can see them
+     */
+    public void connected(int userId, Audience audience) {
+        Frame snapshot;
+        boolean announce;
+        synchronized (this) {
+            Session session = sessions.get(userId);
+            announce = session == null || session.presence != Presence.ONLINE;
+            if (session == null) {
+                sessions.put(userId, new Session(audience, clock.getAsLong()));
+            } else {
+                session.connections++;
+                session.presence = Presence.ONLINE;
+                session.lastActivity = clock.getAsLong();
+            }
+            List<Object> args = new ArrayList<>();
+            for (int visible : audience.visibleUsers()) {
+                Session other = sessions.get(visible);
+                if (other == null) continue;
+                args.add(visible);
+                args.add(other.presence);
+            }
+            snapshot = args.isEmpty() ? null : Frame.of(Frame.PRESENCE, args.toArray());
+        }
+        if (announce) announce(userId, Presence.ONLINE, audience);
+        if (snapshot != null) fanOut.send(List.of(userId), snapshot);
+    }
+
+    /**
+     * Records a closed connection. When it was the user's last, the user goes offline.
+     *
+     * @param userId the ID of the user
+     */
+    public void disconnected(int userId) {
+        Audience audience;
+        synchronized (this) {
+            Session session = sessions.get(userId);
+            if (session == null || --session.connections > 0) return;
+            sessions.remove(userId);
+            audience = session.audience;
+        }
+        announce(userId, Presence.OFFLINE, audience);
+    }
+
+    /**
+     * Records activity of a user, bringing them back from away.
+     *
+     * @param userId the ID of the user
+     */
+    public void activity(int userId) {
+        Audience audience;
+        synchronized (this) {
+            Session session = sessions.get(userId);
+            if (session == null) return;
+            session.lastActivity = clock.getAsLong();
+            if (session.presence == Presence.ONLINE) return;
+            session.presence = Presence.ONLINE;
+            audience = session.audience;
+        }
+        announce(userId, Presence.ONLINE, audience);
+    }
+
+    /**
+     * Forwards a typing event to the other members of the chat, unless the user is not known to be a member
+     * or already typed in that chat within the last {@link #TYPING_INTERVAL_MILLIS}.
+     *
+     * @param userId the ID of the typing user
+     * @param chat the chat being typed in
+     * @return true if the event was forwarded
+     */
+    public boolean typing(int userId, ChatKey chat) {
+        Set<Integer> members;
+        synchronized (this) {
+            Session session = sessions.get(userId);
+            if (session == null) return false;
+            members = session.audience.chats().get(chat);
+            if (members == null) return false;
+            long now = clock.getAsLong();
+            Long last = session.lastTyping.get(chat);
+            if (last != null && now - last < TYPING_INTERVAL_MILLIS) return false;
+            session.lastTyping.put(chat, now);
+        }
+        fanOut.send(members, Frame.of(Frame.TYPING, chat.type(), chat.chatId(), userId, TYPING_TTL_MILLIS));
+        return true;
+    }
+
+    /**
+     * Marks idle users as away and forgets typing state older than the rate limit. Call periodically.
+     */
+    public void sweep() {
+        Map<Integer, Audience> nowAway = new HashMap<>();
+        synchronized (this) {
+            long now = clock.getAsLong();
+            sessions.forEach((userId, session) -> {
+                session.lastTyping.values().removeIf(last -> now - last >= TYPING_INTERVAL_MILLIS);
+                if (session.presence == Presence.ONLINE && now - session.lastActivity >= AWAY_AFTER_MILLIS) {
+                    session.presence = Presence.AWAY;
+                    nowAway.put(userId, session.audience);
+                }
+            });
+        }
+        nowAway.forEach((userId, audience) -> announce(userId, Presence.AWAY, audience));
+    }
+
+    /**
+     * Returns the current presence of a user.
+     */
+    public synchronized Presence presenceOf(int userId) {
+        Session session = sessions.get(userId);
+        return session != null ? session.presence : Presence.OFFLINE;
+    }
+
+    private void announce(int userId, Presence presence, Audience audience) {
+        Set<Integer> recipients = audience.presenceRecipients();
+        if (!recipients.isEmpty()) fanOut.send(recipients, Frame.of(Frame.PRESENCE, userId, presence));
+    }
+}
@@ -0,0 +1,107 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.Receipt;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects delivery and read receipts in memory and writes them in batches. Receipts of the same member and
+ * chat merge into one pair of high-water marks between flushes, so a member reading a busy chat costs one row
+ * update per flush no matter how many messages they read. Each flush tells the other members of the affected
+ * chats about the new marks, one frame per recipient.
+ */
+public class ReceiptAggregator {
+    private static final Logger logger = Logger.getLogger(ReceiptAggregator.class.getName());
+
+    /**
+     * Persists merged receipts and returns the marks to push, by recipient ID.
+     */
+    @FunctionalInterface
+    public interface Store {
+        Map<Integer, List<Receipt>> save(Collection<Receipt> receipts) throws SQLException;
+    }
+
+    /**
+     * Pushes new marks to a connected recipient.
+     */
+    @FunctionalInterface
+    public interface Publisher {
+        void publish(int recipientId, List<Receipt> receipts);
+    }
+
+    private record Key(int userId, ChatKey chat) {}
+
+    private final Store store;
+    private final Publisher publisher;
+    private Map<Key, Receipt> pending = new HashMap<>();
+
+    /**
+     * Constructs an aggregator.
+     *
+     * @param store writes a batch of receipts
+     * @param publisher delivers the resulting marks to connected members
+     */
+    public ReceiptAggregator(Store store, Publisher publisher) {
+        this.store = store;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Returns an aggregator that drops every receipt, for handlers running without a server.
+     */
+    public static ReceiptAggregator discarding() {
+        return new ReceiptAggregator(receipts -> Map.of(), (recipientId, receipts) -> {}) {
+            @Override
+            public void record(Receipt receipt) {
+            }
+        };
+    }
+
+    /**
+     * Merges a receipt into the marks waiting for the next flush.
+     *
+     * @param receipt the member's new marks in a chat
+     */
+    public void record(Receipt receipt) {
+        synchronized (this) {
+            pending.merge(new Key(receipt.userId(), receipt.chat()), receipt, Receipt::merge);
+        }
+    }
+
+    /**
+     * Writes every waiting receipt in one batch and publishes the resulting marks. If the write fails the
+     * receipts are merged back, so they go out with the next flush.
+     *
+     * @return the number of receipts written
+     */
+    public int flush() {
+        Map<Key, Receipt> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) return 0;
+            batch = pending;
+            pending = new HashMap<>();
+        }
+
+        Map<Integer, List<Receipt>> notices;
+        try {
+            notices = store.save(batch.values());
+        } catch (SQLException e) {
+            logger.log(Level.WARNING, "[Receipts] Flush of " + batch.size() + " receipts failed; retrying later:", e);
+            synchronized (this) {
+                batch.forEach((key, receipt) -> pending.merge(key, receipt, Receipt::merge));
+            }
+            return 0;
+        }
+
+        notices.forEach(publisher::publish);
+        return batch.size();
+    }
+}
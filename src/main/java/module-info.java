@@ -14,6 +14,10 @@ module com.comet.demo {
 
     exports com.comet.controller;
     exports com.comet.db;
+    exports com.comet.db.cache;
+    exports com.comet.db.model;
+    exports com.comet.db.store;
+    exports com.comet.demo.core.auth;
     exports com.comet.demo.core.client;
     exports com.comet.demo.core.server;
     exports com.comet.demo;
@@ -0,0 +1,81 @@
+package com.comet.db;
+
+import org.junit.jupiter.api.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadRouterTest {
+    private final AtomicLong clock = new AtomicLong(1_000_000);
+    private final AtomicLong lag = new AtomicLong(0);
+    private final AtomicInteger probes = new AtomicInteger();
+
+    private ReadRouter router() {
+        return new ReadRouter(() -> {
+            probes.incrementAndGet();
+            return lag.get();
+        }, clock::get, 1000, 200, 500);
+    }
+
+    @Test
+    public void testUnwrittenScopesReadFromReplica() {
+        ReadRouter router = router();
+        assertTrue(router.useReplica(7));
+    }
+
+    @Test
+    public void testReadsStickToPrimaryAfterAWrite() {
+        ReadRouter router = router();
+        router.recordWrite(7);
+
+        assertFalse(router.useReplica(7));
+        assertTrue(router.useReplica(8), "other scopes are unaffected");
+        clock.addAndGet(201);
+        assertTrue(router.useReplica(7));
+    }
+
+    @Test
+    public void testStickinessCoversMeasuredLag() {
+        ReadRouter router = router();
+        lag.set(800);
+        router.recordWrite(7);
+
+        clock.addAndGet(300);
+        assertFalse(router.useReplica(7), "the replica is 800 ms behind, so the write is not there yet");
+        clock.addAndGet(600);
+        assertTrue(router.useReplica(7));
+    }
+
+    @Test
+    public void testLaggingOrUnreachableReplicaIsSkipped() {
+        ReadRouter router = router();
+        lag.set(5000);
+        assertFalse(router.useReplica(7));
+
+        lag.set(ReadRouter.UNREACHABLE);
+        clock.addAndGet(500);
+        assertFalse(router.useReplica(7));
+
+        lag.set(10);
+        clock.addAndGet(500);
+        assertTrue(router.useReplica(7));
+    }
+
+    @Test
+    public void testLagIsProbedOncePerInterval() {
+        ReadRouter router = router();
+        for (int i = 0; i < 10; i++) router.useReplica(i);
+        assertEquals(1, probes.get());
+
+        clock.addAndGet(500);
+        router.useReplica(1);
+        assertEquals(2, probes.get());
+    }
+
+    @Test
+    public void testPrimaryOnlyNeverUsesReplica() {
+        assertFalse(ReadRouter.primaryOnly().useReplica(7));
+    }
+}
@@ -0,0 +1,141 @@
+package com.comet.db.cache;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import org.junit.jupiter.api.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecentMessageCacheTest {
+    private static final ChatKey CHAT = new ChatKey(ChatType.GROUP, 1);
+    private static final ChatKey OTHER_CHAT = new ChatKey(ChatType.PRIVATE, 1);
+
+    private static Message message(ChatKey key, long id) {
+        return new Message(id, key.type(), key.chatId(), 7, "alice", "hello " + id, Instant.ofEpochSecond(id));
+    }
+
+    private static List<Message> messages(ChatKey key, int count) {
+        List<Message> page = new ArrayList<>();
+        for (int i = 1; i <= count; i++) page.add(message(key, i));
+        return page;
+    }
+
+    @Test
+    public void testAppendIgnoresRedeliveries() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, messages(CHAT, 3), true);
+        cache.append(message(CHAT, 4));
+        cache.append(message(CHAT, 4));
+        cache.append(message(CHAT, 2));
+
+        assertEquals(List.of(1L, 2L, 3L, 4L), cache.getLatest(CHAT, 10).stream().map(Message::id).toList());
+    }
+
+    @Test
+    public void testAppendOfMissingOlderMessageDropsTheChat() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, List.of(message(CHAT, 1), message(CHAT, 3)), true);
+        cache.append(message(CHAT, 2));
+
+        assertNull(cache.getLatest(CHAT, 1));
+    }
+
+    @Test
+    public void testPutLatestKeepsNewerAppends() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, messages(CHAT, 2), true);
+        cache.append(message(CHAT, 3));
+        // A page read before message 3 was stored
+        cache.putLatest(CHAT, messages(CHAT, 2), true);
+
+        assertEquals(List.of(1L, 2L, 3L), cache.getLatest(CHAT, 10).stream().map(Message::id).toList());
+    }
+
+    @Test
+    public void testInvalidateUnlessCachedDropsOnlyChatsMissingAMessage() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, List.of(message(CHAT, 1), message(CHAT, 3)), true);
+        cache.putLatest(OTHER_CHAT, messages(OTHER_CHAT, 2), true);
+
+        cache.invalidateUnlessCached(OTHER_CHAT, messages(OTHER_CHAT, 2));
+        cache.invalidateUnlessCached(CHAT, List.of(message(CHAT, 2), message(CHAT, 3)));
+
+        assertNotNull(cache.getLatest(OTHER_CHAT, 2));
+        assertNull(cache.getLatest(CHAT, 1));
+    }
+
+    @Test
+    public void testMissThenHit() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        assertNull(cache.getLatest(CHAT, 5));
+        cache.putLatest(CHAT, messages(CHAT, 10), false);
+
+        List<Message> page = cache.getLatest(CHAT, 5);
+        assertNotNull(page);
+        assertEquals(List.of(6L, 7L, 8L, 9L, 10L), page.stream().map(Message::id).toList());
+        assertEquals(1, cache.stats().hits());
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    public void testIncompleteChatMissesLargerPages() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, messages(CHAT, 3), false);
+        assertNull(cache.getLatest(CHAT, 5));
+
+        cache.putLatest(CHAT, messages(CHAT, 3), true);
+        assertEquals(3, cache.getLatest(CHAT, 5).size());
+    }
+
+    @Test
+    public void testAppendIsWriteThroughAndBounded() {
+        RecentMessageCache cache = new RecentMessageCache(3, Long.MAX_VALUE);
+        cache.putLatest(CHAT, messages(CHAT, 3), true);
+        cache.append(message(CHAT, 4));
+
+        assertEquals(List.of(2L, 3L, 4L), cache.getLatest(CHAT, 3).stream().map(Message::id).toList());
+        // The oldest message was trimmed, so the chat can no longer answer larger pages
+        assertNull(cache.getLatest(CHAT, 4));
+    }
+
+    @Test
+    public void testAppendIgnoresUncachedChats() {
+        RecentMessageCache cache = new RecentMessageCache(3, Long.MAX_VALUE);
+        cache.append(message(CHAT, 1));
+        assertNull(cache.getLatest(CHAT, 1));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedChatWhenOverBudget() {
+        RecentMessageCache budgetProbe = new RecentMessageCache(10, Long.MAX_VALUE);
+        budgetProbe.putLatest(CHAT, messages(CHAT, 5), true);
+        long oneChat = budgetProbe.stats().weightBytes();
+
+        RecentMessageCache cache = new RecentMessageCache(10, oneChat + oneChat / 2);
+        cache.putLatest(CHAT, messages(CHAT, 5), true);
+        cache.putLatest(OTHER_CHAT, messages(OTHER_CHAT, 5), true);
+
+        assertEquals(1, cache.stats().evictions());
+        assertNull(cache.getLatest(CHAT, 5));
+        assertNotNull(cache.getLatest(OTHER_CHAT, 5));
+    }
+
+    @Test
+    public void testInvalidateAndClear() {
+        RecentMessageCache cache = new RecentMessageCache(10, Long.MAX_VALUE);
+        cache.putLatest(CHAT, messages(CHAT, 2), true);
+        cache.putLatest(OTHER_CHAT, messages(OTHER_CHAT, 2), true);
+
+        cache.invalidate(CHAT);
+        assertNull(cache.getLatest(CHAT, 1));
+
+        cache.clear();
+        assertEquals(0, cache.stats().chats());
+        assertEquals(0, cache.stats().weightBytes());
+    }
+}
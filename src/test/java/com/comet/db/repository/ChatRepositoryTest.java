@@ -0,0 +1,157 @@
+package com.comet.db.repository;
+
+import com.comet.db.DatabaseManager;
+import com.comet.db.model.ChatDelta;
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.MessageChange;
+import com.comet.db.model.SearchHit;
+import com.comet.db.schema.SchemaInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs against the configured database and is skipped when none is reachable.
+ */
+public class ChatRepositoryTest {
+    private Connection connection;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        try {
+            connection = DatabaseManager.getInstance().getConnection();
+        } catch (SQLException | RuntimeException e) {
+            connection = null;
+        }
+        assumeTrue(connection != null, "No database available");
+        SchemaInitializer.init();
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        if (connection != null) connection.close();
+    }
+
+    private int createUser(String prefix) throws SQLException {
+        String username = prefix + "-" + System.nanoTime();
+        UserRepository users = new UserRepository(connection);
+        assertTrue(users.createUser(username, username, "secret"));
+        return users.getUserIdByUsername(username);
+    }
+
+    private static List<Long> ids(List<Message> messages) {
+        return messages.stream().map(Message::id).toList();
+    }
+
+    @Test
+    public void testSyncReturnsNewMessagesAndChangesSinceTheCursor() throws SQLException {
+        int alice = createUser("sync-a");
+        int bob = createUser("sync-b");
+        ChatRepository chats = new ChatRepository(connection);
+        ChatKey chat = new ChatKey(ChatType.PRIVATE, chats.getOrCreatePrivateChat(alice, bob));
+        Message first = chats.sendMessage(chat.type(), chat.chatId(), alice, "one");
+
+        ChatDelta initial = chats.syncMessages(chat, null, 0, 50);
+        assertTrue(initial.reset());
+        assertEquals(List.of(first.id()), ids(initial.messages()));
+
+        Message second = chats.sendMessage(chat.type(), chat.chatId(), bob, "two");
+        assertNull(chats.editMessage(first, bob, "not yours"));
+        MessageChange edit = chats.editMessage(first, alice, "one, edited");
+        assertNotNull(edit);
+
+        ChatDelta delta = chats.syncMessages(chat, first, initial.changeSeq(), 50);
+        assertFalse(delta.reset());
+        assertTrue(ids(delta.messages()).contains(second.id()));
+        assertEquals(List.of(edit), delta.changes());
+        assertEquals(edit.seq(), delta.changeSeq());
+
+        MessageChange deletion = chats.deleteMessage(second, bob);
+        ChatDelta afterDeletion = chats.syncMessages(chat, second, delta.changeSeq(), 50);
+        assertEquals(List.of(deletion), afterDeletion.changes());
+        assertTrue(deletion.isDeletion());
+        assertFalse(ids(chats.getLatestMessages(chat.type(), chat.chatId(), 50)).contains(second.id()));
+    }
+
+    @Test
+    public void testSyncPicksUpAMessageThatCommitsAfterANewerOne() throws SQLException {
+        int alice = createUser("late-a");
+        int bob = createUser("late-b");
+        ChatRepository chats = new ChatRepository(connection);
+        ChatKey chat = new ChatKey(ChatType.PRIVATE, chats.getOrCreatePrivateChat(alice, bob));
+        // Gets its ID first but is stored last, like a send whose transaction commits slowly
+        Message late = chats.newMessage(chat.type(), chat.chatId(), alice, "late");
+        Message newer = chats.sendMessage(chat.type(), chat.chatId(), bob, "newer");
+
+        ChatDelta initial = chats.syncMessages(chat, null, 0, 50);
+        assertEquals(List.of(newer.id()), ids(initial.messages()));
+
+        chats.storeMessages(List.of(late));
+        ChatDelta delta = chats.syncMessages(chat, newer, initial.changeSeq(), 50);
+        assertFalse(delta.reset());
+        assertTrue(ids(delta.messages()).contains(late.id()));
+    }
+
+    @Test
+    public void testMessageToChatWithOneselfUpdatesItsSummary() throws SQLException {
+        String username = "self-chat-" + System.nanoTime();
+        UserRepository users = new UserRepository(connection);
+        assertTrue(users.createUser(username, username, "secret"));
+        int userId = users.getUserIdByUsername(username);
+
+        ChatRepository chats = new ChatRepository(connection);
+        int chatId = chats.getOrCreatePrivateChat(userId, userId);
+        assertEquals(chatId, chats.getOrCreatePrivateChat(userId, userId));
+        Message message = chats.sendMessage(ChatType.PRIVATE, chatId, userId, "note to self");
+
+        ConversationSummary summary = chats.getConversationSummaries(userId).stream()
+                .filter(s -> s.chat().equals(new ChatKey(ChatType.PRIVATE, chatId)))
+                .findFirst()
+                .orElseThrow();
+        assertEquals(message.id(), summary.lastMessageId());
+        assertEquals("note to self", summary.lastMessagePreview());
+        assertEquals(0, summary.unreadCount());
+    }
+
+    @Test
+    public void testSearchFindsOnlyTheUsersChatsMostRelevantFirst() throws SQLException {
+        int alice = createUser("search-a");
+        int bob = createUser("search-b");
+        int carol = createUser("search-c");
+        ChatRepository chats = new ChatRepository(connection);
+        ChatKey shared = new ChatKey(ChatType.PRIVATE, chats.getOrCreatePrivateChat(alice, bob));
+        ChatKey others = new ChatKey(ChatType.PRIVATE, chats.getOrCreatePrivateChat(bob, carol));
+        // Unique per run, so messages of earlier runs never match
+        String word = "needle" + System.nanoTime();
+
+        Message best = chats.sendMessage(shared.type(), shared.chatId(), alice, word + " " + word + " " + word);
+        Message good = chats.sendMessage(shared.type(), shared.chatId(), bob, word + " " + word + " and more");
+        Message weak = chats.sendMessage(shared.type(), shared.chatId(), alice, "just one " + word + " among many other words");
+        Message hidden = chats.sendMessage(others.type(), others.chatId(), carol, word + " " + word + " " + word + " " + word);
+        chats.sendMessage(shared.type(), shared.chatId(), bob, "nothing to find here");
+
+        List<SearchHit> firstPage = chats.searchMessages(alice, word, 2, 0);
+        List<SearchHit> secondPage = chats.searchMessages(alice, word, 2, 2);
+        assertEquals(List.of(best.id(), good.id()), firstPage.stream().map(hit -> hit.message().id()).toList());
+        assertEquals(List.of(weak.id()), secondPage.stream().map(hit -> hit.message().id()).toList());
+        assertTrue(firstPage.get(0).rank() >= firstPage.get(1).rank());
+        assertTrue(firstPage.get(0).snippet().contains("[" + word + "]"));
+        assertEquals(shared, ChatKey.of(firstPage.get(0).message()));
+
+        // Carol's chat with Bob is searched by its members only
+        List<Long> bobHits = chats.searchMessages(bob, word, 10, 0).stream().map(hit -> hit.message().id()).toList();
+        assertEquals(4, bobHits.size());
+        assertTrue(bobHits.contains(hidden.id()));
+        assertTrue(chats.searchMessages(alice, word, 10, 0).stream().noneMatch(hit -> hit.message().id() == hidden.id()));
+    }
+}
@@ -0,0 +1,76 @@
+package com.comet.db.repository;
+
+import com.comet.db.DatabaseManager;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.OutboxEntry;
+import com.comet.db.schema.SchemaInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs against the configured database and is skipped when none is reachable.
+ */
+public class OutboxRepositoryTest {
+    private Connection connection;
+
+    @BeforeEach
+    public void setUp() throws SQLException {
+        try {
+            connection = DatabaseManager.getInstance().getConnection();
+        } catch (SQLException | RuntimeException e) {
+            connection = null;
+        }
+        assumeTrue(connection != null, "No database available");
+        SchemaInitializer.init();
+    }
+
+    @AfterEach
+    public void tearDown() throws SQLException {
+        if (connection != null) connection.close();
+    }
+
+    private int createUser(String prefix) throws SQLException {
+        String username = prefix + "-" + System.nanoTime();
+        UserRepository users = new UserRepository(connection);
+        assertTrue(users.createUser(username, username, "secret"));
+        return users.getUserIdByUsername(username);
+    }
+
+    @Test
+    public void testReplayReadsTheCurrentMessageAndSkipsDeletedOnes() throws SQLException {
+        int alice = createUser("outbox-a");
+        int bob = createUser("outbox-b");
+        ChatRepository chats = new ChatRepository(connection);
+        OutboxRepository outbox = new OutboxRepository(connection);
+        int chatId = chats.getOrCreatePrivateChat(alice, bob);
+
+        Message edited = chats.sendMessage(ChatType.PRIVATE, chatId, alice, "first");
+        Message deleted = chats.sendMessage(ChatType.PRIVATE, chatId, alice, "second");
+        Map<Integer, Long> editedSeqs = outbox.enqueue(edited);
+        outbox.enqueue(deleted);
+        // Queued for the other member only
+        assertEquals(Set.of(bob), editedSeqs.keySet());
+
+        chats.editMessage(edited, alice, "first, edited");
+        chats.deleteMessage(deleted, alice);
+
+        List<OutboxEntry> pending = outbox.pending(bob, 10);
+        assertEquals(1, pending.size());
+        assertEquals(editedSeqs.get(bob), pending.get(0).seq());
+        assertEquals(edited.id(), pending.get(0).message().id());
+        assertEquals("first, edited", pending.get(0).message().content());
+        assertEquals(alice, pending.get(0).message().senderId());
+        assertTrue(outbox.pending(alice, 10).isEmpty());
+    }
+}
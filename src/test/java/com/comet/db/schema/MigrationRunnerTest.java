@@ -0,0 +1,20 @@
+package com.comet.db.schema;
+
+import org.junit.jupiter.api.*;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MigrationRunnerTest {
+    @Test
+    public void testFindsOnlyTheIndexesAMigrationBuildsConcurrently() {
+        List<String> statements = List.of(
+                "CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_a ON t (a)",
+                "create unique index concurrently idx_b on t (b)",
+                "CREATE INDEX idx_c ON t (c)",
+                "ALTER TABLE t ADD COLUMN d INTEGER");
+
+        assertEquals(List.of("idx_a", "idx_b"), MigrationRunner.concurrentIndexNames(statements));
+    }
+}
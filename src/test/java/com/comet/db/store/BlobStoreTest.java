@@ -0,0 +1,136 @@
+package com.comet.db.store;
+
+import com.comet.demo.core.server.FrameInput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlobStoreTest {
+    @TempDir
+    Path dir;
+
+    private static FrameInput bytes(byte[] data) {
+        return new FrameInput(new ByteArrayInputStream(data), null);
+    }
+
+    private String hashOf(byte[] data) throws IOException {
+        Path file = Files.write(Files.createTempFile(dir, "blob", ".tmp"), data);
+        return BlobStore.hash(file);
+    }
+
+    @Test
+    public void testUploadInChunksStoresVerifiedBlob() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        byte[] data = "hello attachment world".getBytes(StandardCharsets.UTF_8);
+        String hash = hashOf(data);
+
+        assertEquals(0, store.resumeOffset(hash, data.length));
+        assertEquals(10, store.writeChunk(hash, data.length, 0, 10, bytes(Arrays.copyOfRange(data, 0, 10))));
+        assertFalse(store.exists(hash));
+        assertEquals(data.length, store.writeChunk(hash, data.length, 10, data.length - 10,
+                bytes(Arrays.copyOfRange(data, 10, data.length))));
+
+        assertTrue(store.exists(hash));
+        assertEquals(data.length, store.size(hash));
+        assertEquals(data.length, store.resumeOffset(hash, data.length));
+    }
+
+    @Test
+    public void testInterruptedUploadResumesAndSkipsMisplacedChunks() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        byte[] data = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+        String hash = hashOf(data);
+        store.writeChunk(hash, data.length, 0, 8, bytes(Arrays.copyOfRange(data, 0, 8)));
+
+        // A reopened store sees the partial upload
+        BlobStore reopened = new BlobStore(dir.resolve("store"), 1024);
+        assertEquals(8, reopened.resumeOffset(hash, data.length));
+
+        // A chunk that does not continue the partial file is consumed but not written
+        FrameInput misplaced = bytes("xxxx!".getBytes(StandardCharsets.UTF_8));
+        assertEquals(8, reopened.writeChunk(hash, data.length, 12, 4, misplaced));
+        assertEquals('!', misplaced.readLine().charAt(0));
+
+        assertEquals(data.length, reopened.writeChunk(hash, data.length, 8, 8, bytes(Arrays.copyOfRange(data, 8, 16))));
+        assertTrue(reopened.exists(hash));
+    }
+
+    @Test
+    public void testAbandonedUploadsAreRemoved() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        byte[] data = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+        String abandoned = hashOf(data);
+        String active = hashOf("fedcba9876543210".getBytes(StandardCharsets.UTF_8));
+        store.writeChunk(abandoned, data.length, 0, 8, bytes(Arrays.copyOfRange(data, 0, 8)));
+        store.writeChunk(active, data.length, 0, 4, bytes("fedc".getBytes(StandardCharsets.UTF_8)));
+        Files.setLastModifiedTime(dir.resolve("store/uploads/" + abandoned + ".part"),
+                FileTime.from(Instant.now().minus(Duration.ofDays(2))));
+
+        assertEquals(1, store.removeAbandonedUploads(Duration.ofDays(1)));
+        assertEquals(0, store.resumeOffset(abandoned, data.length));
+        assertEquals(4, store.resumeOffset(active, data.length));
+    }
+
+    @Test
+    public void testCorruptUploadIsDiscarded() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        String hash = hashOf("expected".getBytes(StandardCharsets.UTF_8));
+        byte[] wrong = "tampered".getBytes(StandardCharsets.UTF_8);
+
+        assertThrows(BlobStore.CorruptUploadException.class,
+                () -> store.writeChunk(hash, wrong.length, 0, wrong.length, bytes(wrong)));
+        assertFalse(store.exists(hash));
+        assertEquals(0, store.resumeOffset(hash, wrong.length));
+    }
+
+    @Test
+    public void testStoredBlobIsNotWrittenAgain() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        byte[] data = "same file".getBytes(StandardCharsets.UTF_8);
+        String hash = hashOf(data);
+        store.writeChunk(hash, data.length, 0, data.length, bytes(data));
+
+        FrameInput again = bytes("same file\nnext".getBytes(StandardCharsets.UTF_8));
+        assertEquals(data.length, store.writeChunk(hash, data.length, 0, data.length, again));
+        assertEquals("", again.readLine());
+        assertEquals("next", again.readLine());
+    }
+
+    @Test
+    public void testRejectsMalformedHashAndOversizedBlob() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 16);
+
+        assertThrows(IllegalArgumentException.class, () -> store.resumeOffset("../etc/passwd", 4));
+        assertThrows(IllegalArgumentException.class, () -> store.resumeOffset("a".repeat(64), 17));
+        assertEquals(-1, store.size("a".repeat(64)));
+    }
+
+    @Test
+    public void testTransferToCopiesRange() throws Exception {
+        BlobStore store = new BlobStore(dir.resolve("store"), 1024);
+        byte[] data = "0123456789".getBytes(StandardCharsets.UTF_8);
+        String hash = hashOf(data);
+        store.writeChunk(hash, data.length, 0, data.length, bytes(data));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(4, store.transferTo(hash, 3, 4, Channels.newChannel(out)));
+        assertEquals("3456", out.toString(StandardCharsets.UTF_8));
+
+        out.reset();
+        assertEquals(2, store.transferTo(hash, 8, 100, Channels.newChannel(out)));
+        assertEquals("89", out.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,121 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Contact;
+import com.comet.db.model.ConversationSummary;
+import com.comet.db.model.Message;
+import com.comet.db.model.Presence;
+import com.comet.db.model.UserProfile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LocalChatStoreTest {
+    @TempDir
+    Path dir;
+
+    private final Queue<Runnable> writes = new ArrayDeque<>();
+
+    private LocalChatStore open() {
+        return new LocalChatStore(dir, writes::add);
+    }
+
+    private void flush() {
+        while (!writes.isEmpty()) writes.poll().run();
+    }
+
+    private static Message message(long id, String content) {
+        return new Message(id, ChatType.GROUP, 3, 7, "alice", content, Instant.ofEpochSecond(1_700_000_000L + id, 5));
+    }
+
+    @Test
+    public void testSnapshotSurvivesRestart() {
+        LocalChatStore store = open();
+        assertEquals(LocalChatStore.Snapshot.EMPTY, store.loadSnapshot());
+
+        UserProfile profile = new UserProfile(1, "Me", null);
+        ConversationSummary summary = new ConversationSummary(new ChatKey(ChatType.GROUP, 3), "Team", 42, "hi",
+                Instant.ofEpochMilli(1_700_000_000_000L), 2);
+        store.saveProfile(profile);
+        store.saveContacts(List.of(new Contact(2, "Bob", "http://a/b.png", Presence.ONLINE)));
+        store.saveConversations(List.of(summary));
+        flush();
+
+        LocalChatStore.Snapshot restored = open().loadSnapshot();
+        assertEquals(profile, restored.profile());
+        // Presence is not persisted
+        assertEquals(List.of(new Contact(2, "Bob", "http://a/b.png", Presence.OFFLINE)), restored.contacts());
+        assertEquals(List.of(summary), restored.conversations());
+    }
+
+    @Test
+    public void testSnapshotKeepsOnlyMostRecentConversations() {
+        LocalChatStore store = open();
+        List<ConversationSummary> conversations = IntStream.range(0, LocalChatStore.MAX_CONVERSATIONS + 10)
+                .mapToObj(i -> new ConversationSummary(new ChatKey(ChatType.GROUP, i), "chat " + i, i, null, null, 0))
+                .toList();
+        store.saveConversations(conversations);
+        flush();
+
+        List<ConversationSummary> restored = open().loadSnapshot().conversations();
+        assertEquals(LocalChatStore.MAX_CONVERSATIONS, restored.size());
+        assertEquals(conversations.getFirst(), restored.getFirst());
+    }
+
+    @Test
+    public void testSavesOfOneFileAreCoalesced() {
+        LocalChatStore store = open();
+        ChatKey chat = new ChatKey(ChatType.GROUP, 3);
+        store.saveChat(chat, List.of(message(1, "one")), 0);
+        store.saveChat(chat, List.of(message(1, "one"), message(2, "two")), 5);
+
+        assertEquals(1, writes.size());
+        flush();
+        LocalChatStore.ChatPage page = open().loadChat(chat);
+        assertEquals(List.of(message(1, "one"), message(2, "two")), page.messages());
+        assertEquals(5, page.changeSeq());
+        assertNull(open().loadChat(new ChatKey(ChatType.PRIVATE, 3)));
+    }
+
+    @Test
+    public void testKeepsPagesOfMostRecentlySavedChats() throws Exception {
+        LocalChatStore store = open();
+        List<ChatKey> chats = new ArrayList<>();
+        for (int i = 0; i <= LocalChatStore.MAX_CACHED_CHATS; i++) {
+            ChatKey chat = new ChatKey(ChatType.GROUP, i);
+            chats.add(chat);
+            store.saveChat(chat, List.of(message(i + 1, "m")), 0);
+            flush();
+            // Distinct modification times, oldest first
+            Files.setLastModifiedTime(dir.resolve("chats").resolve("group-" + i + ".bin"),
+                    java.nio.file.attribute.FileTime.fromMillis(1_000_000L * (i + 1)));
+        }
+        store.saveChat(chats.getLast(), List.of(message(99, "again")), 0);
+        flush();
+
+        assertNull(store.loadChat(chats.getFirst()));
+        assertNotNull(store.loadChat(chats.get(1)));
+    }
+
+    @Test
+    public void testDamagedFilesReadAsEmpty() throws Exception {
+        Files.createDirectories(dir.resolve("chats"));
+        Files.write(dir.resolve("snapshot.bin"), new byte[]{1, 2, 3});
+        Files.write(dir.resolve("chats").resolve("group-3.bin"), new byte[]{0x43, 0x4d, 0x54, 0x53, 0, 0, 0, 1, 0});
+
+        LocalChatStore store = open();
+        assertEquals(LocalChatStore.Snapshot.EMPTY, store.loadSnapshot());
+        assertNull(store.loadChat(new ChatKey(ChatType.GROUP, 3)));
+    }
+}
@@ -0,0 +1,223 @@
+package com.comet.db.store;
+
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogMessageStoreTest {
+    @TempDir
+    Path dir;
+
+    private final SnowflakeIdGenerator ids = new SnowflakeIdGenerator(3);
+
+    private LogMessageStore open(long segmentBytes) throws IOException {
+        return new LogMessageStore(dir, segmentBytes);
+    }
+
+    private Message message(ChatType chatType, int chatId, String content) {
+        long id = ids.nextId();
+        return new Message(id, chatType, chatId, 7, "user7", content, SnowflakeIdGenerator.timestampOf(id));
+    }
+
+    private Message append(LogMessageStore store, ChatType chatType, int chatId, int senderId, String content) throws SQLException {
+        long id = ids.nextId();
+        Message message = new Message(id, chatType, chatId, senderId, "user" + senderId, content, SnowflakeIdGenerator.timestampOf(id));
+        store.insert(List.of(message));
+        return message;
+    }
+
+    private static List<String> contents(List<Message> messages) {
+        return messages.stream().map(Message::content).toList();
+    }
+
+    @Test
+    public void testLatestReturnsNewestPageOfOneChat() throws Exception {
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            for (int i = 1; i <= 5; i++) {
+                append(store, ChatType.GROUP, 1, 7, "group " + i);
+                append(store, ChatType.PRIVATE, 1, 8, "private " + i);
+            }
+
+            assertEquals(List.of("group 3", "group 4", "group 5"), contents(store.latest(ChatType.GROUP, 1, 3)));
+            List<Message> privatePage = store.latest(ChatType.PRIVATE, 1, 10);
+            assertEquals(5, privatePage.size());
+            assertEquals("user8", privatePage.get(0).senderName());
+            assertTrue(store.latest(ChatType.GROUP, 2, 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void testBeforePagesBackAcrossCheckpoints() throws Exception {
+        int total = LogMessageStore.CHECKPOINT_INTERVAL * 3 + 5;
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            for (int i = 0; i < total; i++) {
+                append(store, ChatType.GROUP, 1, 7, "m" + i);
+                append(store, ChatType.GROUP, 2, 7, "noise" + i);
+            }
+
+            // Walk the whole history back one page at a time
+            List<Message> page = store.latest(ChatType.GROUP, 1, 50);
+            int seen = page.size();
+            Message oldest = page.get(0);
+            while (true) {
+                page = store.before(ChatType.GROUP, 1, oldest, 50);
+                if (page.isEmpty()) break;
+                assertTrue(page.get(page.size() - 1).id() < oldest.id());
+                seen += page.size();
+                oldest = page.get(0);
+            }
+            assertEquals(total, seen);
+            assertEquals("m0", oldest.content());
+        }
+    }
+
+    @Test
+    public void testReopenRestoresIndexAndIds() throws Exception {
+        long lastId;
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            append(store, ChatType.PRIVATE, 3, 7, "first");
+            lastId = append(store, ChatType.PRIVATE, 3, 8, "second").id();
+        }
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            assertEquals(List.of("first", "second"), contents(store.latest(ChatType.PRIVATE, 3, 10)));
+            Message stale = new Message(lastId, ChatType.PRIVATE, 3, 7, "user7", "again", SnowflakeIdGenerator.timestampOf(lastId));
+            assertThrows(SQLException.class, () -> store.insert(List.of(stale)));
+            append(store, ChatType.PRIVATE, 3, 7, "third");
+            assertEquals(List.of("first", "second", "third"), contents(store.latest(ChatType.PRIVATE, 3, 10)));
+        }
+    }
+
+    @Test
+    public void testRollsOverToNewSegments() throws Exception {
+        try (LogMessageStore store = open(1024)) {
+            for (int i = 0; i < 100; i++) {
+                append(store, ChatType.GROUP, 1, 7, "message number " + i);
+            }
+        }
+        try (LogMessageStore store = open(1024)) {
+            List<Message> all = store.latest(ChatType.GROUP, 1, 1000);
+            assertEquals(100, all.size());
+            assertEquals("message number 99", all.get(99).content());
+        }
+        assertTrue(dir.resolve("segment-000001.log").toFile().exists());
+    }
+
+    @Test
+    public void testTornTailIsDiscardedOnReopen() throws Exception {
+        try (LogMessageStore store = open(4096)) {
+            append(store, ChatType.GROUP, 1, 7, "kept");
+            append(store, ChatType.GROUP, 1, 7, "torn");
+        }
+        // Corrupt the last byte of the second record's content
+        try (FileChannel channel = FileChannel.open(dir.resolve("segment-000000.log"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.read(header, 0);
+            int second = 8 + header.flip().getInt();
+            header.clear();
+            channel.read(header, second);
+            channel.write(ByteBuffer.wrap(new byte[]{'X'}), second + 8 + header.flip().getInt() - 1);
+        }
+        try (LogMessageStore store = open(4096)) {
+            assertEquals(List.of("kept"), contents(store.latest(ChatType.GROUP, 1, 10)));
+            append(store, ChatType.GROUP, 1, 7, "after");
+            assertEquals(List.of("kept", "after"), contents(store.latest(ChatType.GROUP, 1, 10)));
+        }
+    }
+
+    @Test
+    public void testBatchCutShortIsDiscardedWholeOnReopen() throws Exception {
+        try (LogMessageStore store = open(4096)) {
+            append(store, ChatType.GROUP, 1, 7, "kept");
+            store.insert(List.of(message(ChatType.GROUP, 1, "one"), message(ChatType.GROUP, 2, "two"), message(ChatType.GROUP, 1, "three")));
+        }
+        // Clear the length of the batch's last record, as if the process died right before writing it
+        try (FileChannel channel = FileChannel.open(dir.resolve("segment-000000.log"), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            int offset = 0;
+            for (int i = 0; i < 3; i++) {
+                ByteBuffer header = ByteBuffer.allocate(4);
+                channel.read(header, offset);
+                offset += 8 + Math.abs(header.flip().getInt());
+            }
+            channel.write(ByteBuffer.allocate(4), offset);
+        }
+        try (LogMessageStore store = open(4096)) {
+            assertEquals(List.of("kept"), contents(store.latest(ChatType.GROUP, 1, 10)));
+            assertTrue(store.latest(ChatType.GROUP, 2, 10).isEmpty());
+            append(store, ChatType.GROUP, 1, 7, "after");
+            assertEquals(List.of("kept", "after"), contents(store.latest(ChatType.GROUP, 1, 10)));
+        }
+    }
+
+    @Test
+    public void testRefusesASecondOpenOfTheSameDirectory() throws Exception {
+        try (LogMessageStore store = open(4096)) {
+            assertThrows(IOException.class, () -> open(4096));
+        }
+        // Closing released the lock
+        open(4096).close();
+    }
+
+    @Test
+    public void testRejectsMessagesLargerThanASegment() throws Exception {
+        try (LogMessageStore store = open(256)) {
+            assertThrows(SQLException.class, () -> append(store, ChatType.GROUP, 1, 7, "x".repeat(300)));
+        }
+    }
+
+    @Test
+    public void testInsertKeepsGeneratedIdsAndRejectsOlderOnes() throws Exception {
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            long first = ids.nextId();
+            long second = ids.nextId();
+            store.insert(List.of(
+                    new Message(first, ChatType.GROUP, 1, 7, "alice", "one", SnowflakeIdGenerator.timestampOf(first)),
+                    new Message(second, ChatType.GROUP, 1, 7, "alice", "two", SnowflakeIdGenerator.timestampOf(second))
+            ));
+
+            List<Message> page = store.latest(ChatType.GROUP, 1, 10);
+            assertEquals(List.of(first, second), page.stream().map(Message::id).toList());
+            assertEquals("alice", page.get(0).senderName());
+            Message stale = new Message(first, ChatType.GROUP, 1, 7, "alice", "again", SnowflakeIdGenerator.timestampOf(first));
+            assertThrows(SQLException.class, () -> store.insert(List.of(stale)));
+        }
+    }
+
+    @Test
+    public void testAfterReturnsOnlyNewerMessagesOfOneChat() throws Exception {
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            Message cursor = null;
+            for (int i = 1; i <= 5; i++) {
+                Message message = append(store, ChatType.GROUP, 1, 7, "group " + i);
+                append(store, ChatType.PRIVATE, 1, 8, "private " + i);
+                if (i == 2) cursor = message;
+            }
+
+            assertEquals(List.of("group 3", "group 4", "group 5"), contents(store.after(ChatType.GROUP, 1, cursor, 10)));
+            // Past the limit only the newest are returned, so a caller can tell it fell behind
+            assertEquals(List.of("group 4", "group 5"), contents(store.after(ChatType.GROUP, 1, cursor, 2)));
+            Message newest = store.latest(ChatType.GROUP, 1, 1).getFirst();
+            assertTrue(store.after(ChatType.GROUP, 1, newest, 10).isEmpty());
+        }
+    }
+
+    @Test
+    public void testRefusesToEditMessages() throws Exception {
+        try (LogMessageStore store = open(LogMessageStore.DEFAULT_SEGMENT_BYTES)) {
+            Message message = append(store, ChatType.GROUP, 1, 7, "kept");
+
+            assertThrows(SQLException.class, () -> store.update(message, "changed"));
+            assertEquals(List.of("kept"), contents(store.latest(ChatType.GROUP, 1, 10)));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.comet.db.store;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SnowflakeIdGeneratorTest {
+    private static final long NOW = Instant.parse("2026-03-01T12:00:00Z").toEpochMilli();
+
+    @Test
+    public void testIdsEncodeTimeAndNode() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(42, () -> NOW);
+        long id = generator.nextId();
+
+        assertTrue(id > 0);
+        assertEquals(Instant.ofEpochMilli(NOW), SnowflakeIdGenerator.timestampOf(id));
+        assertEquals(42, SnowflakeIdGenerator.nodeOf(id));
+    }
+
+    @Test
+    public void testIdsIncreaseWithinAndAcrossMilliseconds() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock::get);
+        long previous = generator.nextId();
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 1000 == 0) clock.incrementAndGet();
+            long next = generator.nextId();
+            assertTrue(next > previous);
+            previous = next;
+        }
+    }
+
+    @Test
+    public void testCounterOverflowBorrowsTheNextMillisecond() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, () -> NOW);
+        long last = 0;
+        for (int i = 0; i <= 1 << SnowflakeIdGenerator.SEQUENCE_BITS; i++) {
+            last = generator.nextId();
+        }
+        assertEquals(Instant.ofEpochMilli(NOW + 1), SnowflakeIdGenerator.timestampOf(last));
+    }
+
+    @Test
+    public void testClockSteppingBackKeepsOrder() {
+        AtomicLong clock = new AtomicLong(NOW);
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, clock::get);
+        long before = generator.nextId();
+        clock.set(NOW - 5_000);
+        long after = generator.nextId();
+
+        assertTrue(after > before);
+        assertEquals(Instant.ofEpochMilli(NOW), SnowflakeIdGenerator.timestampOf(after));
+    }
+
+    @Test
+    public void testFirstIdAtPrecedesEveryIdOfThatMillisecond() {
+        long first = SnowflakeIdGenerator.firstIdAt(Instant.ofEpochMilli(NOW));
+        long id = new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID, () -> NOW).nextId();
+
+        assertTrue(first <= id);
+        assertEquals(Instant.ofEpochMilli(NOW), SnowflakeIdGenerator.timestampOf(first));
+        assertTrue(first > new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID, () -> NOW - 1).nextId());
+    }
+
+    @Test
+    public void testRejectsNodeIdsOutOfRange() {
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(SnowflakeIdGenerator.MAX_NODE_ID + 1));
+        assertThrows(IllegalArgumentException.class, () -> new SnowflakeIdGenerator(-1));
+    }
+
+    @Test
+    public void testRetiredGeneratorStopsGenerating() {
+        SnowflakeIdGenerator generator = new SnowflakeIdGenerator(1, () -> NOW);
+        generator.nextId();
+        generator.retire();
+        assertThrows(IllegalStateException.class, generator::nextId);
+    }
+}
@@ -0,0 +1,78 @@
+package com.comet.demo.core.auth;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTokenServiceTest {
+    private static final byte[] SECRET = "test-secret".getBytes(StandardCharsets.UTF_8);
+    private static final Instant NOW = Instant.parse("2026-10-19T12:00:00Z");
+
+    private SessionTokenService service;
+
+    @BeforeEach
+    public void setUp() {
+        service = new SessionTokenService(SECRET, Duration.ofHours(1), Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void testIssueAndVerify() {
+        String token = service.issue(42, "comet|user");
+        assertTrue(SessionTokenService.isToken(token));
+
+        SessionToken session = service.verify(token);
+        assertNotNull(session);
+        assertEquals(42, session.userId());
+        assertEquals("comet|user", session.username());
+        assertEquals(NOW.plus(Duration.ofHours(1)), session.expiresAt());
+    }
+
+    @Test
+    public void testPasswordsAreNotTokens() {
+        assertFalse(SessionTokenService.isToken("hunter2"));
+        assertFalse(SessionTokenService.isToken(null));
+        assertNull(service.verify("hunter2"));
+        // Passwords that merely start like a token
+        assertFalse(SessionTokenService.isToken("v1.hunter.2"));
+        assertFalse(SessionTokenService.isToken("v1.my password.is long"));
+        assertNull(service.verify("v1.hunter.2"));
+    }
+
+    @Test
+    public void testTamperedTokenIsRejected() {
+        String token = service.issue(42, "alice");
+        String forged = token.substring(0, token.length() - 2) + (token.endsWith("A") ? "BB" : "AA");
+        assertNull(service.verify(forged));
+        assertNull(service.verify("v1.garbage.garbage"));
+    }
+
+    @Test
+    public void testTokenFromOtherSecretIsRejected() {
+        SessionTokenService other = new SessionTokenService(
+                "other".getBytes(StandardCharsets.UTF_8), Duration.ofHours(1), Clock.fixed(NOW, ZoneOffset.UTC));
+        assertNull(service.verify(other.issue(42, "alice")));
+    }
+
+    @Test
+    public void testExpiredTokenIsRejected() {
+        String token = service.issue(42, "alice");
+        SessionTokenService later = new SessionTokenService(
+                SECRET, Duration.ofHours(1), Clock.fixed(NOW.plus(Duration.ofHours(2)), ZoneOffset.UTC));
+        assertNull(later.verify(token));
+    }
+
+    @Test
+    public void testRevokedTokenIsRejected() {
+        String token = service.issue(42, "alice");
+        String otherToken = service.issue(42, "alice");
+        service.revoke(token);
+        assertNull(service.verify(token));
+        assertNotNull(service.verify(otherToken));
+    }
+}
@@ -0,0 +1,119 @@
+package com.comet.demo.core.client;
+
+import javafx.scene.image.Image;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AvatarCacheTest {
+    @TempDir
+    Path dir;
+
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private final AtomicInteger decodes = new AtomicInteger();
+
+    private static Image image(double width, double height) {
+        Image image = mock(Image.class);
+        when(image.getWidth()).thenReturn(width);
+        when(image.getHeight()).thenReturn(height);
+        return image;
+    }
+
+    private AvatarCache cache(long maxBytes) {
+        return new AvatarCache(dir, maxBytes, tasks::add,
+                (url, target) -> {
+                    fetches.incrementAndGet();
+                    Files.writeString(target, url);
+                },
+                (file, size) -> {
+                    decodes.incrementAndGet();
+                    return image(size, size);
+                });
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) tasks.poll().run();
+    }
+
+    @Test
+    public void testConcurrentLoadsShareOneFetch() throws Exception {
+        AvatarCache cache = cache(AvatarCache.DEFAULT_MAX_BYTES);
+
+        CompletableFuture<Image> first = cache.load("http://a/1.png", 24);
+        CompletableFuture<Image> second = cache.load("http://a/1.png", 24);
+        assertSame(first, second);
+        assertNull(cache.getIfPresent("http://a/1.png", 24));
+
+        runTasks();
+        assertSame(first.get(), cache.getIfPresent("http://a/1.png", 24));
+        assertEquals(1, fetches.get());
+        assertEquals(1, decodes.get());
+        assertTrue(cache.load("http://a/1.png", 24).isDone());
+    }
+
+    @Test
+    public void testOtherSizesDecodeFromDisk() throws Exception {
+        AvatarCache cache = cache(AvatarCache.DEFAULT_MAX_BYTES);
+        cache.load("http://a/1.png", 24);
+        runTasks();
+
+        cache.load("http://a/1.png", 64);
+        runTasks();
+        assertEquals(1, fetches.get());
+        assertEquals(2, decodes.get());
+        assertTrue(Files.isRegularFile(dir.resolve(AvatarCache.fileName("http://a/1.png"))));
+
+        // A new process finds the file on disk
+        AvatarCache restarted = cache(AvatarCache.DEFAULT_MAX_BYTES);
+        restarted.load("http://a/1.png", 24);
+        runTasks();
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBeyondMemoryBound() {
+        // Room for two 10x10 images
+        AvatarCache cache = cache(2 * 10 * 10 * 4);
+        cache.load("http://a/1.png", 10);
+        cache.load("http://a/2.png", 10);
+        runTasks();
+        cache.getIfPresent("http://a/1.png", 10);
+
+        cache.load("http://a/3.png", 10);
+        runTasks();
+        assertNotNull(cache.getIfPresent("http://a/1.png", 10));
+        assertNull(cache.getIfPresent("http://a/2.png", 10));
+        assertNotNull(cache.getIfPresent("http://a/3.png", 10));
+        assertEquals(2 * 10 * 10 * 4, cache.weightBytes());
+    }
+
+    @Test
+    public void testFailedUrlIsNotRetriedAtOnce() {
+        AvatarCache cache = new AvatarCache(dir, AvatarCache.DEFAULT_MAX_BYTES, tasks::add,
+                (url, target) -> {
+                    fetches.incrementAndGet();
+                    throw new IOException("unreachable");
+                },
+                (file, size) -> image(size, size));
+
+        CompletableFuture<Image> failed = cache.load("http://down/1.png", 24);
+        runTasks();
+        assertTrue(failed.isCompletedExceptionally());
+
+        assertTrue(cache.load("http://down/1.png", 24).isCompletedExceptionally());
+        assertTrue(tasks.isEmpty());
+        assertEquals(1, fetches.get());
+    }
+}
@@ -1,12 +1,27 @@
 package com.comet.demo.core.client;
 
+import com.comet.db.model.Attachment;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.store.BlobStore;
+import com.comet.demo.core.server.Frame;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -70,6 +85,146 @@ public class ChatClientTest {
         client.close();
     }
 
+    @Test
+    public void testDeliveredMessagesAreDedupedAndAcknowledged() throws Exception {
+        Message first = new Message(100L, ChatType.PRIVATE, 1, 2, "bob", "hi", Instant.ofEpochMilli(1_000));
+        Message second = new Message(101L, ChatType.PRIVATE, 1, 2, "bob", "still there?", Instant.ofEpochMilli(2_000));
+        Set<Long> acked = new HashSet<>();
+        Thread serverThread = new Thread(() -> {
+            try (Socket client = serverSocket.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                 PrintWriter out = new PrintWriter(client.getOutputStream(), false)) {
+                in.readLine();
+                in.readLine();
+                // The same message replayed and delivered live arrives under two outbox entries
+                out.println(Frame.withMessage(Frame.MSG, first, 5L).encode());
+                out.println(Frame.withMessage(Frame.MSG, first, 6L).encode());
+                out.println(Frame.withMessage(Frame.MSG, second, 7L).encode());
+                out.flush();
+                String line;
+                while (acked.size() < 3 && (line = in.readLine()) != null) {
+                    Frame ack = Frame.parse(line);
+                    assertEquals(Frame.ACK, ack.command());
+                    for (int i = 0; i < ack.args().size(); i++) acked.add(ack.longArg(i));
+                }
+            } catch (IOException e) {
+                fail(e);
+            } finally {
+                latch.countDown();
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        List<Message> delivered = new CopyOnWriteArrayList<>();
+        ChatClient client = new ChatClient("localhost", port, "testuser", "testpass", msg -> {});
+        client.setChatMessageHandler(delivered::add);
+        client.start();
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(Set.of(5L, 6L, 7L), acked);
+        assertEquals(List.of(first, second), delivered);
+        client.close();
+    }
+
+    @Test
+    public void testSendsArePipelinedAndSettledByKey() throws Exception {
+        Message stored = new Message(300L, ChatType.GROUP, 4, 1, "testuser", "second", Instant.ofEpochMilli(3_000));
+        Thread serverThread = new Thread(() -> {
+            try (Socket client = serverSocket.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                 PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
+                in.readLine();
+                in.readLine();
+                // Both sends arrive before either is answered
+                Frame first = Frame.parse(in.readLine());
+                Frame second = Frame.parse(in.readLine());
+                assertEquals(List.of("GROUP", "4", "first"), first.args().subList(0, 3));
+                assertNotEquals(first.arg(3), second.arg(3));
+                out.println(Frame.sent(stored, second.arg(3)).encode());
+                out.println(Frame.of(Frame.REJECTED, first.arg(3), "Not a member").encode());
+                in.readLine();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        List<Message> delivered = new CopyOnWriteArrayList<>();
+        ChatClient client = new ChatClient("localhost", port, "testuser", "token", msg -> {});
+        client.setChatMessageHandler(delivered::add);
+        client.start();
+        var first = client.sendChatMessage(ChatType.GROUP, 4, "first");
+        var second = client.sendChatMessage(ChatType.GROUP, 4, "second");
+
+        assertEquals(stored, second.get(2, TimeUnit.SECONDS));
+        var rejected = assertThrows(ExecutionException.class, () -> first.get(2, TimeUnit.SECONDS));
+        assertTrue(rejected.getCause().getMessage().contains("Not a member"));
+        assertEquals(List.of(stored), delivered);
+        client.close();
+    }
+
+    @Test
+    public void testUnconfirmedSendIsResentUnderTheSameKey() throws Exception {
+        List<String> sends = new CopyOnWriteArrayList<>();
+        Thread serverThread = new Thread(() -> {
+            try {
+                for (int connection = 0; connection < 2; connection++) {
+                    try (Socket client = serverSocket.accept();
+                         BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+                        in.readLine();
+                        in.readLine();
+                        // The connection drops before the send is confirmed
+                        sends.add(in.readLine());
+                    }
+                }
+                latch.countDown();
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        ChatClient client = new ChatClient("localhost", port, "testuser", "token", msg -> {},
+                new ReconnectBackoff(1, 10, new Random(1)));
+        client.start();
+        var result = client.sendChatMessage(ChatType.PRIVATE, 2, "hello");
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(2, sends.size());
+        assertEquals(sends.get(0), sends.get(1));
+        assertFalse(result.isDone());
+        client.close();
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testUnconfirmedSendFailsAfterTheTimeout() throws Exception {
+        Thread serverThread = new Thread(() -> {
+            try (Socket client = serverSocket.accept();
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+                // Reads everything and never confirms
+                while (in.readLine() != null) {
+                }
+            } catch (IOException e) {
+                // Closed by the client
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        ChatClient client = new ChatClient("localhost", port, "testuser", "token", msg -> {});
+        client.setSendTimeout(100);
+        client.start();
+        var result = client.sendChatMessage(ChatType.PRIVATE, 2, "hello");
+
+        var failure = assertThrows(ExecutionException.class, () -> result.get(2, TimeUnit.SECONDS));
+        assertTrue(failure.getCause().getMessage().contains("in time"));
+        client.close();
+    }
+
     @Test
     public void testConnectionFailure() {
         // Use a port that is not open
@@ -77,6 +232,107 @@ public class ChatClientTest {
         ChatClient client = new ChatClient("localhost", unusedPort, "u", "p", msg -> receivedMessages.add(msg));
         client.start();
         assertTrue(receivedMessages.stream().anyMatch(m -> m.contains("Failed to connect")));
+        client.close();
+    }
+
+    @Test
+    public void testReconnectsAfterTheRequestedDelay() throws Exception {
+        List<String> credentials = new CopyOnWriteArrayList<>();
+        long[] closedAt = new long[1];
+        long[] reconnectedAt = new long[1];
+        Thread serverThread = new Thread(() -> {
+            try {
+                try (Socket client = serverSocket.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                     PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
+                    credentials.add(in.readLine() + "/" + in.readLine());
+                    out.println(Frame.of(Frame.RETRY_AFTER, 200).encode());
+                    closedAt[0] = System.currentTimeMillis();
+                }
+                try (Socket client = serverSocket.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+                    reconnectedAt[0] = System.currentTimeMillis();
+                    credentials.add(in.readLine() + "/" + in.readLine());
+                    latch.countDown();
+                    in.readLine();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        List<Boolean> states = new CopyOnWriteArrayList<>();
+        ChatClient client = new ChatClient("localhost", port, "testuser", "token", msg -> {},
+                new ReconnectBackoff(1, 10, new Random(1)));
+        client.setConnectionHandler(states::add);
+        client.start();
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        assertEquals(List.of("testuser/token", "testuser/token"), credentials);
+        assertTrue(reconnectedAt[0] - closedAt[0] >= 200, "reconnected too early");
+        // The handler is called after the connection is back
+        Thread.sleep(100);
+        assertEquals(List.of(false, true), states);
+        client.close();
+    }
+
+    @Test
+    public void testReconnectsWithTheIssuedSessionToken() throws Exception {
+        List<String> credentials = new CopyOnWriteArrayList<>();
+        Thread serverThread = new Thread(() -> {
+            try {
+                try (Socket client = serverSocket.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
+                     PrintWriter out = new PrintWriter(client.getOutputStream(), true)) {
+                    credentials.add(in.readLine() + "/" + in.readLine());
+                    out.println(Frame.of(Frame.SESSION, "v1.issued").encode());
+                }
+                try (Socket client = serverSocket.accept();
+                     BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()))) {
+                    credentials.add(in.readLine() + "/" + in.readLine());
+                    latch.countDown();
+                    in.readLine();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+
+        ChatClient client = new ChatClient("localhost", port, "testuser", "hunter2", msg -> {},
+                new ReconnectBackoff(1, 10, new Random(1)));
+        client.start();
+
+        assertTrue(latch.await(2, TimeUnit.SECONDS));
+        // The password is sent once; the reconnect presents the token the server handed out
+        assertEquals(List.of("testuser/hunter2", "testuser/v1.issued"), credentials);
+        client.close();
+    }
+
+    @Test
+    public void testDownloadIsVerifiedAgainstItsHash(@TempDir Path dir) throws Exception {
+        byte[] expected = "attachment bytes".getBytes(StandardCharsets.UTF_8);
+        String hash = BlobStore.hash(Files.write(dir.resolve("original"), expected));
+        Attachment attachment = new Attachment(hash, expected.length, "file.txt");
+        ChatClient client = new ChatClient("localhost", port, "testuser", "hunter2", msg -> {});
+
+        // A complete partial file is verified without asking the server
+        Path damaged = dir.resolve("damaged.txt");
+        Files.write(dir.resolve("damaged.txt.part"), "attachment bytez".getBytes(StandardCharsets.UTF_8));
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> client.download(attachment, damaged).get(1, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, error.getCause());
+        assertFalse(Files.exists(damaged));
+        assertFalse(Files.exists(dir.resolve("damaged.txt.part")));
+
+        Path intact = dir.resolve("intact.txt");
+        Files.write(dir.resolve("intact.txt.part"), expected);
+        assertEquals(intact, client.download(attachment, intact).get(1, TimeUnit.SECONDS));
+        assertArrayEquals(expected, Files.readAllBytes(intact));
+        client.close();
     }
 
     @Test
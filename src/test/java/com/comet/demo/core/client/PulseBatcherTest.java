@@ -0,0 +1,52 @@
+package com.comet.demo.core.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PulseBatcherTest {
+    private final Queue<Runnable> frames = new ArrayDeque<>();
+    private final List<List<Integer>> batches = new ArrayList<>();
+
+    @Test
+    public void testBurstIsHandledInOneFrame() {
+        PulseBatcher<Integer> batcher = new PulseBatcher<>(10, batches::add, frames::add);
+        for (int i = 0; i < 5; i++) batcher.post(i);
+
+        assertEquals(1, frames.size());
+        assertTrue(batches.isEmpty());
+        frames.poll().run();
+        assertEquals(List.of(List.of(0, 1, 2, 3, 4)), batches);
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void testLongBurstIsSpreadOverFrames() {
+        PulseBatcher<Integer> batcher = new PulseBatcher<>(3, batches::add, frames::add);
+        for (int i = 0; i < 7; i++) batcher.post(i);
+
+        while (!frames.isEmpty()) frames.poll().run();
+        assertEquals(List.of(List.of(0, 1, 2), List.of(3, 4, 5), List.of(6)), batches);
+    }
+
+    @Test
+    public void testEventPostedWhileHandlingIsDeliveredNextFrame() {
+        List<PulseBatcher<Integer>> self = new ArrayList<>();
+        PulseBatcher<Integer> batcher = new PulseBatcher<>(10, batch -> {
+            batches.add(batch);
+            if (batch.contains(1)) self.getFirst().post(2);
+        }, frames::add);
+        self.add(batcher);
+        batcher.post(1);
+
+        frames.poll().run();
+        assertEquals(1, frames.size());
+        frames.poll().run();
+        assertEquals(List.of(List.of(1), List.of(2)), batches);
+    }
+}
@@ -0,0 +1,65 @@
+package com.comet.demo.core.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReconnectBackoffTest {
+    // Always draws the largest value allowed, so delays show their bounds
+    private static final RandomGenerator MAX = new RandomGenerator() {
+        @Override
+        public long nextLong() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long nextLong(long bound) {
+            return bound - 1;
+        }
+    };
+
+    @Test
+    public void testBoundGrowsExponentiallyUpToTheCap() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1_000, MAX);
+        assertEquals(100, backoff.nextDelay(0));
+        assertEquals(200, backoff.nextDelay(0));
+        assertEquals(400, backoff.nextDelay(0));
+        assertEquals(800, backoff.nextDelay(0));
+        assertEquals(1_000, backoff.nextDelay(0));
+        assertEquals(1_000, backoff.nextDelay(0));
+
+        backoff.reset();
+        assertEquals(100, backoff.nextDelay(0));
+    }
+
+    @Test
+    public void testDelaysAreSpreadBelowTheBound() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1_000, 1_000, new Random(7));
+        long min = Long.MAX_VALUE, max = 0;
+        for (int i = 0; i < 200; i++) {
+            long delay = backoff.nextDelay(0);
+            assertTrue(delay >= 0 && delay <= 1_000);
+            min = Math.min(min, delay);
+            max = Math.max(max, delay);
+        }
+        assertTrue(max - min > 500, "delays are not spread out");
+    }
+
+    @Test
+    public void testServerDelayIsAMinimum() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1_000, new Random(3));
+        for (int i = 0; i < 50; i++) {
+            long delay = backoff.nextDelay(5_000);
+            assertTrue(delay >= 5_000 && delay <= 6_250, "delay " + delay);
+        }
+    }
+
+    @Test
+    public void testAttemptsCanGoOnForever() {
+        ReconnectBackoff backoff = new ReconnectBackoff(1, Long.MAX_VALUE, MAX);
+        for (int i = 0; i < 100; i++) assertTrue(backoff.nextDelay(0) > 0);
+    }
+}
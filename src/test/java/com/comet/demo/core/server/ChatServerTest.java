@@ -1,7 +1,10 @@
 package com.comet.demo.core.server;
 
 import org.junit.jupiter.api.*;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
 import java.net.Socket;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -81,6 +84,44 @@ public class ChatServerTest {
         assertDoesNotThrow(() -> server.stop());
     }
 
+    @Test
+    public void testConnectionLimitCountsOnlyOpenConnections() throws Exception {
+        server = new ChatServer() {
+            @Override
+            Runnable newHandler(Socket clientSocket) {
+                return () -> {
+                    try (clientSocket) {
+                        new PrintWriter(clientSocket.getOutputStream(), true).println("welcome");
+                        // Served until the client disconnects
+                        while (clientSocket.getInputStream().read() != -1) {}
+                    } catch (IOException ignored) {}
+                };
+            }
+        };
+        server.setMaxConnections(1);
+        serverThread = new Thread(() -> server.start(testPort, testWsPort));
+        serverThread.setDaemon(true);
+        serverThread.start();
+        Thread.sleep(300);
+
+        Socket first = new Socket("localhost", testPort);
+        assertEquals("welcome", firstLine(first));
+        try (Socket turnedAway = new Socket("localhost", testPort)) {
+            assertEquals(Frame.RETRY_AFTER, Frame.parse(firstLine(turnedAway)).command());
+        }
+        first.close();
+        Thread.sleep(200);
+
+        try (Socket later = new Socket("localhost", testPort)) {
+            assertEquals("welcome", firstLine(later));
+        }
+    }
+
+    private static String firstLine(Socket socket) throws IOException {
+        socket.setSoTimeout(2_000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream())).readLine();
+    }
+
     @Test
     public void testStopWithoutStart() {
         assertDoesNotThrow(() -> server.stop());
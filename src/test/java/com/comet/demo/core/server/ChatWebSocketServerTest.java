@@ -1,5 +1,6 @@
 package com.comet.demo.core.server;
 
+import com.comet.demo.core.Protocol;
 import org.java_websocket.WebSocket;
 import org.java_websocket.handshake.ClientHandshake;
 import org.junit.jupiter.api.*;
@@ -43,6 +44,15 @@ public class ChatWebSocketServerTest {
         verify(mockConn, atLeastOnce()).send("refresh_chats");
     }
 
+    @Test
+    public void testOnMessageProfileUpdatedIsRelayed() {
+        WebSocket mockConn = mock(WebSocket.class);
+        server.onOpen(mockConn, mock(ClientHandshake.class));
+        server.onMessage(mockConn, Protocol.PROFILE_UPDATED_PREFIX + 42);
+        verify(mockConn, atLeastOnce()).send("profile_updated:42");
+        verify(mockConn, never()).send("refresh_chats");
+    }
+
     @Test
     public void testOnError() {
         WebSocket mockConn = mock(WebSocket.class);
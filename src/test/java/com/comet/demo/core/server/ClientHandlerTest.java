@@ -0,0 +1,19 @@
+package com.comet.demo.core.server;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClientHandlerTest {
+    @Test
+    public void testOnlyUserDrivenFramesCountAsActivity() {
+        assertTrue(ClientHandler.isUserActivity(Frame.SEND));
+        assertTrue(ClientHandler.isUserActivity(Frame.TYPING));
+        assertTrue(ClientHandler.isUserActivity(Frame.READ));
+        assertTrue(ClientHandler.isUserActivity(Frame.UPLOAD));
+        // Sent by the client on its own for every delivery
+        assertFalse(ClientHandler.isUserActivity(Frame.ACK));
+        assertFalse(ClientHandler.isUserActivity(Frame.CHUNK));
+        assertFalse(ClientHandler.isUserActivity(Frame.DOWNLOAD));
+    }
+}
@@ -0,0 +1,54 @@
+package com.comet.demo.core.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameInputTest {
+    @TempDir
+    Path dir;
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLinesAndChunksInterleave() throws Exception {
+        String stream = "CHUNK h 10 0 6\nab\ncd\r\nREAD GROUP 1 5\r\nrawXYZ";
+        for (boolean withChannel : new boolean[]{false, true}) {
+            ByteArrayInputStream bytes = new ByteArrayInputStream(utf8(stream));
+            FrameInput in = new FrameInput(bytes, withChannel ? Channels.newChannel(bytes) : null);
+            Path file = dir.resolve("chunk-" + withChannel);
+
+            assertEquals("CHUNK h 10 0 6", in.readLine());
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                in.transferTo(channel, 0, 6);
+            }
+            assertEquals("ab\ncd\r", Files.readString(file));
+            // The chunk ended before the line break that closes the raw line
+            assertEquals("", in.readLine());
+            assertEquals("READ GROUP 1 5", in.readLine());
+            in.skip(3);
+            assertEquals("XYZ", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testReadLineDecodesUtf8AcrossBufferBoundaries() throws Exception {
+        String line = "é".repeat(10_000);
+        FrameInput in = new FrameInput(new ByteArrayInputStream(utf8(line + "\n")), null);
+
+        assertEquals(line, in.readLine());
+        assertNull(in.readLine());
+    }
+}
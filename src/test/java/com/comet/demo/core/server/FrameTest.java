@@ -0,0 +1,78 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Message;
+import com.comet.db.model.Receipt;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameTest {
+    @Test
+    public void testArgumentsSurviveEscaping() {
+        Frame frame = Frame.of(Frame.SEND, ChatType.GROUP, 7, "two words\nand a \\ backslash\r");
+        String line = frame.encode();
+
+        assertFalse(line.contains("\n"));
+        assertEquals(4, line.split(" ").length);
+        assertEquals(frame, Frame.parse(line));
+    }
+
+    @Test
+    public void testEmptyArgumentIsKept() {
+        Frame parsed = Frame.parse(Frame.of(Frame.SEND, ChatType.PRIVATE, 1, "").encode());
+
+        assertEquals(List.of("PRIVATE", "1", ""), parsed.args());
+    }
+
+    @Test
+    public void testLegacyLineIsNotAFrame() {
+        assertNull(Frame.parse("alice: hello there"));
+        assertNull(Frame.parse("SENDING is not a command"));
+    }
+
+    @Test
+    public void testMessageRoundTrip() {
+        Message message = new Message(42L, ChatType.PRIVATE, 3, 9, "Ada Lovelace", "hi there", Instant.ofEpochMilli(1_700_000_000_000L));
+        Frame parsed = Frame.parse(Frame.withMessage(Frame.MSG, message, 17L).encode());
+
+        assertEquals(Frame.MSG, parsed.command());
+        assertEquals(17L, parsed.longArg(0));
+        assertEquals(message, parsed.message(1));
+    }
+
+    @Test
+    public void testSentCarriesTheSendKey() {
+        Message message = new Message(42L, ChatType.GROUP, 3, 9, "Ada", "hi", Instant.ofEpochMilli(1_700_000_000_000L));
+
+        Frame keyed = Frame.parse(Frame.sent(message, "k-1").encode());
+        assertEquals(message, keyed.message(0));
+        assertEquals("k-1", keyed.arg(Frame.MESSAGE_ARGS));
+        assertEquals(Frame.MESSAGE_ARGS, Frame.parse(Frame.sent(message, null).encode()).args().size());
+    }
+
+    @Test
+    public void testReceiptsRoundTrip() {
+        List<Receipt> receipts = List.of(
+                new Receipt(4, new ChatKey(ChatType.PRIVATE, 2), 50L, 40L),
+                new Receipt(5, new ChatKey(ChatType.GROUP, 8), 60L, Receipt.NONE));
+
+        Frame parsed = Frame.parse(Frame.receipts(receipts).encode());
+
+        assertEquals(Frame.RECEIPT, parsed.command());
+        assertEquals(receipts, parsed.receipts());
+        assertThrows(IllegalArgumentException.class, () -> Frame.parse("RECEIPT GROUP 8 5").receipts());
+    }
+
+    @Test
+    public void testMissingArgumentIsRejected() {
+        Frame frame = Frame.parse("ACK");
+
+        assertThrows(IllegalArgumentException.class, () -> frame.longArg(0));
+        assertThrows(IllegalArgumentException.class, () -> Frame.parse("ACK x").longArg(0));
+    }
+}
@@ -0,0 +1,106 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Presence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceServiceTest {
+    private static final ChatKey GROUP = new ChatKey(ChatType.GROUP, 7);
+
+    private record Sent(Set<Integer> recipients, Frame frame) {}
+
+    private long now = 1_000;
+    private final List<Sent> sent = new ArrayList<>();
+    private final PresenceService presence = new PresenceService(() -> now,
+            (Collection<Integer> recipients, Frame frame) -> sent.add(new Sent(Set.copyOf(recipients), frame)));
+
+    // User 1 is listed as a contact by user 2 and shares a group with users 3 and 4
+    private static PresenceService.Audience audienceOfUser1() {
+        return new PresenceService.Audience(Set.of(), Set.of(2), Map.of(GROUP, Set.of(3, 4)));
+    }
+
+    @Test
+    public void testPresenceGoesOnlyToWatchersAndCoMembers() {
+        presence.connected(1, audienceOfUser1());
+
+        assertEquals(List.of(new Sent(Set.of(2, 3, 4), Frame.of(Frame.PRESENCE, 1, Presence.ONLINE))), sent);
+        assertEquals(Presence.ONLINE, presence.presenceOf(1));
+    }
+
+    @Test
+    public void testConnectingUserReceivesSnapshotOfVisibleUsers() {
+        presence.connected(3, new PresenceService.Audience(Set.of(), Set.of(), Map.of(GROUP, Set.of(1, 4))));
+        sent.clear();
+
+        presence.connected(1, audienceOfUser1());
+
+        assertTrue(sent.contains(new Sent(Set.of(1), Frame.of(Frame.PRESENCE, 3, Presence.ONLINE))));
+    }
+
+    @Test
+    public void testOfflineOnlyAfterLastConnectionCloses() {
+        presence.connected(1, audienceOfUser1());
+        presence.connected(1, audienceOfUser1());
+        sent.clear();
+
+        presence.disconnected(1);
+        assertTrue(sent.isEmpty());
+        assertEquals(Presence.ONLINE, presence.presenceOf(1));
+
+        presence.disconnected(1);
+        assertEquals(List.of(new Sent(Set.of(2, 3, 4), Frame.of(Frame.PRESENCE, 1, Presence.OFFLINE))), sent);
+        assertEquals(Presence.OFFLINE, presence.presenceOf(1));
+    }
+
+    @Test
+    public void testIdleUserTurnsAwayAndActivityBringsThemBack() {
+        presence.connected(1, audienceOfUser1());
+        sent.clear();
+
+        now += PresenceService.AWAY_AFTER_MILLIS;
+        presence.sweep();
+        assertEquals(Presence.AWAY, presence.presenceOf(1));
+        assertEquals(Frame.of(Frame.PRESENCE, 1, Presence.AWAY), sent.getLast().frame());
+
+        presence.sweep();
+        assertEquals(1, sent.size());
+
+        presence.activity(1);
+        assertEquals(Presence.ONLINE, presence.presenceOf(1));
+        assertEquals(Frame.of(Frame.PRESENCE, 1, Presence.ONLINE), sent.getLast().frame());
+    }
+
+    @Test
+    public void testTypingIsRateLimitedPerChat() {
+        presence.connected(1, audienceOfUser1());
+        sent.clear();
+
+        assertTrue(presence.typing(1, GROUP));
+        assertEquals(new Sent(Set.of(3, 4), Frame.of(Frame.TYPING, ChatType.GROUP, 7, 1, PresenceService.TYPING_TTL_MILLIS)), sent.getLast());
+
+        now += PresenceService.TYPING_INTERVAL_MILLIS - 1;
+        assertFalse(presence.typing(1, GROUP));
+        now += 1;
+        assertTrue(presence.typing(1, GROUP));
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    public void testTypingInUnknownChatIsDropped() {
+        presence.connected(1, audienceOfUser1());
+        sent.clear();
+
+        assertFalse(presence.typing(1, new ChatKey(ChatType.GROUP, 99)));
+        assertFalse(presence.typing(5, GROUP));
+        assertTrue(sent.isEmpty());
+    }
+}
@@ -0,0 +1,77 @@
+package com.comet.demo.core.server;
+
+import com.comet.db.model.ChatKey;
+import com.comet.db.model.ChatType;
+import com.comet.db.model.Receipt;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReceiptAggregatorTest {
+    private static final ChatKey CHAT = new ChatKey(ChatType.GROUP, 3);
+
+    private final List<List<Receipt>> saved = new ArrayList<>();
+    private final Map<Integer, List<Receipt>> published = new HashMap<>();
+
+    @Test
+    public void testReceiptsOfOneMemberMergeIntoOneWrite() {
+        ReceiptAggregator aggregator = new ReceiptAggregator(receipts -> {
+            saved.add(List.copyOf(receipts));
+            return Map.of();
+        }, published::put);
+
+        aggregator.record(new Receipt(1, CHAT, 10, Receipt.NONE));
+        aggregator.record(new Receipt(1, CHAT, 30, Receipt.NONE));
+        aggregator.record(new Receipt(1, CHAT, 20, 20));
+        aggregator.record(new Receipt(2, CHAT, 15, Receipt.NONE));
+
+        assertEquals(2, aggregator.flush());
+        assertEquals(1, saved.size());
+        assertTrue(saved.getFirst().contains(new Receipt(1, CHAT, 30, 20)));
+        assertTrue(saved.getFirst().contains(new Receipt(2, CHAT, 15, Receipt.NONE)));
+        assertEquals(0, aggregator.flush());
+        assertEquals(1, saved.size());
+    }
+
+    @Test
+    public void testReadImpliesDelivered() {
+        Receipt merged = new Receipt(1, CHAT, 5, Receipt.NONE).merge(new Receipt(1, CHAT, Receipt.NONE, 9));
+
+        assertEquals(new Receipt(1, CHAT, 9, 9), merged);
+    }
+
+    @Test
+    public void testFlushPublishesToEachRecipient() {
+        Receipt reader = new Receipt(1, CHAT, 30, 30);
+        ReceiptAggregator aggregator = new ReceiptAggregator(receipts -> Map.of(2, List.of(reader), 3, List.of(reader)), published::put);
+
+        aggregator.record(reader);
+        aggregator.flush();
+
+        assertEquals(Map.of(2, List.of(reader), 3, List.of(reader)), published);
+    }
+
+    @Test
+    public void testFailedFlushKeepsReceiptsForTheNextOne() {
+        boolean[] fail = {true};
+        ReceiptAggregator aggregator = new ReceiptAggregator(receipts -> {
+            if (fail[0]) throw new SQLException("connection lost");
+            saved.add(List.copyOf(receipts));
+            return Map.of();
+        }, published::put);
+
+        aggregator.record(new Receipt(1, CHAT, 10, 10));
+        assertEquals(0, aggregator.flush());
+        aggregator.record(new Receipt(1, CHAT, 12, Receipt.NONE));
+        fail[0] = false;
+
+        assertEquals(1, aggregator.flush());
+        assertEquals(List.of(new Receipt(1, CHAT, 12, 10)), saved.getFirst());
+    }
+}